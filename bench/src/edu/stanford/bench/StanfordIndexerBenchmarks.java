@@ -0,0 +1,56 @@
+package edu.stanford.bench;
+
+import java.io.File;
+import java.util.*;
+
+import org.marc4j.marc.Record;
+import org.solrmarc.bench.*;
+import org.solrmarc.tools.SolrMarcIndexerException;
+
+import edu.stanford.StanfordIndexer;
+
+/**
+ * StanfordIndexer.createFldNames2ValsMap() with sw_index.properties over the
+ *  Stanford test records:  the whole per record cost of mapping a record to
+ *  its Solr fields.
+ */
+public class StanfordIndexerBenchmarks
+{
+    private StanfordIndexerBenchmarks()
+    {
+    }
+
+    public static List<Benchmark> getBenchmarks()
+    {
+        List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+        benchmarks.add(new ItemBenchmark<Record>("StanfordIndexerBenchmarks.createFldNames2ValsMap")
+        {
+            private StanfordIndexer indexer = null;
+
+            protected List<Record> loadItems()
+                    throws Exception
+            {
+                String propertyDirs[] = new String[]{"stanford-sw", "stanford-sw" + File.separator + "translation_maps",
+                                                     "core", "core" + File.separator + "translation_maps"};
+                indexer = new StanfordIndexer("sw_index.properties", propertyDirs);
+                setParam("specs", indexer.getIndexPlan().size());
+                return BenchmarkData.readRecords(BenchmarkData.SITE_TEST_DATA);
+            }
+
+            protected Object run(Record record)
+            {
+                try
+                {
+                    return indexer.createFldNames2ValsMap(record);
+                }
+                catch (SolrMarcIndexerException e)
+                {
+                    // record deleted or skipped by the index specifications
+                    return e;
+                }
+            }
+        });
+        return benchmarks;
+    }
+
+}
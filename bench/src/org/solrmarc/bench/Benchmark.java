@@ -0,0 +1,80 @@
+package org.solrmarc.bench;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A benchmark run by BenchmarkRunner:  setUp() is called once, then run() is
+ *  called over and over for the warmup and measurement iterations, and the
+ *  average time per operation is reported.  A call to run() can do several
+ *  operations (see getOpsPerInvocation()).
+ *
+ * run() returns the result of its work so the runner can consume it, and the
+ *  JIT can't discard the work as dead code.
+ */
+public abstract class Benchmark
+{
+    private final String name;
+    private final Map<String, String> params = new LinkedHashMap<String, String>();
+
+    /**
+     * @param name - the benchmark name, as group.method
+     */
+    protected Benchmark(String name)
+    {
+        this.name = name;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @return parameters written with the results, such as the number of
+     *   records in the data set, so results from different data can be told apart
+     */
+    public Map<String, String> getParams()
+    {
+        return params;
+    }
+
+    protected void setParam(String paramName, Object value)
+    {
+        params.put(paramName, String.valueOf(value));
+    }
+
+    /**
+     * @return the number of operations each call to run() does (as JMH's
+     *   OperationsPerInvocation), such as the number of records mapped
+     */
+    public int getOpsPerInvocation()
+    {
+        return 1;
+    }
+
+    /**
+     * @return the number of bytes of input each call to run() reads, to
+     *   report MB/second as well;  0 if the benchmark doesn't read bytes
+     */
+    public long getBytesPerInvocation()
+    {
+        return 0;
+    }
+
+    /**
+     * load the data for the benchmark;  called once, before the warmup iterations
+     */
+    public void setUp()
+            throws Exception
+    {
+    }
+
+    /**
+     * do getOpsPerInvocation() operations
+     * @return the result of the operations
+     */
+    public abstract Object run()
+            throws Exception;
+
+}
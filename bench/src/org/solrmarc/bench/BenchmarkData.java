@@ -0,0 +1,81 @@
+package org.solrmarc.bench;
+
+import java.io.*;
+import java.util.*;
+
+import org.marc4j.MarcPermissiveStreamReader;
+import org.marc4j.marc.Record;
+
+/**
+ * Loads the test data the benchmarks run over.  Paths are relative to the top
+ *  level directory, where the bench target runs the benchmarks.
+ */
+public class BenchmarkData
+{
+    public static final String CORE_TEST_DATA = "core" + File.separator + "test" + File.separator + "data";
+    public static final String SITE_TEST_DATA = "stanford-sw" + File.separator + "test" + File.separator + "data";
+
+    private BenchmarkData()
+    {
+    }
+
+    /**
+     * @return the .mrc files in the directory, sorted by name
+     */
+    public static List<File> getMarcFiles(String dirName)
+    {
+        List<File> result = new ArrayList<File>();
+        File files[] = new File(dirName).listFiles();
+        if (files == null)
+            throw new IllegalArgumentException("No test data directory " + dirName + " - run the benchmarks from the top level directory");
+        Arrays.sort(files);
+        for (File file : files)
+            if (file.getName().endsWith(".mrc"))
+                result.add(file);
+        return result;
+    }
+
+    /**
+     * @return the contents of the file
+     */
+    public static byte[] readBytes(File file)
+            throws IOException
+    {
+        byte result[] = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try
+        {
+            in.readFully(result);
+        }
+        finally
+        {
+            in.close();
+        }
+        return result;
+    }
+
+    /**
+     * @return the records in all the .mrc files in the directory, read as
+     *   the indexer reads them:  permissively, converting MARC8 to UTF-8
+     */
+    public static List<Record> readRecords(String dirName)
+            throws IOException
+    {
+        List<Record> records = new ArrayList<Record>();
+        for (File file : getMarcFiles(dirName))
+        {
+            MarcPermissiveStreamReader reader = new MarcPermissiveStreamReader(new ByteArrayInputStream(readBytes(file)), true, true, "MARC8");
+            try
+            {
+                while (reader.hasNext())
+                    records.add(reader.next());
+            }
+            catch (RuntimeException e)
+            {
+                // some of the test files are deliberately broken
+            }
+        }
+        return records;
+    }
+
+}
@@ -0,0 +1,396 @@
+package org.solrmarc.bench;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the indexing hot path benchmarks and writes the results as JSON, in
+ *  the layout JMH uses for its JSON results, so runs can be compared with the
+ *  usual JMH result tools.  Run it with ant bench, or from the top level
+ *  directory:
+ *
+ *   java -cp ... org.solrmarc.bench.BenchmarkRunner [options] [benchmark regex ...]
+ *
+ * Options, named as in JMH:
+ *   -wi n     warmup iterations (default 5)
+ *   -w secs   time for each warmup iteration (default 1)
+ *   -i n      measurement iterations (default 5)
+ *   -r secs   time for each measurement iteration (default 1)
+ *   -rff file JSON results file (default bench-results.json)
+ *   -l        list the benchmarks and exit
+ *
+ * Each benchmark runs in this JVM, one after another, on a single thread;
+ *  the score is the average time per operation (JMH's avgt mode).  Only the
+ *  benchmarks with a name matching one of the regular expressions are run.
+ */
+public class BenchmarkRunner
+{
+    /** classes with a static getBenchmarks() method returning their benchmarks */
+    private static final String BENCHMARK_GROUPS[] = {
+        "org.solrmarc.bench.ReaderBenchmarks",
+        "org.solrmarc.bench.CallNumBenchmarks",
+        "org.solrmarc.bench.FormatBenchmarks",
+        "org.solrmarc.bench.RemapBenchmarks",
+        "org.solrmarc.bench.MarcXmlBenchmarks",
+        "edu.stanford.bench.StanfordIndexerBenchmarks",
+    };
+
+    /** Student's t for a two sided 99.9% confidence interval, by degrees of freedom 1 - 30 */
+    private static final double T_999[] = {
+        Double.NaN, 636.619, 31.599, 12.924, 8.610, 6.869, 5.959, 5.408, 5.041, 4.781, 4.587,
+        4.437, 4.318, 4.221, 4.140, 4.073, 4.015, 3.965, 3.922, 3.883, 3.850,
+        3.819, 3.792, 3.768, 3.745, 3.725, 3.707, 3.690, 3.674, 3.659, 3.646
+    };
+
+    private int warmupIterations = 5;
+    private int warmupSecs = 1;
+    private int measurementIterations = 5;
+    private int measurementSecs = 1;
+    private String resultFileName = "bench-results.json";
+
+    /** results of the benchmarks are added into sink, which is published in
+     *  blackhole at the end, so the JIT can't discard the work */
+    private int sink = 0;
+    static volatile int blackhole = 0;
+
+    public static void main(String args[])
+            throws Exception
+    {
+        BenchmarkRunner runner = new BenchmarkRunner();
+        List<Pattern> includes = new ArrayList<Pattern>();
+        boolean listOnly = false;
+        for (int i = 0; i < args.length; i++)
+        {
+            String arg = args[i];
+            if (arg.equals("-l"))
+                listOnly = true;
+            else if (arg.startsWith("-") && i + 1 < args.length)
+            {
+                String value = args[++i];
+                if (arg.equals("-wi"))
+                    runner.warmupIterations = Integer.parseInt(value);
+                else if (arg.equals("-w"))
+                    runner.warmupSecs = Integer.parseInt(value);
+                else if (arg.equals("-i"))
+                    runner.measurementIterations = Integer.parseInt(value);
+                else if (arg.equals("-r"))
+                    runner.measurementSecs = Integer.parseInt(value);
+                else if (arg.equals("-rff"))
+                    runner.resultFileName = value;
+                else
+                    throw new IllegalArgumentException("Unknown option " + arg);
+            }
+            else if (arg.trim().length() > 0)
+                includes.add(Pattern.compile(arg));
+        }
+
+        List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+        for (Benchmark benchmark : getAllBenchmarks())
+            if (isIncluded(benchmark.getName(), includes))
+                benchmarks.add(benchmark);
+
+        if (listOnly)
+        {
+            for (Benchmark benchmark : benchmarks)
+                System.out.println(benchmark.getName());
+            return;
+        }
+        if (runner.measurementIterations < 1)
+            throw new IllegalArgumentException("-i must be at least 1");
+
+        boolean allRun = runner.runAll(benchmarks);
+        if (!allRun)
+            System.exit(1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Benchmark> getAllBenchmarks()
+            throws Exception
+    {
+        List<Benchmark> result = new ArrayList<Benchmark>();
+        for (String groupName : BENCHMARK_GROUPS)
+        {
+            Method getBenchmarks = Class.forName(groupName).getMethod("getBenchmarks");
+            result.addAll((List<Benchmark>) getBenchmarks.invoke(null));
+        }
+        return result;
+    }
+
+    private static boolean isIncluded(String name, List<Pattern> includes)
+    {
+        if (includes.isEmpty())
+            return true;
+        for (Pattern include : includes)
+            if (include.matcher(name).find())
+                return true;
+        return false;
+    }
+
+    /**
+     * run the benchmarks, print a summary table and write the JSON results file
+     * @return false if a benchmark failed
+     */
+    private boolean runAll(List<Benchmark> benchmarks)
+            throws IOException
+    {
+        List<Result> results = new ArrayList<Result>();
+        boolean allRun = true;
+        for (Benchmark benchmark : benchmarks)
+        {
+            try
+            {
+                results.add(run(benchmark));
+            }
+            catch (Exception e)
+            {
+                System.out.println("# " + benchmark.getName() + " failed: " + e);
+                e.printStackTrace(System.out);
+                allRun = false;
+            }
+            System.out.println();
+        }
+
+        System.out.println(String.format("%-50s %5s %4s %12s    %10s %6s", "Benchmark", "Mode", "Cnt", "Score", "Error", "Units"));
+        for (Result result : results)
+            System.out.println(String.format("%-50s %5s %4d %12.3f +- %10.3f %6s", result.benchmark.getName(), "avgt",
+                                             result.scores.length, result.getScore(), result.getScoreError(), "us/op"));
+
+        writeJson(results, new File(resultFileName));
+        System.out.println();
+        System.out.println("Results written to " + resultFileName);
+        blackhole = sink;
+        return allRun;
+    }
+
+    private Result run(Benchmark benchmark)
+            throws Exception
+    {
+        System.out.println("# Benchmark: " + benchmark.getName());
+        benchmark.setUp();
+        if (!benchmark.getParams().isEmpty())
+            System.out.println("# Parameters: " + benchmark.getParams());
+
+        for (int i = 1; i <= warmupIterations; i++)
+            System.out.println(String.format("# Warmup Iteration %3d: %.3f us/op", i, runIteration(benchmark, warmupSecs)));
+
+        Result result = new Result(benchmark, measurementIterations);
+        for (int i = 0; i < measurementIterations; i++)
+        {
+            // start each iteration from a collected heap, as JMH does
+            System.gc();
+            result.scores[i] = runIteration(benchmark, measurementSecs);
+            System.out.println(String.format("Iteration %3d: %.3f us/op", i + 1, result.scores[i]));
+        }
+
+        String line = String.format("Result \"%s\": %.3f +-(99.9%%) %.3f us/op", benchmark.getName(), result.getScore(), result.getScoreError());
+        if (benchmark.getBytesPerInvocation() > 0)
+            line += String.format(", %.1f MB/s", result.getMBPerSec());
+        System.out.println(line);
+        return result;
+    }
+
+    /**
+     * call the benchmark over and over for the given time;  at least once
+     * @return the average microseconds per operation
+     */
+    private double runIteration(Benchmark benchmark, int secs)
+            throws Exception
+    {
+        long ops = 0;
+        int opsPerInvocation = Math.max(1, benchmark.getOpsPerInvocation());
+        long start = System.nanoTime();
+        long deadline = start + secs * 1000000000L;
+        long now;
+        do
+        {
+            sink += System.identityHashCode(benchmark.run());
+            ops += opsPerInvocation;
+            now = System.nanoTime();
+        }
+        while (now < deadline);
+        return (now - start) / 1000.0 / ops;
+    }
+
+    /**
+     * the scores of the measurement iterations of one benchmark
+     */
+    private static class Result
+    {
+        private final Benchmark benchmark;
+        private final double scores[];
+
+        Result(Benchmark benchmark, int numIterations)
+        {
+            this.benchmark = benchmark;
+            this.scores = new double[numIterations];
+        }
+
+        double getScore()
+        {
+            double total = 0;
+            for (double score : scores)
+                total += score;
+            return total / scores.length;
+        }
+
+        /**
+         * @return half the width of the 99.9% confidence interval of the score;
+         *   NaN for a single iteration
+         */
+        double getScoreError()
+        {
+            int n = scores.length;
+            if (n < 2)
+                return Double.NaN;
+            double mean = getScore();
+            double sumSquares = 0;
+            for (double score : scores)
+                sumSquares += (score - mean) * (score - mean);
+            double stdDev = Math.sqrt(sumSquares / (n - 1));
+            return getT999(n - 1) * stdDev / Math.sqrt(n);
+        }
+
+        double getMBPerSec()
+        {
+            return getMBPerSec(getScore());
+        }
+
+        /**
+         * @return the MB/second read at the score's microseconds per operation
+         */
+        double getMBPerSec(double score)
+        {
+            double bytesPerOp = (double) benchmark.getBytesPerInvocation() / Math.max(1, benchmark.getOpsPerInvocation());
+            return bytesPerOp / score * 1000000.0 / (1024 * 1024);
+        }
+
+        private static double getT999(int degreesOfFreedom)
+        {
+            if (degreesOfFreedom < T_999.length)
+                return T_999[degreesOfFreedom];
+            if (degreesOfFreedom < 40)
+                return 3.551;
+            if (degreesOfFreedom < 60)
+                return 3.460;
+            if (degreesOfFreedom < 120)
+                return 3.373;
+            return 3.291;
+        }
+    }
+
+    private void writeJson(List<Result> results, File file)
+            throws IOException
+    {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null)
+            dir.mkdirs();
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try
+        {
+            String jvm = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+            out.println("[");
+            for (int r = 0; r < results.size(); r++)
+            {
+                Result result = results.get(r);
+                Benchmark benchmark = result.benchmark;
+                out.println("    {");
+                out.println("        \"benchmark\" : " + jsonString(benchmark.getClass().getPackage().getName() + "." + benchmark.getName()) + ",");
+                out.println("        \"mode\" : \"avgt\",");
+                out.println("        \"threads\" : 1,");
+                out.println("        \"forks\" : 0,");
+                out.println("        \"jvm\" : " + jsonString(jvm) + ",");
+                out.println("        \"jvmArgs\" : " + jsonStrings(ManagementFactory.getRuntimeMXBean().getInputArguments()) + ",");
+                out.println("        \"jdkVersion\" : " + jsonString(System.getProperty("java.version")) + ",");
+                out.println("        \"vmName\" : " + jsonString(System.getProperty("java.vm.name")) + ",");
+                out.println("        \"vmVersion\" : " + jsonString(System.getProperty("java.vm.version")) + ",");
+                out.println("        \"warmupIterations\" : " + warmupIterations + ",");
+                out.println("        \"warmupTime\" : \"" + warmupSecs + " s\",");
+                out.println("        \"warmupBatchSize\" : 1,");
+                out.println("        \"measurementIterations\" : " + measurementIterations + ",");
+                out.println("        \"measurementTime\" : \"" + measurementSecs + " s\",");
+                out.println("        \"measurementBatchSize\" : 1,");
+                out.print("        \"params\" : {");
+                int p = 0;
+                for (Map.Entry<String, String> param : benchmark.getParams().entrySet())
+                    out.print((p++ == 0 ? "" : ",") + "\n            " + jsonString(param.getKey()) + " : " + jsonString(param.getValue()));
+                out.println(p == 0 ? "}," : "\n        },");
+                out.println("        \"primaryMetric\" : " + jsonMetric(result.getScore(), result.getScoreError(), "us/op", result.scores, "        ") + ",");
+                out.print("        \"secondaryMetrics\" : {");
+                if (benchmark.getBytesPerInvocation() > 0)
+                {
+                    // MB/s for each iteration, from its time per operation
+                    double mbPerSec[] = new double[result.scores.length];
+                    for (int i = 0; i < mbPerSec.length; i++)
+                        mbPerSec[i] = result.getMBPerSec(result.scores[i]);
+                    double error = result.getScoreError() / result.getScore() * result.getMBPerSec();
+                    out.print("\n            \"MB/s\" : " + jsonMetric(result.getMBPerSec(), error, "MB/s", mbPerSec, "            ") + "\n        ");
+                }
+                out.println("}");
+                out.println("    }" + (r + 1 < results.size() ? "," : ""));
+            }
+            out.println("]");
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * @return a JMH metric object;  indent is the indent of the line it starts on
+     */
+    private static String jsonMetric(double score, double error, String unit, double rawData[], String indent)
+    {
+        String fieldIndent = indent + "    ";
+        StringBuilder buf = new StringBuilder();
+        buf.append("{\n");
+        buf.append(fieldIndent).append("\"score\" : ").append(jsonNumber(score)).append(",\n");
+        buf.append(fieldIndent).append("\"scoreError\" : ").append(jsonNumber(error)).append(",\n");
+        buf.append(fieldIndent).append("\"scoreConfidence\" : [ ").append(jsonNumber(score - error)).append(", ").append(jsonNumber(score + error)).append(" ],\n");
+        buf.append(fieldIndent).append("\"scoreUnit\" : ").append(jsonString(unit)).append(",\n");
+        buf.append(fieldIndent).append("\"rawData\" : [ [ ");
+        for (int i = 0; i < rawData.length; i++)
+            buf.append(i == 0 ? "" : ", ").append(jsonNumber(rawData[i]));
+        buf.append(" ] ]\n");
+        buf.append(indent).append("}");
+        return buf.toString();
+    }
+
+    /**
+     * @return the number as JSON;  NaN is written as the string "NaN", as JMH does
+     */
+    private static String jsonNumber(double value)
+    {
+        if (Double.isNaN(value) || Double.isInfinite(value))
+            return "\"" + value + "\"";
+        return String.valueOf(value);
+    }
+
+    private static String jsonStrings(List<String> values)
+    {
+        StringBuilder buf = new StringBuilder("[");
+        for (int i = 0; i < values.size(); i++)
+            buf.append(i == 0 ? " " : ", ").append(jsonString(values.get(i)));
+        return buf.append(values.isEmpty() ? "]" : " ]").toString();
+    }
+
+    private static String jsonString(String value)
+    {
+        StringBuilder buf = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\')
+                buf.append('\\').append(c);
+            else if (c < 0x20)
+                buf.append(String.format("\\u%04x", (int) c));
+            else
+                buf.append(c);
+        }
+        return buf.append('"').toString();
+    }
+
+}
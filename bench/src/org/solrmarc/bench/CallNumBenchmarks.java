@@ -0,0 +1,111 @@
+package org.solrmarc.bench;
+
+import java.io.IOException;
+import java.util.*;
+
+import org.marc4j.marc.*;
+import org.solrmarc.tools.CallNumUtils;
+
+/**
+ * Shelf key benchmarks:  CallNumUtils.getLCShelfkey(), getDeweyShelfKey() and
+ *  getReverseShelfKey(), over the call numbers in the 999 fields of the
+ *  Stanford test records.
+ */
+public class CallNumBenchmarks
+{
+    private static List<String> lcCallnums = null;
+    private static List<String> deweyCallnums = null;
+    private static List<String> lcShelfkeys = null;
+
+    private CallNumBenchmarks()
+    {
+    }
+
+    public static List<Benchmark> getBenchmarks()
+    {
+        List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+        benchmarks.add(new ItemBenchmark<String>("CallNumBenchmarks.lcShelfkey")
+        {
+            protected List<String> loadItems()
+                    throws IOException
+            {
+                loadCallnums();
+                return lcCallnums;
+            }
+
+            protected Object run(String callnum)
+            {
+                return CallNumUtils.getLCShelfkey(callnum, null);
+            }
+        });
+        benchmarks.add(new ItemBenchmark<String>("CallNumBenchmarks.deweyShelfKey")
+        {
+            protected List<String> loadItems()
+                    throws IOException
+            {
+                loadCallnums();
+                return deweyCallnums;
+            }
+
+            protected Object run(String callnum)
+            {
+                return CallNumUtils.getDeweyShelfKey(callnum);
+            }
+        });
+        benchmarks.add(new ItemBenchmark<String>("CallNumBenchmarks.reverseShelfKey")
+        {
+            protected List<String> loadItems()
+                    throws IOException
+            {
+                loadCallnums();
+                return lcShelfkeys;
+            }
+
+            protected Object run(String shelfkey)
+            {
+                return CallNumUtils.getReverseShelfKey(shelfkey);
+            }
+        });
+        return benchmarks;
+    }
+
+    /**
+     * collect the valid LC and Dewey call numbers from the 999 fields, and
+     *  the LC shelf keys to reverse
+     */
+    private static synchronized void loadCallnums()
+            throws IOException
+    {
+        if (lcCallnums != null)
+            return;
+
+        List<String> lc = new ArrayList<String>();
+        List<String> dewey = new ArrayList<String>();
+        for (Record record : BenchmarkData.readRecords(BenchmarkData.SITE_TEST_DATA))
+        {
+            for (VariableField vf : record.getVariableFields("999"))
+            {
+                DataField df = (DataField) vf;
+                Subfield callnumSub = df.getSubfield('a');
+                Subfield schemeSub = df.getSubfield('w');
+                if (callnumSub == null || schemeSub == null)
+                    continue;
+                String callnum = callnumSub.getData().trim();
+                String scheme = schemeSub.getData().trim();
+                if (scheme.startsWith("LC") && CallNumUtils.isValidLC(callnum))
+                    lc.add(callnum);
+                else if (scheme.startsWith("DEWEY") && CallNumUtils.isValidDeweyWithCutter(callnum))
+                    dewey.add(callnum);
+            }
+        }
+
+        List<String> shelfkeys = new ArrayList<String>();
+        for (String callnum : lc)
+            shelfkeys.add(CallNumUtils.getLCShelfkey(callnum, null));
+
+        lcCallnums = lc;
+        deweyCallnums = dewey;
+        lcShelfkeys = shelfkeys;
+    }
+
+}
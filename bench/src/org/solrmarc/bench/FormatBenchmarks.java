@@ -0,0 +1,44 @@
+package org.solrmarc.bench;
+
+import java.util.*;
+
+import org.marc4j.marc.Record;
+import org.solrmarc.index.GetFormatMixin;
+import org.solrmarc.index.SolrIndexer;
+
+/**
+ * GetFormatMixin.getContentTypesAndMediaTypes() over the core format test
+ *  records and the Stanford test records.
+ */
+public class FormatBenchmarks
+{
+    private FormatBenchmarks()
+    {
+    }
+
+    public static List<Benchmark> getBenchmarks()
+    {
+        List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+        benchmarks.add(new ItemBenchmark<Record>("FormatBenchmarks.contentTypesAndMediaTypes")
+        {
+            private GetFormatMixin mixin = new GetFormatMixin();
+
+            protected List<Record> loadItems()
+                    throws Exception
+            {
+                // the online types come from the main indexer's full text urls
+                mixin.setMainIndexer(SolrIndexer.indexerFromProperties(new Properties(), new String[0]));
+                List<Record> records = BenchmarkData.readRecords(BenchmarkData.CORE_TEST_DATA);
+                records.addAll(BenchmarkData.readRecords(BenchmarkData.SITE_TEST_DATA));
+                return records;
+            }
+
+            protected Object run(Record record)
+            {
+                return mixin.getContentTypesAndMediaTypes(record);
+            }
+        });
+        return benchmarks;
+    }
+
+}
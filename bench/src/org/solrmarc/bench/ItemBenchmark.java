@@ -0,0 +1,55 @@
+package org.solrmarc.bench;
+
+import java.util.List;
+
+/**
+ * A benchmark whose operation is applied to each item of a data set (a record,
+ *  a call number ...) in turn.  Each call to run() goes through the whole data
+ *  set, so the score is the average over all the items, however much the time
+ *  for each item varies.
+ */
+public abstract class ItemBenchmark<T> extends Benchmark
+{
+    private List<T> items = null;
+
+    protected ItemBenchmark(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * @return the data set;  loaded once, by setUp()
+     */
+    protected abstract List<T> loadItems()
+            throws Exception;
+
+    /**
+     * do the operation on one item
+     */
+    protected abstract Object run(T item)
+            throws Exception;
+
+    public void setUp()
+            throws Exception
+    {
+        items = loadItems();
+        if (items.isEmpty())
+            throw new IllegalStateException("No data for benchmark " + getName());
+        setParam("items", items.size());
+    }
+
+    public int getOpsPerInvocation()
+    {
+        return items.size();
+    }
+
+    public Object run()
+            throws Exception
+    {
+        int hash = 0;
+        for (T item : items)
+            hash += System.identityHashCode(run(item));
+        return Integer.valueOf(hash);
+    }
+
+}
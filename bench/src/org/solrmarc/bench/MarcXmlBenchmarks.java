@@ -0,0 +1,56 @@
+package org.solrmarc.bench;
+
+import java.util.*;
+
+import org.marc4j.marc.Record;
+import org.solrmarc.tools.MarcXmlSerializer;
+
+/**
+ * Writing the stored marcxml field over the core test records:  with
+ *  MarcXmlSerializer, and with marc4j's MarcXmlWriter (the path
+ *  MarcUtils.getRecordAsMarcXmlStr() used to take).  The two must write the
+ *  same XML for every record, or the benchmarks don't run.
+ */
+public class MarcXmlBenchmarks
+{
+    private MarcXmlBenchmarks()
+    {
+    }
+
+    public static List<Benchmark> getBenchmarks()
+    {
+        List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+        benchmarks.add(new MarcXmlBenchmark("MarcXmlBenchmarks.marcXmlWriter", false));
+        benchmarks.add(new MarcXmlBenchmark("MarcXmlBenchmarks.serializer", true));
+        return benchmarks;
+    }
+
+    private static class MarcXmlBenchmark extends ItemBenchmark<Record>
+    {
+        private final boolean useSerializer;
+
+        MarcXmlBenchmark(String name, boolean useSerializer)
+        {
+            super(name);
+            this.useSerializer = useSerializer;
+        }
+
+        protected List<Record> loadItems()
+                throws Exception
+        {
+            List<Record> records = BenchmarkData.readRecords(BenchmarkData.CORE_TEST_DATA);
+            for (Record record : records)
+            {
+                if (!MarcXmlSerializer.toXml(record).equals(MarcXmlSerializer.toXmlWithMarcXmlWriter(record)))
+                    throw new IllegalStateException("MarcXmlSerializer and MarcXmlWriter write record " + record.getControlNumber() + " differently");
+            }
+            return records;
+        }
+
+        protected Object run(Record record)
+        {
+            return useSerializer ? MarcXmlSerializer.toXml(record) : MarcXmlSerializer.toXmlWithMarcXmlWriter(record);
+        }
+    }
+
+}
@@ -0,0 +1,120 @@
+package org.solrmarc.bench;
+
+import java.io.*;
+import java.util.*;
+
+import org.marc4j.ErrorHandler;
+import org.marc4j.MarcPermissiveStreamReader;
+
+/**
+ * MarcPermissiveStreamReader decoding throughput:  each call decodes all the
+ *  core and Stanford test .mrc files (held in memory) from MARC8 to UTF-8, as
+ *  MarcHandler reads them with marc.permissive = true and with
+ *  marc.permissive = false.  The score is the time per record.  Files the
+ *  reader can't read to the end are left out.
+ */
+public class ReaderBenchmarks
+{
+    private static List<byte[]> marcFiles = null;
+    private static long totalBytes = 0;
+    private static int totalRecords = 0;
+
+    private ReaderBenchmarks()
+    {
+    }
+
+    public static List<Benchmark> getBenchmarks()
+    {
+        List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+        benchmarks.add(new ReaderBenchmark("ReaderBenchmarks.permissiveDecode", true));
+        benchmarks.add(new ReaderBenchmark("ReaderBenchmarks.strictDecode", false));
+        return benchmarks;
+    }
+
+    private static class ReaderBenchmark extends Benchmark
+    {
+        private final boolean permissive;
+
+        ReaderBenchmark(String name, boolean permissive)
+        {
+            super(name);
+            this.permissive = permissive;
+        }
+
+        public void setUp()
+                throws IOException
+        {
+            loadMarcFiles();
+            setParam("files", marcFiles.size());
+            setParam("records", totalRecords);
+            setParam("bytes", totalBytes);
+        }
+
+        public int getOpsPerInvocation()
+        {
+            return totalRecords;
+        }
+
+        public long getBytesPerInvocation()
+        {
+            return totalBytes;
+        }
+
+        public Object run()
+        {
+            int numRecords = 0;
+            for (byte marcFile[] : marcFiles)
+                numRecords += decode(marcFile, permissive);
+            return Integer.valueOf(numRecords);
+        }
+    }
+
+    /**
+     * @return the number of records in the file
+     */
+    private static int decode(byte marcFile[], boolean permissive)
+    {
+        InputStream in = new ByteArrayInputStream(marcFile);
+        MarcPermissiveStreamReader reader;
+        if (permissive)
+            reader = new MarcPermissiveStreamReader(in, new ErrorHandler(), true, "MARC8");
+        else
+            reader = new MarcPermissiveStreamReader(in, false, true, "MARC8");
+        int numRecords = 0;
+        while (reader.hasNext())
+        {
+            reader.next();
+            numRecords++;
+        }
+        return numRecords;
+    }
+
+    private static synchronized void loadMarcFiles()
+            throws IOException
+    {
+        if (marcFiles != null)
+            return;
+
+        List<File> files = BenchmarkData.getMarcFiles(BenchmarkData.CORE_TEST_DATA);
+        files.addAll(BenchmarkData.getMarcFiles(BenchmarkData.SITE_TEST_DATA));
+        List<byte[]> readable = new ArrayList<byte[]>();
+        for (File file : files)
+        {
+            byte marcFile[] = BenchmarkData.readBytes(file);
+            try
+            {
+                int numRecords = decode(marcFile, true);
+                decode(marcFile, false);
+                readable.add(marcFile);
+                totalBytes += marcFile.length;
+                totalRecords += numRecords;
+            }
+            catch (RuntimeException e)
+            {
+                // some of the test files are deliberately broken
+            }
+        }
+        marcFiles = readable;
+    }
+
+}
@@ -0,0 +1,93 @@
+package org.solrmarc.bench;
+
+import java.io.*;
+import java.util.*;
+
+import org.marc4j.marc.Record;
+import org.solrmarc.tools.*;
+
+/**
+ * Utils.remap() with the issn and lccn pattern maps from sw_index.properties,
+ *  over the values of their fields in the Stanford test records.  Each map is
+ *  run as a plain Map (the patterns are split and matched on each call) and
+ *  as the TranslationMap the indexer loads.
+ */
+public class RemapBenchmarks
+{
+    private static final String INDEX_PROPS_DIR = "stanford-sw";
+    private static final String INDEX_PROPS_FILE = "sw_index.properties";
+
+    private RemapBenchmarks()
+    {
+    }
+
+    public static List<Benchmark> getBenchmarks()
+    {
+        List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+        addBenchmarks(benchmarks, "issn", "022a:022l:022m:022y:022z:776x:785x:780x");
+        addBenchmarks(benchmarks, "lccn", "010a:010z");
+        return benchmarks;
+    }
+
+    private static void addBenchmarks(List<Benchmark> benchmarks, String mapName, String fieldSpec)
+    {
+        benchmarks.add(new RemapBenchmark("RemapBenchmarks." + mapName + "PatternMap", mapName, fieldSpec, false));
+        benchmarks.add(new RemapBenchmark("RemapBenchmarks." + mapName + "TranslationMap", mapName, fieldSpec, true));
+    }
+
+    private static class RemapBenchmark extends ItemBenchmark<String>
+    {
+        private final String mapName;
+        private final String fieldSpec;
+        private final boolean useTranslationMap;
+        private Map<String, String> map = null;
+
+        RemapBenchmark(String name, String mapName, String fieldSpec, boolean useTranslationMap)
+        {
+            super(name);
+            this.mapName = mapName;
+            this.fieldSpec = fieldSpec;
+            this.useTranslationMap = useTranslationMap;
+        }
+
+        protected List<String> loadItems()
+                throws IOException
+        {
+            map = loadPatternMap(mapName);
+            if (useTranslationMap)
+            {
+                TranslationMap translationMap = new TranslationMap(map);
+                translationMap.compile();
+                map = translationMap;
+            }
+            setParam("patterns", map.size());
+
+            List<String> values = new ArrayList<String>();
+            for (Record record : BenchmarkData.readRecords(BenchmarkData.SITE_TEST_DATA))
+                values.addAll(MarcUtils.getFieldList(record, fieldSpec));
+            return values;
+        }
+
+        protected Object run(String value)
+        {
+            return Utils.remap(value, map, true);
+        }
+    }
+
+    /**
+     * @return the pattern_map.mapName.pattern_n entries in sw_index.properties,
+     *   as a map of pattern_n to regex=>replacement
+     */
+    private static Map<String, String> loadPatternMap(String mapName)
+    {
+        Properties indexProps = PropertiesUtils.loadProperties(new String[]{INDEX_PROPS_DIR}, INDEX_PROPS_FILE);
+        String prefix = "pattern_map." + mapName + ".";
+        Map<String, String> map = new LinkedHashMap<String, String>();
+        for (int i = 0; indexProps.containsKey(prefix + "pattern_" + i); i++)
+            map.put("pattern_" + i, indexProps.getProperty(prefix + "pattern_" + i));
+        if (map.isEmpty())
+            throw new IllegalStateException("No " + prefix + "pattern_0 in " + INDEX_PROPS_FILE);
+        return map;
+    }
+
+}
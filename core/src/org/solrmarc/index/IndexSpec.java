@@ -0,0 +1,382 @@
+package org.solrmarc.index;
+
+import java.lang.reflect.*;
+import java.util.*;
+
+import org.marc4j.marc.Record;
+import org.solrmarc.tools.MarcUtils;
+import org.solrmarc.tools.SolrMarcIndexerException;
+import org.solrmarc.tools.Utils;
+
+/**
+ * One compiled line of an _index.properties file.  SolrIndexer parses each
+ *  specification into one of the subclasses below when the properties are
+ *  loaded, with its arguments (constant values, join separator ...) already
+ *  split out, so mapping a record only has to execute the list of specs.
+ */
+public abstract class IndexSpec
+{
+    /** name of the solr field the spec assigns */
+    protected final String fieldName;
+    /** the type of the spec, as it appears in the properties file */
+    protected final String indexType;
+    /** the field specification, custom method call etc. */
+    protected final String indexParm;
+    /** the name of the translation map to apply, or null */
+    protected final String mapName;
+
+    protected IndexSpec(String fieldDef[])
+    {
+        fieldName = fieldDef[0];
+        indexType = fieldDef[1];
+        indexParm = fieldDef[2];
+        mapName = fieldDef[3];
+    }
+
+    /**
+     * compile a field definition as parsed by SolrIndexer.fillMapFromProperties()
+     * @param fieldDef - solr field name, index type, index parm and map name
+     * @param indexer - the indexer (with its mixins) the spec is compiled for
+     * @return the compiled spec, or null if the index type isn't one that is
+     *   applied to records
+     */
+    static IndexSpec compile(String fieldDef[], SolrIndexer indexer)
+    {
+        String indexType = fieldDef[1];
+        if (indexType.equals("constant"))
+            return new ConstantSpec(fieldDef);
+        else if (indexType.equals("first"))
+            return new FirstSpec(fieldDef);
+        else if (indexType.equals("all"))
+            return new AllSpec(fieldDef);
+        else if (indexType.equals("DeleteRecordIfFieldEmpty"))
+            return new DeleteIfEmptySpec(fieldDef);
+        else if (indexType.startsWith("join"))
+            return new JoinSpec(fieldDef);
+        else if (indexType.equals("std"))
+            return fieldDef[2].equals("era") ? new EraSpec(fieldDef) : new StdSpec(fieldDef);
+        else if (indexType.startsWith("custom"))
+            return new CustomSpec(fieldDef, indexer);
+        return null;
+    }
+
+    /**
+     * add the value(s) this spec produces for the record to the map of solr
+     *  field names to values
+     */
+    abstract void execute(SolrIndexer indexer, Record record, Map<String, Object> fldNames2ValsMap);
+
+    public String getFieldName()
+    {
+        return fieldName;
+    }
+
+    public String getIndexType()
+    {
+        return indexType;
+    }
+
+    public String getIndexParm()
+    {
+        return indexParm;
+    }
+
+    public String getMapName()
+    {
+        return mapName;
+    }
+
+    /**
+     * @return the name of the custom method the spec calls, for the indexing
+     *   profile;  null if the spec doesn't call a custom method
+     */
+    String getMethodName()
+    {
+        return null;
+    }
+
+    /**
+     * @return a one line description of the spec, for the indexing plan dump
+     */
+    public String toString()
+    {
+        return fieldName + " = " + getClass().getSimpleName() + " " + indexType + " " + indexParm +
+                (mapName != null ? " (map: " + mapName + ")" : "");
+    }
+
+
+    /** a constant value, or several values separated by | */
+    static class ConstantSpec extends IndexSpec
+    {
+        /** the values, if there is more than one;  otherwise null */
+        private final Set<String> values;
+
+        ConstantSpec(String fieldDef[])
+        {
+            super(fieldDef);
+            if (indexParm.contains("|"))
+            {
+                values = new LinkedHashSet<String>(Arrays.asList(indexParm.split("[|]")));
+                // if a zero length string appears, remove it
+                values.remove("");
+            }
+            else
+                values = null;
+        }
+
+        void execute(SolrIndexer indexer, Record record, Map<String, Object> fldNames2ValsMap)
+        {
+            if (values != null)
+                // the map may hold on to the Set, so each record gets its own
+                indexer.addFieldsToMap(fldNames2ValsMap, fieldName, null, new LinkedHashSet<String>(values));
+            else
+                indexer.addFieldToMap(fldNames2ValsMap, fieldName, indexParm);
+        }
+
+        public String toString()
+        {
+            return fieldName + " = ConstantSpec " + (values != null ? values.toString() : "\"" + indexParm + "\"");
+        }
+    }
+
+    /** the first value for a field spec */
+    static class FirstSpec extends IndexSpec
+    {
+        FirstSpec(String fieldDef[])
+        {
+            super(fieldDef);
+        }
+
+        void execute(SolrIndexer indexer, Record record, Map<String, Object> fldNames2ValsMap)
+        {
+            indexer.addFieldToMap(fldNames2ValsMap, fieldName, indexer.getFirstFieldVal(record, mapName, indexParm));
+        }
+    }
+
+    /** all the values for a field spec */
+    static class AllSpec extends IndexSpec
+    {
+        AllSpec(String fieldDef[])
+        {
+            super(fieldDef);
+        }
+
+        void execute(SolrIndexer indexer, Record record, Map<String, Object> fldNames2ValsMap)
+        {
+            indexer.addFieldsToMap(fldNames2ValsMap, fieldName, mapName, MarcUtils.getFieldList(record, indexParm));
+        }
+    }
+
+    /** all the values for a field spec;  the record is deleted if there are none */
+    static class DeleteIfEmptySpec extends IndexSpec
+    {
+        DeleteIfEmptySpec(String fieldDef[])
+        {
+            super(fieldDef);
+        }
+
+        void execute(SolrIndexer indexer, Record record, Map<String, Object> fldNames2ValsMap)
+        {
+            Set<String> fields = MarcUtils.getFieldList(record, indexParm);
+            if (mapName != null && indexer.findTranslationMap(mapName) != null)
+                fields = Utils.remap(fields, indexer.findTranslationMap(mapName), true);
+
+            if (fields.size() != 0)
+                indexer.addFieldsToMap(fldNames2ValsMap, fieldName, null, fields);
+            else  // no entries produced for field => generate no record in Solr
+                throw new SolrMarcIndexerException(SolrMarcIndexerException.DELETE,
+                                                "Index specification: "+ fieldName +" says this record should be deleted.");
+        }
+    }
+
+    /** the values for a field spec joined into one value */
+    static class JoinSpec extends IndexSpec
+    {
+        private final String joinChar;
+
+        JoinSpec(String fieldDef[])
+        {
+            super(fieldDef);
+            if (indexType.contains("(") && indexType.endsWith(")"))
+                joinChar = indexType.replace("join(", "").replace(")", "");
+            else
+                joinChar = " ";
+        }
+
+        void execute(SolrIndexer indexer, Record record, Map<String, Object> fldNames2ValsMap)
+        {
+            indexer.addFieldToMap(fldNames2ValsMap, fieldName, MarcUtils.getFieldVals(record, indexParm, joinChar));
+        }
+
+        public String toString()
+        {
+            return fieldName + " = JoinSpec " + indexParm + " (separator: \"" + joinChar + "\")";
+        }
+    }
+
+    /** a value that doesn't come from a field spec:  raw, xml, date, index_date ... */
+    static class StdSpec extends IndexSpec
+    {
+        StdSpec(String fieldDef[])
+        {
+            super(fieldDef);
+        }
+
+        void execute(SolrIndexer indexer, Record record, Map<String, Object> fldNames2ValsMap)
+        {
+            indexer.addFieldToMap(fldNames2ValsMap, fieldName, indexer.getStd(record, indexParm));
+        }
+    }
+
+    /** the era values of the record */
+    static class EraSpec extends IndexSpec
+    {
+        EraSpec(String fieldDef[])
+        {
+            super(fieldDef);
+        }
+
+        void execute(SolrIndexer indexer, Record record, Map<String, Object> fldNames2ValsMap)
+        {
+            indexer.addFieldsToMap(fldNames2ValsMap, fieldName, mapName, MarcUtils.getEra(record));
+        }
+    }
+
+    /**
+     * the value(s) returned by a custom indexing method.  The method, the object
+     *  it is called on (the indexer or a SolrIndexerMixin) and its String
+     *  arguments are all found when the spec is compiled.
+     */
+    static class CustomSpec extends IndexSpec
+    {
+        private final Object objectThatContainsMethod;
+        private final Method method;
+        /** the arguments to pass to the method;  the record goes in the first slot */
+        private final Object methodArgs[];
+        private final boolean deleteIfEmpty;
+
+        CustomSpec(String fieldDef[], SolrIndexer indexer)
+        {
+            super(fieldDef);
+            objectThatContainsMethod = indexer.getCustomMethodObject(indexType);
+            deleteIfEmpty = indexType.equals("customDeleteRecordIfFieldEmpty");
+
+            String functionName = indexParm;
+            Class<?> parmClasses[];
+            int parenIx = indexParm.indexOf('(');
+            if (parenIx != -1)
+            {
+                functionName = indexParm.substring(0, parenIx);
+                String parmStr = indexParm.substring(parenIx + 1, indexParm.lastIndexOf(')'));
+                // parameters are separated by unescaped commas
+                String parms[] = parmStr.trim().split("(?<=[^\\\\]),");
+                parmClasses = new Class<?>[parms.length + 1];
+                methodArgs = new Object[parms.length + 1];
+                for (int i = 0; i < parms.length; i++)
+                {
+                    parmClasses[i + 1] = String.class;
+                    methodArgs[i + 1] = SolrIndexer.dequote(parms[i].trim());
+                }
+            }
+            else
+            {
+                parmClasses = new Class<?>[1];
+                methodArgs = new Object[1];
+            }
+            parmClasses[0] = Record.class;
+
+            try
+            {
+                method = objectThatContainsMethod.getClass().getMethod(functionName, parmClasses);
+            }
+            catch (NoSuchMethodException e)
+            {
+                SolrIndexer.logger.error("Unable to find custom indexing function " + indexParm + " in " + objectThatContainsMethod.getClass().getName());
+                throw new IllegalArgumentException("Unable to find custom indexing function " + indexParm);
+            }
+        }
+
+        void execute(SolrIndexer indexer, Record record, Map<String, Object> fldNames2ValsMap)
+        {
+            try {
+                invoke(indexer, record, fldNames2ValsMap);
+            }
+            catch(SolrMarcIndexerException e)
+            {
+                String recCntlNum = getControlNumber(record);
+                if (e.getLevel() == SolrMarcIndexerException.DELETE)
+                {
+                    throw new SolrMarcIndexerException(SolrMarcIndexerException.DELETE,
+                            "Record " + (recCntlNum != null ? recCntlNum : "") + " purposely not indexed because " + fieldName + " field is empty");
+                }
+                else
+                {
+                    SolrIndexer.logger.error("Unable to index record " + (recCntlNum != null ? recCntlNum : "") + " due to field " + fieldName + " -- " + e.getMessage(), e);
+                    throw(e);
+                }
+            }
+        }
+
+        /**
+         * call the custom method, and put the solr field name and value(s) it
+         *  returns into the map
+         */
+        private void invoke(SolrIndexer indexer, Record record, Map<String, Object> fldNames2ValsMap)
+                throws SolrMarcIndexerException
+        {
+            Object retval = null;
+            Class<?> returnType = method.getReturnType();
+            try
+            {
+                Object args[] = methodArgs.clone();
+                args[0] = record;
+                retval = method.invoke(objectThatContainsMethod, args);
+            }
+            catch (IllegalArgumentException e)
+            {
+                SolrIndexer.logger.error("Error while indexing " + fieldName + " for record " + getControlNumber(record) + " -- " + e.getCause());
+            }
+            catch (IllegalAccessException e)
+            {
+                SolrIndexer.logger.error("Error while indexing " + fieldName + " for record " + getControlNumber(record) + " -- " + e.getCause());
+            }
+            catch (InvocationTargetException e)
+            {
+                if (e.getTargetException() instanceof SolrMarcIndexerException)
+                    throw((SolrMarcIndexerException)e.getTargetException());
+
+                SolrIndexer.logger.error("Error while indexing " + fieldName + " for record " + getControlNumber(record) + " -- " + e.getCause(), e.getTargetException());
+            }
+
+            boolean stopOrDelete = indexer.finishCustomMethod(fldNames2ValsMap, fieldName, mapName, returnType, retval, deleteIfEmpty);
+            if (stopOrDelete == true)
+                throw new SolrMarcIndexerException(SolrMarcIndexerException.DELETE);
+        }
+
+        /**
+         * @return the record id for error messages, or "" if there isn't one
+         */
+        private String getControlNumber(Record record)
+        {
+            String recCntlNum = null;
+            try {
+                recCntlNum = record.getControlNumber();
+            }
+            catch (NullPointerException npe) { /* ignore as this is for error msgs only*/ }
+            return recCntlNum != null ? recCntlNum : "";
+        }
+
+        String getMethodName()
+        {
+            return objectThatContainsMethod.getClass().getSimpleName() + "." + method.getName();
+        }
+
+        public String toString()
+        {
+            return fieldName + " = CustomSpec " + objectThatContainsMethod.getClass().getSimpleName() + "." + method.getName() +
+                    Arrays.asList(methodArgs).subList(1, methodArgs.length) + (deleteIfEmpty ? " (delete record if empty)" : "") +
+                    (mapName != null ? " (map: " + mapName + ")" : "");
+        }
+    }
+
+}
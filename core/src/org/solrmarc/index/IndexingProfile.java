@@ -0,0 +1,207 @@
+package org.solrmarc.index;
+
+import java.util.*;
+
+/**
+ * Cumulative time, call counts and output value counts for each Solr field
+ *  and each custom indexing method, collected by SolrIndexer when it has a
+ *  profile (see SolrIndexer.setProfile()).
+ *
+ * Each indexer has its own profile.  The methods are synchronized so a
+ *  profile can be reported from another thread while records are being
+ *  mapped;  the lock is only taken when profiling.
+ */
+public class IndexingProfile
+{
+    /** name of the entry for SolrIndexer.perRecordInit() and the mixins' perRecordInit() */
+    public static final String PER_RECORD_INIT = "(perRecordInit)";
+
+    /** the totals for one Solr field or custom method */
+    public static class Entry
+    {
+        private final String name;
+        private long nanos = 0;
+        private long calls = 0;
+        private long values = 0;
+
+        Entry(String name)
+        {
+            this.name = name;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public long getNanos()
+        {
+            return nanos;
+        }
+
+        public long getCalls()
+        {
+            return calls;
+        }
+
+        public long getValues()
+        {
+            return values;
+        }
+
+        void add(long addNanos, long addCalls, long addValues)
+        {
+            nanos += addNanos;
+            calls += addCalls;
+            values += addValues;
+        }
+    }
+
+    private final Map<String, Entry> fieldEntries = new HashMap<String, Entry>();
+    private final Map<String, Entry> methodEntries = new HashMap<String, Entry>();
+    private long numRecords = 0;
+
+    /**
+     * add the time taken and number of values produced for a Solr field
+     */
+    public synchronized void addField(String fieldName, long nanos, int numValues)
+    {
+        getEntry(fieldEntries, fieldName).add(nanos, 1, numValues);
+    }
+
+    /**
+     * add the time taken and number of values produced by a custom method
+     */
+    public synchronized void addMethod(String methodName, long nanos, int numValues)
+    {
+        getEntry(methodEntries, methodName).add(nanos, 1, numValues);
+    }
+
+    /**
+     * count a record mapped
+     */
+    public synchronized void addRecord()
+    {
+        numRecords++;
+    }
+
+    public synchronized long getNumRecords()
+    {
+        return numRecords;
+    }
+
+    /**
+     * @return copies of the field entries, most time first
+     */
+    public synchronized List<Entry> getFieldEntries()
+    {
+        return sortedCopy(fieldEntries);
+    }
+
+    /**
+     * @return copies of the custom method entries, most time first
+     */
+    public synchronized List<Entry> getMethodEntries()
+    {
+        return sortedCopy(methodEntries);
+    }
+
+    /**
+     * add the totals of another profile to this one
+     */
+    public void addAll(IndexingProfile other)
+    {
+        List<Entry> otherFields;
+        List<Entry> otherMethods;
+        long otherRecords;
+        synchronized (other)
+        {
+            otherFields = other.getFieldEntries();
+            otherMethods = other.getMethodEntries();
+            otherRecords = other.getNumRecords();
+        }
+        synchronized (this)
+        {
+            for (Entry entry : otherFields)
+                getEntry(fieldEntries, entry.name).add(entry.nanos, entry.calls, entry.values);
+            for (Entry entry : otherMethods)
+                getEntry(methodEntries, entry.name).add(entry.nanos, entry.calls, entry.values);
+            numRecords += otherRecords;
+        }
+    }
+
+    /**
+     * @return a table of the topN Solr fields and the topN custom methods that took the most time
+     */
+    public String report(int topN)
+    {
+        List<Entry> fields;
+        List<Entry> methods;
+        long records;
+        synchronized (this)
+        {
+            fields = getFieldEntries();
+            methods = getMethodEntries();
+            records = numRecords;
+        }
+
+        long totalNanos = 0;
+        for (Entry entry : fields)
+            totalNanos += entry.nanos;
+
+        StringBuilder buf = new StringBuilder();
+        buf.append("Indexing profile for ").append(records).append(" records, ")
+           .append(totalNanos / 1000000).append(" ms mapping\n");
+        appendTable(buf, "Solr field", fields, topN, totalNanos);
+        if (!methods.isEmpty())
+            appendTable(buf, "custom method", methods, topN, totalNanos);
+        return buf.toString();
+    }
+
+    private static void appendTable(StringBuilder buf, String heading, List<Entry> entries, int topN, long totalNanos)
+    {
+        buf.append(String.format("%-40s %10s %10s %10s %10s %7s%n", heading, "calls", "total ms", "us/call", "values", "% time"));
+        int numShown = 0;
+        for (Entry entry : entries)
+        {
+            if (numShown++ >= topN)
+                break;
+            buf.append(String.format("%-40s %10d %10d %10.1f %10d %7.1f%n", entry.name, entry.calls, entry.nanos / 1000000,
+                                     entry.nanos / 1000.0 / Math.max(1, entry.calls), entry.values,
+                                     totalNanos > 0 ? entry.nanos * 100.0 / totalNanos : 0.0));
+        }
+    }
+
+    private static Entry getEntry(Map<String, Entry> entries, String name)
+    {
+        Entry entry = entries.get(name);
+        if (entry == null)
+        {
+            entry = new Entry(name);
+            entries.put(name, entry);
+        }
+        return entry;
+    }
+
+    private static List<Entry> sortedCopy(Map<String, Entry> entries)
+    {
+        List<Entry> result = new ArrayList<Entry>();
+        for (Entry entry : entries.values())
+        {
+            Entry copy = new Entry(entry.name);
+            copy.add(entry.nanos, entry.calls, entry.values);
+            result.add(copy);
+        }
+        Collections.sort(result, new Comparator<Entry>()
+        {
+            public int compare(Entry e1, Entry e2)
+            {
+                if (e1.nanos != e2.nanos)
+                    return e1.nanos > e2.nanos ? -1 : 1;
+                return e1.name.compareTo(e2.name);
+            }
+        });
+        return result;
+    }
+
+}
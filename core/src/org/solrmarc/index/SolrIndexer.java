@@ -43,9 +43,15 @@ public class SolrIndexer
     /** map: keys are solr field names, values inform how to get solr field values */
     private Map<String, String[]> fieldMap = null;
 
+    /** fieldMap compiled into the specs applied to each record, in fieldMap order */
+    private List<IndexSpec> indexPlan = null;
+
+    /** when profiling, the time, calls and values of each spec are added to this;  otherwise null */
+    private IndexingProfile profile = null;
+
     /** map of translation maps.  keys are names of translation maps;
      *  values are the translation maps (hence, it's a map of maps) */
-    private Map<String, Map<String, String>> transMapMap = null;
+    private Map<String, TranslationMap> transMapMap = null;
 
     /** map of custom methods.  keys are names of custom methods;
      *  values are the translation maps (hence, it's a map of maps) */
@@ -74,7 +80,8 @@ public class SolrIndexer
     private SolrIndexer()
     {
         fieldMap = new HashMap<String, String[]>();
-        transMapMap = new HashMap<String, Map<String, String>>();
+        indexPlan = new ArrayList<IndexSpec>();
+        transMapMap = new HashMap<String, TranslationMap>();
         customMethodMap = new HashMap<String, Method>();
         customMixinMap = new HashMap<String, SolrIndexerMixin>();
         indexDate = new Date();
@@ -321,6 +328,45 @@ public class SolrIndexer
 
         // verify that fieldMap is valid
         verifyCustomMethodsAndTransMaps();
+
+        compileIndexPlan();
+    }
+
+    /**
+     * Compile fieldMap into indexPlan, so that mapping a record doesn't need to
+     * look at the index type strings or re-parse their arguments
+     */
+    private void compileIndexPlan()
+    {
+        List<IndexSpec> plan = new ArrayList<IndexSpec>();
+        for (String key : fieldMap.keySet())
+        {
+            IndexSpec spec = IndexSpec.compile(fieldMap.get(key), this);
+            if (spec != null)
+                plan.add(spec);
+            else
+                logger.warn("Index specification for " + key + " has unsupported type " + fieldMap.get(key)[1] + " and will be ignored");
+        }
+        indexPlan = plan;
+    }
+
+    /**
+     * @return the compiled index specifications, in the order they are applied to each record
+     */
+    public List<IndexSpec> getIndexPlan()
+    {
+        return Collections.unmodifiableList(indexPlan);
+    }
+
+    /**
+     * @return a description of the compiled index specifications, one per line
+     */
+    public String describeIndexPlan()
+    {
+        StringBuilder sb = new StringBuilder();
+        for (IndexSpec spec : indexPlan)
+            sb.append(spec.toString()).append('\n');
+        return sb.toString();
     }
 
     /**
@@ -587,18 +633,22 @@ public class SolrIndexer
                 if (value.equals("null"))
                     value = null;
 
-                Map<String, String> valueMap;
+                TranslationMap valueMap;
                 if (transMapMap.containsKey(mapName))
                     valueMap = transMapMap.get(mapName);
                 else
                 {
-                    valueMap = new LinkedHashMap<String, String>();
+                    valueMap = new TranslationMap();
                     transMapMap.put(mapName, valueMap);
                 }
 
                 valueMap.put(mapKey, value);
             }
         }
+
+        // compile the map now, so a bad pattern is reported when the map is loaded
+        if (transMapMap.containsKey(mapName))
+            transMapMap.get(mapName).compile();
     }
 
     /**
@@ -617,102 +667,100 @@ public class SolrIndexer
     public Map<String, Object> createFldNames2ValsMap(Record record, ErrorHandler errors)
     {
         this.errors = errors;
+        try
+        {
+            if (profile != null)
+                return createFldNames2ValsMapProfiled(record);
+
+            perRecordInitMaster(record);
+            Map<String, Object> fldNames2ValsMap = new HashMap<String, Object>();
+
+            for (IndexSpec spec : indexPlan)
+                spec.execute(this, record, fldNames2ValsMap);
+
+            this.errors = null;
+            return fldNames2ValsMap;
+        }
+        finally
+        {
+            RecordFieldIndex.clear();
+        }
+    }
+
+    /**
+     * createFldNames2ValsMap() when profiling:  the time taken by each spec
+     *  (and by perRecordInit) and the number of values it produced are added
+     *  to the profile
+     */
+    private Map<String, Object> createFldNames2ValsMapProfiled(Record record)
+    {
+        long start = System.nanoTime();
         perRecordInitMaster(record);
+        profile.addField(IndexingProfile.PER_RECORD_INIT, System.nanoTime() - start, 0);
         Map<String, Object> fldNames2ValsMap = new HashMap<String, Object>();
 
-        for (String key : fieldMap.keySet())
+        for (IndexSpec spec : indexPlan)
         {
-            String fieldVal[] = fieldMap.get(key);
-            String indexField = fieldVal[0];
-            String indexType = fieldVal[1];
-            String indexParm = fieldVal[2];
-            String mapName = fieldVal[3];
-
-            if (indexType.equals("constant"))
-            {
-                if (indexParm.contains("|"))
-                {
-                    String parts[] = indexParm.split("[|]");
-                    Set<String> result = new LinkedHashSet<String>();
-                    result.addAll(Arrays.asList(parts));
-                    // if a zero length string appears, remove it
-                    result.remove("");
-                    addFieldsToMap(fldNames2ValsMap, indexField, null, result);
-                }
-                else
-                    addFieldToMap(fldNames2ValsMap, indexField, indexParm);
-            }
-            else if (indexType.equals("first"))
-                addFieldToMap(fldNames2ValsMap, indexField, getFirstFieldVal(record, mapName, indexParm));
-            else if (indexType.equals("all"))
-                addFieldsToMap(fldNames2ValsMap, indexField, mapName, MarcUtils.getFieldList(record, indexParm));
-            else if (indexType.equals("DeleteRecordIfFieldEmpty"))
-            {
-                Set<String> fields = MarcUtils.getFieldList(record, indexParm);
-                if (mapName != null && findTranslationMap(mapName) != null)
-                    fields = Utils.remap(fields, findTranslationMap(mapName), true);
-
-                if (fields.size() != 0)
-                    addFieldsToMap(fldNames2ValsMap, indexField, null, fields);
-                else  // no entries produced for field => generate no record in Solr
-                    throw new SolrMarcIndexerException(SolrMarcIndexerException.DELETE,
-                                                    "Index specification: "+ indexField +" says this record should be deleted.");
-            }
-            else if (indexType.startsWith("join"))
-            {
-                String joinChar = " ";
-                if (indexType.contains("(") && indexType.endsWith(")"))
-                    joinChar = indexType.replace("join(", "").replace(")", "");
-                addFieldToMap(fldNames2ValsMap, indexField, MarcUtils.getFieldVals(record, indexParm, joinChar));
-            }
-            else if (indexType.equals("std"))
+            start = System.nanoTime();
+            try
             {
-                if (indexParm.equals("era"))
-                    addFieldsToMap(fldNames2ValsMap, indexField, mapName, MarcUtils.getEra(record));
-                else
-                    addFieldToMap(fldNames2ValsMap, indexField, getStd(record, indexParm));
+                spec.execute(this, record, fldNames2ValsMap);
             }
-            else if (indexType.startsWith("custom"))
+            finally
             {
-                try {
-                    handleCustom(fldNames2ValsMap, indexType, indexField, mapName, record, indexParm);
-                }
-                catch(SolrMarcIndexerException e)
-                {
-                    String recCntlNum = null;
-                    try {
-                        recCntlNum = record.getControlNumber();
-                    }
-                    catch (NullPointerException npe) { /* ignore */ }
-
-                    if (e.getLevel() == SolrMarcIndexerException.DELETE)
-                    {
-                        throw new SolrMarcIndexerException(SolrMarcIndexerException.DELETE,
-                                "Record " + (recCntlNum != null ? recCntlNum : "") + " purposely not indexed because " + key + " field is empty");
-//                      logger.error("Record " + (recCntlNum != null ? recCntlNum : "") + " not indexed because " + key + " field is empty -- " + e.getMessage(), e);
-                    }
-                    else
-                    {
-                        logger.error("Unable to index record " + (recCntlNum != null ? recCntlNum : "") + " due to field " + key + " -- " + e.getMessage(), e);
-                        throw(e);
-                    }
-                }
+                long nanos = System.nanoTime() - start;
+                int numValues = countValues(fldNames2ValsMap.get(spec.getFieldName()));
+                profile.addField(spec.getFieldName(), nanos, numValues);
+                if (spec.getMethodName() != null)
+                    profile.addMethod(spec.getMethodName(), nanos, numValues);
             }
         }
+        profile.addRecord();
+
         this.errors = null;
         return fldNames2ValsMap;
     }
 
+    private static int countValues(Object value)
+    {
+        if (value == null)
+            return 0;
+        if (value instanceof Collection)
+            return ((Collection<?>) value).size();
+        return 1;
+    }
+
+    /**
+     * Turn on the profiling mode:  createFldNames2ValsMap() will add the time
+     *  taken, number of calls and number of values produced for each Solr
+     *  field and custom method to the profile.
+     * @param profile - the profile to add to, or null to stop profiling
+     */
+    public void setProfile(IndexingProfile profile)
+    {
+        this.profile = profile;
+    }
+
+    /**
+     * @return the profile createFldNames2ValsMap() is adding to, or null if not profiling
+     */
+    public IndexingProfile getProfile()
+    {
+        return profile;
+    }
+
     /**
      * This routine CANNOT be overridden in a sub-class.  Its is called to perform some processing that needs
      * to be done once for each record, and which may be needed by several indexing specifications.  Basically all
      * this method does is call the override-able method perRecordInit for the SolrIndexer class, and the perRecordInit
-     * methods of any SolrIndexerMixin that are in use.
+     * methods of any SolrIndexerMixin that are in use.  First it builds the index of the record's fields by tag that
+     * the MarcUtils methods use while the record is indexed.
      *
      * @param record -  The MARC record that is being indexed.
      */
     private final void perRecordInitMaster(Record record)
     {
+        RecordFieldIndex.index(record);
         perRecordInit(record);
         for (String key : customMixinMap.keySet())
         {
@@ -733,125 +781,20 @@ public class SolrIndexer
     }
 
     /**
-     * Calling a custom method defined in a user-supplied custom subclass of SolrIndexer,
-     * do the processing indicated by a custom function, putting the solr field
-     * name and value into the indexMap parameter
-     *
-     * @param indexMap - The map contain the solr index record that is being constructed for this MARC record.
-     * @param indexType - if set to "customDeleteRecordIfFieldEmpty", then the
-     *                    solr record should be deleted if no value
-     *                    is generated by this custom indexing method.
-     * @param indexField - The name of the field to be added to the solr index record.  Note that
-     *                     in that case of a custom index method that returns a Map, the keys of the map
-     *                     define the names of the fields to be added, and this value is then simply a dummy.
-     * @param mapName - The name (or file and name) of a translation map to use to convert
-     *                  the data in the specified fields of the MARC record to the desired values
-     *                  to be included in the Solr index record.  (If mapName is null, the values
-     *                  in the record will be returned as-is.)
-     * @param record -  The MARC record that is being indexed.
-     * @param indexParm - contains the name of the custom method to invoke, as well as the
-     *                    additional parameters to pass to that method.
+     * Find the object whose method is called for a custom index specification:
+     * the SolrIndexerMixin named in the index type, or else this indexer.
+     * @param indexType - "custom", "customDeleteRecordIfFieldEmpty" or
+     *                    "custom(mixin.class.Name)"
      */
-    private void handleCustom(Map<String, Object> indexMap, String indexType, String indexField,
-    							String mapName, Record record, String indexParm)
-    		throws SolrMarcIndexerException
+    Object getCustomMethodObject(String indexType)
     {
-        Object retval = null;
-        Class<?> returnType = null;
-
-        // grab the record id in case we want to use it in an exception message
-        String recCntlNum = null;
-        try {
-        	recCntlNum = record.getControlNumber();
-        }
-        catch (NullPointerException npe) { /* ignore as this is for error msgs only*/ }
-
-        String className = null;
-        Class<?> classThatContainsMethod = this.getClass();
-        Object objectThatContainsMethod = this;
-        try
+        if (indexType.matches("custom[(][a-zA-Z0-9.]+[)]"))
         {
-            if (indexType.matches("custom[(][a-zA-Z0-9.]+[)]"))
-            {
-                className = indexType.substring(7, indexType.length()-1).trim();
-                if (customMixinMap.containsKey(className))
-                {
-                    objectThatContainsMethod = customMixinMap.get(className);
-                    classThatContainsMethod = objectThatContainsMethod.getClass();
-                }
-            }
-
-            Method method;
-            if (indexParm.indexOf("(") != -1)
-            {
-                String functionName = indexParm.substring(0, indexParm.indexOf('('));
-                String parmStr = indexParm.substring(indexParm.indexOf('(')+1, indexParm.lastIndexOf(')'));
-                // parameters are separated by unescaped commas
-                String parms[] = parmStr.trim().split("(?<=[^\\\\]),");
-                int numparms = parms.length;
-                Class parmClasses[] = new Class[numparms + 1];
-                parmClasses[0] = Record.class;
-                Object objParms[] = new Object[numparms + 1];
-                objParms[0] = record;
-                for (int i = 0; i < numparms; i++)
-                {
-                    parmClasses[i + 1] = String.class;
-                    objParms[i + 1] = dequote(parms[i].trim());
-                }
-             // NRD 2010-06-03  can't do this because have functionName with two signatures!  (getAllAlphaSubfields)
-//              method = customMethodMap.get(functionName);
-                method = getClass().getMethod(functionName, parmClasses);
-                if (method == null)
-                    method = classThatContainsMethod.getMethod(functionName, parmClasses);
-                returnType = method.getReturnType();
-                retval = method.invoke(objectThatContainsMethod, objParms);
-            }
-            else
-            {
-                method = customMethodMap.get(indexParm);
-                if (method == null)
-                    method = classThatContainsMethod.getMethod(indexParm, new Class[]{Record.class});
-                returnType = method.getReturnType();
-                retval = method.invoke(objectThatContainsMethod, new Object[] { record });
-            }
+            String className = indexType.substring(7, indexType.length()-1).trim();
+            if (customMixinMap.containsKey(className))
+                return customMixinMap.get(className);
         }
-        catch (SecurityException e)
-        {
-            // e.printStackTrace();
-            logger.error("Error while indexing " + indexField + " for record " + (recCntlNum != null ? recCntlNum : "") + " -- " + e.getCause());
-        }
-        catch (NoSuchMethodException e)
-        {
-            // e.printStackTrace();
-            logger.error("Error while indexing " + indexField + " for record " + (recCntlNum != null ? recCntlNum : "") + " -- " + e.getCause());
-        }
-        catch (IllegalArgumentException e)
-        {
-            // e.printStackTrace();
-            logger.error("Error while indexing " + indexField + " for record " + (recCntlNum != null ? recCntlNum : "") + " -- " + e.getCause());
-        }
-        catch (IllegalAccessException e)
-        {
-            // e.printStackTrace();
-            logger.error("Error while indexing " + indexField + " for record " + (recCntlNum != null ? recCntlNum : "") + " -- " + e.getCause());
-        }
-        catch (InvocationTargetException e)
-        {
-            if (e.getTargetException() instanceof SolrMarcIndexerException)
-                throw((SolrMarcIndexerException)e.getTargetException());
-
-            e.printStackTrace();   // DEBUG
-            logger.error("Error while indexing " + indexField + " for record " + (recCntlNum != null ? recCntlNum : "") + " -- " + e.getCause());
-        }
-
-        boolean deleteIfEmpty = false;
-        if (indexType.equals("customDeleteRecordIfFieldEmpty"))
-            deleteIfEmpty = true;
-
-        boolean stopOrDelete = finishCustomMethod(indexMap, indexField, mapName, returnType, retval, deleteIfEmpty);
-
-        if (stopOrDelete == true)
-        	throw new SolrMarcIndexerException(SolrMarcIndexerException.DELETE);
+        return this;
     }
 
     /**
@@ -872,7 +815,7 @@ public class SolrIndexer
      *                        was generated.
      * @return returns true if the indexing process should stop and the solr record should be deleted.
      */
-    private boolean finishCustomMethod(Map<String, Object> indexMap, String indexField, String mapName,
+    boolean finishCustomMethod(Map<String, Object> indexMap, String indexField, String mapName,
                                          Class<?> returnType, Object retval, boolean deleteIfEmpty)
     {
         if (returnType == null || retval == null)
@@ -906,7 +849,7 @@ public class SolrIndexer
      * if the first and last characters of the string are quote marks ("), then
      * delete them.
      */
-    private String dequote(String str)
+    static String dequote(String str)
     {
         if (str.length() >= 2 && str.charAt(0) == '"' && str.charAt(str.length()-1) == '"')
             return str.substring(1, str.length() - 1);
@@ -919,7 +862,7 @@ public class SolrIndexer
      *   raw, xml, date, index_date ...
      * @param indexParm - what type of value to return
      */
-    private String getStd(Record record, String indexParm)
+    String getStd(Record record, String indexParm)
     {
         if (indexParm.equals("raw")
                 || indexParm.equalsIgnoreCase("FullRecordAsMARC"))
@@ -60,6 +60,7 @@ public class BooklistReader extends SolrReIndexer
 
         Date start = new Date();
 
+        startMonitor();
         try {
             readBooklist(booklistFilename);
         }
@@ -68,6 +69,10 @@ public class BooklistReader extends SolrReIndexer
             System.err.println("Exception: "+e.getMessage());
             e.printStackTrace();
         }
+        finally
+        {
+            stopMonitor();
+        }
 
         finish();
 
@@ -115,6 +120,7 @@ public class BooklistReader extends SolrReIndexer
             Date today = new Date();
             while ((line = reader.readLine()) != null)
             {
+                monitor.waitWhilePaused();
                 if (shuttingDown) break;
 
                 String fields[] = line.split("\\|");
@@ -126,6 +132,7 @@ public class BooklistReader extends SolrReIndexer
                 if (dateReceived.after(today)) continue;
 
                 String docID = "u"+fields[9];
+                monitor.setCurrentRecordId(docID);
                 try {
                     Map<String, Object> docMap = getDocumentMap(docID);
                     if (docMap != null)
@@ -143,14 +150,17 @@ public class BooklistReader extends SolrReIndexer
                     if (e.getLevel() == SolrMarcIndexerException.IGNORE)
                     {
                         logger.error("Indexing routine says record "+ docID + " should be ignored");
+                        monitor.addIgnoredRecord();
                     }
                     else if (e.getLevel() == SolrMarcIndexerException.DELETE)
                     {
                         logger.error("Indexing routine says record "+ docID + " should be deleted");
+                        monitor.addDeletedByIndexer();
                     }
                     if (e.getLevel() == SolrMarcIndexerException.EXIT)
                     {
                         logger.error("Indexing routine says processing should be terminated by record "+ docID);
+                        monitor.addFatalError();
                         break;
                     }
 
@@ -0,0 +1,134 @@
+package org.solrmarc.marc;
+
+/**
+ * When MarcImporter commits while indexing, so the documents of a long run
+ *  become searchable as it goes rather than all at the end:  after every
+ *  so many documents sent, or every so many seconds (whichever comes first),
+ *  with a soft commit (visible to searches, not yet written to disk) or a
+ *  hard one.  After a hard commit the importer also writes its checkpoint,
+ *  and the digests of the documents committed to the digest store file, if
+ *  it keeps them.
+ *
+ * Documents may also be committed by Solr itself, within so many
+ *  milliseconds of each add (commitWithin), which the SolrServerProxy asks
+ *  for on each update request.  Either way the run still ends with a hard
+ *  commit, which then has few documents left to write;  with
+ *  solr.optimize_at_end, that is an optimize down to optimizeMaxSegments
+ *  segments.
+ *
+ * The importers of several marc files indexed at once share their run's policy.
+ */
+public class CommitPolicy
+{
+    private final int everyDocs;
+    private final long everyMillis;
+    private final boolean soft;
+    private final int commitWithinMillis;
+    private final int optimizeMaxSegments;
+
+    /** guarded by this */
+    private int docsSinceCommit = 0;
+    private long lastCommitMillis = System.currentTimeMillis();
+
+    /**
+     * @param everyDocs  commit after this many documents are sent;  0 or less not to count them
+     * @param everyMillis  commit when documents have been sent and it is this
+     *   long since the last commit;  0 or less not to commit by time
+     * @param soft  true for soft commits, false for hard
+     * @param commitWithinMillis  commitWithin for each add;  0 or less for none
+     * @param optimizeMaxSegments  the most segments to leave when optimizing at the end
+     */
+    public CommitPolicy(int everyDocs, long everyMillis, boolean soft, int commitWithinMillis, int optimizeMaxSegments)
+    {
+        this.everyDocs = everyDocs;
+        this.everyMillis = everyMillis;
+        this.soft = soft;
+        this.commitWithinMillis = commitWithinMillis;
+        this.optimizeMaxSegments = Math.max(1, optimizeMaxSegments);
+    }
+
+    /**
+     * @return true if the policy commits while indexing
+     */
+    public boolean isCommittingWhileIndexing()
+    {
+        return everyDocs > 0 || everyMillis > 0;
+    }
+
+    /**
+     * @return true for soft commits while indexing, false for hard
+     */
+    public boolean isSoft()
+    {
+        return soft;
+    }
+
+    /**
+     * @return commitWithin for each add, in milliseconds;  0 or less for none
+     */
+    public int getCommitWithinMillis()
+    {
+        return commitWithinMillis;
+    }
+
+    /**
+     * @return the most segments to leave when optimizing at the end
+     */
+    public int getOptimizeMaxSegments()
+    {
+        return optimizeMaxSegments;
+    }
+
+    /**
+     * count a document sent to Solr
+     */
+    public synchronized void docSent()
+    {
+        docsSinceCommit++;
+    }
+
+    /**
+     * @return true if a commit is due;  it is then taken as started, so only
+     *  one of the importers sharing the policy commits
+     */
+    public synchronized boolean takeCommitIfDue()
+    {
+        if (docsSinceCommit == 0)
+            return false;
+        if ((everyDocs > 0 && docsSinceCommit >= everyDocs) ||
+            (everyMillis > 0 && System.currentTimeMillis() - lastCommitMillis >= everyMillis))
+        {
+            committed();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * note a commit made for another reason, such as a checkpoint
+     */
+    public synchronized void committed()
+    {
+        docsSinceCommit = 0;
+        lastCommitMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * @return the policy, for the log
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder description = new StringBuilder(soft ? "soft commit" : "commit");
+        if (everyDocs > 0)
+            description.append(" every ").append(everyDocs).append(" docs");
+        if (everyMillis > 0)
+            description.append(everyDocs > 0 ? " or " : " every ").append(everyMillis / 1000).append(" secs");
+        if (!isCommittingWhileIndexing())
+            description.append(" at the end");
+        if (commitWithinMillis > 0)
+            description.append(", commitWithin ").append(commitWithinMillis).append(" ms");
+        return description.toString();
+    }
+
+}
@@ -0,0 +1,129 @@
+package org.solrmarc.marc;
+
+import java.io.*;
+import java.util.*;
+
+import org.marc4j.MarcStreamWriter;
+import org.marc4j.MarcWriter;
+import org.marc4j.marc.Record;
+
+/**
+ * The records of a run that Solr couldn't index, to index again later with
+ *  DeadLetterReplayer:  the marc records, in UTF-8 binary marc, are appended
+ *  to the dead letter file, and a line for each,
+ *    id&lt;tab&gt;error
+ *  to its errors file (the same name, with .errors added).
+ *
+ * As the SolrProxy may report that a document failed after the importer has
+ *  moved on to later records, the most recent records sent are held, by
+ *  document id, so the record can still be written then.  Both files are
+ *  opened for each record written, as failed records should be few, so
+ *  nothing is lost if the run is killed.
+ */
+public class DeadLetterFile
+{
+    private final File file;
+    private final File errorsFile;
+    /** the most recent records sent, by document id */
+    private final Map<String, Record> heldRecords;
+    private int numWritten = 0;
+
+    /**
+     * @param file  the dead letter file;  records are added to those already in it
+     * @param maxHeldRecords  the number of recent records to hold, in case their documents fail
+     */
+    public DeadLetterFile(File file, final int maxHeldRecords)
+    {
+        this.file = file;
+        this.errorsFile = errorsFile(file);
+        heldRecords = new LinkedHashMap<String, Record>()
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Record> eldest)
+            {
+                return size() > maxHeldRecords;
+            }
+        };
+    }
+
+    /**
+     * @return the file listing the error for each record in the dead letter file
+     */
+    public static File errorsFile(File deadLetterFile)
+    {
+        return new File(deadLetterFile.getPath() + ".errors");
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    public File getErrorsFile()
+    {
+        return errorsFile;
+    }
+
+    /**
+     * @return the number of records written in this run
+     */
+    public synchronized int getNumWritten()
+    {
+        return numWritten;
+    }
+
+    /**
+     * hold the record being sent, in case Solr can't index its document
+     */
+    public synchronized void hold(String id, Record record)
+    {
+        heldRecords.put(id, record);
+    }
+
+    /**
+     * write a record Solr couldn't index, and its error
+     * @param id  the id of the record's document (or its control number)
+     * @param record  the record;  null for the record held for the id
+     * @param error  why Solr couldn't index it
+     * @return false if the record was no longer held, so only its error was written
+     */
+    public synchronized boolean write(String id, Record record, Throwable error)
+        throws IOException
+    {
+        Record held = heldRecords.remove(id);
+        if (record == null)
+            record = held;
+        if (record != null)
+        {
+            // the records are written in UTF-8, whatever they were read in
+            record.getLeader().setCharCodingScheme('a');
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(file, true));
+            try
+            {
+                MarcWriter writer = new MarcStreamWriter(out, "UTF-8", true);
+                writer.write(record);
+                writer.close();
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+
+        String message = String.valueOf(error.getMessage()).replaceAll("\\s+", " ");
+        Writer errorsOut = new OutputStreamWriter(new FileOutputStream(errorsFile, true), "UTF-8");
+        try
+        {
+            errorsOut.write(id + "\t" + (record == null ? "(record not written) " : "") + message + "\n");
+        }
+        finally
+        {
+            errorsOut.close();
+        }
+        numWritten++;
+        return record != null;
+    }
+
+}
@@ -0,0 +1,182 @@
+package org.solrmarc.marc;
+
+import java.io.*;
+
+import org.apache.log4j.Logger;
+import org.solrmarc.solr.SolrProxy;
+
+/**
+ * Index the records in the dead letter file (solrmarc.dead_letter.file)
+ *  again, as MarcImporter would, once whatever stopped Solr indexing them
+ *  has been fixed.  The dead letter file and its errors file are first moved
+ *  aside, to the same names with .replay added, so the records that fail
+ *  again are written to a new dead letter file;  the .replay files are
+ *  removed once the replay has been committed.  If a replay doesn't finish,
+ *  the next one replays its records too.
+ *
+ * Arguments:  the config properties file, then (optionally) the dead letter
+ *  file, if not the one in the config.
+ */
+public class DeadLetterReplayer extends MarcImporter
+{
+    static Logger logger = Logger.getLogger(DeadLetterReplayer.class.getName());
+
+    /** the records being replayed */
+    private File replayFile = null;
+
+    public DeadLetterReplayer()
+    {
+    }
+
+    /**
+     * Constructs an instance using given SolrProxy
+     */
+    public DeadLetterReplayer(SolrProxy solrProxy)
+    {
+        super(solrProxy);
+    }
+
+    /**
+     * @return the file the records of the dead letter file are replayed from
+     */
+    public static File replayFile(File deadLetterFile)
+    {
+        return new File(deadLetterFile.getPath() + ".replay");
+    }
+
+    /**
+     * move the dead letter file aside, and read the records from there rather
+     *  than from marc.path
+     */
+    @Override
+    protected void initFromProperties(String marcRecsFname)
+        throws FileNotFoundException
+    {
+        String deadLetterFileName = getDeadLetterFileName();
+        if (deadLetterFileName == null || deadLetterFileName.trim().length() == 0)
+            throw new IllegalArgumentException("No dead letter file to replay:  set solrmarc.dead_letter.file, or give the file");
+        File deadLetterFile = new File(deadLetterFileName.trim());
+        replayFile = replayFile(deadLetterFile);
+        try
+        {
+            appendTo(deadLetterFile, replayFile);
+            appendTo(DeadLetterFile.errorsFile(deadLetterFile), DeadLetterFile.errorsFile(replayFile));
+        }
+        catch (IOException ioe)
+        {
+            throw new IllegalArgumentException("Unable to move dead letter file " + deadLetterFile + " to " + replayFile + " -- " + ioe.getMessage());
+        }
+        if (!replayFile.exists())
+            throw new FileNotFoundException("No records to replay:  " + deadLetterFile + " not found");
+
+        logger.info("Replaying the records in " + replayFile);
+        super.initFromProperties(replayFile.getPath());
+    }
+
+    /**
+     * replay the records;  remove the .replay files if they were all indexed,
+     *  or written to the new dead letter file
+     */
+    @Override
+    public int handleAll()
+        throws IOException
+    {
+        int result = super.handleAll();
+        if (result != 0 || getMonitor().getFatalErrors() > 0)
+        {
+            logger.warn("Replay didn't finish:  the records in " + replayFile + " will be replayed again next time");
+            return result != 0 ? result : 1;
+        }
+        DeadLetterFile.errorsFile(replayFile).delete();
+        if (!replayFile.delete())
+            logger.warn("Unable to remove " + replayFile + ":  remove it, or its records will be replayed again");
+        return 0;
+    }
+
+    /**
+     * add the contents of one file to the end of another, then remove it
+     */
+    private static void appendTo(File from, File to)
+        throws IOException
+    {
+        if (!from.exists())
+            return;
+        if (!to.exists() && from.renameTo(to))
+            return;
+
+        InputStream in = new FileInputStream(from);
+        try
+        {
+            OutputStream out = new FileOutputStream(to, true);
+            try
+            {
+                byte buffer[] = new byte[64 * 1024];
+                int numRead;
+                while ((numRead = in.read(buffer)) > 0)
+                    out.write(buffer, 0, numRead);
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+        if (!from.delete())
+            throw new IOException("Unable to remove " + from + " after copying it");
+    }
+
+
+    /**
+     * Main program instantiation for replaying a dead letter file
+     * @param args  the config properties file, then (optionally) the dead letter file
+     */
+    public static void main(String[] args)
+    {
+        logger.info("Starting SolrMarc replay of records Solr couldn't index.");
+        // the records are read from the dead letter file, not marc.path
+        System.setProperty("marc.source", "FILE");
+        for (int i = 0; i < args.length; i++)
+        {
+            String lc_arg = args[i] != null ? args[i].toLowerCase() : "";
+            if (lc_arg.endsWith(".mrc") || lc_arg.endsWith(".marc"))
+            {
+                System.setProperty("solrmarc.dead_letter.file", args[i]);
+                args[i] = null;
+            }
+        }
+
+        DeadLetterReplayer replayer = null;
+        try
+        {
+            replayer = new DeadLetterReplayer();
+            replayer.init(args);
+        }
+        catch (IllegalArgumentException e)
+        {
+            logger.fatal(e.getMessage());
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+        catch (FileNotFoundException e)
+        {
+            logger.fatal(e.getMessage());
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+
+        try
+        {
+            System.exit(replayer.handleAll());
+        }
+        catch (IOException e)
+        {
+            logger.fatal(e.getMessage());
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+}
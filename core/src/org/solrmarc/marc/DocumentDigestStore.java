@@ -0,0 +1,376 @@
+package org.solrmarc.marc;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * The digests of the Solr documents committed to the index, so an
+ *  incremental run can skip the records whose documents haven't changed
+ *  since they were last sent.  Each document is kept as a 64 bit hash of its
+ *  id and a 64 bit digest of its field map (16 bytes a document, in memory
+ *  and on disk), in an open addressing hash table.
+ *
+ * Digests of the documents sent (and ids deleted) are pending until commit()
+ *  is called after a successful Solr commit, so a document that never made it
+ *  into the index is sent again by the next run.  The store file is written
+ *  by save(), to a temporary file first and renamed, so a crash while writing
+ *  leaves the last one.  The file is:
+ *    int MAGIC, int VERSION, int number of documents, then for each document
+ *    long id hash, long document digest
+ *
+ * The methods are synchronized, as the importers of several marc files
+ *  indexed at once share a store.
+ */
+public class DocumentDigestStore
+{
+    private static final int MAGIC = 0x534d4447;
+    private static final int VERSION = 1;
+    /** the pending digest of an id deleted since the last commit */
+    private static final long DELETED = -1;
+    private static final byte FIELD_SEPARATOR = 0;
+    private static final byte VALUE_SEPARATOR = 1;
+
+    private final File storeFile;
+    /** digests of the documents committed to the index */
+    private DigestTable committed = new DigestTable(1024);
+    /** digests of the documents sent, or DELETED, since the last commit */
+    private DigestTable pending = new DigestTable(1024);
+
+    /**
+     * @param storeFile  the file the digests are read from and saved to
+     */
+    public DocumentDigestStore(File storeFile)
+    {
+        this.storeFile = storeFile;
+    }
+
+    public File getFile()
+    {
+        return storeFile;
+    }
+
+    /**
+     * read the committed digests from the store file
+     * @return false if there is no store file
+     */
+    public synchronized boolean load()
+        throws IOException
+    {
+        if (!storeFile.exists())
+            return false;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(storeFile)));
+        try
+        {
+            if (in.readInt() != MAGIC)
+                throw new IOException(storeFile + " is not a document digest file");
+            int version = in.readInt();
+            if (version != VERSION)
+                throw new IOException("Unknown version " + version + " of document digest file " + storeFile);
+            int size = in.readInt();
+            DigestTable table = new DigestTable(size);
+            for (int i = 0; i < size; i++)
+            {
+                long idHash = in.readLong();
+                table.put(idHash, in.readLong());
+            }
+            committed = table;
+        }
+        catch (EOFException e)
+        {
+            throw new IOException("Document digest file " + storeFile + " is truncated");
+        }
+        finally
+        {
+            in.close();
+        }
+        pending = new DigestTable(1024);
+        return true;
+    }
+
+    /**
+     * write the committed digests to the store file;  call after commit()
+     */
+    public synchronized void save()
+        throws IOException
+    {
+        File tmpFile = new File(storeFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+        try
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(committed.size());
+            for (int i = 0; i < committed.idHashes.length; i++)
+            {
+                if (committed.idHashes[i] != 0)
+                {
+                    out.writeLong(committed.idHashes[i]);
+                    out.writeLong(committed.digests[i]);
+                }
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+        // renameTo won't replace an existing file on all platforms
+        if (!tmpFile.renameTo(storeFile) && !(storeFile.delete() && tmpFile.renameTo(storeFile)))
+            throw new IOException("Unable to rename " + tmpFile + " to " + storeFile);
+    }
+
+    /**
+     * @return true if the document with the id was committed with this digest
+     *  (and hasn't been sent or deleted since), so needn't be sent again
+     */
+    public synchronized boolean isUnchanged(String id, long digest)
+    {
+        long idHash = idHash(id);
+        return pending.get(idHash) == 0 && committed.get(idHash) == digest;
+    }
+
+    /**
+     * note a document sent to the index;  its digest is committed by the next commit()
+     */
+    public synchronized void sent(String id, long digest)
+    {
+        pending.put(idHash(id), digest);
+    }
+
+    /**
+     * note a document deleted from the index;  its digest is removed by the next commit()
+     */
+    public synchronized void deleted(String id)
+    {
+        pending.put(idHash(id), DELETED);
+    }
+
+    /**
+     * forget a document sent since the last commit that couldn't be added to
+     *  the index, so its committed digest (if any) is left as it was
+     */
+    public synchronized void failed(String id)
+    {
+        pending.remove(idHash(id));
+    }
+
+    /**
+     * the pending documents are in the index:  call after a successful Solr commit
+     */
+    public synchronized void commit()
+    {
+        for (int i = 0; i < pending.idHashes.length; i++)
+        {
+            long idHash = pending.idHashes[i];
+            if (idHash == 0)
+                continue;
+            if (pending.digests[i] == DELETED)
+                committed.remove(idHash);
+            else
+                committed.put(idHash, pending.digests[i]);
+        }
+        pending = new DigestTable(1024);
+    }
+
+    /**
+     * @return the number of documents committed
+     */
+    public synchronized int size()
+    {
+        return committed.size();
+    }
+
+    /**
+     * @return the number of documents sent or deleted since the last commit
+     */
+    public synchronized int pendingSize()
+    {
+        return pending.size();
+    }
+
+    /**
+     * @return a digest of the document:  its field names and values, in
+     *  order of field name and, for a field with several values, in the
+     *  order of the values
+     */
+    public static long digest(Map<String, Object> fields2ValuesMap)
+    {
+        MessageDigest md5 = newMd5();
+        List<String> fieldNames = new ArrayList<String>(fields2ValuesMap.keySet());
+        Collections.sort(fieldNames);
+        for (String fieldName : fieldNames)
+        {
+            update(md5, fieldName);
+            md5.update(FIELD_SEPARATOR);
+            Object value = fields2ValuesMap.get(fieldName);
+            if (value instanceof Collection)
+            {
+                for (Object eachValue : (Collection<?>) value)
+                {
+                    update(md5, String.valueOf(eachValue));
+                    md5.update(VALUE_SEPARATOR);
+                }
+            }
+            else
+                update(md5, String.valueOf(value));
+            md5.update(FIELD_SEPARATOR);
+        }
+        long digest = fold(md5.digest());
+        // keep clear of the values the tables use
+        return digest == 0 || digest == DELETED ? 1 : digest;
+    }
+
+    private static long idHash(String id)
+    {
+        MessageDigest md5 = newMd5();
+        update(md5, id);
+        long idHash = fold(md5.digest());
+        return idHash == 0 ? 1 : idHash;
+    }
+
+    private static MessageDigest newMd5()
+    {
+        try
+        {
+            return MessageDigest.getInstance("MD5");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            // every Java platform has MD5
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void update(MessageDigest md5, String value)
+    {
+        try
+        {
+            md5.update(value.getBytes("UTF-8"));
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            // every Java platform has UTF-8
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the 128 bit MD5 digest folded to 64 bits
+     */
+    private static long fold(byte md5[])
+    {
+        long digest = 0;
+        for (int i = 0; i < 8; i++)
+            digest = (digest << 8) | ((md5[i] ^ md5[i + 8]) & 0xff);
+        return digest;
+    }
+
+
+    /**
+     * Hash table of id hash -> digest, with linear probing.  An id hash of 0
+     *  marks an empty slot;  get() returns 0 for an id that isn't there.
+     */
+    private static class DigestTable
+    {
+        long idHashes[];
+        long digests[];
+        private int size = 0;
+
+        DigestTable(int expectedSize)
+        {
+            int capacity = 16;
+            while (capacity < expectedSize * 2)
+                capacity <<= 1;
+            idHashes = new long[capacity];
+            digests = new long[capacity];
+        }
+
+        int size()
+        {
+            return size;
+        }
+
+        long get(long idHash)
+        {
+            int slot = find(idHash);
+            return idHashes[slot] == idHash ? digests[slot] : 0;
+        }
+
+        void put(long idHash, long digest)
+        {
+            int slot = find(idHash);
+            if (idHashes[slot] == 0)
+            {
+                if ((size + 1) * 2 > idHashes.length)
+                {
+                    grow();
+                    slot = find(idHash);
+                }
+                idHashes[slot] = idHash;
+                size++;
+            }
+            digests[slot] = digest;
+        }
+
+        void remove(long idHash)
+        {
+            int slot = find(idHash);
+            if (idHashes[slot] == 0)
+                return;
+            idHashes[slot] = 0;
+            size--;
+            // move the entries after it that it was in the way of
+            int mask = idHashes.length - 1;
+            int next = (slot + 1) & mask;
+            while (idHashes[next] != 0)
+            {
+                int home = home(idHashes[next]);
+                // the entry can fill the empty slot if the slot is between its home and it
+                if (((next - home) & mask) >= ((next - slot) & mask))
+                {
+                    idHashes[slot] = idHashes[next];
+                    digests[slot] = digests[next];
+                    idHashes[next] = 0;
+                    slot = next;
+                }
+                next = (next + 1) & mask;
+            }
+        }
+
+        /**
+         * @return the slot with the id hash, or the empty slot where it would go
+         */
+        private int find(long idHash)
+        {
+            int mask = idHashes.length - 1;
+            int slot = home(idHash);
+            while (idHashes[slot] != 0 && idHashes[slot] != idHash)
+                slot = (slot + 1) & mask;
+            return slot;
+        }
+
+        private int home(long idHash)
+        {
+            return (int) (idHash ^ (idHash >>> 32)) & (idHashes.length - 1);
+        }
+
+        private void grow()
+        {
+            long oldIdHashes[] = idHashes;
+            long oldDigests[] = digests;
+            idHashes = new long[oldIdHashes.length * 2];
+            digests = new long[oldDigests.length * 2];
+            for (int i = 0; i < oldIdHashes.length; i++)
+            {
+                if (oldIdHashes[i] != 0)
+                {
+                    int slot = find(oldIdHashes[i]);
+                    idHashes[slot] = oldIdHashes[i];
+                    digests[slot] = oldDigests[i];
+                }
+            }
+        }
+    }
+
+}
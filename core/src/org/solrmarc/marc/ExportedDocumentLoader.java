@@ -0,0 +1,261 @@
+package org.solrmarc.marc;
+
+import java.io.*;
+import java.util.*;
+
+import org.apache.log4j.Logger;
+import org.solrmarc.solr.*;
+import org.solrmarc.tools.DateUtils;
+
+/**
+ * Load the documents written by MarcImporter with solrmarc.export.dir into
+ *  Solr, in batches of solrmarc.load.batch_size documents a request, and
+ *  delete the ids deleted, in the order they were exported:  a run of adds
+ *  is sent before the deletes that follow it, and a run of deletes before
+ *  the adds that follow it.  Then commit as MarcImporter does
+ *  (solr.commit_at_end, solr.optimize_at_end).  The connection to Solr
+ *  is configured by the same properties as for MarcImporter.  Loading the
+ *  same files again replaces the same documents, so a failed load can be
+ *  run again.
+ *
+ * Arguments:  the config properties file, then the export directories or
+ *  the document files (.jsonl.gz or .javabin.gz) to load.
+ */
+public class ExportedDocumentLoader extends MarcImporter
+{
+    static Logger logger = Logger.getLogger(ExportedDocumentLoader.class.getName());
+
+    /** number of documents to send to Solr in a request */
+    private int batchSize = 500;
+    private final List<File> documentFiles = new ArrayList<File>();
+    private int idsDeleted = 0;
+
+    public ExportedDocumentLoader()
+    {
+    }
+
+    /**
+     * Constructs an instance using given SolrProxy
+     */
+    public ExportedDocumentLoader(SolrProxy solrProxy)
+    {
+        this();
+        this.solrProxy = solrProxy;
+    }
+
+    /**
+     * the loader sends the documents to Solr, whether or not the
+     *  configuration exports them
+     */
+    @Override
+    protected String getExportDirName()
+    {
+        return null;
+    }
+
+    @Override
+    protected void loadLocalProperties()
+    {
+        super.loadLocalProperties();
+        batchSize = parseIntProperty("solrmarc.load.batch_size", 500);
+        if (batchSize < 1)
+            batchSize = 1;
+    }
+
+    /**
+     * the arguments after the config file are export directories or document files
+     */
+    @Override
+    protected void processAdditionalArgs()
+    {
+        for (String arg : addnlArgs)
+        {
+            File file = new File(arg);
+            if (file.isDirectory())
+                documentFiles.addAll(ExportedDocumentReader.listDocumentFiles(file));
+            else if (DocumentExportProxy.Format.ofFile(file.getName()) != null)
+                documentFiles.add(file);
+            else
+                logger.warn("Ignoring " + arg + ":  not an export directory or exported document file");
+        }
+    }
+
+    /**
+     * load the documents and delete the deleted ids, then commit
+     */
+    @Override
+    public int handleAll()
+    {
+        Runtime.getRuntime().addShutdownHook(new MyShutdownThread(this));
+        startMonitor();
+        Date start = new Date();
+        boolean failed = false;
+        try
+        {
+            loadDocuments();
+            // ids in marc.ids_to_delete, as for MarcImporter
+            deleteRecords();
+        }
+        catch (Exception e)
+        {
+            logger.error("Exception occurred while loading documents: " + e.getMessage());
+            logger.info("Setting Solr closed flag");
+            isShutDown = true;
+            failed = true;
+        }
+        finally
+        {
+            stopMonitor();
+        }
+
+        long totalTime = new Date().getTime() - start.getTime();
+        logger.info("Loaded " + recsIndexedCounter + " of " + recsReadCounter + " documents from " + documentFiles.size() +
+                    " files, and deleted " + idsDeleted + " ids, in " + DateUtils.calcTime(totalTime));
+
+        if (!isShutDown)
+            finish();
+        return shuttingDown || failed ? 1 : 0;
+    }
+
+    /**
+     * send the documents in each file to Solr, batchSize at a time, and
+     *  delete the deleted ids, in the order they are in the files
+     */
+    private void loadDocuments()
+        throws IOException
+    {
+        List<Map<String, Object>> batch = new ArrayList<Map<String, Object>>();
+        List<String> deletes = new ArrayList<String>();
+        for (File documentFile : documentFiles)
+        {
+            if (shuttingDown)
+                break;
+            logger.info("Loading documents from " + documentFile);
+            ExportedDocumentReader reader = new ExportedDocumentReader(documentFile);
+            try
+            {
+                Map<String, Object> doc;
+                while ((doc = reader.next()) != null)
+                {
+                    monitor.waitWhilePaused();
+                    if (shuttingDown)
+                        break;
+                    String deletedId = DocumentExportProxy.getDeletedId(doc);
+                    if (deletedId != null)
+                    {
+                        sendBatch(batch);
+                        deletes.add(deletedId);
+                        if (deletes.size() >= batchSize)
+                            sendDeletes(deletes);
+                        continue;
+                    }
+                    sendDeletes(deletes);
+                    recsReadCounter++;
+                    monitor.setCurrentRecordId(String.valueOf(doc.get("id")));
+                    batch.add(doc);
+                    if (batch.size() >= batchSize)
+                        sendBatch(batch);
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        sendBatch(batch);
+        sendDeletes(deletes);
+    }
+
+    /**
+     * send the documents to Solr in one request, and clear the batch.  Documents
+     *  Solr refuses are logged and skipped;  if Solr can't be reached, the
+     *  load halts.
+     */
+    private void sendBatch(List<Map<String, Object>> batch)
+        throws IOException
+    {
+        if (batch.isEmpty())
+            return;
+        long start = System.nanoTime();
+        try
+        {
+            solrProxy.addDocs(batch);
+            recsIndexedCounter += batch.size();
+        }
+        catch (SolrBatchException sbe)
+        {
+            recsIndexedCounter += batch.size() - sbe.getFailures().size();
+            for (Map.Entry<String, RuntimeException> failure : sbe.getFailures().entrySet())
+            {
+                logger.error("Unable to load document " + failure.getKey() + " -- " + failure.getValue().getMessage());
+                if (failure.getValue() instanceof SolrRuntimeException)
+                {
+                    logger.fatal("******** Halting loading! ********");
+                    monitor.addFatalError();
+                    throw failure.getValue();
+                }
+                monitor.addSolrRejection();
+            }
+        }
+        finally
+        {
+            addSolrCall(start);
+            batch.clear();
+        }
+    }
+
+    /**
+     * delete the ids from Solr in one request, and clear them
+     */
+    private void sendDeletes(List<String> deletes)
+        throws IOException
+    {
+        if (deletes.isEmpty())
+            return;
+        long start = System.nanoTime();
+        try
+        {
+            solrProxy.delete(deletes);
+            idsDeleted += deletes.size();
+        }
+        finally
+        {
+            addSolrCall(start);
+            deletes.clear();
+        }
+    }
+
+
+    /**
+     * Main program instantiation for loading exported documents
+     * @param args  the config properties file, then export directories or document files
+     */
+    public static void main(String[] args)
+    {
+        logger.info("Starting SolrMarc loading of exported documents.");
+        // the documents are read from the export files, not from marc
+        System.setProperty("marc.source", "NONE");
+
+        ExportedDocumentLoader loader = null;
+        try
+        {
+            loader = new ExportedDocumentLoader();
+            loader.init(args);
+        }
+        catch (IllegalArgumentException e)
+        {
+            logger.fatal(e.getMessage());
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+        catch (FileNotFoundException e)
+        {
+            logger.fatal(e.getMessage());
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+
+        System.exit(loader.handleAll());
+    }
+
+}
@@ -0,0 +1,350 @@
+package org.solrmarc.marc;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.*;
+
+import org.apache.log4j.Logger;
+import org.solrmarc.tools.LatencyHistogram;
+
+/**
+ * Live view and control of a MarcImporter run over JMX, so a run of several
+ *  hours can be watched with jconsole (or any JMX client) rather than from
+ *  its log.  MarcImporter registers its monitor with the platform MBean
+ *  server while handleAll() runs, as
+ *    org.solrmarc:type=ImporterMonitor,name=<importer class>
+ *  unless solrmarc.indexing.jmx is false.
+ *
+ * The counts are updated by the importer (and, for read errors, by the
+ *  reader thread of an IndexingPipeline) while a JMX client reads them.
+ */
+public class ImporterMonitor implements ImporterMonitorMBean
+{
+    static Logger logger = Logger.getLogger(ImporterMonitor.class.getName());
+
+    /** how often a paused importer checks whether it has been stopped */
+    private static final long PAUSE_CHECK_MILLIS = 1000;
+
+    private final MarcImporter importer;
+    private ObjectName objectName = null;
+    private volatile long startMillis = System.currentTimeMillis();
+
+    private volatile String currentRecordId = null;
+    private final AtomicInteger readErrors = new AtomicInteger();
+    private final AtomicInteger indexingErrors = new AtomicInteger();
+    private final AtomicInteger solrRejections = new AtomicInteger();
+    private final AtomicInteger deadLetters = new AtomicInteger();
+    private final AtomicInteger ignoredRecords = new AtomicInteger();
+    private final AtomicInteger deletedByIndexer = new AtomicInteger();
+    private final AtomicInteger unchangedRecords = new AtomicInteger();
+    private final AtomicInteger fatalErrors = new AtomicInteger();
+    private final LatencyHistogram solrLatency = new LatencyHistogram();
+
+    private volatile boolean paused = false;
+    private final Object pauseLock = new Object();
+
+    public ImporterMonitor(MarcImporter importer)
+    {
+        this.importer = importer;
+    }
+
+    /**
+     * start the clock for a run
+     */
+    void start()
+    {
+        startMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Register with the platform MBean server.  If another importer in this
+     *  JVM is registered under the same name, an instance number is added to
+     *  the name.  A failure to register is logged, and indexing goes on without it.
+     */
+    void register()
+    {
+        if (objectName != null)
+            return;
+        String name = "org.solrmarc:type=ImporterMonitor,name=" + importer.getClass().getSimpleName();
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            for (int instance = 1; objectName == null; instance++)
+            {
+                ObjectName candidate = new ObjectName(instance == 1 ? name : name + ",instance=" + instance);
+                try
+                {
+                    server.registerMBean(this, candidate);
+                    objectName = candidate;
+                }
+                catch (InstanceAlreadyExistsException e)
+                {
+                    // try the next instance number
+                }
+            }
+            logger.debug("Registered " + objectName);
+        }
+        catch (Exception e)
+        {
+            logger.warn("Unable to register JMX monitor " + name + " -- " + e.getMessage());
+        }
+    }
+
+    /**
+     * unregister from the platform MBean server, if registered
+     */
+    void unregister()
+    {
+        if (objectName == null)
+            return;
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        }
+        catch (Exception e)
+        {
+            logger.warn("Unable to unregister JMX monitor " + objectName + " -- " + e.getMessage());
+        }
+        objectName = null;
+    }
+
+    /**
+     * @return the name the monitor is registered under;  null if not registered
+     */
+    public ObjectName getObjectName()
+    {
+        return objectName;
+    }
+
+    void setCurrentRecordId(String id)
+    {
+        currentRecordId = id;
+    }
+
+    void addReadError()
+    {
+        readErrors.incrementAndGet();
+    }
+
+    void addIndexingError()
+    {
+        indexingErrors.incrementAndGet();
+    }
+
+    void addSolrRejection()
+    {
+        solrRejections.incrementAndGet();
+    }
+
+    void addDeadLetter()
+    {
+        deadLetters.incrementAndGet();
+    }
+
+    void addIgnoredRecord()
+    {
+        ignoredRecords.incrementAndGet();
+    }
+
+    void addDeletedByIndexer()
+    {
+        deletedByIndexer.incrementAndGet();
+    }
+
+    void addUnchangedRecord()
+    {
+        unchangedRecords.incrementAndGet();
+    }
+
+    void addFatalError()
+    {
+        fatalErrors.incrementAndGet();
+    }
+
+    /**
+     * @param nanos  time a call to the SolrProxy took
+     */
+    void addSolrCall(long nanos)
+    {
+        solrLatency.add(nanos);
+    }
+
+    /**
+     * called by the importer before each record:  if the run is paused, wait
+     *  until it is resumed or stopped
+     */
+    void waitWhilePaused()
+    {
+        if (!paused)
+            return;
+        synchronized (pauseLock)
+        {
+            while (paused && !importer.shuttingDown)
+            {
+                try
+                {
+                    pauseLock.wait(PAUSE_CHECK_MILLIS);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    public String getImporterClass()
+    {
+        return importer.getClass().getName();
+    }
+
+    public String getRunningTime()
+    {
+        long secs = (System.currentTimeMillis() - startMillis) / 1000;
+        return String.format("%d:%02d", secs / 60, secs % 60);
+    }
+
+    public int getRecordsRead()
+    {
+        return importer.getRecsReadCount();
+    }
+
+    public int getRecordsIndexed()
+    {
+        return importer.getRecsIndexedCount();
+    }
+
+    public int getRecordsDeleted()
+    {
+        return importer.getRecsDeletedCount();
+    }
+
+    public double getRecordsPerSecond()
+    {
+        long millis = System.currentTimeMillis() - startMillis;
+        return millis > 0 ? getRecordsIndexed() * 1000.0 / millis : 0;
+    }
+
+    public String getCurrentRecordId()
+    {
+        return currentRecordId;
+    }
+
+    public int getReadErrors()
+    {
+        return readErrors.get();
+    }
+
+    public int getIndexingErrors()
+    {
+        return indexingErrors.get();
+    }
+
+    public int getSolrRejections()
+    {
+        return solrRejections.get();
+    }
+
+    public int getDeadLetters()
+    {
+        return deadLetters.get();
+    }
+
+    public int getIgnoredRecords()
+    {
+        return ignoredRecords.get();
+    }
+
+    public int getDeletedByIndexer()
+    {
+        return deletedByIndexer.get();
+    }
+
+    public int getUnchangedRecords()
+    {
+        return unchangedRecords.get();
+    }
+
+    public int getFatalErrors()
+    {
+        return fatalErrors.get();
+    }
+
+    public long getSolrCalls()
+    {
+        return solrLatency.getCount();
+    }
+
+    public double getSolrLatencyMeanMillis()
+    {
+        return solrLatency.getMeanMillis();
+    }
+
+    public double getSolrLatency50thMillis()
+    {
+        return solrLatency.getPercentileMillis(50);
+    }
+
+    public double getSolrLatency90thMillis()
+    {
+        return solrLatency.getPercentileMillis(90);
+    }
+
+    public double getSolrLatency99thMillis()
+    {
+        return solrLatency.getPercentileMillis(99);
+    }
+
+    public double getSolrLatencyMaxMillis()
+    {
+        return solrLatency.getMaxMillis();
+    }
+
+    public boolean isPaused()
+    {
+        return paused;
+    }
+
+    public boolean isStopping()
+    {
+        return importer.shuttingDown;
+    }
+
+    public void pause()
+    {
+        if (!paused && !importer.shuttingDown)
+        {
+            logger.info("Pausing indexing after " + getRecordsRead() + " records read");
+            paused = true;
+        }
+    }
+
+    public void resume()
+    {
+        synchronized (pauseLock)
+        {
+            if (paused)
+                logger.info("Resuming indexing after " + getRecordsRead() + " records read");
+            paused = false;
+            pauseLock.notifyAll();
+        }
+    }
+
+    public void stop()
+    {
+        logger.info("Stopping indexing after " + getRecordsRead() + " records read");
+        importer.shutDown();
+        synchronized (pauseLock)
+        {
+            pauseLock.notifyAll();
+        }
+    }
+
+    public void resetSolrLatency()
+    {
+        solrLatency.reset();
+    }
+
+}
@@ -0,0 +1,104 @@
+package org.solrmarc.marc;
+
+/**
+ * The JMX management interface of a running MarcImporter (or SolrReIndexer
+ *  or BooklistReader):  live counts for the run, the record being indexed,
+ *  errors by category, the latency of calls to Solr, and operations to pause,
+ *  resume or stop the run.  See ImporterMonitor.
+ */
+public interface ImporterMonitorMBean
+{
+    /** @return the class of the importer, such as org.solrmarc.marc.MarcImporter */
+    public String getImporterClass();
+
+    /** @return time since the run started, as minutes:seconds */
+    public String getRunningTime();
+
+    /** @return records read so far */
+    public int getRecordsRead();
+
+    /** @return records sent to the index so far */
+    public int getRecordsIndexed();
+
+    /** @return records deleted from the index so far */
+    public int getRecordsDeleted();
+
+    /** @return records indexed per second over the run so far */
+    public double getRecordsPerSecond();
+
+    /** @return the id of the record currently being indexed (or the last one indexed) */
+    public String getCurrentRecordId();
+
+    /** @return records that couldn't be read, and were skipped */
+    public int getReadErrors();
+
+    /** @return records that couldn't be mapped to a Solr document, and were skipped */
+    public int getIndexingErrors();
+
+    /** @return documents Solr refused, such as those missing a required field */
+    public int getSolrRejections();
+
+    /** @return records written to the dead letter file, as Solr couldn't index them */
+    public int getDeadLetters();
+
+    /** @return records the indexing specs said to ignore */
+    public int getIgnoredRecords();
+
+    /** @return records the indexing specs said to delete from the index */
+    public int getDeletedByIndexer();
+
+    /** @return records not sent because their documents are unchanged since last committed */
+    public int getUnchangedRecords();
+
+    /** @return errors that halted the run */
+    public int getFatalErrors();
+
+    /** @return calls made to Solr to add documents, flush, or delete */
+    public long getSolrCalls();
+
+    /** @return mean latency of the calls to Solr, in milliseconds */
+    public double getSolrLatencyMeanMillis();
+
+    /** @return median latency of the calls to Solr, in milliseconds */
+    public double getSolrLatency50thMillis();
+
+    /** @return 90th percentile latency of the calls to Solr, in milliseconds */
+    public double getSolrLatency90thMillis();
+
+    /** @return 99th percentile latency of the calls to Solr, in milliseconds */
+    public double getSolrLatency99thMillis();
+
+    /** @return longest call to Solr, in milliseconds */
+    public double getSolrLatencyMaxMillis();
+
+    /** @return true if the run is paused */
+    public boolean isPaused();
+
+    /** @return true if the run has been asked to stop */
+    public boolean isStopping();
+
+    /**
+     * pause the run before the next record;  records already read are held
+     *  until resume() is called
+     */
+    public void pause();
+
+    /**
+     * resume a paused run
+     */
+    public void resume();
+
+    /**
+     * stop the run gracefully:  stop reading records, send the documents
+     *  already mapped, and close the index without optimizing it, as when
+     *  the process is interrupted
+     */
+    public void stop();
+
+    /**
+     * forget the Solr latencies so far, so the percentiles are for the calls
+     *  from now on
+     */
+    public void resetSolrLatency();
+
+}
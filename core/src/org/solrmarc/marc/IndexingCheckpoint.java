@@ -0,0 +1,208 @@
+package org.solrmarc.marc;
+
+import java.io.*;
+import java.util.Date;
+import java.util.Properties;
+
+/**
+ * The sidecar file MarcImporter writes after each successful Solr commit when
+ *  checkpointing, so an indexing run that dies part way through a marc file
+ *  can be resumed (with -resume) from the last commit rather than from the
+ *  first record.  It is a properties file:
+ *    marc.file, marc.file.length, marc.file.modified - the marc file indexed,
+ *        so a checkpoint for an earlier file of the same name isn't used
+ *    offset - byte offset of the first record not yet committed (-1 if not known)
+ *    records - number of records in the marc file before that offset
+ *    last.committed.id - id of the last record committed
+ *    complete - true once the whole file has been indexed and committed
+ */
+public class IndexingCheckpoint
+{
+    /** the MARC record terminator, which ends every record in a binary marc file */
+    private static final int RECORD_TERMINATOR = 0x1D;
+
+    private final File checkpointFile;
+
+    private String marcFileName = null;
+    private long marcFileLength = -1;
+    private long marcFileModified = -1;
+    private MarcInputPosition position = new MarcInputPosition(0, 0);
+    private String lastCommittedId = null;
+    private boolean complete = false;
+
+    /**
+     * @param checkpointFile  the sidecar file
+     */
+    public IndexingCheckpoint(File checkpointFile)
+    {
+        this.checkpointFile = checkpointFile;
+    }
+
+    /**
+     * @return the default sidecar file for a marc file:  the marc file's name
+     *  with .checkpoint added
+     */
+    public static File defaultCheckpointFile(String marcFileName)
+    {
+        return new File(marcFileName + ".checkpoint");
+    }
+
+    public File getFile()
+    {
+        return checkpointFile;
+    }
+
+    /**
+     * read the checkpoint from the sidecar file
+     * @return false if there is no sidecar file
+     */
+    public boolean load()
+        throws IOException
+    {
+        if (!checkpointFile.exists())
+            return false;
+        Properties props = new Properties();
+        InputStream in = new FileInputStream(checkpointFile);
+        try
+        {
+            props.load(in);
+        }
+        finally
+        {
+            in.close();
+        }
+
+        try
+        {
+            marcFileName = props.getProperty("marc.file");
+            marcFileLength = Long.parseLong(props.getProperty("marc.file.length", "-1"));
+            marcFileModified = Long.parseLong(props.getProperty("marc.file.modified", "-1"));
+            position = new MarcInputPosition(Long.parseLong(props.getProperty("offset", "-1")),
+                                             Integer.parseInt(props.getProperty("records", "0")));
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IOException("Bad number in checkpoint file " + checkpointFile + " -- " + e.getMessage());
+        }
+        lastCommittedId = props.getProperty("last.committed.id");
+        complete = Boolean.parseBoolean(props.getProperty("complete", "false"));
+        return true;
+    }
+
+    /**
+     * Write the checkpoint to the sidecar file.  It is written to a temporary
+     *  file first and renamed, so a crash while writing leaves the last one.
+     * @param marcFile  the marc file being indexed;  null if not reading a file
+     * @param position  where to resume reading the marc input
+     * @param lastId  id of the last record committed
+     * @param done  true if the whole input has been indexed and committed
+     */
+    public void save(File marcFile, MarcInputPosition position, String lastId, boolean done)
+        throws IOException
+    {
+        this.position = position;
+        this.lastCommittedId = lastId;
+        this.complete = done;
+        if (marcFile != null)
+        {
+            marcFileName = marcFile.getName();
+            marcFileLength = marcFile.length();
+            marcFileModified = marcFile.lastModified();
+        }
+
+        Properties props = new Properties();
+        if (marcFileName != null)
+        {
+            props.setProperty("marc.file", marcFileName);
+            props.setProperty("marc.file.length", String.valueOf(marcFileLength));
+            props.setProperty("marc.file.modified", String.valueOf(marcFileModified));
+        }
+        props.setProperty("offset", String.valueOf(position.getOffset()));
+        props.setProperty("records", String.valueOf(position.getRecords()));
+        if (lastId != null)
+            props.setProperty("last.committed.id", lastId);
+        props.setProperty("complete", String.valueOf(done));
+
+        File tmpFile = new File(checkpointFile.getPath() + ".tmp");
+        OutputStream out = new FileOutputStream(tmpFile);
+        try
+        {
+            props.store(out, "solrmarc indexing checkpoint " + new Date());
+        }
+        finally
+        {
+            out.close();
+        }
+        // renameTo won't replace an existing file on all platforms
+        if (!tmpFile.renameTo(checkpointFile) && !(checkpointFile.delete() && tmpFile.renameTo(checkpointFile)))
+            throw new IOException("Unable to rename " + tmpFile + " to " + checkpointFile);
+    }
+
+    /**
+     * @return true if the checkpoint was written for this marc file (the same
+     *  name, length and modification time), rather than an earlier file
+     */
+    public boolean isFor(File marcFile)
+    {
+        return marcFile.getName().equals(marcFileName) && marcFile.length() == marcFileLength &&
+               marcFile.lastModified() == marcFileModified;
+    }
+
+    public MarcInputPosition getPosition()
+    {
+        return position;
+    }
+
+    public String getLastCommittedId()
+    {
+        return lastCommittedId;
+    }
+
+    public boolean isComplete()
+    {
+        return complete;
+    }
+
+    /**
+     * @return true if a binary marc record starts at the offset in the marc
+     *  file:  it follows a record terminator, and starts with a record length
+     */
+    public static boolean isRecordStart(File marcFile, long offset)
+    {
+        if (offset < 0 || offset > marcFile.length())
+            return false;
+        if (offset == marcFile.length())
+            return true;
+        try
+        {
+            RandomAccessFile file = new RandomAccessFile(marcFile, "r");
+            try
+            {
+                if (offset > 0)
+                {
+                    file.seek(offset - 1);
+                    if (file.read() != RECORD_TERMINATOR)
+                        return false;
+                }
+                else
+                    file.seek(0);
+                for (int i = 0; i < 5; i++)
+                {
+                    int b = file.read();
+                    if (b < '0' || b > '9')
+                        return false;
+                }
+                return true;
+            }
+            finally
+            {
+                file.close();
+            }
+        }
+        catch (IOException e)
+        {
+            return false;
+        }
+    }
+
+}
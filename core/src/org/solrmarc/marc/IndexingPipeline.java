@@ -0,0 +1,348 @@
+package org.solrmarc.marc;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.apache.log4j.Logger;
+import org.marc4j.ErrorHandler;
+import org.marc4j.MarcReader;
+import org.marc4j.marc.Record;
+import org.solrmarc.index.SolrIndexer;
+import org.solrmarc.tools.SolrMarcRuntimeException;
+
+/**
+ * Multi-threaded version of the MarcImporter read-map-send loop.
+ *
+ * One reader thread pulls records from the MarcReader into a bounded queue;
+ * N mapping workers take records from that queue and turn them into
+ * Solr field maps, each worker using its own SolrIndexer instance (indexers
+ * keep per-record state in instance variables, so they can't be shared);
+ * the thread calling run() is the sender, handing each mapped record back to
+ * MarcImporter to be written to the index.  Only the sender touches the
+ * SolrProxy.
+ *
+ * If preserveOrder is true, documents are sent in the order the records were
+ * read from the file;  otherwise they are sent as soon as they are mapped.
+ */
+public class IndexingPipeline
+{
+    /** marker passed down the queues to tell a stage there is no more input */
+    private static final RecordWork END_OF_INPUT = new RecordWork(-1, 0, null, null, null);
+
+    private final MarcImporter importer;
+    private final MarcReader reader;
+    /** the ErrorHandler the reader writes into for the record it just read */
+    private final ErrorHandler readerErrors;
+    private final List<SolrIndexer> indexers;
+    private final boolean preserveOrder;
+
+    private final BlockingQueue<RecordWork> toMap;
+    private final BlockingQueue<RecordWork> toSend;
+    /** limits the records read but not yet sent, so the reorder buffer can't grow without bound */
+    private final Semaphore inFlight;
+
+    private volatile boolean stopped = false;
+    private volatile int recsReadCounter = 0;
+    private volatile Throwable readerFailure = null;
+
+    private Thread readerThread;
+    private final List<Thread> workerThreads = new ArrayList<Thread>();
+
+    // Initialize logging category
+    static Logger logger = Logger.getLogger(IndexingPipeline.class.getName());
+
+    /**
+     * @param importer  the MarcImporter that writes mapped records to the index
+     * @param reader  source of the marc records
+     * @param readerErrors  ErrorHandler used by the reader (may be null)
+     * @param indexers  one SolrIndexer per mapping worker
+     * @param queueSize  maximum number of records waiting to be mapped
+     * @param preserveOrder  true if documents must be sent in the order read
+     */
+    public IndexingPipeline(MarcImporter importer, MarcReader reader, ErrorHandler readerErrors,
+                            List<SolrIndexer> indexers, int queueSize, boolean preserveOrder)
+    {
+        if (indexers == null || indexers.size() == 0)
+            throw new IllegalArgumentException("IndexingPipeline needs at least one SolrIndexer");
+        if (queueSize < 1)
+            queueSize = 1;
+        this.importer = importer;
+        this.reader = reader;
+        this.readerErrors = readerErrors;
+        this.indexers = indexers;
+        this.preserveOrder = preserveOrder;
+        toMap = new ArrayBlockingQueue<RecordWork>(queueSize);
+        toSend = new LinkedBlockingQueue<RecordWork>();
+        inFlight = new Semaphore(2 * queueSize + indexers.size());
+    }
+
+    /**
+     * Run the pipeline to completion:  read all the records, map them and
+     *  send them to the index.  Exceptions that should halt indexing (thrown
+     *  by the importer while sending) are propagated after all the pipeline
+     *  threads have been stopped.
+     * @return the number of records read
+     */
+    public int run()
+    {
+        startThreads();
+        try
+        {
+            int workersDone = 0;
+            long nextSeq = 0;
+            Map<Long, RecordWork> reorderBuffer = new HashMap<Long, RecordWork>();
+            while (workersDone < indexers.size())
+            {
+                RecordWork work = toSend.take();
+                if (work == END_OF_INPUT)
+                {
+                    workersDone++;
+                    continue;
+                }
+                if (!preserveOrder)
+                {
+                    send(work);
+                    continue;
+                }
+                reorderBuffer.put(work.seq, work);
+                while ((work = reorderBuffer.remove(nextSeq)) != null)
+                {
+                    nextSeq++;
+                    send(work);
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            logger.warn("Indexing pipeline interrupted; stopping");
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            stop();
+        }
+
+        if (readerFailure instanceof RuntimeException)
+            throw (RuntimeException) readerFailure;
+        if (readerFailure instanceof Error)
+            throw (Error) readerFailure;
+
+        return recsReadCounter;
+    }
+
+    /**
+     * @return the number of records read so far
+     */
+    public int getRecsReadCount()
+    {
+        return recsReadCounter;
+    }
+
+    /**
+     * @return the number of records read and waiting to be mapped
+     */
+    public int getMapQueueSize()
+    {
+        return toMap.size();
+    }
+
+    /**
+     * @return the number of mapped records waiting to be sent
+     */
+    public int getSendQueueSize()
+    {
+        return toSend.size();
+    }
+
+    private void send(RecordWork work)
+    {
+        try
+        {
+            if (work.failure instanceof Error)
+                throw (Error) work.failure;
+            importer.indexMappedRecord(work.record, work.recNum, work.fldsMap, work.errors, (Exception) work.failure, work.position);
+        }
+        finally
+        {
+            inFlight.release();
+        }
+    }
+
+    private void startThreads()
+    {
+        readerThread = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                readRecords();
+            }
+        }, "solrmarc-reader");
+        readerThread.setDaemon(true);
+
+        for (int i = 0; i < indexers.size(); i++)
+        {
+            final SolrIndexer workerIndexer = indexers.get(i);
+            Thread worker = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    mapRecords(workerIndexer);
+                }
+            }, "solrmarc-mapper-" + (i + 1));
+            worker.setDaemon(true);
+            workerThreads.add(worker);
+        }
+
+        for (Thread worker : workerThreads)
+            worker.start();
+        readerThread.start();
+    }
+
+    /**
+     * stop all the pipeline threads;  records not yet sent are discarded
+     */
+    private void stop()
+    {
+        stopped = true;
+        if (readerThread != null)
+            readerThread.interrupt();
+        for (Thread worker : workerThreads)
+            worker.interrupt();
+    }
+
+    /**
+     * reader stage: mirrors the record reading part of MarcImporter.importRecords()
+     */
+    private void readRecords()
+    {
+        long seq = 0;
+        int recNum = 0;
+        try
+        {
+            while (!stopped && !importer.shuttingDown && reader.hasNext())
+            {
+                Record record = null;
+                try
+                {
+                    record = reader.next();
+                    recNum++;
+                    recsReadCounter = recNum;
+                }
+                catch (Exception e)
+                {
+                    if (e instanceof SolrMarcRuntimeException)
+                    {
+                        // stop reading
+                        logger.fatal("Unable to read record (record count " + recNum + ") -- " + e.getMessage());
+                        logger.fatal("******** Halting indexing! ********");
+                        importer.getMonitor().addFatalError();
+                        break;
+                    }
+                    else
+                    {
+                        // keep reading
+                        logger.error("Error reading record: (record count " + recNum + ") -- " + e.getMessage(), e);
+                        importer.getMonitor().addReadError();
+                        continue;
+                    }
+                }
+
+                // the reader reuses its ErrorHandler for the next record, so
+                //  take a copy of the errors for this one
+                ErrorHandler recErrors = null;
+                if (readerErrors != null)
+                {
+                    recErrors = new ErrorHandler();
+                    recErrors.addErrors(readerErrors.getErrors());
+                }
+
+                // where to resume reading once this record is committed
+                MarcInputPosition position = importer.getCheckpointPosition();
+
+                inFlight.acquire();
+                toMap.put(new RecordWork(seq++, recNum, record, recErrors, position));
+            }
+        }
+        catch (InterruptedException e)
+        {
+            // pipeline was stopped
+            return;
+        }
+        catch (Throwable t)
+        {
+            logger.fatal("Unexpected error reading records (record count " + recNum + ") -- " + t.getMessage(), t);
+            readerFailure = t;
+        }
+
+        try
+        {
+            for (int i = 0; i < indexers.size(); i++)
+                toMap.put(END_OF_INPUT);
+        }
+        catch (InterruptedException e)
+        {
+            // pipeline was stopped
+        }
+    }
+
+    /**
+     * mapping stage: convert records to Solr field maps with this worker's indexer
+     */
+    private void mapRecords(SolrIndexer workerIndexer)
+    {
+        try
+        {
+            while (true)
+            {
+                RecordWork work = toMap.take();
+                if (work == END_OF_INPUT)
+                {
+                    toSend.put(END_OF_INPUT);
+                    return;
+                }
+                try
+                {
+                    work.fldsMap = workerIndexer.createFldNames2ValsMap(work.record, work.errors);
+                }
+                catch (Throwable t)
+                {
+                    // SolrMarcIndexerException levels are dealt with by the sender
+                    work.failure = t;
+                }
+                toSend.put(work);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            // pipeline was stopped
+        }
+    }
+
+
+    /**
+     * a record moving through the pipeline, along with the results of mapping it
+     */
+    private static class RecordWork
+    {
+        /** position in the pipeline, used to restore input order */
+        final long seq;
+        /** count of records read when this record was read */
+        final int recNum;
+        final Record record;
+        final ErrorHandler errors;
+        /** position in the marc input after this record, for checkpoints;  null if not checkpointing */
+        final MarcInputPosition position;
+        Map<String, Object> fldsMap = null;
+        Throwable failure = null;
+
+        RecordWork(long seq, int recNum, Record record, ErrorHandler errors, MarcInputPosition position)
+        {
+            this.seq = seq;
+            this.recNum = recNum;
+            this.record = record;
+            this.errors = errors;
+            this.position = position;
+        }
+    }
+
+}
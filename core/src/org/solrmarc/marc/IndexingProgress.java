@@ -0,0 +1,132 @@
+package org.solrmarc.marc;
+
+import org.solrmarc.tools.CountingInputStream;
+import org.solrmarc.tools.DateUtils;
+
+/**
+ * Throughput of an indexing run, reported by MarcImporter every
+ *  solrmarc.indexing.progress.interval seconds:  records indexed per second,
+ *  MB per second read from the marc input, the time spent waiting on Solr for
+ *  each document sent, the depths of the IndexingPipeline queues, and the time
+ *  left, estimated from the bytes read so far and the size of the marc file.
+ *
+ * The methods are called from the thread sending documents to Solr;  the
+ *  byte count may be updated by the pipeline's reader thread.
+ */
+public class IndexingProgress
+{
+    private static final double NANOS_PER_SEC = 1000000000.0;
+    private static final double BYTES_PER_MB = 1024 * 1024;
+
+    private final long intervalNanos;
+    private final CountingInputStream input;
+    private final long inputLength;
+
+    private final long startNanos;
+    private long nextReportNanos;
+
+    /** counts at the last report, for the rates over the interval */
+    private long lastReportNanos;
+    private int lastRecsIndexed = 0;
+    private long lastBytesRead = 0;
+
+    /** Solr calls since the last report */
+    private int solrCalls = 0;
+    private long solrNanos = 0;
+    private long solrMaxNanos = 0;
+
+    /**
+     * @param intervalMillis  time between reports;  0 for no reports while indexing
+     * @param input  counts the bytes read from the marc input;  null if not known
+     * @param inputLength  length of the marc input in bytes;  -1 if not known
+     */
+    public IndexingProgress(long intervalMillis, CountingInputStream input, long inputLength)
+    {
+        this.intervalNanos = intervalMillis * 1000000L;
+        this.input = input;
+        this.inputLength = inputLength;
+        startNanos = System.nanoTime();
+        lastReportNanos = startNanos;
+        lastBytesRead = getBytesRead();
+        nextReportNanos = startNanos + intervalNanos;
+    }
+
+    /**
+     * add a call to the SolrProxy to the Solr send latency
+     * @param nanos  time the call took
+     */
+    public void addSolrCall(long nanos)
+    {
+        solrCalls++;
+        solrNanos += nanos;
+        if (nanos > solrMaxNanos)
+            solrMaxNanos = nanos;
+    }
+
+    /**
+     * @return true if it is time for the next report
+     */
+    public boolean isReportDue()
+    {
+        return intervalNanos > 0 && System.nanoTime() - nextReportNanos >= 0;
+    }
+
+    /**
+     * @return the number of bytes read from the marc input so far;  0 if not known
+     */
+    public long getBytesRead()
+    {
+        return input != null ? input.getCount() : 0;
+    }
+
+    /**
+     * Report the progress since the last report and overall, and start the
+     *  next interval.
+     * @param recsRead  records read so far
+     * @param recsIndexed  records sent to the index so far
+     * @param pipeline  the pipeline mapping the records, for its queue depths;  null if none
+     * @return the report, as one line
+     */
+    public String report(int recsRead, int recsIndexed, IndexingPipeline pipeline)
+    {
+        long now = System.nanoTime();
+        long bytesRead = getBytesRead();
+        double intervalSecs = Math.max(1, now - lastReportNanos) / NANOS_PER_SEC;
+        double totalSecs = Math.max(1, now - startNanos) / NANOS_PER_SEC;
+
+        StringBuilder buf = new StringBuilder();
+        buf.append("Progress: ").append(recsRead).append(" records read, ").append(recsIndexed).append(" indexed in ")
+           .append(DateUtils.calcTime((long) (totalSecs * 1000)));
+        buf.append(String.format(";  %.1f records/sec indexed (%.1f overall)", (recsIndexed - lastRecsIndexed) / intervalSecs, recsIndexed / totalSecs));
+        if (input != null)
+        {
+            buf.append(String.format(", %.2f MB/sec", (bytesRead - lastBytesRead) / BYTES_PER_MB / intervalSecs));
+            if (inputLength > 0)
+            {
+                buf.append(String.format(";  read %.1f of %.1f MB (%.1f%%)", bytesRead / BYTES_PER_MB, inputLength / BYTES_PER_MB,
+                                         Math.min(100.0, bytesRead * 100.0 / inputLength)));
+                if (bytesRead > 0 && bytesRead < inputLength)
+                    buf.append(", ETA ").append(DateUtils.calcTime((long) (totalSecs * 1000 * (inputLength - bytesRead) / bytesRead)));
+            }
+            else
+                buf.append(String.format(";  read %.1f MB", bytesRead / BYTES_PER_MB));
+        }
+        if (solrCalls > 0)
+            buf.append(String.format(";  Solr: %d calls, %.2f ms avg, %.1f ms max", solrCalls,
+                                     solrNanos / 1000000.0 / solrCalls, solrMaxNanos / 1000000.0));
+        if (pipeline != null)
+            buf.append(";  queues: ").append(pipeline.getMapQueueSize()).append(" to map, ")
+               .append(pipeline.getSendQueueSize()).append(" to send");
+
+        lastReportNanos = now;
+        lastRecsIndexed = recsIndexed;
+        lastBytesRead = bytesRead;
+        solrCalls = 0;
+        solrNanos = 0;
+        solrMaxNanos = 0;
+        // the next report is an interval from now, not from when this one was due
+        nextReportNanos = now + intervalNanos;
+        return buf.toString();
+    }
+
+}
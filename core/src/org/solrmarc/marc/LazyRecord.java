@@ -0,0 +1,277 @@
+package org.solrmarc.marc;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import org.marc4j.marc.*;
+import org.marc4j.marc.impl.RecordImpl;
+import org.marc4j.marc.impl.Verifier;
+import org.solrmarc.tools.LazyFieldsRecord;
+
+/**
+ * A Record that keeps the bytes of a binary marc record and its parsed
+ *  directory, and makes the objects for a field (decoding its data to Strings)
+ *  only when the field's tag is asked for.  Most index specs look at a few
+ *  tags, so most of the fields of a record never need to be made.
+ *
+ * Asking for fields by tag (getVariableField(s), getControlNumber, find with
+ *  a tag) makes the fields with those tags;  anything that looks at all the
+ *  fields or changes them (getVariableFields(), getDataFields(),
+ *  addVariableField, toString, ...) makes all the fields first.  The fields
+ *  are kept in directory order, as RecordImpl keeps them, so a LazyRecord
+ *  acts just like the RecordImpl a reader would make from the same bytes.
+ *
+ * MappedMarcReader makes LazyRecords for the records it reads from the
+ *  mapped file:  the bytes are ASCII or valid UTF-8, and the directory and
+ *  fields have been checked, so a field can always be made from them later.
+ */
+public class LazyRecord extends RecordImpl implements LazyFieldsRecord
+{
+    private static final long serialVersionUID = 1L;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte SUBFIELD_DELIMITER = 0x1F;
+
+    private transient MarcFactory factory;
+    /** the bytes of the record, from the leader on */
+    private transient ByteBuffer data;
+    /** true if the data is UTF-8, rather than all ASCII */
+    private transient boolean utf8;
+    /** the tag of each directory entry */
+    private transient String tags[];
+    /** where each field's data starts in the record, and its length without the field terminator */
+    private transient int fieldStarts[];
+    private transient int fieldLengths[];
+    /** the field made from each directory entry so far;  null once all the fields are made */
+    private transient VariableField fields[];
+    /** the number of times fields were added or removed */
+    private int numChanges = 0;
+
+    /**
+     * @param leader  the record's leader
+     * @param data  the record's bytes, from the leader on (not copied)
+     * @param utf8  true if the data is UTF-8, false if it is all ASCII
+     * @param factory  makes the fields
+     * @param tags  the tag of each directory entry
+     * @param fieldStarts  where the data of each field starts in the record
+     * @param fieldLengths  the length of each field, without the field terminator
+     */
+    LazyRecord(Leader leader, ByteBuffer data, boolean utf8, MarcFactory factory, String tags[], int fieldStarts[], int fieldLengths[])
+    {
+        setLeader(leader);
+        this.data = data;
+        this.utf8 = utf8;
+        this.factory = factory;
+        this.tags = tags;
+        this.fieldStarts = fieldStarts;
+        this.fieldLengths = fieldLengths;
+        fields = new VariableField[tags.length];
+    }
+
+    /**
+     * @return the number of fields made so far:  for tests
+     */
+    int getNumFieldsMade()
+    {
+        if (fields == null)
+            return controlFields.size() + dataFields.size();
+        int numMade = 0;
+        for (VariableField field : fields)
+        {
+            if (field != null)
+                numMade++;
+        }
+        return numMade;
+    }
+
+    /**
+     * @return the number of times fields were added to or removed from the
+     *  record, so an index of its fields can tell it is out of date without
+     *  making all the fields to count them
+     */
+    public int getNumChanges()
+    {
+        return numChanges;
+    }
+
+    public VariableField getVariableField(String tag)
+    {
+        makeFields(tag);
+        return super.getVariableField(tag);
+    }
+
+    public List<VariableField> getVariableFields(String tag)
+    {
+        makeFields(tag);
+        return super.getVariableFields(tag);
+    }
+
+    public List<VariableField> getVariableFields(String tags[])
+    {
+        for (String tag : tags)
+            makeFields(tag);
+        return super.getVariableFields(tags);
+    }
+
+    public ControlField getControlNumberField()
+    {
+        makeFields("001");
+        return super.getControlNumberField();
+    }
+
+    public List<VariableField> getVariableFields()
+    {
+        makeAllFields();
+        return super.getVariableFields();
+    }
+
+    public List<ControlField> getControlFields()
+    {
+        makeAllFields();
+        return super.getControlFields();
+    }
+
+    public List<DataField> getDataFields()
+    {
+        makeAllFields();
+        return super.getDataFields();
+    }
+
+    public List<VariableField> find(String pattern)
+    {
+        makeAllFields();
+        return super.find(pattern);
+    }
+
+    public void addVariableField(VariableField field)
+    {
+        makeAllFields();
+        super.addVariableField(field);
+        numChanges++;
+    }
+
+    public void removeVariableField(VariableField field)
+    {
+        makeAllFields();
+        super.removeVariableField(field);
+        numChanges++;
+    }
+
+    public String toString()
+    {
+        makeAllFields();
+        return super.toString();
+    }
+
+    /**
+     * make the fields with the tag, if they aren't made yet
+     */
+    private void makeFields(String tag)
+    {
+        if (fields == null)
+            return;
+        boolean made = false;
+        for (int i = 0; i < tags.length; i++)
+        {
+            if (fields[i] == null && tags[i].equals(tag))
+            {
+                fields[i] = makeField(factory, data, utf8, tags[i], fieldStarts[i], fieldLengths[i]);
+                made = true;
+            }
+        }
+        if (made)
+            addFieldsMade();
+    }
+
+    /**
+     * make all the fields not made yet;  from then on, the fields are just
+     *  those of a RecordImpl, and the record's bytes aren't needed
+     */
+    private void makeAllFields()
+    {
+        if (fields == null)
+            return;
+        for (int i = 0; i < tags.length; i++)
+        {
+            if (fields[i] == null)
+                fields[i] = makeField(factory, data, utf8, tags[i], fieldStarts[i], fieldLengths[i]);
+        }
+        addFieldsMade();
+        fields = null;
+        data = null;
+        tags = null;
+        fieldStarts = null;
+        fieldLengths = null;
+    }
+
+    /**
+     * put the fields made so far in the RecordImpl's lists, in directory
+     *  order, as a reader adds them
+     */
+    private void addFieldsMade()
+    {
+        controlFields.clear();
+        dataFields.clear();
+        for (VariableField field : fields)
+        {
+            if (field != null)
+                super.addVariableField(field);
+        }
+    }
+
+    /**
+     * serialize all the fields, as a RecordImpl
+     */
+    private Object writeReplace()
+    {
+        makeAllFields();
+        return this;
+    }
+
+    /**
+     * make a field from its bytes, which must be well formed:  data fields
+     *  have two indicators then subfields, each a delimiter, a code and data
+     * @param data  the record's bytes
+     * @param utf8  true if the bytes are UTF-8, false if they are all ASCII
+     * @param start  where the field's data starts in the record
+     * @param length  the field's length, without the field terminator
+     */
+    static VariableField makeField(MarcFactory factory, ByteBuffer data, boolean utf8, String tag, int start, int length)
+    {
+        int end = start + length;
+        if (Verifier.isControlField(tag))
+            return factory.newControlField(tag, decode(data, utf8, start, end));
+
+        DataField dataField = factory.newDataField(tag, (char) data.get(start), (char) data.get(start + 1));
+        int subfieldStart = start + 2;
+        while (subfieldStart < end)
+        {
+            int subfieldEnd = subfieldStart + 1;
+            while (subfieldEnd < end && data.get(subfieldEnd) != SUBFIELD_DELIMITER)
+                subfieldEnd++;
+            char code = (char) data.get(subfieldStart + 1);
+            dataField.addSubfield(factory.newSubfield(code, decode(data, utf8, subfieldStart + 2, subfieldEnd)));
+            subfieldStart = subfieldEnd;
+        }
+        return dataField;
+    }
+
+    /**
+     * @return the bytes from start to end as a String
+     */
+    private static String decode(ByteBuffer data, boolean utf8, int start, int end)
+    {
+        if (utf8)
+        {
+            ByteBuffer bytes = data.duplicate();
+            bytes.limit(end);
+            bytes.position(start);
+            return UTF_8.decode(bytes).toString();
+        }
+        char chars[] = new char[end - start];
+        for (int i = start; i < end; i++)
+            chars[i - start] = (char) data.get(i);
+        return new String(chars);
+    }
+
+}
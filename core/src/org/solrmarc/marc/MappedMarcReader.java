@@ -0,0 +1,429 @@
+package org.solrmarc.marc;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.log4j.Logger;
+import org.marc4j.ErrorHandler;
+import org.marc4j.MarcException;
+import org.marc4j.MarcPermissiveStreamReader;
+import org.marc4j.MarcReader;
+import org.marc4j.marc.*;
+import org.marc4j.marc.impl.RecordImpl;
+import org.marc4j.marc.impl.Verifier;
+import org.solrmarc.tools.LimitedInputStream;
+
+/**
+ * Reads binary marc records from a file mapped into memory (marc.reader =
+ *  mapped), rather than through a stream.  Record boundaries, the leader and
+ *  the directory are read straight from the mapped file, and the records are
+ *  LazyRecords, which make a field from its bytes there only when the field
+ *  is asked for.
+ *
+ * Only records that read the same whatever the character encoding are made
+ *  here:  those whose data is all ASCII, and those with leader/09 'a' that are
+ *  valid UTF-8.  Any other record (MARC-8 with diacritics, or anything
+ *  MarcPermissiveStreamReader would repair) is copied and read by a
+ *  MarcPermissiveStreamReader, so the records are the same as the stream
+ *  reader's.  A record whose length can't be trusted (no record terminator
+ *  where the leader says the record ends) leaves the rest of the file to a
+ *  MarcPermissiveStreamReader, which can find the next record.
+ */
+public class MappedMarcReader implements MarcReader
+{
+    /** bytes of the file mapped at a time */
+    private static final long WINDOW_BYTES = 64L * 1024 * 1024;
+    private static final int LEADER_LENGTH = 24;
+    private static final int DIRECTORY_ENTRY_LENGTH = 12;
+    private static final byte SUBFIELD_DELIMITER = 0x1F;
+    private static final byte FIELD_TERMINATOR = 0x1E;
+    private static final byte RECORD_TERMINATOR = 0x1D;
+    private static final byte ESCAPE = 0x1B;
+
+    static Logger logger = Logger.getLogger(MappedMarcReader.class.getName());
+
+    private final FileInputStream input;
+    private final FileChannel channel;
+    /** offset in the file of the next record */
+    private long offset;
+    /** offset in the file after the last byte to read */
+    private final long end;
+    private MappedByteBuffer window = null;
+    /** offset in the file of the start of the window */
+    private long windowStart = 0;
+
+    /** errors for the permissive reader;  null for a strict reader */
+    private final ErrorHandler errors;
+    private final boolean toUtf8;
+    private final String defaultEncoding;
+    private final MarcFactory factory = MarcFactory.newInstance();
+    /** true to make LazyRecords:  only if the factory makes plain RecordImpls,
+     *  which LazyRecord acts like */
+    private final boolean lazyRecords = factory.newRecord().getClass() == RecordImpl.class;
+
+    /** reads the rest of the file once a record's length can't be trusted;  null until then */
+    private MarcReader restOfFileReader = null;
+    private int recordsMapped = 0;
+    private int recordsCopied = 0;
+    private boolean closed = false;
+
+    /**
+     * @param input  the marc file, positioned at the first record to read
+     * @param length  the number of bytes to read, from the position
+     * @param errors  where the permissive reader puts the errors it finds;  null
+     *   for a strict reader
+     * @param toUtf8  true to convert records to UTF-8 (marc.to_utf_8)
+     * @param defaultEncoding  the encoding of records that don't say (marc.default_encoding)
+     */
+    public MappedMarcReader(FileInputStream input, long length, ErrorHandler errors, boolean toUtf8, String defaultEncoding)
+        throws IOException
+    {
+        this.input = input;
+        channel = input.getChannel();
+        offset = channel.position();
+        end = Math.min(offset + length, channel.size());
+        this.errors = errors;
+        this.toUtf8 = toUtf8;
+        this.defaultEncoding = defaultEncoding;
+    }
+
+    public boolean hasNext()
+    {
+        if (restOfFileReader != null)
+            return restOfFileReader.hasNext();
+        if (offset < end)
+            return true;
+        close();
+        return false;
+    }
+
+    public Record next()
+    {
+        if (restOfFileReader != null)
+            return restOfFileReader.next();
+
+        try
+        {
+            int length = recordLengthAt(offset);
+            if (length < 0)
+            {
+                logger.warn("No record terminator at the end of the record at byte " + offset +
+                            ":  reading the rest of the MARC data file with the stream reader");
+                readRestOfFile();
+                return restOfFileReader.next();
+            }
+
+            int start = (int) (offset - windowStart);
+            offset += length;
+            Record record = makeRecord(start, length);
+            if (record != null)
+            {
+                recordsMapped++;
+                if (errors != null)
+                    errors.reset();
+                return record;
+            }
+
+            recordsCopied++;
+            byte recordBytes[] = new byte[length];
+            ByteBuffer buffer = window.duplicate();
+            buffer.position(start);
+            buffer.get(recordBytes);
+            return newStreamReader(new ByteArrayInputStream(recordBytes)).next();
+        }
+        catch (IOException e)
+        {
+            throw new MarcException("an error occured reading input", e);
+        }
+    }
+
+    /**
+     * @return the number of records made from the mapped file
+     */
+    public int getRecordsMapped()
+    {
+        return recordsMapped;
+    }
+
+    /**
+     * @return the number of records copied to be read by the stream reader,
+     *  not counting those after a record whose length couldn't be trusted
+     */
+    public int getRecordsCopied()
+    {
+        return recordsCopied;
+    }
+
+    /**
+     * map the part of the file the record at offset is in
+     * @return the length of the record;  -1 if it doesn't have a usable
+     *  record length ending in a record terminator
+     */
+    private int recordLengthAt(long recordOffset)
+        throws IOException
+    {
+        if (recordOffset + LEADER_LENGTH > end)
+            return -1;
+        mapWindow(recordOffset, LEADER_LENGTH);
+        int start = (int) (recordOffset - windowStart);
+        int length = parseNumber(start, 5);
+        if (length <= LEADER_LENGTH || recordOffset + length > end)
+            return -1;
+        mapWindow(recordOffset, length);
+        start = (int) (recordOffset - windowStart);
+        if (window.get(start + length - 1) != RECORD_TERMINATOR)
+            return -1;
+        return length;
+    }
+
+    /**
+     * make sure numBytes bytes from fileOffset are in the mapped window
+     */
+    private void mapWindow(long fileOffset, int numBytes)
+        throws IOException
+    {
+        if (window != null && fileOffset >= windowStart && fileOffset + numBytes <= windowStart + window.limit())
+            return;
+        long size = Math.max(numBytes, Math.min(WINDOW_BYTES, end - fileOffset));
+        window = channel.map(FileChannel.MapMode.READ_ONLY, fileOffset, size);
+        windowStart = fileOffset;
+    }
+
+    /**
+     * check the record's bytes in the window, and make the record:  a
+     *  LazyRecord that makes its fields from the bytes when they are asked for
+     * @param start  index in the window of the record
+     * @param length  the record length
+     * @return the record;  null if it isn't all ASCII or UTF-8, or isn't
+     *  well formed, so the stream reader should read it
+     */
+    private Record makeRecord(int start, int length)
+        throws IOException
+    {
+        // leaders the permissive reader would repair
+        if (window.get(start + 10) != '2' || window.get(start + 11) != '2' || window.get(start + 20) != '4' ||
+            window.get(start + 21) != '5' || window.get(start + 22) != '0' || window.get(start + 23) != '0')
+            return null;
+        byte codingScheme = window.get(start + 9);
+        if (codingScheme != ' ' && codingScheme != 'a')
+            return null;
+        int baseAddress = parseNumber(start + 12, 5);
+        if (baseAddress <= LEADER_LENGTH || baseAddress >= length || window.get(start + baseAddress - 1) != FIELD_TERMINATOR ||
+            (baseAddress - 1 - LEADER_LENGTH) % DIRECTORY_ENTRY_LENGTH != 0)
+            return null;
+
+        // the data must read the same in any encoding:  ASCII, or UTF-8 when the leader says so
+        boolean ascii = true;
+        for (int i = start + baseAddress; i < start + length - 1; i++)
+        {
+            byte b = window.get(i);
+            if (b < 0)
+                ascii = false;
+            else if (b == ESCAPE || (b < 0x20 && b != SUBFIELD_DELIMITER && b != FIELD_TERMINATOR))
+                return null;
+            else if (b == '&' && window.get(i + 1) == '#')
+                // a numeric character reference, which MARC-8 conversion translates
+                return null;
+        }
+        if (!ascii && (codingScheme != 'a' || !isUtf8(start + baseAddress, start + length - 1)))
+            return null;
+
+        // check each field can be made, and where it is in the record
+        int numFields = (baseAddress - 1 - LEADER_LENGTH) / DIRECTORY_ENTRY_LENGTH;
+        String tags[] = new String[numFields];
+        int fieldStarts[] = new int[numFields];
+        int fieldLengths[] = new int[numFields];
+        for (int field = 0; field < numFields; field++)
+        {
+            int entry = start + LEADER_LENGTH + field * DIRECTORY_ENTRY_LENGTH;
+            for (int i = entry; i < entry + 3; i++)
+            {
+                byte b = window.get(i);
+                if (b < '0' || b > '9')
+                    return null;
+            }
+            String tag = new String(new char[] {(char) window.get(entry), (char) window.get(entry + 1), (char) window.get(entry + 2)});
+            int fieldLength = parseNumber(entry + 3, 4);
+            int fieldStart = start + baseAddress + parseNumber(entry + 7, 5);
+            if (fieldLength < 1 || fieldStart + fieldLength > start + length - 1 || window.get(fieldStart + fieldLength - 1) != FIELD_TERMINATOR)
+                return null;
+            int fieldEnd = fieldStart + fieldLength - 1;
+
+            if (Verifier.isControlField(tag))
+            {
+                if (indexOf(SUBFIELD_DELIMITER, fieldStart, fieldEnd) >= 0 || indexOf(FIELD_TERMINATOR, fieldStart, fieldEnd) >= 0)
+                    return null;
+            }
+            else
+            {
+                // two indicators, then subfields, each a delimiter, a code and data
+                if (fieldLength < 5 || window.get(fieldStart + 2) != SUBFIELD_DELIMITER || indexOf(FIELD_TERMINATOR, fieldStart, fieldEnd) >= 0)
+                    return null;
+                byte ind1 = window.get(fieldStart);
+                byte ind2 = window.get(fieldStart + 1);
+                if (ind1 < ' ' || ind1 > '~' || ind2 < ' ' || ind2 > '~')
+                    return null;
+                int subfieldStart = fieldStart + 2;
+                while (subfieldStart < fieldEnd)
+                {
+                    int subfieldEnd = indexOf(SUBFIELD_DELIMITER, subfieldStart + 1, fieldEnd);
+                    if (subfieldEnd < 0)
+                        subfieldEnd = fieldEnd;
+                    // a code with no data, which the permissive reader drops
+                    if (subfieldEnd <= subfieldStart + 2)
+                        return null;
+                    byte code = window.get(subfieldStart + 1);
+                    if (!(code >= 'a' && code <= 'z') && !(code >= '0' && code <= '9'))
+                        return null;
+                    subfieldStart = subfieldEnd;
+                }
+            }
+            tags[field] = tag;
+            fieldStarts[field] = fieldStart - start;
+            fieldLengths[field] = fieldLength - 1;
+        }
+
+        char leaderChars[] = new char[LEADER_LENGTH];
+        for (int i = 0; i < LEADER_LENGTH; i++)
+            leaderChars[i] = (char) (window.get(start + i) & 0xFF);
+        Leader leader = factory.newLeader(new String(leaderChars));
+        leader.setRecordLength(length);
+        // as the stream reader does
+        if (toUtf8)
+            leader.setCharCodingScheme('a');
+
+        ByteBuffer recordData = window.duplicate();
+        recordData.limit(start + length);
+        recordData.position(start);
+        recordData = recordData.slice();
+        if (lazyRecords)
+            return new LazyRecord(leader, recordData, !ascii, factory, tags, fieldStarts, fieldLengths);
+
+        Record record = factory.newRecord(leader);
+        for (int field = 0; field < numFields; field++)
+            record.addVariableField(LazyRecord.makeField(factory, recordData, !ascii, tags[field], fieldStarts[field], fieldLengths[field]));
+        return record;
+    }
+
+    /**
+     * @return true if the window's bytes from start to end are valid UTF-8,
+     *  as Java decodes it:  no overlong forms, surrogates or code points past
+     *  U+10FFFF
+     */
+    private boolean isUtf8(int start, int end)
+    {
+        int i = start;
+        while (i < end)
+        {
+            int b = window.get(i) & 0xFF;
+            if (b < 0x80)
+            {
+                i++;
+                continue;
+            }
+            int numContinuations;
+            int min = 0x80;
+            int max = 0xBF;
+            if (b >= 0xC2 && b <= 0xDF)
+                numContinuations = 1;
+            else if (b >= 0xE0 && b <= 0xEF)
+            {
+                numContinuations = 2;
+                if (b == 0xE0)
+                    min = 0xA0;
+                else if (b == 0xED)
+                    max = 0x9F;
+            }
+            else if (b >= 0xF0 && b <= 0xF4)
+            {
+                numContinuations = 3;
+                if (b == 0xF0)
+                    min = 0x90;
+                else if (b == 0xF4)
+                    max = 0x8F;
+            }
+            else
+                return false;
+            if (i + numContinuations >= end)
+                return false;
+            for (int j = 1; j <= numContinuations; j++)
+            {
+                int c = window.get(i + j) & 0xFF;
+                if (c < (j == 1 ? min : 0x80) || c > (j == 1 ? max : 0xBF))
+                    return false;
+            }
+            i += numContinuations + 1;
+        }
+        return true;
+    }
+
+    /**
+     * @return the index in the window of the first b from start up to end;  -1 if none
+     */
+    private int indexOf(byte b, int start, int end)
+    {
+        for (int i = start; i < end; i++)
+        {
+            if (window.get(i) == b)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the number in the ASCII digits in the window;  -1 if they aren't all digits
+     */
+    private int parseNumber(int start, int length)
+    {
+        int value = 0;
+        for (int i = start; i < start + length; i++)
+        {
+            byte b = window.get(i);
+            if (b < '0' || b > '9')
+                return -1;
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    /**
+     * leave the rest of the file, from the record at offset, to a stream reader
+     */
+    private void readRestOfFile()
+        throws IOException
+    {
+        window = null;
+        channel.position(offset);
+        restOfFileReader = newStreamReader(new LimitedInputStream(new BufferedInputStream(input), end - offset));
+    }
+
+    /**
+     * @return the reader MarcHandler would use for the marc file:  permissive if errors are kept
+     */
+    private MarcReader newStreamReader(InputStream in)
+    {
+        if (errors != null)
+            return new MarcPermissiveStreamReader(in, errors, toUtf8, defaultEncoding);
+        return new MarcPermissiveStreamReader(in, false, toUtf8, defaultEncoding);
+    }
+
+    private void close()
+    {
+        if (closed)
+            return;
+        closed = true;
+        window = null;
+        try
+        {
+            input.close();
+        }
+        catch (IOException e)
+        {
+            // nothing more to read from it
+        }
+        logger.debug("Read " + recordsMapped + " records from the mapped MARC data file, and " + recordsCopied + " with the stream reader");
+    }
+
+}
@@ -0,0 +1,79 @@
+package org.solrmarc.marc;
+
+import java.io.File;
+
+/**
+ * A part of a marc file to index on its own:  a byte range of a binary marc
+ *  file found by MarcFileSplitter, or the whole file.  A section starts and
+ *  ends on record boundaries, and doesn't separate records with the same id,
+ *  so records that are combined (a bib and its mhlds) stay in one section.
+ */
+public class MarcFileSection
+{
+    private final File marcFile;
+    private final long start;
+    /** offset after the last byte of the section;  -1 for the rest of the file */
+    private final long end;
+
+    /**
+     * the whole of a marc file
+     */
+    public MarcFileSection(File marcFile)
+    {
+        this(marcFile, 0, -1);
+    }
+
+    /**
+     * @param marcFile  the marc file
+     * @param start  byte offset of the first record in the section
+     * @param end  byte offset after the last record in the section;  -1 for the rest of the file
+     */
+    public MarcFileSection(File marcFile, long start, long end)
+    {
+        this.marcFile = marcFile;
+        this.start = start;
+        this.end = end;
+    }
+
+    public File getFile()
+    {
+        return marcFile;
+    }
+
+    public long getStart()
+    {
+        return start;
+    }
+
+    /**
+     * @return byte offset after the last record in the section;  -1 for the rest of the file
+     */
+    public long getEnd()
+    {
+        return end;
+    }
+
+    /**
+     * @return the number of bytes in the section
+     */
+    public long getLength()
+    {
+        return (end >= 0 ? end : marcFile.length()) - start;
+    }
+
+    /**
+     * @return true if the section is all of the marc file
+     */
+    public boolean isWholeFile()
+    {
+        return start == 0 && end < 0;
+    }
+
+    public String toString()
+    {
+        if (isWholeFile())
+            return marcFile.getName();
+        return marcFile.getName() + " bytes " + start + "-" + (end >= 0 ? end : marcFile.length());
+    }
+
+}
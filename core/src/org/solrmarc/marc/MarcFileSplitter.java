@@ -0,0 +1,164 @@
+package org.solrmarc.marc;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Splits a binary marc file into sections of about a given size that can be
+ *  read and indexed in parallel.  The file is scanned record by record, as
+ *  RawRecordReader does, using the record length in each leader;  only the
+ *  leader, the directory and the 001 field of each record are read, and the
+ *  rest is skipped.
+ *
+ * A section only ends between records with different 001 ids, so a bib and
+ *  the mhld records after it (combined by CombineMultBibsMhldsReader or
+ *  MarcCombiningReader) are always in the same section.  If a record can't
+ *  be scanned (a bad record length or directory), its boundaries can't be
+ *  trusted, so the rest of the file is left as the last section, for the
+ *  permissive reader to make what it can of it.
+ */
+public class MarcFileSplitter
+{
+    private static final int LEADER_LENGTH = 24;
+    private static final int DIRECTORY_ENTRY_LENGTH = 12;
+    private static final int FIELD_TERMINATOR = 0x1E;
+    private static final int RECORD_TERMINATOR = 0x1D;
+
+    static Logger logger = Logger.getLogger(MarcFileSplitter.class.getName());
+
+    /**
+     * @param marcFile  a binary marc file
+     * @param sectionBytes  the size of a section:  each section ends at the
+     *   first break between ids after this many bytes
+     * @return the sections of the file, in file order;  just the whole file
+     *   if it is smaller than sectionBytes
+     */
+    public static List<MarcFileSection> split(File marcFile, long sectionBytes)
+        throws IOException
+    {
+        List<MarcFileSection> sections = new ArrayList<MarcFileSection>();
+        if (sectionBytes <= 0 || marcFile.length() <= sectionBytes)
+        {
+            sections.add(new MarcFileSection(marcFile));
+            return sections;
+        }
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(marcFile), 64 * 1024));
+        try
+        {
+            byte buffer[] = new byte[LEADER_LENGTH];
+            long sectionStart = 0;
+            long offset = 0;
+            String prevId = null;
+            while (true)
+            {
+                int firstByte = in.read();
+                if (firstByte < 0)
+                    break;
+                buffer[0] = (byte) firstByte;
+                String id;
+                int recordLength;
+                try
+                {
+                    in.readFully(buffer, 1, LEADER_LENGTH - 1);
+                    recordLength = parseNumber(buffer, 0, 5);
+                    int baseAddress = parseNumber(buffer, 12, 5);
+                    if (recordLength <= LEADER_LENGTH || baseAddress <= LEADER_LENGTH || baseAddress >= recordLength)
+                        throw new IOException("bad record length " + recordLength + " or base address " + baseAddress);
+
+                    if (buffer.length < baseAddress)
+                    {
+                        byte newBuffer[] = new byte[baseAddress];
+                        System.arraycopy(buffer, 0, newBuffer, 0, LEADER_LENGTH);
+                        buffer = newBuffer;
+                    }
+                    in.readFully(buffer, LEADER_LENGTH, baseAddress - LEADER_LENGTH);
+                    int bytesRead = baseAddress;
+
+                    id = null;
+                    for (int entry = LEADER_LENGTH; entry + DIRECTORY_ENTRY_LENGTH < baseAddress && buffer[entry] != FIELD_TERMINATOR;
+                         entry += DIRECTORY_ENTRY_LENGTH)
+                    {
+                        if (buffer[entry] == '0' && buffer[entry + 1] == '0' && buffer[entry + 2] == '1')
+                        {
+                            int fieldLength = parseNumber(buffer, entry + 3, 4);
+                            int fieldStart = parseNumber(buffer, entry + 7, 5);
+                            if (baseAddress + fieldStart + fieldLength > recordLength)
+                                throw new IOException("001 field past the end of the record");
+                            skipFully(in, fieldStart);
+                            byte idBytes[] = new byte[Math.max(0, fieldLength - 1)];
+                            in.readFully(idBytes);
+                            id = new String(idBytes, "ISO-8859-1").trim();
+                            bytesRead += fieldStart + idBytes.length;
+                            break;
+                        }
+                    }
+
+                    skipFully(in, recordLength - bytesRead - 1);
+                    if (in.read() != RECORD_TERMINATOR)
+                        throw new IOException("no record terminator at the end of the record length");
+                }
+                catch (IOException e)
+                {
+                    logger.warn("Unable to split " + marcFile.getName() + " after byte " + offset + " (" + e.getMessage() +
+                                "):  the rest of the file is one section");
+                    break;
+                }
+
+                // a new section can start with this record if it has another id than the last
+                boolean sameId = id == null ? prevId == null : id.equals(prevId);
+                if (offset - sectionStart >= sectionBytes && !sameId)
+                {
+                    sections.add(new MarcFileSection(marcFile, sectionStart, offset));
+                    sectionStart = offset;
+                }
+                prevId = id;
+                offset += recordLength;
+            }
+            sections.add(new MarcFileSection(marcFile, sectionStart, -1));
+        }
+        finally
+        {
+            in.close();
+        }
+        return sections;
+    }
+
+    /**
+     * @return the number in the ASCII digits
+     * @throws IOException if they aren't all digits
+     */
+    private static int parseNumber(byte bytes[], int start, int length)
+        throws IOException
+    {
+        int value = 0;
+        for (int i = start; i < start + length; i++)
+        {
+            if (bytes[i] < '0' || bytes[i] > '9')
+                throw new IOException("non-digit in leader or directory");
+            value = value * 10 + (bytes[i] - '0');
+        }
+        return value;
+    }
+
+    private static void skipFully(DataInputStream in, long numBytes)
+        throws IOException
+    {
+        while (numBytes > 0)
+        {
+            long skipped = in.skip(numBytes);
+            if (skipped <= 0)
+            {
+                // skip() may stop short at the end of the buffer;  read to be sure
+                if (in.read() < 0)
+                    throw new EOFException("end of file in the middle of a record");
+                skipped = 1;
+            }
+            numBytes -= skipped;
+        }
+    }
+
+}
@@ -27,6 +27,8 @@ public abstract class MarcHandler {
 	/** the xx_config.properties file as a Properties object */
 	protected Properties configProps;
 	protected boolean permissiveReader;
+    /** true to read a binary marc file mapped into memory (marc.reader = mapped) */
+    protected boolean mappedReader = false;
 	protected String defaultEncoding;
     protected boolean to_utf_8;
     protected String combineConsecutiveRecordsFields = null;
@@ -36,6 +38,24 @@ public abstract class MarcHandler {
 	protected boolean showConfig = false;
 	protected boolean showInputFile = false;
 	protected String unicodeNormalize = null;
+    /** counts the bytes read from the marc file or stdin, for progress reports;  null for other sources */
+    protected CountingInputStream marcInputCounter = null;
+    /** length of the marc file, for progress reports;  -1 if unknown */
+    protected long marcInputLength = -1;
+    /** where to start reading the marc input, when resuming from a checkpoint;  null to read it all */
+    protected MarcInputPosition resumePosition = null;
+    /** keeps track of the position in the marc input of the records read */
+    protected PositionTrackingReader positionTracker = null;
+    /** the combining reader, if records are combined:  it holds the record after the one it returns */
+    protected MarcReader combiningReader = null;
+    /** the marc.path:  the marc file, files or directory to read;  null if none */
+    protected String marcPath = null;
+    /** the marc files to read, when marc.path names several (separated by | or
+     *  with wildcards);  null otherwise, and there is no reader */
+    protected List<File> marcFiles = null;
+    /** the part of the marc file to read, when it is split to be indexed in
+     *  parallel;  null to read all of it */
+    protected MarcFileSection inputSection = null;
 
 	private String solrmarcPath;
 	private String siteSpecificPath;
@@ -91,6 +111,7 @@ public abstract class MarcHandler {
     	// set the System properties for marc data sources and
     	//   solr.commit_at_end;  put rest in addnlArgs list
         List<String> addnlArgList = new ArrayList<String>();
+        List<String> marcPaths = new ArrayList<String>();
         if (args.length > 0)
         {
             for (String arg : args)
@@ -101,23 +122,14 @@ public abstract class MarcHandler {
                 if (lc_arg.endsWith(".properties"))
                     configPropsFname = arg;
                 else if (lc_arg.endsWith(".mrc") || lc_arg.endsWith(".marc"))
-                {
-                    System.setProperty("marc.path", arg);
-                    System.setProperty("marc.source", "FILE");
-                }
+                    addMarcPath(marcPaths, arg);
                 else if (lc_arg.endsWith(".json") )
-                {
-                    System.setProperty("marc.path", arg);
-                    System.setProperty("marc.source", "FILE");
-                }
+                    addMarcPath(marcPaths, arg);
                 else if (arg.equals("NONE"))
                 	// used by SolrReIndexer, which gets the marc from the Solr index
                     System.setProperty("marc.source", "NONE");
                 else if (lc_arg.endsWith(".xml"))
-                {
-                    System.setProperty("marc.path", arg);
-                    System.setProperty("marc.source", "FILE");
-                }
+                    addMarcPath(marcPaths, arg);
                 else if (lc_arg.endsWith(".del"))
                     System.setProperty("marc.ids_to_delete", arg);
                 else if (arg.equals("DELETE_ONLY"))
@@ -127,6 +139,10 @@ public abstract class MarcHandler {
                 }
                 else if (lc_arg.equals("-nocommit"))
                     System.setProperty("solr.commit_at_end", "false");
+                else if (lc_arg.equals("-resume") || lc_arg.equals("--resume"))
+                    System.setProperty("solrmarc.checkpoint.resume", "true");
+                else if (lc_arg.equals("-force") || lc_arg.equals("--force"))
+                    System.setProperty("solrmarc.digests.force", "true");
                 else
                     addnlArgList.add(arg);
             }
@@ -150,6 +166,24 @@ public abstract class MarcHandler {
         processAdditionalArgs();
 	}
 
+    /**
+     * set the System properties to read a marc file given on the command
+     *  line;  when several are given, marc.path lists them all, separated by |
+     */
+    private void addMarcPath(List<String> marcPaths, String arg)
+    {
+        marcPaths.add(arg);
+        StringBuilder paths = new StringBuilder();
+        for (String path : marcPaths)
+        {
+            if (paths.length() > 0)
+                paths.append("|");
+            paths.append(path);
+        }
+        System.setProperty("marc.path", paths.toString());
+        System.setProperty("marc.source", "FILE");
+    }
+
     /**
      * initLocal - local init for subclasses of MarcHandler
      */
@@ -183,6 +217,22 @@ public abstract class MarcHandler {
         else
             configProps = PropertiesUtils.loadProperties(new String[]{homeDir}, configPropsFname, showConfig, "config.file.dir");
 
+        String marcRecsFname = PropertiesUtils.getProperty(configProps, "marc.path");
+        if (marcRecsFname != null)
+        	marcRecsFname = marcRecsFname.trim();
+        initFromProperties(marcRecsFname);
+	}
+
+	/**
+	 * Initialize class variables from the config properties (already loaded),
+	 *  and set up the reader for the marc input
+	 * @param marcRecsFname  the marc.path:  the marc file(s) or directory to read
+	 * @throws FileNotFoundException if marc record file not found
+	 */
+	protected void initFromProperties(String marcRecsFname)
+			throws FileNotFoundException
+	{
+        marcPath = marcRecsFname;
         loadLocalProperties();
 
         solrmarcPath = PropertiesUtils.getProperty(configProps, "solrmarc.path");
@@ -207,6 +257,11 @@ public abstract class MarcHandler {
 
         permissiveReader = Boolean.parseBoolean(PropertiesUtils.getProperty(configProps, "marc.permissive"));
 
+        String readerType = PropertiesUtils.getProperty(configProps, "marc.reader", "stream").trim();
+        mappedReader = readerType.equals("mapped");
+        if (!mappedReader && !readerType.equals("stream"))
+            logger.warn("Unknown marc.reader " + readerType + ":  using the stream reader");
+
         if (PropertiesUtils.getProperty(configProps, "marc.default_encoding") != null)
             defaultEncoding = PropertiesUtils.getProperty(configProps, "marc.default_encoding").trim();
         else
@@ -230,17 +285,102 @@ public abstract class MarcHandler {
         	System.setProperty("org.marc4j.marc.MarcFactory", "org.marc4j.marc.impl.MarcFactoryImpl");
 
         reader = null;
+        marcFiles = null;
 
-        String marcRecsFname = PropertiesUtils.getProperty(configProps, "marc.path");
         String source = PropertiesUtils.getProperty(configProps, "marc.source", "STDIN").trim();
         if (source.equals("FILE") && marcRecsFname == null)
         	return;
-        if (marcRecsFname != null)
-        	marcRecsFname = marcRecsFname.trim();
+        if (source.equals("FILE") && readsEachFile(marcRecsFname))
+        {
+            // each file (or section) gets its own reader when it is indexed
+            marcFiles = listMarcFiles(marcRecsFname);
+            return;
+        }
 
         loadReader(source, marcRecsFname);
 	}
 
+    /**
+     * @return true if the marc files named by the marc.path are each read by
+     *  a reader of their own, rather than by this handler's reader:  true if
+     *  it names several files
+     */
+    protected boolean readsEachFile(String marcRecsFname)
+    {
+        return namesSeveralFiles(marcRecsFname);
+    }
+
+    /**
+     * @return true if the marc.path names several marc files:  paths separated
+     *  by |, or a file name with * or ? wildcards
+     */
+    protected static boolean namesSeveralFiles(String marcRecsFname)
+    {
+        if (marcRecsFname == null)
+            return false;
+        String fileName = new File(marcRecsFname.trim()).getName();
+        return marcRecsFname.indexOf('|') >= 0 || fileName.indexOf('*') >= 0 || fileName.indexOf('?') >= 0;
+    }
+
+    /**
+     * @param marcRecsFname  marc file paths separated by |;  the file name in
+     *   each may have * and ? wildcards
+     * @return the marc files, in the order given (files matching a wildcard
+     *   are in name order)
+     */
+    public static List<File> listMarcFiles(String marcRecsFname)
+    {
+        List<File> files = new ArrayList<File>();
+        for (String path : marcRecsFname.split("[|]"))
+        {
+            path = path.trim();
+            if (path.length() == 0)
+                continue;
+            File file = new File(path);
+            String fileName = file.getName();
+            if (fileName.indexOf('*') < 0 && fileName.indexOf('?') < 0)
+            {
+                files.add(file);
+                continue;
+            }
+
+            File dir = file.getParentFile() != null ? file.getParentFile() : new File(".");
+            final String fileNameRegex = wildcardToRegex(fileName);
+            File matches[] = dir.listFiles(new FileFilter()
+            {
+                public boolean accept(File candidate)
+                {
+                    return candidate.isFile() && candidate.getName().matches(fileNameRegex);
+                }
+            });
+            if (matches == null || matches.length == 0)
+            {
+                logger.warn("No MARC data files match " + path);
+                continue;
+            }
+            Arrays.sort(matches);
+            files.addAll(Arrays.asList(matches));
+        }
+        return files;
+    }
+
+    private static String wildcardToRegex(String wildcard)
+    {
+        StringBuilder regex = new StringBuilder();
+        for (char c : wildcard.toCharArray())
+        {
+            if (c == '*')
+                regex.append(".*");
+            else if (c == '?')
+                regex.append('.');
+            else if (Character.isLetterOrDigit(c))
+                regex.append(c);
+            else
+                regex.append('\\').append(c);
+        }
+        return regex.toString();
+    }
+
     /**
      * loadLocalProperties - local init for subclasses of MarcHandler
      */
@@ -356,12 +496,16 @@ public abstract class MarcHandler {
     		throws FileNotFoundException
 	{
 
+        // byte offset the reader starts at in a binary marc file;  -1 for other input
+        long startOffset = -1;
         if (source.equals("FILE") || source.equals("STDIN"))
         {
         	RecordFormat recFormat = RecordFormat.MARC21;
 
         	// setup the input source
         	InputStream marcRecsInputStream = null;
+        	// the binary marc file, for the mapped reader;  null if not using it
+        	FileInputStream marcFileToMap = null;
         	if (source.equals("FILE"))
         	{
                 if (marcRecsFilename != null && marcRecsFilename.toLowerCase().endsWith(".xml"))
@@ -378,7 +522,28 @@ public abstract class MarcHandler {
                             logger.info("Attempting to open data file: "+ new File(marcRecsFilename).getAbsolutePath());
                         else
                             logger.debug("Attempting to open data file: "+ new File(marcRecsFilename).getAbsolutePath());
-    					marcRecsInputStream = new FileInputStream(marcRecsFilename);
+                        FileInputStream marcFileInput = new FileInputStream(marcRecsFilename);
+    					marcRecsInputStream = marcFileInput;
+                        marcInputLength = new File(marcRecsFilename).length();
+                        if (inputSection != null && recFormat == RecordFormat.MARC21)
+                        {
+                            // read just the section, as if it were the whole file
+                            marcFileInput.getChannel().position(inputSection.getStart());
+                            marcRecsInputStream = new LimitedInputStream(marcRecsInputStream, inputSection.getLength());
+                            startOffset = inputSection.getStart();
+                            marcInputLength = inputSection.getLength();
+                        }
+                        else if (resumePosition != null && resumePosition.getOffset() > 0 && recFormat == RecordFormat.MARC21)
+                        {
+                            logger.info("Resuming at byte " + resumePosition.getOffset() + " of " + marcRecsFilename);
+                            marcFileInput.getChannel().position(resumePosition.getOffset());
+                            startOffset = resumePosition.getOffset();
+                            marcInputLength -= startOffset;
+                        }
+                        else if (recFormat == RecordFormat.MARC21)
+                            startOffset = 0;
+                        if (mappedReader && recFormat == RecordFormat.MARC21)
+                            marcFileToMap = marcFileInput;
             		}
 
 				}
@@ -387,6 +552,11 @@ public abstract class MarcHandler {
 		        	logger.fatal("Fatal error: Unable to open specified MARC data file: " + marcRecsFilename);
 		        	throw new IllegalArgumentException("Fatal error: Unable to open specified MARC data file: " + marcRecsFilename);
 				}
+        		catch (IOException e)
+        		{
+		        	logger.fatal("Fatal error: Unable to seek to the start offset in MARC data file: " + marcRecsFilename);
+		        	throw new IllegalArgumentException("Fatal error: Unable to seek to the start offset in MARC data file: " + marcRecsFilename);
+        		}
         	}
         	else // try to read data from stdin
         	{
@@ -416,12 +586,31 @@ public abstract class MarcHandler {
         	}
 
         	// marcRecInputStream should be instantiated now
+            if (marcRecsInputStream != null && marcFileToMap == null)
+            {
+                marcInputCounter = new CountingInputStream(marcRecsInputStream);
+                marcRecsInputStream = marcInputCounter;
+            }
 
         	// instantiate reader (the MarcReader)
             if (recFormat == RecordFormat.XML)
                 reader = new MarcUnprettyXmlReader(marcRecsInputStream);
             else if (recFormat == RecordFormat.JSON)
                 reader = new MarcJsonReader(marcRecsInputStream);
+            else if (marcFileToMap != null)
+            {
+                if (permissiveReader)
+                    errors = new ErrorHandler();
+                try
+                {
+                    reader = new MappedMarcReader(marcFileToMap, marcInputLength, errors, to_utf_8, defaultEncoding);
+                }
+                catch (IOException e)
+                {
+		        	logger.fatal("Fatal error: Unable to map MARC data file: " + marcRecsFilename);
+		        	throw new IllegalArgumentException("Fatal error: Unable to map MARC data file: " + marcRecsFilename);
+                }
+            }
             else if (permissiveReader)
             {
                 errors = new ErrorHandler();
@@ -435,6 +624,27 @@ public abstract class MarcHandler {
 
         // reader is now set up for particular input source
 
+        // keep track of where the records come from, for checkpoints
+        if (reader != null)
+        {
+            if (resumePosition != null && startOffset > 0)
+                positionTracker = new PositionTrackingReader(reader, startOffset, resumePosition.getRecords());
+            else
+            {
+                positionTracker = new PositionTrackingReader(reader, startOffset, 0);
+                if (resumePosition != null && resumePosition.getRecords() > 0)
+                {
+                    // no offset to seek to:  read past the records instead
+                    int toSkip = resumePosition.getRecords();
+                    logger.info("Resuming after record " + toSkip + ":  skipping " + toSkip + " records");
+                    int skipped = positionTracker.skip(toSkip);
+                    if (skipped < toSkip)
+                        logger.warn("Only " + skipped + " records to skip:  nothing to resume");
+                }
+            }
+            reader = positionTracker;
+        }
+
         // do we need to wrap in a CombiningReader?
         if (reader != null && combineConsecutiveRecordsFields != null)
         {
@@ -453,6 +663,7 @@ public abstract class MarcHandler {
 	                reader = new MarcCombiningReader(reader, errors, errors2, combineConsecutiveRecordsFields, combineLeftField, combineRightField);
 	            }
         	}
+        	combiningReader = reader;
         }
 
         // do we need to wrap in a MarcFilteredReader?
@@ -472,6 +683,21 @@ public abstract class MarcHandler {
         return;
 	}
 
+    /**
+     * Called just after a record is returned by the reader:  where to resume
+     *  reading the marc input so the records returned so far aren't read again.
+     * @return the position;  null if the reader isn't keeping track of it
+     */
+    public MarcInputPosition getInputPosition()
+    {
+        if (positionTracker == null)
+            return null;
+        // a combining reader has read the record after the one it returned
+        //  to see whether it should be combined, unless there were no more
+        boolean lookAheadHeld = combiningReader != null && !positionTracker.isAtEnd();
+        return positionTracker.getPosition(lookAheadHeld);
+    }
+
     /**
      * add path and path/TRANS_MAP_DIR to propertySearchPath; add path to propertySearchSet
      * @param pathToAdd
@@ -531,6 +757,30 @@ public abstract class MarcHandler {
 	 * Load the Custom Indexer routine
 	 */
 	public void loadIndexer(String indexerName, String indexPropsFname)
+	{
+	    indexer = createIndexer(indexerName, indexPropsFname);
+	}
+
+	/**
+	 * Create another instance of the indexer configured from the properties
+	 *  file.  SolrIndexer (and subclasses) keep per-record state in instance
+	 *  variables, so each thread mapping records needs its own instance.
+	 * @return a new SolrIndexer instance, or null if no indexer is configured
+	 */
+	public SolrIndexer createIndexer()
+	{
+	    if (indexerClassName == null)
+	        return null;
+	    return createIndexer(indexerClassName, indexPropsFname);
+	}
+
+	/**
+	 * Instantiate the Custom Indexer (or the standard one)
+	 * @param indexerName full class name of SolrIndexer or the subclass to be used
+	 * @param indexPropsFname name of the _index.properties file
+	 * @return the new SolrIndexer instance
+	 */
+	protected SolrIndexer createIndexer(String indexerName, String indexPropsFname)
 	{
 	    // Setup the SolrMarc Indexer
         Class<?> indexerClass = null;
@@ -562,7 +812,7 @@ public abstract class MarcHandler {
 	        Object instance = constructor.newInstance(indexPropsFname, propertySearchPath);
 
 	        if (instance instanceof SolrIndexer)
-	            indexer = (SolrIndexer)instance;
+	            return (SolrIndexer)instance;
 	        else
 	        {
 	            logger.fatal("Error: Custom Indexer " + indexerName + " must be subclass of SolrIndexer. ");
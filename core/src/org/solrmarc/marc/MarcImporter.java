@@ -20,11 +20,15 @@ import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.PatternSyntaxException;
 
 import org.apache.log4j.*;
+import org.apache.solr.common.SolrException;
 import org.marc4j.ErrorHandler;
 import org.marc4j.marc.Record;
+import org.solrmarc.index.IndexingProfile;
+import org.solrmarc.index.SolrIndexer;
 import org.solrmarc.solr.*;
 import org.solrmarc.tools.*;
 
@@ -50,15 +54,90 @@ public class MarcImporter extends MarcHandler
     private String solrHostUpdateURL;
     protected boolean commitAtEnd = true;
     protected boolean optimizeAtEnd = false;
-    protected boolean shuttingDown = false;
-    protected boolean isShutDown = false;
+    /** set from the shutdown hook or a JMX client to stop the run */
+    protected volatile boolean shuttingDown = false;
+    protected volatile boolean isShutDown = false;
     protected boolean justIndexDontAdd = false;
-    private int recsReadCounter = 0;
-    private int recsIndexedCounter = 0;
-    private int idsToDeleteCounter = 0;
-    private int recsDeletedCounter = 0;
+    /** counts for the current run, read by the JMX monitor while they change */
+    protected volatile int recsReadCounter = 0;
+    protected volatile int recsIndexedCounter = 0;
+    private volatile int idsToDeleteCounter = 0;
+    private volatile int recsDeletedCounter = 0;
     private boolean useBinaryRequestHandler = false;
     private boolean useStreamingServer = false;
+    /** max number of ids from the delete-record-id-list to send to Solr in a single request */
+    private int deleteChunkSize = 1000;
+    /** when useStreamingServer, the max number of documents waiting to be sent to Solr */
+    private int streamingQueueSize = 100;
+    /** when useStreamingServer, the number of threads sending documents to Solr */
+    private int streamingThreadCount = 2;
+    /** number of threads mapping records to Solr documents;  1 means read, map and send all on the main thread */
+    private int indexingThreads = 1;
+    /** maximum number of records read but not yet mapped, when indexingThreads > 1 */
+    private int indexingQueueSize = 1000;
+    /** when indexingThreads > 1, whether to send documents to Solr in the order the records were read */
+    private boolean indexingPreserveOrder = true;
+    /** whether to profile the time taken by each Solr field and custom method */
+    private boolean indexingProfile = false;
+    /** number of Solr fields and custom methods in the profile report */
+    private int indexingProfileTopN = 20;
+    /** milliseconds between profile reports while indexing;  0 reports only at the end */
+    private long indexingProfileIntervalMillis = 0;
+    private long nextProfileReportMillis = 0;
+    /** when profiling, the profile of each indexer mapping records */
+    private List<IndexingProfile> indexingProfiles = new ArrayList<IndexingProfile>();
+    /** milliseconds between progress reports while indexing;  0 for no reports */
+    private long progressIntervalMillis = 60000;
+    /** throughput of the current run;  null if not reporting progress */
+    private IndexingProgress progress = null;
+    /** live counts and controls for the run, over JMX */
+    protected final ImporterMonitor monitor;
+    /** true to register the monitor with the platform MBean server while indexing */
+    private boolean jmxEnabled = true;
+    /** records processed between checkpoints;  0 for no checkpoints */
+    private int checkpointInterval = 0;
+    /** when to commit while indexing, and how to commit at the end */
+    private CommitPolicy commitPolicy = new CommitPolicy(0, 0, false, 0, 1);
+    /** the checkpoint sidecar file;  null if not checkpointing or resuming */
+    private IndexingCheckpoint checkpoint = null;
+    /** the marc file the checkpoint is for;  null if not reading a file */
+    private File checkpointMarcFile = null;
+    private int recsSinceCheckpoint = 0;
+    /** where to resume after the last record processed, and its id */
+    private MarcInputPosition lastProcessedPosition = null;
+    private String lastProcessedId = null;
+    /** digests of the documents committed, to skip sending unchanged documents;  null to send them all */
+    private DocumentDigestStore digestStore = null;
+    /** the records Solr couldn't index, to be replayed;  null if not writing them */
+    private DeadLetterFile deadLetters = null;
+    /** the most documents the SolrProxy may have without having reported their failures */
+    private int maxUnreportedDocs = 1;
+    /** true to send every document, even those the digest store has as unchanged */
+    private boolean forceSend = false;
+    /** the pipeline mapping records, while importRecordsInPipeline() runs */
+    private volatile IndexingPipeline pipeline = null;
+    /** number of marc files indexed at once, when marc.path names several files */
+    private int filesInParallel = 1;
+    /** size in bytes of the sections binary marc files are split into, to
+     *  index a file's sections in parallel;  0 to index each file whole */
+    private long sectionBytes = 0;
+    /** when marc.path names several files, the importers of the files started so far */
+    private final List<MarcImporter> fileImporters = new ArrayList<MarcImporter>();
+    /** when marc.path names several files, the importer of the file each recent
+     *  document came from, by id, so a failure reported to another file's
+     *  importer is counted for the right file;  guarded by itself */
+    private Map<String, MarcImporter> recentSenders = null;
+    /** documents of this importer's file counted as indexed, then reported
+     *  failed to the importer of another file */
+    private final AtomicInteger recsFailedElsewhere = new AtomicInteger();
+    /** true if the documents are written to files rather than sent to Solr (solrmarc.export.dir) */
+    private boolean exportingDocuments = false;
+    /** true if the documents are sent to the Solr servers in solr.shard_urls */
+    private boolean sendingToShards = false;
+    /** the importer of the whole run, if this one indexes one of several marc files;  null otherwise */
+    private MarcImporter multiFileImporter = null;
+    /** put before progress reports:  the marc file's name (and section), when indexing one of several files */
+    private String progressPrefix = "";
     // Initialize logging category
     protected static Logger logger = Logger.getLogger(MarcImporter.class.getName());
 
@@ -70,6 +149,7 @@ public class MarcImporter extends MarcHandler
     {
         showConfig = true;
         showInputFile = true;
+        monitor = new ImporterMonitor(this);
     }
 
     /**
@@ -81,6 +161,38 @@ public class MarcImporter extends MarcHandler
     	this.solrProxy = solrProxy;
     }
 
+    /**
+     * Constructs the importer of one of the marc files (or file sections) in a
+     *  run of several:  it shares the configuration, SolrProxy and JMX monitor
+     *  of the importer of the whole run, which deletes records and commits
+     *  once all the files are indexed.
+     * @param multiFileImporter  the importer of the whole run
+     * @param section  the marc file, or the section of it, to index
+     * @param fileIndexer  the indexer to map the records, not used by another thread meanwhile
+     */
+    private MarcImporter(MarcImporter multiFileImporter, MarcFileSection section, SolrIndexer fileIndexer)
+        throws FileNotFoundException
+    {
+        showInputFile = true;
+        monitor = multiFileImporter.monitor;
+        this.multiFileImporter = multiFileImporter;
+        solrProxy = multiFileImporter.solrProxy;
+        homeDir = multiFileImporter.homeDir;
+        configProps = multiFileImporter.configProps;
+        inputSection = section.isWholeFile() ? null : section;
+        initFromProperties(section.getFile().getPath());
+        indexer = fileIndexer;
+        progressPrefix = section + " ";
+
+        // done once for the whole run, by its importer
+        commitAtEnd = false;
+        optimizeAtEnd = false;
+        deleteRecordListFilename = null;
+        indexingProfileIntervalMillis = 0;
+        // the files are indexed in parallel, rather than the records of each
+        indexingThreads = 1;
+    }
+
     /**
      * Main loop in the MarcImporter class the handles all of
      * importing and deleting of records.
@@ -91,13 +203,57 @@ public class MarcImporter extends MarcHandler
     {
         Runtime.getRuntime().addShutdownHook(new MyShutdownThread(this));
 
+        startMonitor();
+        try
+        {
+            return indexAndDelete();
+        }
+        finally
+        {
+            stopMonitor();
+        }
+    }
+
+    /**
+     * start the clock on the JMX monitor, and register it unless
+     *  solrmarc.indexing.jmx is false;  call stopMonitor() at the end of the run
+     */
+    protected void startMonitor()
+    {
+        monitor.start();
+        if (jmxEnabled)
+            monitor.register();
+    }
+
+    /**
+     * unregister the JMX monitor at the end of a run
+     */
+    protected void stopMonitor()
+    {
+        monitor.unregister();
+    }
+
+    /**
+     * the body of handleAll():  import the records, delete the records on the
+     *  delete list, and commit
+     */
+    private int indexAndDelete()
+        throws IOException
+    {
         Date start = new Date();
+        if (progressIntervalMillis > 0)
+            progress = new IndexingProgress(progressIntervalMillis, marcInputCounter, marcInputLength);
+        if (indexingProfile)
+        {
+            addProfile(indexer);
+            nextProfileReportMillis = start.getTime() + indexingProfileIntervalMillis;
+        }
 
         int numImported = 0;
         int numDeleted = 0;
         try
         {
-            numImported = importRecords();
+            numImported = marcFiles != null ? importFiles() : importRecords();
             numDeleted = deleteRecords();
         }
         catch (Exception e)
@@ -109,6 +265,11 @@ public class MarcImporter extends MarcHandler
 
         logger.info(" Adding " + recsIndexedCounter + " of " + recsReadCounter + " documents to index");
         logger.info(" Deleting " + recsDeletedCounter + " documents from index");
+        if (digestStore != null)
+            logger.info(" Skipped " + monitor.getUnchangedRecords() + " documents unchanged since last committed");
+        if (deadLetters != null && deadLetters.getNumWritten() > 0)
+            logger.warn(" Wrote " + deadLetters.getNumWritten() + " records Solr couldn't index to " + deadLetters.getFile() +
+                        ":  replay them with DeadLetterReplayer");
 
         if (!isShutDown)
         	finish();
@@ -123,10 +284,15 @@ public class MarcImporter extends MarcHandler
         //System.out.println("Finished in " + Utils.calcTime(totalTime) );
 
         // calculate the time taken
-        float indexingRate = numImported*1000 / totalTime;
+        double indexingRate = totalTime > 0 ? numImported * 1000.0 / totalTime : 0;
 
-        logger.info("Indexed " + numImported + " at a rate of about " + indexingRate + " per sec");
+        logger.info("Indexed " + numImported + " at a rate of about " + String.format("%.1f", indexingRate) + " per sec");
         logger.info("Deleted " + numDeleted + " records");
+        if (progress != null)
+            logger.info(progress.report(recsReadCounter, recsIndexedCounter, null));
+
+        if (indexingProfile)
+            logger.info(getProfileReport());
 
         return(shuttingDown ? 1 : 0);
     }
@@ -142,17 +308,23 @@ public class MarcImporter extends MarcHandler
         recsReadCounter = 0;
         recsIndexedCounter = 0;
 
+        if (reader != null && indexingThreads > 1)
+            return importRecordsInPipeline();
+
         while (reader != null && reader.hasNext())
         {
+            monitor.waitWhilePaused();
             if (shuttingDown)
             	break;
 
             // read next record
             Record record = null;
+            MarcInputPosition position = null;
             try
             {
                 record = reader.next();
                 recsReadCounter++;
+                position = getCheckpointPosition();
             }
             catch (Exception e)
             {
@@ -169,6 +341,7 @@ public class MarcImporter extends MarcHandler
 					String errmsg = "Unable to read record " + (recCntlNum != null ? recCntlNum : "") + " (record count " + recsReadCounter + ") -- " + e.getMessage();
 					logger.fatal(errmsg);
 					logger.fatal("******** Halting indexing! ********");
+					monitor.addFatalError();
 					break;
 //					throw (SolrMarcRuntimeException) e;
 				}
@@ -176,6 +349,7 @@ public class MarcImporter extends MarcHandler
 				{
 					// keep reading
 					logger.error("Error reading record: " + (recCntlNum != null ? recCntlNum : "") + " (record count " + recsReadCounter + ") -- " + e.getMessage(), e);
+					monitor.addReadError();
 					continue;
 				}
 			}
@@ -186,6 +360,7 @@ public class MarcImporter extends MarcHandler
             	recCntlNum = record.getControlNumber();
             }
             catch (NullPointerException npe) { /* ignore */ }
+            monitor.setCurrentRecordId(recCntlNum);
 
             // index the record
             try
@@ -194,110 +369,738 @@ public class MarcImporter extends MarcHandler
                 if (added)
                 {
                     recsIndexedCounter++;
-                    logger.info("Added record " + recsReadCounter + " read from file: " + recCntlNum);
+                    if (logger.isDebugEnabled())
+                        logger.debug("Added record " + recsReadCounter + " read from file: " + recCntlNum);
                 }
-                else
-                    logger.info("Deleted record " + recsReadCounter + " read from file: " + recCntlNum);
+                else if (logger.isDebugEnabled())
+                    logger.debug("Unchanged record " + recsReadCounter + " read from file: " + recCntlNum);
             }
             catch (Exception e)
             {
-                Throwable cause = null;
-                if (e instanceof SolrRuntimeException)
-                    cause = e.getCause();
-                if (cause != null && cause instanceof InvocationTargetException)
-                    cause = ((InvocationTargetException)cause).getTargetException();
+                handleIndexingException(e, recCntlNum, recsReadCounter, record);
+			}
+            checkpointIfDue(position, recCntlNum);
 
-                if (cause instanceof Exception && solrProxy.isSolrException((Exception)cause))
-                {
-                    logger.error("Unable to index record " + (recCntlNum != null ? recCntlNum : "") + " (record count "+ recsReadCounter +  ") -- " + cause.getMessage());
+            if (progress != null && progress.isReportDue())
+                logger.info(progressPrefix + progress.report(recsReadCounter, recsIndexedCounter, null));
+            if (indexingProfileIntervalMillis > 0)
+                reportProfileIfDue();
+		} // while reader
 
-                    if (cause.getMessage().contains("missing required fields") ||
-                        cause.getMessage().contains("multiple values encountered for non multiValued field")  ||
-                        cause.getMessage().contains("unknown field"))
-                    {
-                        // skip record, but keep indexing
-                    }
-                    else if (e instanceof SolrRuntimeException)
-                    {
-                        // stop indexing
-	                    logger.fatal("******** Halting indexing! ********");
-                        throw (new SolrRuntimeException(cause.getMessage(), (Exception)cause));
-                    }
-                }
-                else if (e instanceof SolrMarcIndexerException)
+        flushSolrProxy();
+
+        return recsIndexedCounter;
+    }
+
+    /**
+     * Iterate over the marc records in the file and add them to the index,
+     *  using indexingThreads threads to map the records to Solr documents.
+     *  Each mapping thread gets its own indexer instance;  documents are sent
+     *  to Solr from this thread.
+     * @return Number of records indexed
+     */
+    private int importRecordsInPipeline()
+    {
+        List<SolrIndexer> indexers = new ArrayList<SolrIndexer>();
+        indexers.add(indexer);
+        while (indexers.size() < indexingThreads)
+            indexers.add(createWorkerIndexer());
+
+        logger.info("Indexing with " + indexingThreads + " mapping threads, queue size " + indexingQueueSize +
+                    (indexingPreserveOrder ? ", preserving record order" : ""));
+        if (checkpoint != null && !indexingPreserveOrder)
+        {
+            // records are sent out of order, so there is no one place to resume from
+            logger.warn("Not writing checkpoints:  solrmarc.indexing.preserve_order is false");
+            checkpoint = null;
+        }
+        pipeline = new IndexingPipeline(this, reader, errors, indexers, indexingQueueSize, indexingPreserveOrder);
+        try
+        {
+            pipeline.run();
+        }
+        finally
+        {
+            recsReadCounter = pipeline.getRecsReadCount();
+            pipeline = null;
+        }
+
+        flushSolrProxy();
+
+        return recsIndexedCounter;
+    }
+
+    /**
+     * Index each of the marc files named by marc.path, filesInParallel at a
+     *  time, each with its own MarcImporter sending to this one's SolrProxy
+     * @return Number of records indexed
+     */
+    private int importFiles()
+    {
+        List<MarcFileSection> sections = splitMarcFiles();
+        logger.info("Indexing " + marcFiles.size() + " MARC data files" +
+                    (sections.size() > marcFiles.size() ? " in " + sections.size() + " sections, " : ", ") + filesInParallel + " at a time");
+        // a document's failure may be reported after as many more documents are sent
+        final int maxRecentSenders = 2 * maxUnreportedDocs;
+        recentSenders = new LinkedHashMap<String, MarcImporter>()
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, MarcImporter> eldest)
+            {
+                return size() > maxRecentSenders;
+            }
+        };
+        ParallelFileIndexer fileIndexer = new ParallelFileIndexer(this, sections, filesInParallel);
+        try
+        {
+            fileIndexer.run();
+        }
+        finally
+        {
+            recsReadCounter = getRecsReadCount();
+            recsIndexedCounter = getRecsIndexedCount();
+            logger.info(fileIndexer.report());
+        }
+        return recsIndexedCounter;
+    }
+
+    /**
+     * @return the marc files to index, each split into sections of about
+     *  sectionBytes if it is a binary marc file, or whole
+     */
+    private List<MarcFileSection> splitMarcFiles()
+    {
+        List<MarcFileSection> sections = new ArrayList<MarcFileSection>();
+        for (File marcFile : marcFiles)
+        {
+            if (sectionBytes > 0 && isBinaryMarcFile(marcFile.getName()) && marcFile.isFile())
+            {
+                long start = System.currentTimeMillis();
+                try
                 {
-                    SolrMarcIndexerException smie = (SolrMarcIndexerException)e;
-                    if (smie.getLevel() == SolrMarcIndexerException.IGNORE)
-						// skip record, but keep indexing
-           	            logger.info("Ignored record " + (recCntlNum != null ? recCntlNum : "") + " (record count " + recsReadCounter + ")");
-                    else if (smie.getLevel() == SolrMarcIndexerException.DELETE)
-						// skip record, but keep indexing
-           	            logger.info("Deleted record " + (recCntlNum != null ? recCntlNum : "") + " (record count " + recsReadCounter + ")");
-                    else if (smie.getLevel() == SolrMarcIndexerException.EXIT)
-                    {
-						// stop indexing
-						logger.fatal("Serious Error flagged in record " + (recCntlNum != null ? recCntlNum : "") + " (record count " + recsReadCounter + ")");
-						logger.fatal("******** Halting indexing! ********");
-                        throw(smie);
-                    }
+                    List<MarcFileSection> fileSections = MarcFileSplitter.split(marcFile, sectionBytes);
+                    logger.info("Split " + marcFile.getName() + " into " + fileSections.size() + " sections in " +
+                                (System.currentTimeMillis() - start) + " ms");
+                    sections.addAll(fileSections);
+                    continue;
                 }
-                else
+                catch (IOException e)
                 {
-					// stop indexing
-					logger.error("Unable to index record " + (recCntlNum != null ? recCntlNum : "") + " (record count " + recsReadCounter + ") -- " + e.getMessage(), e);
-					// this error should (might?) only be thrown if we can't
-					// write to the index
-					// therefore, continuing to index would be pointless.
-					if (e instanceof SolrRuntimeException)
-					{
-						logger.fatal("******** Halting indexing! ********");
-						throw (SolrRuntimeException) e;
-					}
-				}
-			} // catch basic reader exception
-		} // while reader
+                    logger.error("Unable to split " + marcFile.getName() + ":  indexing it whole -- " + e.getMessage());
+                }
+            }
+            sections.add(new MarcFileSection(marcFile));
+        }
+        return sections;
+    }
 
-        return recsIndexedCounter;
+    /**
+     * @return true if the marc file is binary marc (not MARCXML or marc-in-json),
+     *  which can be split into sections
+     */
+    private static boolean isBinaryMarcFile(String marcFileName)
+    {
+        String lcName = marcFileName.trim().toLowerCase();
+        return !lcName.endsWith(".xml") && !lcName.endsWith(".json");
+    }
+
+    /**
+     * Besides several marc files, a single binary marc file is read a section
+     *  at a time by an importer for each section, when it is split to index
+     *  the sections in parallel (solrmarc.indexing.split_mb)
+     */
+    @Override
+    protected boolean readsEachFile(String marcRecsFname)
+    {
+        if (super.readsEachFile(marcRecsFname))
+            return true;
+        return multiFileImporter == null && sectionBytes > 0 && filesInParallel > 1 &&
+               marcRecsFname != null && isBinaryMarcFile(marcRecsFname);
+    }
+
+    /**
+     * Create the importer of one of the marc files (or file sections) in this
+     *  run, and count its records in this importer's counts
+     * @param section  the marc file, or the section of it, to index
+     * @param fileIndexer  the indexer to map the records, not used by another thread meanwhile
+     * @throws IllegalArgumentException if the marc file can't be opened
+     */
+    MarcImporter createFileImporter(MarcFileSection section, SolrIndexer fileIndexer)
+        throws FileNotFoundException
+    {
+        MarcImporter fileImporter = new MarcImporter(this, section, fileIndexer);
+        synchronized (fileImporters)
+        {
+            fileImporters.add(fileImporter);
+        }
+        if (shuttingDown)
+            fileImporter.shutDown();
+        return fileImporter;
+    }
+
+    /**
+     * @return the importers of the marc files started so far in this run,
+     *  when marc.path names several files
+     */
+    List<MarcImporter> getFileImporters()
+    {
+        synchronized (fileImporters)
+        {
+            return new ArrayList<MarcImporter>(fileImporters);
+        }
+    }
+
+    /**
+     * index the records in this importer's marc file, as one of the files in
+     *  a run of several
+     * @return Number of records indexed
+     */
+    int importFile()
+    {
+        if (progressIntervalMillis > 0)
+            progress = new IndexingProgress(progressIntervalMillis, marcInputCounter, marcInputLength);
+        return importRecords();
+    }
+
+    /**
+     * @return another instance of the indexer, for another thread mapping
+     *  records;  profiled, if profiling
+     */
+    SolrIndexer createWorkerIndexer()
+    {
+        SolrIndexer workerIndexer = createIndexer();
+        if (indexingProfile)
+            addProfile(workerIndexer);
+        return workerIndexer;
+    }
+
+    /**
+     * Send a record mapped by an IndexingPipeline worker to the index.  This
+     *  is the pipeline equivalent of the body of the importRecords() loop, so
+     *  exceptions are handled in the same way.
+     * @param record  the marc record
+     * @param recNum  count of records read when this one was read
+     * @param fields2ValuesMap  the Solr field map for the record, if it was mapped
+     * @param recErrors  errors found while reading and mapping this record
+     * @param mappingException  exception thrown while mapping the record, if any
+     * @param position  where to resume reading after this record, for checkpoints;  null if not checkpointing
+     */
+    void indexMappedRecord(Record record, int recNum, Map<String, Object> fields2ValuesMap, ErrorHandler recErrors, Exception mappingException,
+                           MarcInputPosition position)
+    {
+        // while paused, the pipeline's queues fill and its threads wait
+        monitor.waitWhilePaused();
+
+        String recCntlNum = null;
+        try
+        {
+            recCntlNum = record.getControlNumber();
+        }
+        catch (NullPointerException npe) { /* ignore */ }
+        monitor.setCurrentRecordId(recCntlNum);
+
+        try
+        {
+            if (mappingException != null)
+            {
+                if (mappingException instanceof SolrMarcIndexerException)
+                    deleteIfRequested((SolrMarcIndexerException) mappingException, record);
+                throw mappingException;
+            }
+
+            if (addIfChanged(record, fields2ValuesMap, recErrors))
+            {
+                recsIndexedCounter++;
+                if (logger.isDebugEnabled())
+                    logger.debug("Added record " + recNum + " read from file: " + recCntlNum);
+            }
+            else if (logger.isDebugEnabled())
+                logger.debug("Unchanged record " + recNum + " read from file: " + recCntlNum);
+        }
+        catch (Exception e)
+        {
+            handleIndexingException(e, recCntlNum, recNum, record);
+        }
+        checkpointIfDue(position, recCntlNum);
+
+        if (progress != null && progress.isReportDue())
+            logger.info(progressPrefix + progress.report(pipeline != null ? pipeline.getRecsReadCount() : recNum, recsIndexedCounter, pipeline));
+        if (indexingProfileIntervalMillis > 0)
+            reportProfileIfDue();
+    }
+
+    /**
+     * give the indexer a profile, so the time taken by each Solr field and
+     *  custom method is reported
+     */
+    private void addProfile(SolrIndexer profiledIndexer)
+    {
+        if (profiledIndexer == null)
+            return;
+        IndexingProfile profile = new IndexingProfile();
+        profiledIndexer.setProfile(profile);
+        indexingProfiles.add(profile);
+    }
+
+    /**
+     * @return the profiles of all the indexers added together, as a table of
+     *   the Solr fields and custom methods that took the most time
+     */
+    private String getProfileReport()
+    {
+        IndexingProfile total = new IndexingProfile();
+        for (IndexingProfile profile : indexingProfiles)
+            total.addAll(profile);
+        return total.report(indexingProfileTopN);
+    }
+
+    private void reportProfileIfDue()
+    {
+        long now = System.currentTimeMillis();
+        if (now >= nextProfileReportMillis)
+        {
+            logger.info(getProfileReport());
+            nextProfileReportMillis = now + indexingProfileIntervalMillis;
+        }
+    }
+
+    /**
+     * Deal with an exception thrown while mapping a record or adding it to the
+     *  index:  either log it and return so indexing continues with the next
+     *  record, or throw an exception to halt indexing.
+     * @param e  the exception
+     * @param recCntlNum  the control number of the record (may be null)
+     * @param recNum  count of records read when this one was read
+     * @param record  the record, for the dead letter file;  null if it is no longer at hand
+     */
+    private void handleIndexingException(Exception e, String recCntlNum, int recNum, Record record)
+    {
+        if (e instanceof SolrBatchException)
+        {
+            handleBatchFailures((SolrBatchException) e, null);
+            return;
+        }
+
+        if (e instanceof SolrUnavailableException && deadLetters != null)
+        {
+            // Solr was down or busy for this record, not for the run:  keep indexing
+            logger.error("Unable to index record " + (recCntlNum != null ? recCntlNum : "") + recordCountText(recNum) + " -- " + e.getMessage());
+            writeDeadLetter(recCntlNum, record, e);
+            return;
+        }
+
+        Throwable cause = null;
+        if (e instanceof SolrRuntimeException)
+            cause = e.getCause();
+        if (cause != null && cause instanceof InvocationTargetException)
+            cause = ((InvocationTargetException)cause).getTargetException();
+
+        if (cause instanceof Exception && solrProxy.isSolrException((Exception)cause))
+        {
+            logger.error("Unable to index record " + (recCntlNum != null ? recCntlNum : "") + recordCountText(recNum) + " -- " + cause.getMessage());
+
+            if (cause.getMessage().contains("missing required fields") ||
+                cause.getMessage().contains("multiple values encountered for non multiValued field")  ||
+                cause.getMessage().contains("unknown field"))
+            {
+                // skip record, but keep indexing
+                monitor.addSolrRejection();
+                writeDeadLetter(recCntlNum, record, (Exception) cause);
+            }
+            else if (e instanceof SolrRuntimeException)
+            {
+                // stop indexing
+                logger.fatal("******** Halting indexing! ********");
+                monitor.addFatalError();
+                throw (new SolrRuntimeException(cause.getMessage(), (Exception)cause));
+            }
+        }
+        else if (e instanceof SolrMarcIndexerException)
+        {
+            SolrMarcIndexerException smie = (SolrMarcIndexerException)e;
+            if (smie.getLevel() == SolrMarcIndexerException.IGNORE)
+            {
+				// skip record, but keep indexing
+   	            logger.info("Ignored record " + (recCntlNum != null ? recCntlNum : "") + recordCountText(recNum));
+   	            monitor.addIgnoredRecord();
+            }
+            else if (smie.getLevel() == SolrMarcIndexerException.DELETE)
+            {
+				// skip record, but keep indexing
+   	            logger.info("Deleted record " + (recCntlNum != null ? recCntlNum : "") + recordCountText(recNum));
+   	            monitor.addDeletedByIndexer();
+            }
+            else if (smie.getLevel() == SolrMarcIndexerException.EXIT)
+            {
+				// stop indexing
+				logger.fatal("Serious Error flagged in record " + (recCntlNum != null ? recCntlNum : "") + recordCountText(recNum));
+				logger.fatal("******** Halting indexing! ********");
+				monitor.addFatalError();
+                throw(smie);
+            }
+        }
+        else
+        {
+			// stop indexing
+			logger.error("Unable to index record " + (recCntlNum != null ? recCntlNum : "") + recordCountText(recNum) + " -- " + e.getMessage(), e);
+			monitor.addIndexingError();
+			// Solr refused the document
+			if (e instanceof SolrException)
+				writeDeadLetter(recCntlNum, record, e);
+			// this error should (might?) only be thrown if we can't
+			// write to the index
+			// therefore, continuing to index would be pointless.
+			if (e instanceof SolrRuntimeException)
+			{
+				logger.fatal("******** Halting indexing! ********");
+				monitor.addFatalError();
+				throw (SolrRuntimeException) e;
+			}
+		}
+    }
+
+    /**
+     * Deal with the documents in a batch that couldn't be added to the index,
+     *  other than the document currently being added, as if each had failed
+     *  on its own.  In a run of several files, the batch may have documents
+     *  from the other files:  each is taken off the indexed count of the
+     *  importer of its file.
+     * @param sbe  the exception reporting the failed documents
+     * @param currentId  id of the document whose add sent the batch, or null
+     * @return the exception for the current document, if it was one of the failures
+     */
+    private RuntimeException handleBatchFailures(SolrBatchException sbe, Object currentId)
+    {
+        logger.error(sbe.getMessage());
+        RuntimeException currentFailure = null;
+        for (Map.Entry<String, RuntimeException> failure : sbe.getFailures().entrySet())
+        {
+            if (digestStore != null)
+                digestStore.failed(failure.getKey());
+            if (currentId != null && failure.getKey().equals(currentId.toString()))
+            {
+                currentFailure = failure.getValue();
+                continue;
+            }
+            // the document was counted as indexed when it was buffered
+            MarcImporter sender = takeSender(failure.getKey());
+            if (sender == this)
+                recsIndexedCounter--;
+            else
+                sender.recsFailedElsewhere.incrementAndGet();
+            handleIndexingException(failure.getValue(), failure.getKey(), -1, null);
+        }
+        return currentFailure;
+    }
+
+    /**
+     * note the importer of the file a document being sent came from, in a run
+     *  of several files
+     */
+    private void noteSender(Object id)
+    {
+        if (multiFileImporter == null || id == null)
+            return;
+        Map<String, MarcImporter> senders = multiFileImporter.recentSenders;
+        if (senders == null)
+            return;
+        synchronized (senders)
+        {
+            senders.put(id.toString(), this);
+        }
+    }
+
+    /**
+     * @return the importer of the file the document came from:  this one,
+     *  unless the run has several files and another file's importer sent it
+     */
+    private MarcImporter takeSender(String id)
+    {
+        Map<String, MarcImporter> senders = multiFileImporter != null ? multiFileImporter.recentSenders : null;
+        if (senders == null)
+            return this;
+        MarcImporter sender;
+        synchronized (senders)
+        {
+            sender = senders.remove(id);
+        }
+        return sender != null ? sender : this;
+    }
+
+    /**
+     * write a record Solr couldn't index to the dead letter file, if there is one
+     * @param id  the document id (or control number) of the record
+     * @param record  the record;  null for the one the dead letter file holds for the id
+     */
+    private void writeDeadLetter(String id, Record record, Exception e)
+    {
+        if (deadLetters == null || id == null)
+            return;
+        try
+        {
+            if (!deadLetters.write(id, record, e))
+                logger.warn("Record " + id + " is no longer held:  only its error is written to " + deadLetters.getErrorsFile());
+            monitor.addDeadLetter();
+        }
+        catch (IOException ioe)
+        {
+            logger.error("Unable to write record " + id + " to dead letter file " + deadLetters.getFile() + " -- " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * send any documents the SolrProxy has buffered, dealing with failures
+     */
+    private void flushSolrProxy()
+    {
+        if (solrProxy == null)
+            return;
+        long start = System.nanoTime();
+        try
+        {
+            solrProxy.flush();
+            addSolrCall(start);
+        }
+        catch (SolrBatchException sbe)
+        {
+            handleBatchFailures(sbe, null);
+        }
+        catch (IOException ioe)
+        {
+            throw new SolrRuntimeException("IOException", ioe);
+        }
+    }
+
+    /**
+     * @return where to resume reading the marc input after the record just
+     *  read, if writing checkpoints;  null if not
+     */
+    MarcInputPosition getCheckpointPosition()
+    {
+        return checkpoint != null ? getInputPosition() : null;
+    }
+
+    /**
+     * Note a record as processed (sent to the index, or skipped because of an
+     *  error), and commit the index if the commit policy says to.  Every
+     *  checkpointInterval records, and after each hard commit for the policy,
+     *  the index is committed and a checkpoint written.
+     * @param position  where to resume reading after the record;  null if not checkpointing
+     * @param recCntlNum  the control number of the record (may be null)
+     */
+    private void checkpointIfDue(MarcInputPosition position, String recCntlNum)
+    {
+        boolean checkpointDue = false;
+        if (checkpoint != null && position != null)
+        {
+            lastProcessedPosition = position;
+            lastProcessedId = recCntlNum;
+            if (checkpointInterval > 0 && ++recsSinceCheckpoint >= checkpointInterval)
+            {
+                recsSinceCheckpoint = 0;
+                checkpointDue = true;
+            }
+        }
+        boolean commitDue = commitPolicy.takeCommitIfDue();
+        if ((!checkpointDue && !commitDue) || justIndexDontAdd)
+            return;
+
+        // a soft commit isn't on disk, so can't be resumed from
+        boolean softCommit = commitDue && !checkpointDue && commitPolicy.isSoft();
+        flushSolrProxy();
+        try
+        {
+            long start = System.nanoTime();
+            if (softCommit)
+                solrProxy.softCommit();
+            else
+                solrProxy.commit(false);
+            addSolrCall(start);
+            commitPolicy.committed();
+        }
+        catch (IOException ioe)
+        {
+            if (checkpointDue)
+                logger.error("Commit for checkpoint failed, so not writing checkpoint: " + ioe.getMessage());
+            else
+                logger.error("Commit while indexing failed: " + ioe.getMessage());
+            return;
+        }
+        if (softCommit)
+            return;
+        // with several marc files indexed at once, documents from the
+        //  other files may have been added after the flush
+        if (multiFileImporter == null)
+            saveDigests();
+        writeCheckpoint(false);
+    }
+
+    /**
+     * write the position after the last record processed to the checkpoint
+     *  file;  call only after a successful commit
+     * @param complete  true if the whole marc input has been indexed
+     */
+    private void writeCheckpoint(boolean complete)
+    {
+        if (checkpoint == null || lastProcessedPosition == null)
+            return;
+        try
+        {
+            checkpoint.save(checkpointMarcFile, lastProcessedPosition, lastProcessedId, complete);
+            logger.info("Checkpoint " + checkpoint.getFile() + ": " + lastProcessedPosition + ", last committed id " + lastProcessedId +
+                        (complete ? ", input complete" : ""));
+        }
+        catch (IOException ioe)
+        {
+            logger.error("Unable to write checkpoint " + checkpoint.getFile() + " -- " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * after the commit at the end, write the checkpoint for the marc input,
+     *  or for each marc file when indexing several
+     */
+    protected void writeFinalCheckpoints()
+    {
+        writeCheckpoint(!shuttingDown && (reader == null || !reader.hasNext()));
+        synchronized (fileImporters)
+        {
+            for (MarcImporter fileImporter : fileImporters)
+                fileImporter.writeFinalCheckpoints();
+        }
+    }
+
+    /**
+     * after a hard commit (while indexing, or at the end), commit the digests
+     *  of the documents sent and write them to the digest store file, so a run
+     *  resumed from the checkpoint written after it has them
+     */
+    private void saveDigests()
+    {
+        if (digestStore == null)
+            return;
+        digestStore.commit();
+        try
+        {
+            digestStore.save();
+            logger.info("Saved digests of " + digestStore.size() + " documents to " + digestStore.getFile());
+        }
+        catch (IOException ioe)
+        {
+            logger.error("Unable to write document digests " + digestStore.getFile() + " -- " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * add a call to the SolrProxy to the Solr latencies for the JMX monitor
+     *  and the progress reports
+     * @param startNanos  System.nanoTime() when the call was made
+     */
+    protected void addSolrCall(long startNanos)
+    {
+        long nanos = System.nanoTime() - startNanos;
+        monitor.addSolrCall(nanos);
+        if (progress != null)
+            progress.addSolrCall(nanos);
+    }
+
+    private static String recordCountText(int recNum)
+    {
+        return recNum < 0 ? "" : " (record count " + recNum + ")";
+    }
+
+    /**
+     * Add a record to the index
+     * @param record marc record to add
+     * @return false if the record's document is unchanged since it was last
+     *  committed, and wasn't sent
+     */
+    private boolean addToIndex(Record record) throws IOException
+    {
+        try
+        {
+            Map<String, Object> fields2ValuesMap = getFldNames2ValsMap(record);
+            return addIfChanged(record, fields2ValuesMap, errors);
+        }
+        catch (SolrMarcIndexerException e)
+        {
+            deleteIfRequested(e, record);
+            throw(e);
+        }
+    }
+
+    /**
+     * if the indexer asked for the record to be deleted, remove it from the index
+     */
+    private void deleteIfRequested(SolrMarcIndexerException e, Record record)
+        throws IOException
+    {
+        if (e.getLevel() == SolrMarcIndexerException.DELETE)
+        {
+            String id = record.getControlNumber();
+            if (id != null)
+            {
+                solrProxy.delete(id, true, true);
+                if (digestStore != null)
+                    digestStore.deleted(id);
+            }
+        }
     }
 
     /**
-     * Add a record to the index
-     * @param record marc record to add
+     * Add a record's document to the index, unless the digest store has it
+     *  as unchanged since it was last committed (and not forceSend)
+     * @param record  the marc record
+     * @param fields2ValuesMap  the Solr field map for the record
+     * @param recErrors  errors found while reading and mapping this record
+     * @return false if the document was unchanged, and wasn't sent
      */
-    private boolean addToIndex(Record record) throws IOException
+    private boolean addIfChanged(Record record, Map<String, Object> fields2ValuesMap, ErrorHandler recErrors)
+        throws IOException
     {
-        try
+        Object id = fields2ValuesMap.get("id");
+        long digest = 0;
+        if (digestStore != null && id != null)
         {
-            Map<String, Object> fields2ValuesMap = getFldNames2ValsMap(record);
-            String docStr = addToIndex(fields2ValuesMap);
-
-            if (verbose || justIndexDontAdd)
+            // the digest is of the document as it is sent, errors and all
+            if (recErrors != null && includeErrors && recErrors.hasErrors())
+                addErrorsToMap(fields2ValuesMap, recErrors);
+            digest = DocumentDigestStore.digest(fields2ValuesMap);
+            if (!forceSend && digestStore.isUnchanged(id.toString(), digest))
             {
-                if (verbose)
-                {
-                    System.out.println(record.toString());
-                    logger.info(record.toString());
-                }
-                System.out.println(docStr);
-                logger.info(docStr);
+                monitor.addUnchangedRecord();
+                return false;
             }
-            return(true);
         }
-        catch (SolrMarcIndexerException e)
+
+        if (deadLetters != null && id != null && !justIndexDontAdd)
+            deadLetters.hold(id.toString(), record);
+        String docStr = addToIndex(fields2ValuesMap, recErrors);
+        if (!justIndexDontAdd)
+            commitPolicy.docSent();
+        if (digest != 0)
+            digestStore.sent(id.toString(), digest);
+        showIndexedRecord(record, docStr);
+        return true;
+    }
+
+    /**
+     * write out the record and the resulting document if verbose or justIndexDontAdd
+     */
+    private void showIndexedRecord(Record record, String docStr)
+    {
+        if (verbose || justIndexDontAdd)
         {
-            if (e.getLevel() == SolrMarcIndexerException.IGNORE)
-                throw(e);
-            else if (e.getLevel() == SolrMarcIndexerException.DELETE)
+            if (verbose)
             {
-                String id = record.getControlNumber();
-                if (id != null)
-                    solrProxy.delete(id, true, true);
-                throw(e);
+                System.out.println(record.toString());
+                logger.info(record.toString());
             }
-            else if (e.getLevel() == SolrMarcIndexerException.EXIT)
-                throw(e);
+            System.out.println(docStr);
+            logger.info(docStr);
         }
-        return(true);
     }
 
     /**
@@ -321,23 +1124,53 @@ public class MarcImporter extends MarcHandler
      */
     protected String addToIndex(Map<String, Object> fields2ValuesMap)
         throws IOException
+    {
+        return addToIndex(fields2ValuesMap, errors);
+    }
+
+    /**
+     * Add a document to the index according to the fields map;
+     *   uses justIndexDontAdd  to determine if actual index write takes place
+     * @param fields2ValuesMap marc record to add as a fields map
+     * @param recErrors errors for the record, added to the document if includeErrors is set
+     * @return the document added, as a String
+     */
+    protected String addToIndex(Map<String, Object> fields2ValuesMap, ErrorHandler recErrors)
+        throws IOException
     {
         if (fields2ValuesMap.size() == 0)
             return null;
-        if (errors != null && includeErrors)
+        if (recErrors != null && includeErrors)
         {
-            if (errors.hasErrors())
-                addErrorsToMap(fields2ValuesMap, errors);
+            if (recErrors.hasErrors())
+                addErrorsToMap(fields2ValuesMap, recErrors);
         }
 
         // NOTE: exceptions are dealt with by calling class
-        return solrProxy.addDoc(fields2ValuesMap, verbose, !justIndexDontAdd);
+        try
+        {
+            if (!justIndexDontAdd)
+                noteSender(fields2ValuesMap.get("id"));
+            long start = System.nanoTime();
+            String docStr = solrProxy.addDoc(fields2ValuesMap, verbose, !justIndexDontAdd);
+            addSolrCall(start);
+            return docStr;
+        }
+        catch (SolrBatchException sbe)
+        {
+            // adding this document sent a batch;  report the other documents
+            //  that failed, and fail this one as if it had been sent alone
+            RuntimeException currentFailure = handleBatchFailures(sbe, fields2ValuesMap.get("id"));
+            if (currentFailure != null)
+                throw currentFailure;
+            return null;
+        }
     }
 
 
     private void addErrorsToMap(Map<String, Object> map, ErrorHandler errors2)
     {
-        map.put("marc_error", errors.getErrors());
+        map.put("marc_error", errors2.getErrors());
     }
 
 
@@ -378,15 +1211,19 @@ public class MarcImporter extends MarcHandler
             }
 
             String line;
-            boolean fromCommitted = true;
-            boolean fromPending = true;
+            // ids already sent to Solr (or in the current chunk) during this run
+            Set<String> idsSeen = new HashSet<String>();
+            List<String> chunk = new ArrayList<String>();
+            int chunkRequested = 0;
+            int chunkNum = 0;
             while ((line = is.readLine()) != null)
             {
+                monitor.waitWhilePaused();
                 if (shuttingDown)
                 	break;
                 line = line.trim();
 
-                if (line.startsWith("#"))
+                if (line.startsWith("#") || line.length() == 0)
                 	continue;
 
                 if (deleteRecordIDMapper != null)
@@ -394,15 +1231,26 @@ public class MarcImporter extends MarcHandler
 
                 String id = line;
                 idsToDeleteCounter++;
+                chunkRequested++;
+                if (!idsSeen.add(id))
+                    continue;
                 if (verbose)
                 {
                     System.out.println("Deleting record with id :"+ id);
                     logger.info("Deleting record with id :"+ id);
                 }
-// FIXME:  do this with SolrJ call to delete list of ids
-                solrProxy.delete(id, fromCommitted, fromPending);
-                recsDeletedCounter++;
+                chunk.add(id);
+                if (chunk.size() >= deleteChunkSize)
+                {
+                    sendDeleteChunk(++chunkNum, chunk, chunkRequested);
+                    chunk.clear();
+                    chunkRequested = 0;
+                }
             }
+            if (chunk.size() > 0 || chunkRequested > 0)
+                sendDeleteChunk(++chunkNum, chunk, chunkRequested);
+            logger.info("Deleted " + recsDeletedCounter + " of " + idsToDeleteCounter + " requested ids (" +
+                        (idsToDeleteCounter - recsDeletedCounter) + " duplicates) in " + chunkNum + " chunks");
         }
         catch (FileNotFoundException fnfe)
         {
@@ -415,6 +1263,30 @@ public class MarcImporter extends MarcHandler
         return recsDeletedCounter;
     }
 
+    /**
+     * send a chunk of ids from the delete-record-id-list to Solr in one request
+     * @param chunkNum  number of this chunk, for logging
+     * @param ids  the (distinct) ids to delete
+     * @param numRequested  number of ids read from the file for this chunk, including duplicates
+     */
+    private void sendDeleteChunk(int chunkNum, List<String> ids, int numRequested)
+        throws IOException
+    {
+        if (ids.size() > 0)
+        {
+            long start = System.nanoTime();
+            solrProxy.delete(ids);
+            addSolrCall(start);
+            if (digestStore != null)
+            {
+                for (String id : ids)
+                    digestStore.deleted(id);
+            }
+        }
+        recsDeletedCounter += ids.size();
+        logger.info("Delete chunk " + chunkNum + ": deleted " + ids.size() + " of " + numRequested + " requested ids");
+    }
+
 	public void finish()
 	{
 		if (solrProxy != null)
@@ -424,8 +1296,13 @@ public class MarcImporter extends MarcHandler
 				try
 				{
 					logger.info("Calling commit");
-					solrProxy.commit(shuttingDown ? false : optimizeAtEnd);
+					if (optimizeAtEnd && !shuttingDown)
+						solrProxy.optimize(commitPolicy.getOptimizeMaxSegments());
+					else
+						solrProxy.commit(false);
 					logger.info("Done with the commit, closing Solr");
+					writeFinalCheckpoints();
+					saveDigests();
 				}
 				catch (IOException ioe)
 				{
@@ -463,7 +1340,7 @@ public class MarcImporter extends MarcHandler
 //    		return;
 //    	}
 
-        if (shuttingDown || !commitAtEnd)
+        if (shuttingDown || !commitAtEnd || exportingDocuments || sendingToShards)
         	return;
         // if solrCoreDir == null  and  solrHostUpdateURL != null  then we are talking to a remote
         // solr server during the main program, so there is no need to separately contact
@@ -490,12 +1367,66 @@ public class MarcImporter extends MarcHandler
         }
     }
 
+    /**
+     * @return the JMX monitor of this importer's runs
+     */
+    public ImporterMonitor getMonitor()
+    {
+        return monitor;
+    }
+
+    /**
+     * @return the number of records read so far in this run, including those
+     *  read by an IndexingPipeline but not yet indexed, and those read from
+     *  each marc file when indexing several
+     */
+    int getRecsReadCount()
+    {
+        synchronized (fileImporters)
+        {
+            if (!fileImporters.isEmpty())
+            {
+                int total = 0;
+                for (MarcImporter fileImporter : fileImporters)
+                    total += fileImporter.getRecsReadCount();
+                return total;
+            }
+        }
+        IndexingPipeline currentPipeline = pipeline;
+        return currentPipeline != null ? currentPipeline.getRecsReadCount() : recsReadCounter;
+    }
+
+    int getRecsIndexedCount()
+    {
+        synchronized (fileImporters)
+        {
+            if (!fileImporters.isEmpty())
+            {
+                int total = 0;
+                for (MarcImporter fileImporter : fileImporters)
+                    total += fileImporter.getRecsIndexedCount();
+                return total;
+            }
+        }
+        return recsIndexedCounter - recsFailedElsewhere.get();
+    }
+
+    int getRecsDeletedCount()
+    {
+        return recsDeletedCounter;
+    }
+
     /**
      * Set the shutdown flag
      */
     public void shutDown()
     {
         shuttingDown = true;
+        synchronized (fileImporters)
+        {
+            for (MarcImporter fileImporter : fileImporters)
+                fileImporter.shutDown();
+        }
     }
 
 
@@ -638,7 +1569,7 @@ public class MarcImporter extends MarcHandler
             if (solrProxyIsRemote)
             {
                 logger.info(" Connecting to remote Solr server at URL " + solrHostUpdateURL);
-                solrProxy = SolrCoreLoader.loadRemoteSolrServer(solrHostUpdateURL, useBinaryRequestHandler, useStreamingServer );
+                solrProxy = SolrCoreLoader.loadRemoteSolrServer(solrHostUpdateURL, useBinaryRequestHandler, useStreamingServer, streamingQueueSize, streamingThreadCount);
             }
             else
             {
@@ -649,7 +1580,12 @@ public class MarcImporter extends MarcHandler
         return(solrProxy);
     }
 
-    private void checkVarsToLoadEmbeddedCore()
+    /**
+     * check the Solr home directory (solr.path) for loading an embedded core,
+     *  and make solrCoreDir and solrDataDir absolute paths;  exits if there
+     *  is no Solr configuration there
+     */
+    protected void checkVarsToLoadEmbeddedCore()
     {
         if (solrCoreDir.equals("@SOLR_PATH@") )
         {
@@ -742,14 +1678,49 @@ public class MarcImporter extends MarcHandler
 
         deleteRecordListFilename = PropertiesUtils.getProperty(configProps, "marc.ids_to_delete");
         setDeleteRecordIDMapper();
+        deleteChunkSize = parseIntProperty("marc.delete_chunk_size", 1000);
+        if (deleteChunkSize < 1)
+            deleteChunkSize = 1;
 
         setIndexWritingOptions();
 
+        setIndexingThreadOptions();
+
+        setIndexingProfileOptions();
+
+        int progressIntervalSecs = parseIntProperty("solrmarc.indexing.progress.interval", 60);
+        progressIntervalMillis = progressIntervalSecs > 0 ? progressIntervalSecs * 1000L : 0;
+        jmxEnabled = Boolean.parseBoolean(PropertiesUtils.getProperty(configProps, "solrmarc.indexing.jmx", "true"));
+
+        setCheckpointOptions();
+
+        setCommitOptions();
+
         setSolrProxy();
 
+        setDeadLetterOptions();
+
+        setDigestStoreOptions();
+
         return;
     }
 
+    /**
+     * log the compiled index specifications before indexing starts:  at INFO
+     *  if solrmarc.indexing.describe_plan is true, otherwise at DEBUG
+     */
+    @Override
+    protected void processAdditionalArgs()
+    {
+        if (indexer == null)
+            return;
+        String planHeading = "Index specifications, in the order applied to each record:\n";
+        if (Boolean.parseBoolean(PropertiesUtils.getProperty(configProps, "solrmarc.indexing.describe_plan")))
+            logger.info(planHeading + indexer.describeIndexPlan());
+        else if (logger.isDebugEnabled())
+            logger.debug(planHeading + indexer.describeIndexPlan());
+    }
+
 
     /**
      * look at properties
@@ -781,6 +1752,201 @@ public class MarcImporter extends MarcHandler
     }
 
 
+    /**
+     * look at properties
+     *   solrmarc.indexing.threads
+     *   solrmarc.indexing.queue_size
+     *   solrmarc.indexing.preserve_order
+     *   solrmarc.indexing.parallel_files
+     *   solrmarc.indexing.split_mb
+     * to set instance variables
+     *   indexingThreads  (number of threads mapping records to Solr documents)
+     *   indexingQueueSize  (max number of records waiting to be mapped)
+     *   indexingPreserveOrder  (send documents to Solr in the order read)
+     *   filesInParallel  (number of marc files indexed at once, when there are several)
+     *   sectionBytes  (size of the sections binary marc files are split into, from megabytes)
+     */
+    private void setIndexingThreadOptions()
+    {
+        indexingThreads = parseIntProperty("solrmarc.indexing.threads", 1);
+        if (indexingThreads < 1)
+            indexingThreads = Runtime.getRuntime().availableProcessors();
+        indexingQueueSize = parseIntProperty("solrmarc.indexing.queue_size", 1000);
+        if (indexingQueueSize < 1)
+            indexingQueueSize = 1000;
+        indexingPreserveOrder = Boolean.parseBoolean(PropertiesUtils.getProperty(configProps, "solrmarc.indexing.preserve_order", "true"));
+        filesInParallel = parseIntProperty("solrmarc.indexing.parallel_files", 1);
+        if (filesInParallel < 1)
+            filesInParallel = Runtime.getRuntime().availableProcessors();
+        int splitMegabytes = parseIntProperty("solrmarc.indexing.split_mb", 0);
+        sectionBytes = splitMegabytes > 0 ? splitMegabytes * 1024L * 1024L : 0;
+    }
+
+    /**
+     * look at properties
+     *   solrmarc.indexing.profile
+     *   solrmarc.indexing.profile.top
+     *   solrmarc.indexing.profile.interval
+     * to set instance variables
+     *   indexingProfile  (profile the time taken by each Solr field and custom method)
+     *   indexingProfileTopN  (number of fields and methods in the report)
+     *   indexingProfileIntervalMillis  (time between reports while indexing, from seconds)
+     */
+    private void setIndexingProfileOptions()
+    {
+        indexingProfile = Boolean.parseBoolean(PropertiesUtils.getProperty(configProps, "solrmarc.indexing.profile", "false"));
+        indexingProfileTopN = parseIntProperty("solrmarc.indexing.profile.top", 20);
+        if (indexingProfileTopN < 1)
+            indexingProfileTopN = 20;
+        int intervalSecs = parseIntProperty("solrmarc.indexing.profile.interval", 0);
+        indexingProfileIntervalMillis = (indexingProfile && intervalSecs > 0) ? intervalSecs * 1000L : 0;
+    }
+
+    /**
+     * Set up checkpoints (solrmarc.checkpoint.interval), and if resuming
+     *  (solrmarc.checkpoint.resume, set by -resume) read the checkpoint so the
+     *  reader starts after the last record committed.  The checkpoint file is
+     *  solrmarc.checkpoint.file, or the marc file's name with .checkpoint added.
+     *  When indexing several marc files, each file has its own checkpoint,
+     *  next to the file;  there are no checkpoints for a file split into
+     *  sections, as they are indexed in no one order.
+     */
+    private void setCheckpointOptions()
+    {
+        checkpointInterval = parseIntProperty("solrmarc.checkpoint.interval", 0);
+        boolean resume = Boolean.parseBoolean(PropertiesUtils.getProperty(configProps, "solrmarc.checkpoint.resume", "false"));
+        if (checkpointInterval <= 0 && !resume)
+            return;
+
+        String source = PropertiesUtils.getProperty(configProps, "marc.source", "STDIN").trim();
+        if (inputSection != null)
+            return;
+        if (source.equals("FILE") && readsEachFile(marcPath))
+        {
+            // the importer of each file does its checkpoints
+            if (sectionBytes > 0 && checkpointInterval > 0)
+                logger.warn("Not writing checkpoints for MARC data files split into sections (solrmarc.indexing.split_mb)");
+            return;
+        }
+        if (source.equals("FILE") && marcPath != null)
+            checkpointMarcFile = new File(marcPath);
+        String checkpointFileName = null;
+        if (multiFileImporter == null)
+            checkpointFileName = PropertiesUtils.getProperty(configProps, "solrmarc.checkpoint.file");
+        if (checkpointFileName != null)
+            checkpoint = new IndexingCheckpoint(new File(checkpointFileName.trim()));
+        else if (checkpointMarcFile != null)
+            checkpoint = new IndexingCheckpoint(IndexingCheckpoint.defaultCheckpointFile(checkpointMarcFile.getPath()));
+        else
+        {
+            logger.warn("Not checkpointing or resuming:  solrmarc.checkpoint.file is needed when the marc input isn't a file");
+            return;
+        }
+
+        if (resume)
+            resumeFromCheckpoint();
+    }
+
+    /**
+     * read the checkpoint file, and set the position in the marc input to
+     *  resume reading from;  if there is no usable checkpoint, indexing starts
+     *  from the first record
+     */
+    private void resumeFromCheckpoint()
+    {
+        try
+        {
+            if (!checkpoint.load())
+            {
+                logger.info("No checkpoint " + checkpoint.getFile() + " to resume from:  indexing from the first record");
+                return;
+            }
+        }
+        catch (IOException ioe)
+        {
+            logger.error("Unable to read checkpoint " + checkpoint.getFile() + ":  indexing from the first record -- " + ioe.getMessage());
+            return;
+        }
+        if (checkpointMarcFile != null && !checkpoint.isFor(checkpointMarcFile))
+        {
+            logger.warn("Checkpoint " + checkpoint.getFile() + " is for another version of " + checkpointMarcFile.getName() + ":  indexing from the first record");
+            return;
+        }
+
+        MarcInputPosition position = checkpoint.getPosition();
+        if (position.getOffset() > 0 && (checkpointMarcFile == null || !IndexingCheckpoint.isRecordStart(checkpointMarcFile, position.getOffset())))
+        {
+            logger.warn("No record starts at byte " + position.getOffset() + " of the marc input:  skipping " + position.getRecords() + " records instead");
+            position = new MarcInputPosition(-1, position.getRecords());
+        }
+        logger.info("Resuming from checkpoint " + checkpoint.getFile() + ": " + position + ", last committed id " + checkpoint.getLastCommittedId() +
+                    (checkpoint.isComplete() ? " (the input was completely indexed)" : ""));
+        resumePosition = position;
+        lastProcessedPosition = position;
+        lastProcessedId = checkpoint.getLastCommittedId();
+    }
+
+    /**
+     * look at properties
+     *   solrmarc.digests.file
+     *   solrmarc.digests.force  (set by -force)
+     * to set instance variables
+     *   digestStore  (digests of the documents committed, read from the file)
+     *   forceSend  (send the documents the digests have as unchanged anyway)
+     *  When indexing several marc files, their importers share the run's store.
+     */
+    private void setDigestStoreOptions()
+    {
+        forceSend = Boolean.parseBoolean(PropertiesUtils.getProperty(configProps, "solrmarc.digests.force", "false"));
+        if (multiFileImporter != null)
+        {
+            digestStore = multiFileImporter.digestStore;
+            return;
+        }
+        String digestFileName = getDigestFileName();
+        if (digestFileName == null || digestFileName.trim().length() == 0 || justIndexDontAdd)
+            return;
+        if (exportingDocuments)
+        {
+            // the documents aren't in Solr until they are loaded, which may fail
+            logger.warn("Not using document digests " + digestFileName + " when exporting documents to files");
+            return;
+        }
+
+        digestStore = new DocumentDigestStore(new File(digestFileName.trim()));
+        try
+        {
+            if (digestStore.load())
+                logger.info("Read digests of " + digestStore.size() + " documents from " + digestStore.getFile() +
+                            (forceSend ? ":  sending all documents anyway" : ""));
+            else
+                logger.info("No document digests " + digestStore.getFile() + " yet:  sending all documents");
+        }
+        catch (IOException ioe)
+        {
+            logger.error("Unable to read document digests " + digestStore.getFile() + ":  sending all documents -- " + ioe.getMessage());
+        }
+        if (!commitAtEnd)
+            logger.warn("Document digests are saved only after the commit at the end:  set solr.commit_at_end = true");
+    }
+
+    protected int parseIntProperty(String propertyName, int defaultValue)
+    {
+        String value = PropertiesUtils.getProperty(configProps, propertyName);
+        if (value == null || value.trim().length() == 0)
+            return defaultValue;
+        try
+        {
+            return Integer.parseInt(value.trim());
+        }
+        catch (NumberFormatException nfe)
+        {
+            logger.warn("Invalid integer value for property " + propertyName + ": " + value + " -- using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+
     /** read and validate setting for deleteRecordIDMapper instance variable
      *   from  marc.delete_record_id_mapper property */
     private void setDeleteRecordIDMapper()
@@ -815,20 +1981,235 @@ public class MarcImporter extends MarcHandler
 
     /**
      * initialize the solrProxy instance variable based on values in
-     *  the configProps file.
+     *  the configProps file:  a proxy for Solr, or one writing the documents
+     *  to files when exporting them.
      */
     private void setSolrProxy()
     {
+        if (solrProxy == null && setExportProxy())
+            return;
+
         boolean useSolrServerProxy = Boolean.parseBoolean(PropertiesUtils.getProperty(configProps, "solrmarc.use_solr_server_proxy", "true"));
         useBinaryRequestHandler = Boolean.parseBoolean(PropertiesUtils.getProperty(configProps, "solrmarc.use_binary_request_handler", "true"));
         useStreamingServer = Boolean.parseBoolean(PropertiesUtils.getProperty(configProps, "solrmarc.use_streaming_proxy", "false"));
-        if (useSolrServerProxy || useStreamingServer)
+        streamingQueueSize = parseIntProperty("solrmarc.streaming_proxy.queue_size", 100);
+        streamingThreadCount = parseIntProperty("solrmarc.streaming_proxy.threads", 2);
+        String shardUrls = getShardUrls();
+        if (solrProxy == null && shardUrls != null && shardUrls.trim().length() > 0)
+        {
+            List<String> urls = Arrays.asList(shardUrls.trim().split("[\\s,]+"));
+            logger.info(" Sending documents to " + urls.size() + " Solr shards:  " + urls);
+            solrProxy = SolrCoreLoader.loadShardedSolrServers(urls, useBinaryRequestHandler, streamingQueueSize);
+            solrProxyIsRemote = true;
+            sendingToShards = true;
+        }
+        else if (useSolrServerProxy || useStreamingServer)
             solrProxy = getSolrServerProxy();
         else
             solrProxy = getSolrProxy();  // embedded solr server
+
+        // each shard batches its own documents
+        List<SolrProxy> batchingProxies = new ArrayList<SolrProxy>();
+        if (solrProxy instanceof ShardedSolrProxy)
+        {
+            ShardedSolrProxy shardedProxy = (ShardedSolrProxy) solrProxy;
+            for (int i = 0; i < shardedProxy.getNumShards(); i++)
+                batchingProxies.add(shardedProxy.getShard(i));
+        }
+        else
+            batchingProxies.add(solrProxy);
+        int batchSize = parseIntProperty("solrmarc.solr.batch_size", 1);
+        int batchMaxBytes = parseIntProperty("solrmarc.solr.batch_max_bytes", 10 * 1024 * 1024);
+        boolean batching = false;
+        maxUnreportedDocs = 0;
+        for (SolrProxy batchingProxy : batchingProxies)
+        {
+            if (batchingProxy instanceof SolrServerProxy)
+            {
+                ((SolrServerProxy) batchingProxy).setBatchLimits(batchSize, batchMaxBytes);
+                ((SolrServerProxy) batchingProxy).setCommitWithin(commitPolicy.getCommitWithinMillis());
+                batching = batchSize > 1;
+                maxUnreportedDocs += ((SolrServerProxy) batchingProxy).getMaxUnreportedDocs();
+            }
+            else
+                maxUnreportedDocs++;
+        }
+        if (batching)
+            logger.info(" Sending documents to Solr in batches of up to " + batchSize + " docs / " + batchMaxBytes + " bytes");
+
+        // a shared proxy is set up once, by the importer of the whole run
+        if (multiFileImporter == null)
+            setRetryOptions(batchingProxies);
+    }
+
+    /**
+     * look at properties
+     *   solrmarc.solr.retries
+     *   solrmarc.solr.retry_initial_ms
+     *   solrmarc.solr.retry_max_ms
+     *   solrmarc.solr.circuit.open_secs
+     *   solrmarc.solr.circuit.give_up_secs
+     * and give each SolrServerProxy the retry policy, and a circuit breaker of
+     *  its own, as each may send to a different Solr
+     */
+    private void setRetryOptions(List<SolrProxy> sendingProxies)
+    {
+        int retries = parseIntProperty("solrmarc.solr.retries", 3);
+        int initialDelayMillis = parseIntProperty("solrmarc.solr.retry_initial_ms", 1000);
+        int maxDelayMillis = parseIntProperty("solrmarc.solr.retry_max_ms", 30000);
+        int openSecs = parseIntProperty("solrmarc.solr.circuit.open_secs", 30);
+        int giveUpSecs = parseIntProperty("solrmarc.solr.circuit.give_up_secs", 900);
+        SolrRetryPolicy retryPolicy = new SolrRetryPolicy(retries, initialDelayMillis, maxDelayMillis);
+        for (SolrProxy sendingProxy : sendingProxies)
+        {
+            if (sendingProxy instanceof SolrServerProxy)
+            {
+                SolrCircuitBreaker circuitBreaker = openSecs > 0 ? new SolrCircuitBreaker(openSecs * 1000L, giveUpSecs * 1000L) : null;
+                ((SolrServerProxy) sendingProxy).setRetryPolicy(retryPolicy, circuitBreaker);
+            }
+        }
+    }
+
+    /**
+     * look at properties
+     *   solrmarc.commit.docs
+     *   solrmarc.commit.secs
+     *   solrmarc.commit.soft
+     *   solrmarc.commit.within_ms
+     *   solr.optimize_max_segments
+     * to set instance variable
+     *   commitPolicy  (when to commit while indexing, and how to commit at the end)
+     *  When indexing several marc files, their importers share the run's policy.
+     */
+    private void setCommitOptions()
+    {
+        if (multiFileImporter != null)
+        {
+            commitPolicy = multiFileImporter.commitPolicy;
+            return;
+        }
+        int everyDocs = parseIntProperty("solrmarc.commit.docs", 0);
+        int everySecs = parseIntProperty("solrmarc.commit.secs", 0);
+        boolean soft = Boolean.parseBoolean(PropertiesUtils.getProperty(configProps, "solrmarc.commit.soft", "false"));
+        int commitWithinMillis = parseIntProperty("solrmarc.commit.within_ms", 0);
+        int optimizeMaxSegments = parseIntProperty("solr.optimize_max_segments", 1);
+        commitPolicy = new CommitPolicy(everyDocs, everySecs * 1000L, soft, commitWithinMillis, optimizeMaxSegments);
+        if (commitPolicy.isCommittingWhileIndexing() || commitWithinMillis > 0)
+            logger.info(" Making documents visible as they are indexed:  " + commitPolicy);
+    }
+
+    /**
+     * @return the most segments to leave when optimizing at the end (solr.optimize_max_segments)
+     */
+    protected int getOptimizeMaxSegments()
+    {
+        return commitPolicy.getOptimizeMaxSegments();
+    }
+
+    /**
+     * look at property
+     *   solrmarc.dead_letter.file
+     * to set instance variable
+     *   deadLetters  (the records Solr couldn't index are written to it)
+     *  When indexing several marc files, their importers share the run's file.
+     */
+    private void setDeadLetterOptions()
+    {
+        if (multiFileImporter != null)
+        {
+            deadLetters = multiFileImporter.deadLetters;
+            return;
+        }
+        String deadLetterFileName = getDeadLetterFileName();
+        if (deadLetterFileName == null || deadLetterFileName.trim().length() == 0 || justIndexDontAdd || exportingDocuments)
+            return;
+        // failures may be reported for any document the SolrProxy hasn't yet
+        //  sent, or whose failure it hasn't yet reported
+        deadLetters = new DeadLetterFile(new File(deadLetterFileName.trim()), 2 * maxUnreportedDocs);
+        logger.info(" Writing records Solr can't index to " + deadLetters.getFile());
     }
 
 
+    /**
+     * look at properties
+     *   solrmarc.export.dir
+     *   solrmarc.export.format
+     *   solrmarc.export.shards
+     *   solrmarc.export.file_mb
+     *   solrmarc.export.prefix
+     * and if there is an export directory, set the solrProxy instance
+     *  variable to write the documents to files there rather than to Solr
+     * @return false if not exporting documents
+     */
+    private boolean setExportProxy()
+    {
+        String exportDirName = getExportDirName();
+        if (exportDirName == null || exportDirName.trim().length() == 0)
+            return false;
+
+        String formatName = PropertiesUtils.getProperty(configProps, "solrmarc.export.format", "json").trim();
+        DocumentExportProxy.Format format = DocumentExportProxy.Format.JSON;
+        if (formatName.equalsIgnoreCase("javabin"))
+            format = DocumentExportProxy.Format.JAVABIN;
+        else if (!formatName.equalsIgnoreCase("json"))
+            logger.warn("Unknown solrmarc.export.format " + formatName + ":  using json");
+        int numShards = parseIntProperty("solrmarc.export.shards", 4);
+        if (numShards < 1)
+            numShards = Runtime.getRuntime().availableProcessors();
+        int fileMegabytes = parseIntProperty("solrmarc.export.file_mb", 256);
+        long maxFileBytes = fileMegabytes > 0 ? fileMegabytes * 1024L * 1024L : Long.MAX_VALUE;
+        String prefix = PropertiesUtils.getProperty(configProps, "solrmarc.export.prefix", "docs").trim();
+
+        File exportDir = new File(exportDirName.trim());
+        try
+        {
+            solrProxy = new DocumentExportProxy(exportDir, prefix, format, numShards, maxFileBytes);
+        }
+        catch (IOException ioe)
+        {
+            throw new IllegalArgumentException("Unable to export documents to " + exportDir + " -- " + ioe.getMessage());
+        }
+        exportingDocuments = true;
+        logger.info(" Writing documents to " + numShards + " shards of " + format.getSuffix() + " files in " + exportDir + " instead of sending them to Solr");
+        return true;
+    }
+
+    /**
+     * @return the base URLs of the Solr servers holding the shards of the
+     *  index (solr.shard_urls);  null to send the documents to one Solr
+     */
+    protected String getShardUrls()
+    {
+        return PropertiesUtils.getProperty(configProps, "solr.shard_urls");
+    }
+
+    /**
+     * @return the file to write the records Solr couldn't index to
+     *  (solrmarc.dead_letter.file);  null not to write them
+     */
+    protected String getDeadLetterFileName()
+    {
+        return PropertiesUtils.getProperty(configProps, "solrmarc.dead_letter.file");
+    }
+
+    /**
+     * @return the file of the digests of the documents committed
+     *  (solrmarc.digests.file);  null to send every document
+     */
+    protected String getDigestFileName()
+    {
+        return PropertiesUtils.getProperty(configProps, "solrmarc.digests.file");
+    }
+
+    /**
+     * @return the directory to write the documents to instead of sending them
+     *  to Solr (solrmarc.export.dir);  null to send them to Solr
+     */
+    protected String getExportDirName()
+    {
+        return PropertiesUtils.getProperty(configProps, "solrmarc.export.dir");
+    }
+
 
     /**
      * Main program instantiation for doing the indexing
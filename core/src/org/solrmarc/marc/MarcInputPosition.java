@@ -0,0 +1,43 @@
+package org.solrmarc.marc;
+
+/**
+ * A point in the marc input to resume reading from:  the byte offset of the
+ *  first record not yet returned by the reader, and the number of records in
+ *  the input before it.  The offset is -1 if it isn't known (for input other
+ *  than a binary marc file, or after a record that couldn't be read);  the
+ *  records are then skipped by count.
+ */
+public class MarcInputPosition
+{
+    private final long offset;
+    private final int records;
+
+    public MarcInputPosition(long offset, int records)
+    {
+        this.offset = offset;
+        this.records = records;
+    }
+
+    /**
+     * @return the byte offset of the next record in the marc file;  -1 if not known
+     */
+    public long getOffset()
+    {
+        return offset;
+    }
+
+    /**
+     * @return the number of records in the marc input before this position,
+     *  as read from the input (before any records are combined or filtered)
+     */
+    public int getRecords()
+    {
+        return records;
+    }
+
+    public String toString()
+    {
+        return "record " + records + (offset >= 0 ? " at byte " + offset : "");
+    }
+
+}
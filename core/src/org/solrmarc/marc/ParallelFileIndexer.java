@@ -0,0 +1,244 @@
+package org.solrmarc.marc;
+
+import java.io.FileNotFoundException;
+import java.util.*;
+
+import org.apache.log4j.Logger;
+import org.solrmarc.index.SolrIndexer;
+import org.solrmarc.tools.DateUtils;
+
+/**
+ * Indexes several marc files in one MarcImporter run, so they share one JVM,
+ *  one loaded configuration and one SolrProxy (with its connection pool), and
+ *  are committed once at the end rather than once per file.  A large binary
+ *  marc file can be split into sections by MarcFileSplitter, which are
+ *  indexed in parallel like separate files.
+ *
+ * Each of numThreads threads takes the next file (or section) not yet started
+ *  and indexes it with its own MarcImporter, which reads, maps and sends the
+ *  records as a run of a single file does.  SolrIndexer keeps per-record state in instance
+ *  variables, so each thread has its own indexer, created once and used for
+ *  all the files the thread indexes.  The importer of the whole run deletes
+ *  records and commits after all the files are done.
+ *
+ * The importers share the SolrProxy's batch, so a batch sent by one file's
+ *  importer may hold documents of the other files:  a failure Solr reports
+ *  for such a document is taken off the indexed count of the file it came
+ *  from.  Failures reported by the commit at the end are only counted for
+ *  the whole run.
+ */
+public class ParallelFileIndexer
+{
+    private final MarcImporter importer;
+    private final List<MarcFileSection> sections;
+    private final int numThreads;
+
+    /** index in sections of the next file or section to start;  guarded by this */
+    private int nextFile = 0;
+    /** what happened to each file or section, in sections order;  null until it is done */
+    private final FileResult results[];
+    /** the first exception that halted indexing of a file, which halts the others */
+    private volatile RuntimeException failure = null;
+
+    // Initialize logging category
+    static Logger logger = Logger.getLogger(ParallelFileIndexer.class.getName());
+
+    /**
+     * @param importer  the importer of the whole run
+     * @param sections  the marc files, or sections of them, to index
+     * @param numThreads  the number of files or sections to index at once
+     */
+    public ParallelFileIndexer(MarcImporter importer, List<MarcFileSection> sections, int numThreads)
+    {
+        this.importer = importer;
+        this.sections = sections;
+        this.numThreads = Math.max(1, Math.min(numThreads, sections.size()));
+        results = new FileResult[sections.size()];
+    }
+
+    /**
+     * Index all the files.  An exception that halts indexing of a file (such
+     *  as Solr being unreachable) stops the other files too, and is thrown
+     *  once their threads have finished.  A file that can't be opened is
+     *  reported and skipped.
+     */
+    public void run()
+    {
+        // the indexers are created up front, so a bad configuration fails here
+        final List<SolrIndexer> indexers = new ArrayList<SolrIndexer>();
+        indexers.add(importer.indexer);
+        while (indexers.size() < numThreads)
+            indexers.add(importer.createWorkerIndexer());
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < numThreads; i++)
+        {
+            final SolrIndexer threadIndexer = indexers.get(i);
+            Thread thread = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    indexFiles(threadIndexer);
+                }
+            }, "solrmarc-file-" + (i + 1));
+            threads.add(thread);
+            thread.start();
+        }
+
+        for (Thread thread : threads)
+        {
+            try
+            {
+                thread.join();
+            }
+            catch (InterruptedException e)
+            {
+                logger.warn("Interrupted waiting for the MARC data files to be indexed; stopping");
+                importer.shutDown();
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        if (failure != null)
+            throw failure;
+    }
+
+    /**
+     * a thread's work:  index files until there are none left to start, or
+     *  indexing is halted
+     */
+    private void indexFiles(SolrIndexer threadIndexer)
+    {
+        int fileNum;
+        while ((fileNum = takeNextFile()) >= 0)
+        {
+            MarcFileSection section = sections.get(fileNum);
+            FileResult result = new FileResult(section);
+            long start = System.currentTimeMillis();
+            MarcImporter fileImporter = null;
+            try
+            {
+                fileImporter = importer.createFileImporter(section, threadIndexer);
+            }
+            catch (FileNotFoundException e)
+            {
+                result.problem = "unable to open:  " + e.getMessage();
+            }
+            catch (IllegalArgumentException e)
+            {
+                // thrown when the reader can't open the file
+                result.problem = e.getMessage();
+            }
+
+            if (fileImporter != null)
+            {
+                result.opened = true;
+                try
+                {
+                    fileImporter.importFile();
+                    if (fileImporter.shuttingDown)
+                        result.problem = "stopped";
+                }
+                catch (RuntimeException e)
+                {
+                    // already logged;  the files on the other threads can't go on either
+                    result.problem = "halted:  " + e.getMessage();
+                    halt(e);
+                }
+                result.recsRead = fileImporter.getRecsReadCount();
+                result.recsIndexed = fileImporter.getRecsIndexedCount();
+            }
+            result.millis = System.currentTimeMillis() - start;
+            synchronized (this)
+            {
+                results[fileNum] = result;
+            }
+            if (!result.opened)
+                logger.error("Not indexing " + result);
+            else
+                logger.info("Finished " + result);
+        }
+    }
+
+    /**
+     * @return the index of the next file to index;  -1 if there are none
+     *  left, or indexing is halted
+     */
+    private synchronized int takeNextFile()
+    {
+        if (failure != null || importer.shuttingDown || nextFile >= sections.size())
+            return -1;
+        return nextFile++;
+    }
+
+    private synchronized void halt(RuntimeException e)
+    {
+        if (failure == null)
+            failure = e;
+        // the other files' importers stop reading, but not the whole run
+        for (MarcImporter fileImporter : importer.getFileImporters())
+            fileImporter.shutDown();
+    }
+
+    /**
+     * @return the records read and indexed from each file or section, and the
+     *  time each took, one per line
+     */
+    public synchronized String report()
+    {
+        StringBuilder buf = new StringBuilder();
+        int done = 0;
+        for (FileResult result : results)
+        {
+            if (result != null && result.problem == null)
+                done++;
+        }
+        boolean split = false;
+        for (MarcFileSection section : sections)
+        {
+            if (!section.isWholeFile())
+                split = true;
+        }
+        buf.append("Indexed ").append(done).append(" of ").append(sections.size()).append(split ? " MARC data file sections:" : " MARC data files:");
+        for (int i = 0; i < results.length; i++)
+        {
+            buf.append("\n    ");
+            if (results[i] != null)
+                buf.append(results[i]);
+            else
+                buf.append(sections.get(i)).append(":  not started");
+        }
+        return buf.toString();
+    }
+
+
+    /**
+     * what happened when a file or section was indexed
+     */
+    private static class FileResult
+    {
+        final MarcFileSection section;
+        boolean opened = false;
+        int recsRead = 0;
+        int recsIndexed = 0;
+        long millis = 0;
+        /** why the file wasn't indexed to the end;  null if it was */
+        String problem = null;
+
+        FileResult(MarcFileSection section)
+        {
+            this.section = section;
+        }
+
+        public String toString()
+        {
+            if (!opened)
+                return section + ":  " + problem;
+            double rate = millis > 0 ? recsIndexed * 1000.0 / millis : 0;
+            return section + ":  " + recsIndexed + " of " + recsRead + " records indexed in " + DateUtils.calcTime(millis) +
+                   String.format(" (%.1f per sec)", rate) + (problem != null ? " -- " + problem : "");
+        }
+    }
+
+}
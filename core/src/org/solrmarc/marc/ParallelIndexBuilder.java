@@ -0,0 +1,450 @@
+package org.solrmarc.marc;
+
+import java.io.*;
+import java.util.*;
+
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.CoreAdminRequest;
+import org.solrmarc.solr.*;
+import org.solrmarc.tools.DateUtils;
+import org.solrmarc.tools.PropertiesUtils;
+
+/**
+ * Build a whole index offline, without sending the documents over HTTP:  the
+ *  documents are indexed into solrmarc.build.slices embedded Solr cores at
+ *  once, each with its own data directory under solrmarc.build.dir, then the
+ *  slices' Lucene indexes are merged into the index of the embedded core
+ *  given by solr.path, solr.core.name and solr.data.dir, replacing the
+ *  documents it had.
+ *
+ * Each document goes to a slice by a hash of its id (see ShardedSolrProxy),
+ *  so the versions of a record, and its deletes, are in the same slice, and
+ *  the merged index has one copy of each document.  Each slice indexes its
+ *  documents on its own single sender thread, so they are indexed in the
+ *  order added, and a later version of a record always replaces an earlier
+ *  one.  The slices index in parallel, while the records are read and mapped
+ *  as for MarcImporter (including solrmarc.indexing.threads, and several
+ *  marc files in parallel).  At the
+ *  end the slices are committed, closed and merged;  then, if solr.hosturl is
+ *  set, the Solr server using the index is told to commit, so it sees the
+ *  new documents.
+ *
+ * The slices are removed once they are merged.  A build resumed with -resume
+ *  adds to the slices of the build that stopped;  otherwise any slices left
+ *  over are removed before building.  As for any embedded core, the Solr
+ *  core and Lucene jars must be on the classpath.
+ */
+public class ParallelIndexBuilder extends MarcImporter
+{
+    static Logger logger = Logger.getLogger(ParallelIndexBuilder.class.getName());
+
+    /** name of the data directory of each slice, under sliceParentDir */
+    private static final String SLICE_DIR_FORMAT = "slice-%02d";
+
+    private int numSlices = 4;
+    /** the directory of the slices' data directories */
+    private File sliceParentDir;
+    /** the data directory of the core the slices are merged into */
+    private File targetDataDir;
+    /** optimize the merged index (solr.optimize_at_end), not the slices */
+    private boolean optimizeTarget = false;
+    private int sliceQueueSize = 100;
+    private int batchSize = 1;
+    private int batchMaxBytes = 10 * 1024 * 1024;
+
+    private ShardedSolrProxy slices = null;
+    private boolean slicesCommitted = false;
+    /** true until the slices are merged, so Solr isn't told to commit before */
+    private boolean building = false;
+
+    public ParallelIndexBuilder()
+    {
+    }
+
+    /**
+     * the documents are built into slices, whether or not the configuration
+     *  exports them
+     */
+    @Override
+    protected String getExportDirName()
+    {
+        return null;
+    }
+
+    /**
+     * the slices are embedded cores, whether or not the configuration has shards
+     */
+    @Override
+    protected String getShardUrls()
+    {
+        return null;
+    }
+
+    /**
+     * every document is indexed anew, as the merged slices replace the index
+     */
+    @Override
+    protected String getDigestFileName()
+    {
+        String digestFileName = super.getDigestFileName();
+        if (digestFileName != null && digestFileName.trim().length() > 0)
+            logger.warn("Not using document digests " + digestFileName + " when building the whole index");
+        return null;
+    }
+
+    @Override
+    protected void loadLocalProperties()
+    {
+        numSlices = parseIntProperty("solrmarc.build.slices", 4);
+        if (numSlices < 1)
+            numSlices = Runtime.getRuntime().availableProcessors();
+        sliceQueueSize = parseIntProperty("solrmarc.streaming_proxy.queue_size", 100);
+        batchSize = parseIntProperty("solrmarc.solr.batch_size", 1);
+        batchMaxBytes = parseIntProperty("solrmarc.solr.batch_max_bytes", 10 * 1024 * 1024);
+
+        // loads the slices, through getSolrServerProxy()
+        super.loadLocalProperties();
+
+        // the slices are always committed at the end, so they can be merged
+        commitAtEnd = true;
+        optimizeTarget = optimizeAtEnd;
+        optimizeAtEnd = false;
+    }
+
+    /**
+     * @return the slices, loading them the first time
+     */
+    @Override
+    public SolrProxy getSolrServerProxy()
+    {
+        if (solrProxy == null)
+            solrProxy = loadSlices();
+        return solrProxy;
+    }
+
+    @Override
+    public SolrProxy getSolrProxy()
+    {
+        return getSolrServerProxy();
+    }
+
+    /**
+     * remove the slices left over by an earlier build, unless resuming it,
+     *  and load an embedded core for each slice
+     * @throws IllegalArgumentException if resuming a build with another number of slices
+     */
+    private SolrProxy loadSlices()
+    {
+        checkVarsToLoadEmbeddedCore();
+        if (solrDataDir != null)
+            targetDataDir = new File(solrDataDir);
+        else
+            targetDataDir = new File(solrCoreDir, solrCoreName);
+        String sliceDirName = PropertiesUtils.getProperty(configProps, "solrmarc.build.dir");
+        if (sliceDirName != null && sliceDirName.trim().length() > 0)
+            sliceParentDir = new File(sliceDirName.trim());
+        else
+            sliceParentDir = new File(targetDataDir.getPath() + "-slices");
+
+        List<File> leftOver = listSliceDirs();
+        if (Boolean.parseBoolean(PropertiesUtils.getProperty(configProps, "solrmarc.checkpoint.resume", "false")))
+        {
+            if (!leftOver.isEmpty() && leftOver.size() != numSlices)
+                throw new IllegalArgumentException("Unable to resume the build in " + sliceParentDir + " with " + numSlices +
+                                                   " slices:  it has " + leftOver.size() + " (solrmarc.build.slices)");
+            if (!leftOver.isEmpty())
+                logger.info(" Resuming the build in the " + numSlices + " slices in " + sliceParentDir);
+        }
+        else if (!leftOver.isEmpty())
+        {
+            logger.info(" Removing the " + leftOver.size() + " slices left over in " + sliceParentDir);
+            removeSlices();
+        }
+
+        List<SolrProxy> sliceCores = new ArrayList<SolrProxy>();
+        List<String> sliceNames = new ArrayList<String>();
+        for (int i = 0; i < numSlices; i++)
+        {
+            sliceCores.add(loadSliceCore(getSliceDataDir(i)));
+            sliceNames.add(getSliceDataDir(i).getName());
+        }
+        logger.info(" Building the index in " + numSlices + " slices in " + sliceParentDir + ", to merge into " + targetDataDir);
+        slices = new ShardedSolrProxy(sliceCores, sliceNames);
+        return slices;
+    }
+
+    private File getSliceDataDir(int sliceNum)
+    {
+        return new File(sliceParentDir, String.format(SLICE_DIR_FORMAT, sliceNum));
+    }
+
+    /**
+     * @return the slices' data directories in sliceParentDir
+     */
+    private List<File> listSliceDirs()
+    {
+        List<File> sliceDirs = new ArrayList<File>();
+        File files[] = sliceParentDir.listFiles();
+        if (files == null)
+            return sliceDirs;
+        Arrays.sort(files);
+        for (File file : files)
+        {
+            if (file.isDirectory() && file.getName().matches("slice-\\d\\d+"))
+                sliceDirs.add(file);
+        }
+        return sliceDirs;
+    }
+
+    /**
+     * Load the embedded core indexing one slice.  The slice's documents are
+     *  sent from its own thread, so the slices index in parallel;  SolrJ's
+     *  EmbeddedSolrServer is thread-safe, so they can share it.  One sender a
+     *  slice keeps the versions of a document in order.  loadEmbeddedCore is
+     *  deprecated, but is SolrCoreLoader's only way to load an embedded core.
+     * @param dataDir  the slice's data directory
+     */
+    @SuppressWarnings("deprecation")
+    protected SolrProxy loadSliceCore(File dataDir)
+    {
+        SolrProxy core = SolrCoreLoader.loadEmbeddedCore(solrCoreDir, dataDir.getAbsolutePath(), solrCoreName, false, logger);
+        StreamingSolrServerProxy slice = new StreamingSolrServerProxy(((SolrServerProxy) core).getSolrServer(), sliceQueueSize, 1);
+        slice.setBatchLimits(batchSize, batchMaxBytes);
+        return slice;
+    }
+
+    /**
+     * Merge the slices' Lucene indexes into the index of the target core,
+     *  replacing its documents in a single commit, and optimize it (down to
+     *  solr.optimize_max_segments) if solr.optimize_at_end is true.  The slices are closed.
+     *  The target core is loaded with the deprecated loadEmbeddedCore, as the slices are.
+     * @param indexDirs  the slices' index directories
+     */
+    @SuppressWarnings("deprecation")
+    protected void mergeIndexes(List<File> indexDirs)
+        throws IOException
+    {
+        SolrProxy target = SolrCoreLoader.loadEmbeddedCore(solrCoreDir, targetDataDir.getAbsolutePath(), solrCoreName, false, logger);
+        SolrServer server = ((SolrServerProxy) target).getSolrServer();
+        // SolrCoreLoader registers the core as Solr when there is no solr.xml
+        String coreName = solrCoreName != null ? solrCoreName : "Solr";
+        String paths[] = new String[indexDirs.size()];
+        for (int i = 0; i < paths.length; i++)
+            paths[i] = indexDirs.get(i).getAbsolutePath();
+        try
+        {
+            target.deleteAllDocs();
+            CoreAdminRequest.mergeIndexes(coreName, paths, null, server);
+            if (optimizeTarget)
+                target.optimize(getOptimizeMaxSegments());
+            else
+                target.commit(false);
+        }
+        catch (SolrServerException e)
+        {
+            throw new SolrRuntimeException("SolrServerException", e);
+        }
+        finally
+        {
+            target.close();
+            server.shutdown();
+        }
+    }
+
+    /**
+     * commit the slices, and close them so their indexes can be merged
+     */
+    @Override
+    public void finish()
+    {
+        if (slices == null)
+        {
+            super.finish();
+            return;
+        }
+        try
+        {
+            logger.info("Committing the slices");
+            slices.commit(false);
+            slicesCommitted = true;
+            writeFinalCheckpoints();
+        }
+        catch (IOException ioe)
+        {
+            logger.error("Commit of the slices failed: " + ioe.getMessage());
+        }
+        catch (SolrRuntimeException sre)
+        {
+            logger.error("Commit of the slices failed: " + sre.getMessage());
+        }
+        finally
+        {
+            closeSlices();
+            solrProxy = null;
+            logger.info("Setting Solr closed flag");
+            isShutDown = true;
+        }
+    }
+
+    /**
+     * close the slices, and shut down their embedded cores, which releases
+     *  their indexes
+     */
+    private void closeSlices()
+    {
+        try
+        {
+            slices.close();
+        }
+        catch (RuntimeException e)
+        {
+            logger.error("Unable to close the slices -- " + e.getMessage());
+            slicesCommitted = false;
+        }
+        finally
+        {
+            for (int i = 0; i < slices.getNumShards(); i++)
+            {
+                if (slices.getShard(i) instanceof SolrServerProxy)
+                    ((SolrServerProxy) slices.getShard(i)).getSolrServer().shutdown();
+            }
+            slices = null;
+        }
+    }
+
+    /**
+     * build the slices, merge them into the target index, and remove them
+     * @return 0 if the index was built;  1 if not, leaving the slices to resume from
+     */
+    @Override
+    public int handleAll()
+        throws IOException
+    {
+        building = true;
+        int status;
+        try
+        {
+            status = super.handleAll();
+        }
+        finally
+        {
+            building = false;
+        }
+        if (status != 0 || !slicesCommitted)
+        {
+            logger.error("Not merging the slices into " + targetDataDir + ":  the build did not finish");
+            return 1;
+        }
+        if (recsIndexedCounter == 0)
+        {
+            logger.warn("No documents were indexed into the slices:  not replacing the index in " + targetDataDir);
+            return 1;
+        }
+
+        List<File> indexDirs = new ArrayList<File>();
+        for (int i = 0; i < numSlices; i++)
+            indexDirs.add(new File(getSliceDataDir(i), "index"));
+        logger.info("Merging the " + numSlices + " slices into the index in " + targetDataDir);
+        long start = System.currentTimeMillis();
+        try
+        {
+            mergeIndexes(indexDirs);
+        }
+        catch (IOException ioe)
+        {
+            logger.error("Unable to merge the slices into " + targetDataDir + " -- " + ioe.getMessage());
+            return 1;
+        }
+        catch (SolrRuntimeException sre)
+        {
+            logger.error("Unable to merge the slices into " + targetDataDir + " -- " + sre.getMessage());
+            return 1;
+        }
+        logger.info("Merged the slices in " + DateUtils.calcTime(System.currentTimeMillis() - start));
+
+        removeSlices();
+        sendCommitToSolrUrl();
+        return 0;
+    }
+
+    /**
+     * the Solr server using the index is told to commit once the slices are
+     *  merged, not when they are committed
+     */
+    @Override
+    protected void sendCommitToSolrUrl()
+        throws IOException
+    {
+        if (!building)
+            super.sendCommitToSolrUrl();
+    }
+
+    /**
+     * remove the slices' data directories, and sliceParentDir if that leaves it empty
+     */
+    private void removeSlices()
+    {
+        for (File sliceDir : listSliceDirs())
+        {
+            if (!removeRecursively(sliceDir))
+                logger.warn("Unable to remove all of " + sliceDir);
+        }
+        String remaining[] = sliceParentDir.list();
+        if (remaining != null && remaining.length == 0)
+            sliceParentDir.delete();
+    }
+
+    private static boolean removeRecursively(File file)
+    {
+        File files[] = file.listFiles();
+        if (files != null)
+        {
+            for (File child : files)
+                removeRecursively(child);
+        }
+        return file.delete();
+    }
+
+
+    /**
+     * Main program instantiation for building an index in parallel slices
+     * @param args  the config properties file, then the marc files, as for MarcImporter
+     */
+    public static void main(String[] args)
+    {
+        logger.info("Starting SolrMarc parallel index build.");
+
+        ParallelIndexBuilder builder = null;
+        try
+        {
+            builder = new ParallelIndexBuilder();
+            builder.init(args);
+        }
+        catch (IllegalArgumentException e)
+        {
+            logger.fatal(e.getMessage());
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+        catch (FileNotFoundException e)
+        {
+            logger.fatal(e.getMessage());
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+
+        try
+        {
+            System.exit(builder.handleAll());
+        }
+        catch (IOException e)
+        {
+            logger.fatal(e.getMessage());
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+}
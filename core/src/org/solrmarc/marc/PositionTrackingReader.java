@@ -0,0 +1,141 @@
+package org.solrmarc.marc;
+
+import org.apache.log4j.Logger;
+import org.marc4j.MarcReader;
+import org.marc4j.marc.Record;
+
+/**
+ * Wraps the MarcReader reading the marc input, below any combining or
+ *  filtering readers, to keep track of where each record came from in the
+ *  input, so indexing can be checkpointed and resumed.
+ *
+ * For a binary marc file the byte offsets are the sum of the record lengths in
+ *  the leaders (MarcPermissiveStreamReader buffers its input, so the bytes read
+ *  from the file run ahead of the records returned).  Once a record can't be
+ *  read its length isn't known, and only the record count is kept from then on.
+ */
+public class PositionTrackingReader implements MarcReader
+{
+    static Logger logger = Logger.getLogger(PositionTrackingReader.class.getName());
+
+    private final MarcReader reader;
+    private boolean trackOffsets;
+
+    /** offset of the end of the last record read;  -1 once not known */
+    private long offset;
+    /** offset of the start of the last record read;  -1 if not known */
+    private long lastRecordStart = -1;
+    /** records read (or skipped) from the input, including any before the start offset */
+    private int records;
+    /** true if the last call was to hasNext(), and there were no more records */
+    private boolean atEnd = false;
+
+    /**
+     * @param reader  the reader of the marc input
+     * @param startOffset  byte offset in the marc file the reader starts at;  -1
+     *   if the input isn't a binary marc file, so only records are counted
+     * @param startRecords  number of records in the input before the reader's start
+     */
+    public PositionTrackingReader(MarcReader reader, long startOffset, int startRecords)
+    {
+        this.reader = reader;
+        this.trackOffsets = startOffset >= 0;
+        this.offset = startOffset;
+        this.records = startRecords;
+    }
+
+    public boolean hasNext()
+    {
+        boolean hasNext = reader.hasNext();
+        atEnd = !hasNext;
+        return hasNext;
+    }
+
+    public Record next()
+    {
+        long start = offset;
+        atEnd = false;
+        Record record;
+        try
+        {
+            record = reader.next();
+        }
+        catch (RuntimeException e)
+        {
+            records++;
+            stopTrackingOffsets();
+            throw e;
+        }
+        records++;
+        if (trackOffsets)
+        {
+            int length = record != null ? record.getLeader().getRecordLength() : 0;
+            if (length > 0)
+            {
+                lastRecordStart = start;
+                offset = start + length;
+            }
+            else
+                stopTrackingOffsets();
+        }
+        return record;
+    }
+
+    /**
+     * read past records, as when resuming from a checkpoint without a usable offset
+     * @param numRecords  the number of records to skip
+     * @return the number of records skipped;  less than numRecords if the input ended
+     */
+    public int skip(int numRecords)
+    {
+        int skipped = 0;
+        while (skipped < numRecords && hasNext())
+        {
+            try
+            {
+                next();
+            }
+            catch (RuntimeException e)
+            {
+                // it was counted;  it would have been skipped when it was indexed
+            }
+            skipped++;
+        }
+        return skipped;
+    }
+
+    /**
+     * @return true if the last call to this reader found there were no more
+     *  records.  A combining reader stops combining when the next record
+     *  doesn't match (which it holds on to) or when there are no more records;
+     *  if it stopped because there were no more, it isn't holding a record.
+     */
+    public boolean isAtEnd()
+    {
+        return atEnd;
+    }
+
+    /**
+     * @param lookAheadHeld  true if the reader reading from this one has read
+     *   the last record but not yet returned it (as a combining reader does
+     *   while looking for records to combine)
+     * @return the position to resume at so records already returned by the
+     *   readers above this one are not read again
+     */
+    public MarcInputPosition getPosition(boolean lookAheadHeld)
+    {
+        if (lookAheadHeld)
+            return new MarcInputPosition(trackOffsets ? lastRecordStart : -1, records - 1);
+        return new MarcInputPosition(trackOffsets ? offset : -1, records);
+    }
+
+    private void stopTrackingOffsets()
+    {
+        if (trackOffsets)
+            logger.debug("Record " + records + " has no usable length;  checkpoints will use the record count only");
+        trackOffsets = false;
+        offset = -1;
+        lastRecordStart = -1;
+    }
+
+}
@@ -71,10 +71,18 @@ public class SolrReIndexer extends MarcImporter
         output = new MarcStreamWriter(System.out, "UTF8", true);
         if (solrFieldContainingEncodedMarcRecord == null)
         	solrFieldContainingEncodedMarcRecord = "marc_display";
-        if (getIdsOnly)
-            outputAllMatchingIds(queryForRecordsToUpdate);
-        else
-            outputAllMatchingDocs(queryForRecordsToUpdate);
+        startMonitor();
+        try
+        {
+            if (getIdsOnly)
+                outputAllMatchingIds(queryForRecordsToUpdate);
+            else
+                outputAllMatchingDocs(queryForRecordsToUpdate);
+        }
+        finally
+        {
+            stopMonitor();
+        }
         output.close();
         return 0;
     }
@@ -289,8 +297,13 @@ public class SolrReIndexer extends MarcImporter
                 	totalHits = (int)sdl.getNumFound();
                 for (SolrDocument doc : sdl)
                 {
+                    monitor.waitWhilePaused();
+                    if (shuttingDown)
+                        return;
                     String id = doc.getFieldValue("id").toString();
                     totalProcessed++;
+                    recsReadCounter++;
+                    monitor.setCurrentRecordId(id);
                     if (output != null && id != null)
                     {
                         System.out.println(id);
@@ -349,8 +362,14 @@ public class SolrReIndexer extends MarcImporter
                 	totalHits = (int)sdl.getNumFound();
                 for (SolrDocument doc : sdl)
                 {
+                    monitor.waitWhilePaused();
+                    if (shuttingDown)
+                        return;
                     totalProcessed++;
+                    recsReadCounter++;
                     Record record = getMarcRecObjFromSolrDoc(doc);
+                    if (record != null)
+                        monitor.setCurrentRecordId(record.getControlNumber());
                     if (output != null && record != null)
                     {
                         output.write(record);
@@ -397,8 +416,10 @@ public class SolrReIndexer extends MarcImporter
         for (SolrDocument solrDoc : sdl)
         {
             Record marcRec = getMarcRecObjFromSolrDoc(solrDoc);
+            recsReadCounter++;
             if (marcRec != null)
             {
+                monitor.setCurrentRecordId(marcRec.getControlNumber());
                 Map<String, Object> fldNames2ValsMap = indexer.createFldNames2ValsMap(marcRec, errors);
                 if (update && fldNames2ValsMap != null && fldNames2ValsMap.size() != 0)
                     updateSolrIndex(fldNames2ValsMap);
@@ -420,7 +441,10 @@ public class SolrReIndexer extends MarcImporter
     {
         try
         {
+            long start = System.nanoTime();
             String docStr = solrProxy.addDoc(fldNames2ValsMap, verbose, true);
+            addSolrCall(start);
+            recsIndexedCounter++;
             if (verbose)
                 logger.info(docStr);
 
@@ -428,6 +452,7 @@ public class SolrReIndexer extends MarcImporter
         catch (IOException ioe)
         {
             logger.error("Couldn't add document: " + ioe.getMessage());
+            monitor.addIndexingError();
         }
     }
 
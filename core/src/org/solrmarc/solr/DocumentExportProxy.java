@@ -0,0 +1,501 @@
+package org.solrmarc.solr;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.log4j.Logger;
+import org.apache.solr.common.util.JavaBinCodec;
+import org.noggit.JSONUtil;
+import org.solrmarc.tools.SolrUtils;
+
+/**
+ * A SolrProxy that writes the documents to files instead of sending them to
+ *  Solr, so records can be mapped on one machine and the documents loaded
+ *  into Solr later (see ExportedDocumentLoader), and a failed load replayed
+ *  without reading the marc again.
+ *
+ * Each document goes to one of numShards shards by a hash of its id, so all
+ *  the versions of a document are in the same shard, in the order added.
+ *  Each shard has its own thread compressing and writing its files, which
+ *  are gzipped and rolled over once maxFileBytes of documents (before
+ *  compression) are written to them:
+ *    <prefix>-<shard>-<sequence>.jsonl.gz   - a JSON object a line, or
+ *    <prefix>-<shard>-<sequence>.javabin.gz - for each document, an int
+ *        length then the javabin of its field map
+ *  A deleted id is written to the shard of its id, in order with the
+ *  documents, as a field map with just the field _delete_ (see
+ *  getDeletedId()), so loading the files adds and deletes each id in the
+ *  order it was exported.  A file is written as <name>.part, and renamed
+ *  when it is complete:  on rolling over, commit() and close().  Sequence
+ *  numbers carry on from the files already in the directory, so an earlier
+ *  export isn't overwritten, and a later export's adds and deletes are
+ *  loaded after it;  exports sharing a directory must have the same number
+ *  of shards, so each id stays in its shard.
+ */
+public class DocumentExportProxy implements SolrProxy
+{
+    static Logger logger = Logger.getLogger(DocumentExportProxy.class.getName());
+
+    /** name of the unique key field, used to pick a document's shard */
+    private static final String ID_FIELD_NAME = "id";
+    /** added to the name of a file while it is written */
+    public static final String PART_SUFFIX = ".part";
+    /** the only field of the field map written for a deleted id */
+    public static final String DELETE_FIELD_NAME = "_delete_";
+    /** maximum number of documents waiting to be written, for each shard */
+    private static final int QUEUE_SIZE = 1000;
+
+    /** the format of the document files */
+    public enum Format
+    {
+        JSON(".jsonl.gz"),
+        JAVABIN(".javabin.gz");
+
+        private final String suffix;
+
+        private Format(String suffix)
+        {
+            this.suffix = suffix;
+        }
+
+        public String getSuffix()
+        {
+            return suffix;
+        }
+
+        /**
+         * @return the format of an exported document file, from its name;
+         *  null if it isn't one
+         */
+        public static Format ofFile(String fileName)
+        {
+            for (Format format : values())
+            {
+                if (fileName.endsWith(format.suffix))
+                    return format;
+            }
+            return null;
+        }
+    }
+
+    private final File dir;
+    private final String prefix;
+    private final Format format;
+    private final long maxFileBytes;
+    private final ShardWriter shards[];
+
+    /** the first failure writing a file;  reported on the next call */
+    private volatile IOException writeFailure = null;
+    private boolean closed = false;
+
+    /**
+     * @param dir  the directory to write the files in;  created if need be
+     * @param prefix  the start of the file names
+     * @param format  the format of the document files
+     * @param numShards  the number of shards, each with its own files and writer thread
+     * @param maxFileBytes  roll a shard's file over once this many bytes of documents are written to it
+     */
+    public DocumentExportProxy(File dir, String prefix, Format format, int numShards, long maxFileBytes)
+        throws IOException
+    {
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Unable to create export directory " + dir);
+        this.dir = dir;
+        this.prefix = prefix;
+        this.format = format;
+        this.maxFileBytes = maxFileBytes;
+        shards = new ShardWriter[numShards < 1 ? 1 : numShards];
+        for (int i = 0; i < shards.length; i++)
+        {
+            shards[i] = new ShardWriter(i);
+            Thread thread = new Thread(shards[i], "DocumentExportProxy shard " + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    public File getDir()
+    {
+        return dir;
+    }
+
+    /**
+     * @return the last sequence number of the files in the directory for the
+     *  shard;  0 if there are none
+     */
+    private int lastSequence(String shardName)
+    {
+        int last = 0;
+        String start = prefix + "-" + shardName + "-";
+        String names[] = dir.list();
+        for (String name : names != null ? names : new String[0])
+        {
+            if (!name.startsWith(start))
+                continue;
+            int end = start.length();
+            while (end < name.length() && Character.isDigit(name.charAt(end)))
+                end++;
+            if (end > start.length())
+                last = Math.max(last, Integer.parseInt(name.substring(start.length(), end)));
+        }
+        return last;
+    }
+
+    private File newFile(String shardName, int sequence, String suffix)
+    {
+        return new File(dir, String.format("%s-%s-%05d%s%s", prefix, shardName, sequence, suffix, PART_SUFFIX));
+    }
+
+    /**
+     * rename a file that is complete, to its name without .part
+     */
+    private static void completeFile(File partFile)
+        throws IOException
+    {
+        String path = partFile.getPath();
+        File file = new File(path.substring(0, path.length() - PART_SUFFIX.length()));
+        if (!partFile.renameTo(file))
+            throw new IOException("Unable to rename " + partFile + " to " + file);
+    }
+
+    public boolean isSolrException(Exception e)
+    {
+        return false;
+    }
+
+    /**
+     * queue the document to be written to its shard's file
+     * @return a string representation of the document when verbose is true or addDocToIndex is false
+     */
+    public String addDoc(Map<String, Object> fldNames2ValsMap, boolean verbose, boolean addDocToIndex)
+        throws IOException
+    {
+        if (addDocToIndex)
+        {
+            checkWriteFailure();
+            shards[shardOf(fldNames2ValsMap)].put(fldNames2ValsMap);
+        }
+        if (verbose || !addDocToIndex)
+            return SolrUtils.createSolrInputDoc(fldNames2ValsMap).toString().replaceAll("> ", "> \n");
+        return null;
+    }
+
+    public void addDocs(Collection<Map<String, Object>> fldNames2ValsMaps)
+        throws IOException
+    {
+        for (Map<String, Object> fldNames2ValsMap : fldNames2ValsMaps)
+            addDoc(fldNames2ValsMap, false, true);
+    }
+
+    /**
+     * @return the id deleted by a field map read from an exported file;  null
+     *  if it is a document
+     */
+    public static String getDeletedId(Map<String, Object> fldNames2ValsMap)
+    {
+        if (fldNames2ValsMap.size() != 1)
+            return null;
+        Object id = fldNames2ValsMap.get(DELETE_FIELD_NAME);
+        return id != null ? id.toString() : null;
+    }
+
+    /**
+     * @return the shard of the document, from its id
+     */
+    private int shardOf(Map<String, Object> fldNames2ValsMap)
+    {
+        Object id = fldNames2ValsMap.get(ID_FIELD_NAME);
+        if (id == null)
+            return 0;
+        return ShardedSolrProxy.shardOf(id.toString(), shards.length);
+    }
+
+    /**
+     * wait until the documents queued so far are written
+     */
+    public void flush()
+        throws IOException
+    {
+        waitForShards(false);
+    }
+
+    /**
+     * write the documents queued so far and complete the files, so all the
+     *  documents added so far are in complete files
+     */
+    public void commit(boolean optimize)
+        throws IOException
+    {
+        waitForShards(true);
+    }
+
+    /**
+     * the same as commit():  exported documents are only visible to searches
+     *  once they are loaded
+     */
+    public void softCommit()
+        throws IOException
+    {
+        commit(false);
+    }
+
+    /**
+     * the same as commit():  the index is optimized when the documents are loaded
+     */
+    public void optimize(int maxSegments)
+        throws IOException
+    {
+        commit(true);
+    }
+
+    /**
+     * tell each shard's thread to write its queued documents (and complete
+     *  its file), and wait until they have
+     */
+    private void waitForShards(boolean completeFiles)
+        throws IOException
+    {
+        checkWriteFailure();
+        CountDownLatch done = new CountDownLatch(shards.length);
+        for (ShardWriter shard : shards)
+            shard.put(new Marker(done, completeFiles, false));
+        try
+        {
+            done.await();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new SolrRuntimeException("Interrupted waiting for documents to be written", e);
+        }
+        checkWriteFailure();
+    }
+
+    private void checkWriteFailure()
+    {
+        IOException failure = writeFailure;
+        if (failure != null)
+            throw new SolrRuntimeException("Unable to write exported documents -- " + failure.getMessage(), failure);
+    }
+
+    public void delete(String id, boolean fromCommitted, boolean fromPending)
+        throws IOException
+    {
+        delete(Collections.singletonList(id));
+    }
+
+    /**
+     * queue the deletes to be written to the shards of their ids, after the
+     *  documents added so far
+     */
+    public void delete(Collection<String> ids)
+        throws IOException
+    {
+        checkWriteFailure();
+        for (String id : ids)
+        {
+            Map<String, Object> delete = Collections.singletonMap(DELETE_FIELD_NAME, (Object) id);
+            shards[ShardedSolrProxy.shardOf(id, shards.length)].put(delete);
+        }
+    }
+
+    /**
+     * the documents are in files, so there is no index to empty
+     */
+    public void deleteAllDocs()
+        throws IOException
+    {
+        throw new IOException("Unable to delete all documents when exporting documents to files");
+    }
+
+    /**
+     * write the queued documents, complete the files, and stop the shards' threads
+     */
+    public void close()
+    {
+        if (closed)
+            return;
+        closed = true;
+        CountDownLatch done = new CountDownLatch(shards.length);
+        for (ShardWriter shard : shards)
+            shard.put(new Marker(done, true, true));
+        try
+        {
+            done.await();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        checkWriteFailure();
+    }
+
+
+    /**
+     * put in a shard's queue after the documents to wait for
+     */
+    private static class Marker
+    {
+        final CountDownLatch done;
+        final boolean completeFile;
+        final boolean stop;
+
+        Marker(CountDownLatch done, boolean completeFile, boolean stop)
+        {
+            this.done = done;
+            this.completeFile = completeFile;
+            this.stop = stop;
+        }
+    }
+
+    /**
+     * writes a shard's documents to its files, on its own thread
+     */
+    private class ShardWriter implements Runnable
+    {
+        private final String shardName;
+        private final BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(QUEUE_SIZE);
+        private int sequence;
+        private File partFile = null;
+        private OutputStream out = null;
+        /** bytes of documents written to the file, before compression */
+        private long fileBytes = 0;
+
+        ShardWriter(int shard)
+        {
+            shardName = String.format("%03d", shard);
+            sequence = lastSequence(shardName);
+        }
+
+        void put(Object item)
+        {
+            try
+            {
+                queue.put(item);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new SolrRuntimeException("Interrupted queueing document to be written", e);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        public void run()
+        {
+            while (true)
+            {
+                Object item;
+                try
+                {
+                    item = queue.take();
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+                if (item instanceof Marker)
+                {
+                    Marker marker = (Marker) item;
+                    if (marker.completeFile)
+                        completeShardFile();
+                    else
+                        flushShardFile();
+                    marker.done.countDown();
+                    if (marker.stop)
+                        return;
+                }
+                else if (writeFailure == null)
+                {
+                    // after a failure, the documents are dropped:  the failure halts indexing
+                    try
+                    {
+                        write((Map<String, Object>) item);
+                        if (fileBytes >= maxFileBytes)
+                            completeShardFile();
+                    }
+                    catch (IOException e)
+                    {
+                        fail(e);
+                    }
+                    catch (RuntimeException e)
+                    {
+                        // such as a field value the codec can't write:  the
+                        //  thread keeps taking the markers, so nothing waits forever
+                        IOException ioe = new IOException("Unable to write document -- " + e);
+                        ioe.initCause(e);
+                        fail(ioe);
+                    }
+                }
+            }
+        }
+
+        private void write(Map<String, Object> fldNames2ValsMap)
+            throws IOException
+        {
+            if (out == null)
+            {
+                partFile = newFile(shardName, ++sequence, format.getSuffix());
+                out = new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(partFile), 65536), 65536);
+                fileBytes = 0;
+            }
+            if (format == Format.JSON)
+            {
+                byte bytes[] = JSONUtil.toJSON(fldNames2ValsMap, -1).getBytes("UTF-8");
+                out.write(bytes);
+                out.write('\n');
+                fileBytes += bytes.length + 1;
+            }
+            else
+            {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                new JavaBinCodec().marshal(fldNames2ValsMap, bytes);
+                DataOutputStream dataOut = new DataOutputStream(out);
+                dataOut.writeInt(bytes.size());
+                bytes.writeTo(dataOut);
+                fileBytes += 4 + bytes.size();
+            }
+        }
+
+        private void flushShardFile()
+        {
+            if (out == null || writeFailure != null)
+                return;
+            try
+            {
+                out.flush();
+            }
+            catch (IOException e)
+            {
+                fail(e);
+            }
+        }
+
+        private void completeShardFile()
+        {
+            if (out == null || writeFailure != null)
+                return;
+            try
+            {
+                out.close();
+                completeFile(partFile);
+            }
+            catch (IOException e)
+            {
+                fail(e);
+            }
+            out = null;
+            partFile = null;
+        }
+
+        private void fail(IOException e)
+        {
+            logger.error("Unable to write " + partFile + " -- " + e.getMessage());
+            if (writeFailure == null)
+                writeFailure = e;
+        }
+    }
+
+}
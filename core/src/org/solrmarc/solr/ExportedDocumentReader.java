@@ -0,0 +1,118 @@
+package org.solrmarc.solr;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.solr.common.util.JavaBinCodec;
+import org.noggit.ObjectBuilder;
+
+/**
+ * Reads the field maps of the documents in a file written by
+ *  DocumentExportProxy, in the order they were written.  A deleted id is read
+ *  as a field map too:  DocumentExportProxy.getDeletedId() tells them apart.
+ */
+public class ExportedDocumentReader
+{
+    private final File file;
+    private final DocumentExportProxy.Format format;
+    private BufferedReader lineReader = null;
+    private DataInputStream dataIn = null;
+    private int docsRead = 0;
+
+    /**
+     * @param file  a complete .jsonl.gz or .javabin.gz file
+     * @throws IllegalArgumentException if the file isn't a document file
+     */
+    public ExportedDocumentReader(File file)
+        throws IOException
+    {
+        this.file = file;
+        format = DocumentExportProxy.Format.ofFile(file.getName());
+        if (format == null)
+            throw new IllegalArgumentException(file + " is not an exported document file");
+        InputStream in = new GZIPInputStream(new FileInputStream(file), 65536);
+        if (format == DocumentExportProxy.Format.JSON)
+            lineReader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        else
+            dataIn = new DataInputStream(new BufferedInputStream(in, 65536));
+    }
+
+    /**
+     * @return the complete exported document files in the directory, in
+     *  order of name (so each shard's files are in the order written)
+     */
+    public static List<File> listDocumentFiles(File dir)
+    {
+        List<File> files = new ArrayList<File>();
+        File dirFiles[] = dir.listFiles();
+        if (dirFiles == null)
+            return files;
+        Arrays.sort(dirFiles);
+        for (File file : dirFiles)
+        {
+            if (DocumentExportProxy.Format.ofFile(file.getName()) != null)
+                files.add(file);
+        }
+        return files;
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * @return the field map of the next document;  null at the end of the file
+     * @throws IOException if the file can't be read, or is truncated
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> next()
+        throws IOException
+    {
+        Object doc;
+        if (lineReader != null)
+        {
+            String line = lineReader.readLine();
+            if (line == null)
+                return null;
+            doc = ObjectBuilder.fromJSON(line);
+        }
+        else
+        {
+            int length;
+            try
+            {
+                length = dataIn.readInt();
+            }
+            catch (EOFException e)
+            {
+                return null;
+            }
+            byte bytes[] = new byte[length];
+            try
+            {
+                dataIn.readFully(bytes);
+            }
+            catch (EOFException e)
+            {
+                throw new IOException(file + " is truncated after " + docsRead + " documents");
+            }
+            doc = new JavaBinCodec().unmarshal(new ByteArrayInputStream(bytes));
+        }
+        if (!(doc instanceof Map))
+            throw new IOException("Document " + (docsRead + 1) + " in " + file + " is not a field map");
+        docsRead++;
+        return (Map<String, Object>) doc;
+    }
+
+    public void close()
+        throws IOException
+    {
+        if (lineReader != null)
+            lineReader.close();
+        if (dataIn != null)
+            dataIn.close();
+    }
+
+}
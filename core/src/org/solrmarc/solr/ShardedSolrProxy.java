@@ -0,0 +1,395 @@
+package org.solrmarc.solr;
+
+import java.io.IOException;
+import java.util.*;
+
+import org.apache.log4j.Logger;
+import org.solrmarc.tools.DateUtils;
+import org.solrmarc.tools.SolrUtils;
+
+/**
+ * A SolrProxy spreading the documents over several shards, each written by
+ *  its own SolrProxy, by a hash of the document id:  all the versions of a
+ *  document, and its deletes, go to the same shard, in order, so no shard
+ *  keeps a stale copy of a document another shard has.  The hash of an id is
+ *  the same in every run, so a document stays in its shard as long as the
+ *  shards are the same, in the same order.
+ *
+ * Each shard sends its documents as its proxy would on its own;  when the
+ *  shards are StreamingSolrServerProxys (see
+ *  SolrCoreLoader.loadShardedSolrServers), addDoc() only queues the document
+ *  for the shard's sender thread, which sends it in the shard's next batch,
+ *  and the shards index in parallel.  commit(), softCommit() and optimize()
+ *  commit the shards in parallel, and log how long each took.
+ *
+ * The documents the shards couldn't add are reported together in one
+ *  SolrBatchException, once every shard has been flushed or committed.
+ */
+public class ShardedSolrProxy implements SolrProxy
+{
+    /** name of the unique key field, used to pick a document's shard */
+    private static final String ID_FIELD_NAME = "id";
+
+    private final SolrProxy shards[];
+    /** the names of the shards in the log, e.g. their URLs */
+    private final String shardNames[];
+    /** how long each shard took to commit, the last time */
+    private final long lastCommitMillis[];
+
+    // Initialize logging category
+    static Logger logger = Logger.getLogger(ShardedSolrProxy.class.getName());
+
+    /**
+     * @param shards  the proxies writing the documents of each shard
+     */
+    public ShardedSolrProxy(List<SolrProxy> shards)
+    {
+        this(shards, null);
+    }
+
+    /**
+     * @param shards  the proxies writing the documents of each shard
+     * @param shardNames  the names of the shards in the log, in the same
+     *   order;  null to number them
+     */
+    public ShardedSolrProxy(List<SolrProxy> shards, List<String> shardNames)
+    {
+        if (shards.isEmpty())
+            throw new IllegalArgumentException("ShardedSolrProxy needs at least one shard");
+        if (shardNames != null && shardNames.size() != shards.size())
+            throw new IllegalArgumentException(shardNames.size() + " names for " + shards.size() + " shards");
+        this.shards = shards.toArray(new SolrProxy[shards.size()]);
+        this.shardNames = new String[this.shards.length];
+        for (int i = 0; i < this.shards.length; i++)
+            this.shardNames[i] = shardNames != null ? shardNames.get(i) : "shard " + (i + 1);
+        lastCommitMillis = new long[this.shards.length];
+    }
+
+    /**
+     * @return the shard of the document with the id, out of numShards:  the
+     *  same for the same id in every run, as long as the number of shards
+     *  is the same
+     */
+    public static int shardOf(String id, int numShards)
+    {
+        return (id.hashCode() & 0x7fffffff) % numShards;
+    }
+
+    public int getNumShards()
+    {
+        return shards.length;
+    }
+
+    public SolrProxy getShard(int shardNum)
+    {
+        return shards[shardNum];
+    }
+
+    public String getShardName(int shardNum)
+    {
+        return shardNames[shardNum];
+    }
+
+    /**
+     * @return how long each shard took to commit, the last time
+     */
+    public synchronized long[] getLastCommitMillis()
+    {
+        return lastCommitMillis.clone();
+    }
+
+    private SolrProxy shardOf(Map<String, Object> fldNames2ValsMap)
+    {
+        Object id = fldNames2ValsMap.get(ID_FIELD_NAME);
+        if (id == null)
+            return shards[0];
+        return shards[shardOf(id.toString(), shards.length)];
+    }
+
+    public boolean isSolrException(Exception e)
+    {
+        for (SolrProxy shard : shards)
+        {
+            if (shard.isSolrException(e))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * add the document to its shard
+     */
+    public String addDoc(Map<String, Object> fldNames2ValsMap, boolean verbose, boolean addDocToIndex)
+        throws IOException
+    {
+        if (!addDocToIndex)
+            return SolrUtils.createSolrInputDoc(fldNames2ValsMap).toString().replaceAll("> ", "> \n");
+        return shardOf(fldNames2ValsMap).addDoc(fldNames2ValsMap, verbose, addDocToIndex);
+    }
+
+    /**
+     * add the documents to their shards, each shard's in one addDocs()
+     * @throws SolrBatchException if some of the documents could not be added
+     */
+    public void addDocs(Collection<Map<String, Object>> fldNames2ValsMaps)
+        throws IOException
+    {
+        List<List<Map<String, Object>>> shardDocs = new ArrayList<List<Map<String, Object>>>();
+        for (int i = 0; i < shards.length; i++)
+            shardDocs.add(new ArrayList<Map<String, Object>>());
+        for (Map<String, Object> fldNames2ValsMap : fldNames2ValsMaps)
+        {
+            Object id = fldNames2ValsMap.get(ID_FIELD_NAME);
+            shardDocs.get(id == null ? 0 : shardOf(id.toString(), shards.length)).add(fldNames2ValsMap);
+        }
+
+        List<SolrBatchException> batchFailures = new ArrayList<SolrBatchException>();
+        for (int i = 0; i < shards.length; i++)
+        {
+            if (shardDocs.get(i).isEmpty())
+                continue;
+            try
+            {
+                shards[i].addDocs(shardDocs.get(i));
+            }
+            catch (SolrBatchException sbe)
+            {
+                batchFailures.add(sbe);
+            }
+        }
+        throwBatchFailures(batchFailures);
+    }
+
+    /**
+     * send the documents each shard has buffered
+     * @throws SolrBatchException if some of the documents could not be added
+     */
+    public void flush()
+        throws IOException
+    {
+        List<SolrBatchException> batchFailures = new ArrayList<SolrBatchException>();
+        for (SolrProxy shard : shards)
+        {
+            try
+            {
+                shard.flush();
+            }
+            catch (SolrBatchException sbe)
+            {
+                batchFailures.add(sbe);
+            }
+        }
+        throwBatchFailures(batchFailures);
+    }
+
+    /**
+     * delete the document from its shard
+     */
+    public void delete(String id, boolean fromCommitted, boolean fromPending)
+        throws IOException
+    {
+        shards[shardOf(id, shards.length)].delete(id, fromCommitted, fromPending);
+    }
+
+    /**
+     * delete the documents from their shards, in a request for each shard
+     */
+    public void delete(Collection<String> ids)
+        throws IOException
+    {
+        List<List<String>> shardIds = new ArrayList<List<String>>();
+        for (int i = 0; i < shards.length; i++)
+            shardIds.add(new ArrayList<String>());
+        for (String id : ids)
+            shardIds.get(shardOf(id, shards.length)).add(id);
+        for (int i = 0; i < shards.length; i++)
+        {
+            if (!shardIds.get(i).isEmpty())
+                shards[i].delete(shardIds.get(i));
+        }
+    }
+
+    public void deleteAllDocs()
+        throws IOException
+    {
+        for (SolrProxy shard : shards)
+            shard.deleteAllDocs();
+    }
+
+    /**
+     * commit (or optimize) all the shards at once
+     * @throws SolrBatchException if some of the documents buffered could not be added
+     */
+    public void commit(final boolean optimize)
+        throws IOException
+    {
+        commitShards(optimize ? "Optimized" : "Committed", new ShardCommit()
+        {
+            public void commit(SolrProxy shard)
+                throws IOException
+            {
+                shard.commit(optimize);
+            }
+        });
+    }
+
+    /**
+     * soft commit all the shards at once
+     * @throws SolrBatchException if some of the documents buffered could not be added
+     */
+    public void softCommit()
+        throws IOException
+    {
+        commitShards("Soft committed", new ShardCommit()
+        {
+            public void commit(SolrProxy shard)
+                throws IOException
+            {
+                shard.softCommit();
+            }
+        });
+    }
+
+    /**
+     * optimize all the shards at once, each down to maxSegments segments
+     * @throws SolrBatchException if some of the documents buffered could not be added
+     */
+    public void optimize(final int maxSegments)
+        throws IOException
+    {
+        commitShards("Optimized", new ShardCommit()
+        {
+            public void commit(SolrProxy shard)
+                throws IOException
+            {
+                shard.optimize(maxSegments);
+            }
+        });
+    }
+
+    /**
+     * a commit of one shard
+     */
+    private interface ShardCommit
+    {
+        public void commit(SolrProxy shard) throws IOException;
+    }
+
+    /**
+     * commit all the shards at once, each on its own thread, and log how
+     *  long each took
+     * @param done  what was done to the shards, for the log
+     */
+    private void commitShards(String done, final ShardCommit shardCommit)
+        throws IOException
+    {
+        final long millis[] = new long[shards.length];
+        final Throwable failures[] = new Throwable[shards.length];
+        Thread committers[] = new Thread[shards.length];
+        for (int i = 0; i < shards.length; i++)
+        {
+            final int shardNum = i;
+            committers[i] = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    long start = System.currentTimeMillis();
+                    try
+                    {
+                        shardCommit.commit(shards[shardNum]);
+                    }
+                    catch (Throwable t)
+                    {
+                        failures[shardNum] = t;
+                    }
+                    millis[shardNum] = System.currentTimeMillis() - start;
+                }
+            }, "solrmarc-shard-commit-" + (i + 1));
+            committers[i].start();
+        }
+        for (Thread committer : committers)
+        {
+            try
+            {
+                committer.join();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new SolrRuntimeException("Interrupted waiting for the shards to commit", e);
+            }
+        }
+
+        StringBuilder report = new StringBuilder(done).append(" ").append(shards.length).append(" shards:");
+        for (int i = 0; i < shards.length; i++)
+            report.append("\n    ").append(shardNames[i]).append(":  ").append(DateUtils.calcTime(millis[i])).append(failures[i] != null ? " -- failed" : "");
+        logger.info(report);
+        synchronized (this)
+        {
+            System.arraycopy(millis, 0, lastCommitMillis, 0, millis.length);
+        }
+
+        // a shard that couldn't commit matters more than documents refused
+        List<SolrBatchException> batchFailures = new ArrayList<SolrBatchException>();
+        for (int i = 0; i < shards.length; i++)
+        {
+            Throwable failure = failures[i];
+            if (failure == null)
+                continue;
+            if (failure instanceof SolrBatchException)
+                batchFailures.add((SolrBatchException) failure);
+            else
+            {
+                logger.error("Unable to commit " + shardNames[i] + " -- " + failure.getMessage());
+                if (failure instanceof IOException)
+                    throw (IOException) failure;
+                if (failure instanceof RuntimeException)
+                    throw (RuntimeException) failure;
+                throw (Error) failure;
+            }
+        }
+        throwBatchFailures(batchFailures);
+    }
+
+    /**
+     * close every shard, even if closing one of them fails
+     */
+    public void close()
+    {
+        RuntimeException failure = null;
+        for (SolrProxy shard : shards)
+        {
+            try
+            {
+                shard.close();
+            }
+            catch (RuntimeException e)
+            {
+                if (failure == null)
+                    failure = e;
+            }
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    /**
+     * report the documents the shards couldn't add in one exception
+     */
+    private static void throwBatchFailures(List<SolrBatchException> batchFailures)
+    {
+        if (batchFailures.isEmpty())
+            return;
+        if (batchFailures.size() == 1)
+            throw batchFailures.get(0);
+        List<String> batchIds = new ArrayList<String>();
+        Map<String, RuntimeException> failures = new LinkedHashMap<String, RuntimeException>();
+        for (SolrBatchException sbe : batchFailures)
+        {
+            batchIds.addAll(sbe.getBatchIds());
+            failures.putAll(sbe.getFailures());
+        }
+        throw new SolrBatchException(batchIds, failures);
+    }
+
+}
@@ -0,0 +1,41 @@
+package org.solrmarc.solr;
+
+import java.util.*;
+
+/**
+ * Thrown when some of the documents in a batch of adds could not be written
+ *  to the index.  After a batch fails, each of its documents is retried on
+ *  its own, so the failures are reported per document:  the key is the
+ *  document id and the value is the exception that adding that single
+ *  document produced (the same exception addDoc would throw unbatched).
+ */
+public class SolrBatchException extends SolrRuntimeException
+{
+    private static final long serialVersionUID = 2263519712043806921L;
+
+    private final List<String> batchIds;
+    private final Map<String, RuntimeException> failures;
+
+    public SolrBatchException(List<String> batchIds, Map<String, RuntimeException> failures)
+    {
+        super(failures.size() + " of " + batchIds.size() + " documents in batch could not be added to the index");
+        this.batchIds = batchIds;
+        this.failures = failures;
+    }
+
+    /**
+     * @return the ids of all the documents in the failed batch, in the order added
+     */
+    public List<String> getBatchIds()
+    {
+        return batchIds;
+    }
+
+    /**
+     * @return map of id to exception for each document that could not be added
+     */
+    public Map<String, RuntimeException> getFailures()
+    {
+        return failures;
+    }
+}
@@ -0,0 +1,130 @@
+package org.solrmarc.solr;
+
+import org.apache.log4j.Logger;
+import org.solrmarc.tools.DateUtils;
+
+/**
+ * Stops a SolrServerProxy sending to a Solr that is down, rather than failing
+ *  every document until it is back.  When a request still fails after its
+ *  retries, the circuit opens:  every sender waits (so the importer, and its
+ *  reader, wait for them) for openMillis, then one of them tries its request
+ *  again.  If that works the circuit closes and the senders carry on;  if not
+ *  it opens again.  When Solr has been down for giveUpMillis, the waiting
+ *  senders throw a SolrRuntimeException, which halts the run as a Solr
+ *  failure always did.
+ *
+ * One breaker is shared by the threads sending to one Solr.
+ */
+public class SolrCircuitBreaker
+{
+    private final long openMillis;
+    private final long giveUpMillis;
+
+    /** guarded by this */
+    private boolean open = false;
+    /** a sender is trying its request to see if Solr is back;  guarded by this */
+    private boolean trialRunning = false;
+    private long openUntil = 0;
+    private long unavailableSince = 0;
+    private Exception lastFailure = null;
+    private int timesOpened = 0;
+
+    // Initialize logging category
+    static Logger logger = Logger.getLogger(SolrCircuitBreaker.class.getName());
+
+    /**
+     * @param openMillis  how long to stop sending after a request fails, before trying again
+     * @param giveUpMillis  how long Solr may be down before giving up;  0 or less never to give up
+     */
+    public SolrCircuitBreaker(long openMillis, long giveUpMillis)
+    {
+        this.openMillis = Math.max(0, openMillis);
+        this.giveUpMillis = giveUpMillis;
+    }
+
+    /**
+     * @return true while senders are waiting for Solr to come back
+     */
+    public synchronized boolean isOpen()
+    {
+        return open;
+    }
+
+    /**
+     * @return the number of times Solr went down
+     */
+    public synchronized int getTimesOpened()
+    {
+        return timesOpened;
+    }
+
+    /**
+     * call before each request:  waits while the circuit is open.
+     * @return true if the caller's request is the trial of whether Solr is
+     *  back:  it must call recordSuccess() or recordFailure() when done
+     * @throws SolrRuntimeException when Solr has been down for giveUpMillis
+     */
+    public synchronized boolean awaitClosed()
+    {
+        while (open)
+        {
+            long now = System.currentTimeMillis();
+            long giveUpAt = giveUpMillis > 0 ? unavailableSince + giveUpMillis : Long.MAX_VALUE;
+            if (now >= giveUpAt)
+                throw new SolrRuntimeException("Solr unavailable for " + DateUtils.calcTime(now - unavailableSince) + ":  giving up", lastFailure);
+            if (!trialRunning && now >= openUntil)
+            {
+                trialRunning = true;
+                return true;
+            }
+            // wait out the open time, or for the trial to finish
+            long waitUntil = trialRunning ? giveUpAt : Math.min(openUntil, giveUpAt);
+            try
+            {
+                wait(Math.max(1, Math.min(waitUntil - now, Integer.MAX_VALUE)));
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new SolrRuntimeException("Interrupted waiting for Solr to come back", e);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * a request succeeded:  close the circuit, if it was open
+     */
+    public synchronized void recordSuccess()
+    {
+        if (!open)
+            return;
+        logger.info("Solr is available again, after " + DateUtils.calcTime(System.currentTimeMillis() - unavailableSince) + ":  sending documents");
+        open = false;
+        trialRunning = false;
+        notifyAll();
+    }
+
+    /**
+     * a request failed, after its retries:  open the circuit, or keep it open
+     *  for another openMillis
+     */
+    public synchronized void recordFailure(Exception e)
+    {
+        long now = System.currentTimeMillis();
+        lastFailure = e;
+        if (!open)
+        {
+            open = true;
+            unavailableSince = now;
+            timesOpened++;
+            logger.error("Solr is unavailable -- " + e.getMessage() + ":  waiting " + DateUtils.calcTime(openMillis) + " before sending again");
+        }
+        else
+            logger.warn("Solr is still unavailable -- " + e.getMessage() + ":  waiting " + DateUtils.calcTime(openMillis) + " more");
+        trialRunning = false;
+        openUntil = now + openMillis;
+        notifyAll();
+    }
+
+}
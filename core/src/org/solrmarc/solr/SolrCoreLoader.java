@@ -5,6 +5,7 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.*;
+import java.util.*;
 
 import org.apache.log4j.Logger;
 import org.apache.solr.client.solrj.SolrServer;
@@ -158,15 +159,33 @@ public class SolrCoreLoader
     }
 
     public static SolrProxy loadRemoteSolrServer(String solrHostUpdateURL, boolean useBinaryRequestHandler, boolean useStreamingServer)
+    {
+        return loadRemoteSolrServer(solrHostUpdateURL, useBinaryRequestHandler, useStreamingServer, 100, 2);
+    }
+
+    /**
+     * @param solrHostUpdateURL  the URL to receive index updates over HTTP
+     * @param useBinaryRequestHandler  false to send updates as XML
+     * @param useStreamingServer  true to send documents to Solr from several
+     *   threads (see StreamingSolrServerProxy)
+     * @param streamingQueueSize  maximum number of documents waiting to be sent, if streaming
+     * @param streamingThreadCount  number of threads sending documents, if streaming
+     */
+    public static SolrProxy loadRemoteSolrServer(String solrHostUpdateURL, boolean useBinaryRequestHandler, boolean useStreamingServer,
+                                                 int streamingQueueSize, int streamingThreadCount)
     {
         SolrProxy solrProxy = null;
         String urlString = solrHostUpdateURL.replaceAll("[/\\\\]update$", "");
         HttpSolrServer httpSolrServer;
-// possibly replaced by ConcurrentUpdateSolrServer;  possibly same bug of swallowing errors
-//            if (useStreamingServer)
-//                httpSolrServer = new StreamingUpdateSolrServer(urlString, 100, 2);
-//            else
-            httpSolrServer = new HttpSolrServer(urlString);
+        // SolrJ's StreamingUpdateSolrServer/ConcurrentUpdateSolrServer swallow
+        //  errors, so streaming is done by StreamingSolrServerProxy instead
+        httpSolrServer = new HttpSolrServer(urlString);
+        if (useStreamingServer)
+        {
+            // a persistent connection for each sender thread
+            httpSolrServer.setDefaultMaxConnectionsPerHost(Math.max(streamingThreadCount, 2));
+            httpSolrServer.setMaxTotalConnections(Math.max(streamingThreadCount, 2));
+        }
 
         // binary response parser is used by default in Solr 4
 //        if (useBinaryRequestHandler)
@@ -181,8 +200,27 @@ public class SolrCoreLoader
         	httpSolrServer.setParser(new XMLResponseParser());
         }
 
-        solrProxy = new SolrServerProxy(httpSolrServer);
+        if (useStreamingServer)
+            solrProxy = new StreamingSolrServerProxy(httpSolrServer, streamingQueueSize, streamingThreadCount);
+        else
+            solrProxy = new SolrServerProxy(httpSolrServer);
         return(solrProxy);
     }
 
+    /**
+     * @param shardUrls  the base URLs of the Solr cores holding the shards of the index
+     * @param useBinaryRequestHandler  false to send updates as XML
+     * @param queueSize  maximum number of documents waiting to be sent, for each shard
+     * @return a proxy routing each document to its shard, which queues it for
+     *   the shard's sender thread;  a single sender a shard keeps the
+     *   versions of a document in the order added
+     */
+    public static ShardedSolrProxy loadShardedSolrServers(List<String> shardUrls, boolean useBinaryRequestHandler, int queueSize)
+    {
+        List<SolrProxy> shards = new ArrayList<SolrProxy>();
+        for (String shardUrl : shardUrls)
+            shards.add(loadRemoteSolrServer(shardUrl, useBinaryRequestHandler, true, queueSize, 1));
+        return new ShardedSolrProxy(shards, shardUrls);
+    }
+
 }
@@ -1,6 +1,7 @@
 package org.solrmarc.solr;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Map;
 
 public interface SolrProxy
@@ -19,12 +20,33 @@ public interface SolrProxy
      */
     public abstract String addDoc(Map<String, Object> fields2ValuesMap, boolean verbose, boolean addDocToIndex) throws IOException;
 
+    /**
+     * given a collection of maps of field names and values, create a Document
+     *  for each and add them to the index in as few requests as possible.
+     *  Any documents buffered by addDoc are sent first.
+     * @param fldNames2ValsMaps - one map of field names and values per document
+     * @throws SolrBatchException if some of the documents could not be added
+     */
+    public abstract void addDocs(Collection<Map<String, Object>> fldNames2ValsMaps) throws IOException;
+
+    /**
+     * send any documents buffered by addDoc to the index
+     * @throws SolrBatchException if some of the documents could not be added
+     */
+    public abstract void flush() throws IOException;
+
     /**
      * delete doc from the index
      * @param id the unique identifier of the document to be deleted
      */
     public abstract void delete(String id, boolean fromCommitted, boolean fromPending) throws IOException;
 
+    /**
+     * delete docs from the index in a single request
+     * @param ids the unique identifiers of the documents to be deleted
+     */
+    public abstract void delete(Collection<String> ids) throws IOException;
+
     /**
      * delete all docs from the index
      * Warning: be very sure you want to call this
@@ -36,6 +58,18 @@ public interface SolrProxy
      */
     public abstract void commit(boolean optimize) throws IOException;
 
+    /**
+     * make the changes to the index visible to searches, without writing
+     *  them to disk as commit() does (a soft commit)
+     */
+    public abstract void softCommit() throws IOException;
+
+    /**
+     * commit changes to the index, and merge its segments
+     * @param maxSegments  the most segments to leave;  1 for a full optimize
+     */
+    public abstract void optimize(int maxSegments) throws IOException;
+
     /**
      * close the solrCore
      */
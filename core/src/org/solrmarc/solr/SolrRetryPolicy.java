@@ -0,0 +1,95 @@
+package org.solrmarc.solr;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrException;
+
+/**
+ * How a SolrServerProxy retries a request that failed for a reason that may
+ *  go away on its own:  Solr couldn't be reached, or answered 502, 503 or 504
+ *  (e.g. while it is restarting, or behind a busy load balancer), or 429.
+ *  A document Solr refuses (400, a missing required field, ...) will be
+ *  refused again, so is not retried.
+ *
+ * The wait before each retry doubles, from the initial delay up to the
+ *  maximum, with jitter:  a random half of each wait, so several senders
+ *  failing together don't all come back at once.
+ */
+public class SolrRetryPolicy
+{
+    private final int maxRetries;
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final Random random = new Random();
+
+    /**
+     * @param maxRetries  number of times to retry a failed request;  0 not to retry
+     * @param initialDelayMillis  wait before the first retry
+     * @param maxDelayMillis  longest wait before a retry
+     */
+    public SolrRetryPolicy(int maxRetries, long initialDelayMillis, long maxDelayMillis)
+    {
+        this.maxRetries = Math.max(0, maxRetries);
+        this.initialDelayMillis = Math.max(0, initialDelayMillis);
+        this.maxDelayMillis = Math.max(this.initialDelayMillis, maxDelayMillis);
+    }
+
+    public int getMaxRetries()
+    {
+        return maxRetries;
+    }
+
+    /**
+     * @return true if the request failed for a reason that may go away on
+     *  its own, so is worth retrying
+     */
+    public boolean isTransient(Exception e)
+    {
+        if (e instanceof SolrServerException || e instanceof IOException)
+            return true;
+        if (e instanceof SolrException)
+        {
+            int code = ((SolrException) e).code();
+            return code == 502 || code == 503 || code == 504 || code == 429;
+        }
+        return false;
+    }
+
+    /**
+     * @param retry  the number of the retry, from 0
+     * @return how long to wait before the retry:  between half and all of
+     *  the initial delay doubled retry times, up to the maximum
+     */
+    public long getDelayMillis(int retry)
+    {
+        long delay = initialDelayMillis;
+        for (int i = 0; i < retry && delay < maxDelayMillis; i++)
+            delay *= 2;
+        delay = Math.min(delay, maxDelayMillis);
+        if (delay < 2)
+            return delay;
+        long half = delay / 2;
+        return half + (long) (random.nextDouble() * (delay - half));
+    }
+
+    /**
+     * wait before a retry
+     */
+    public void sleep(long millis)
+    {
+        if (millis <= 0)
+            return;
+        try
+        {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new SolrRuntimeException("Interrupted waiting to retry a Solr request", e);
+        }
+    }
+
+}
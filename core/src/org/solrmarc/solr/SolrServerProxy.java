@@ -3,24 +3,125 @@ package org.solrmarc.solr;
 import java.io.IOException;
 import java.util.*;
 
+import org.apache.log4j.Logger;
 import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrException;
 import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
 import org.solrmarc.tools.SolrUtils;
 
 /**
  * An implementation of SolrProxy utilizing a SolrServer from SolrJ.
+ *  The batch of buffered documents is guarded by the proxy's lock, so the
+ *  importers of several marc files can share one proxy.
+ * With a SolrRetryPolicy, adds, deletes and commits that fail because Solr
+ *  is down or busy are retried;  with a SolrCircuitBreaker as well, sending waits while Solr
+ *  stays down, rather than failing every document until it is back.
  * @author Bob Haschart, with modifications by Naomi Dushay
  */
 public class SolrServerProxy implements SolrProxy
 {
     SolrServer solrJSolrServer;
 
+    /** name of the unique key field, used to report which documents in a batch failed */
+    private static final String ID_FIELD_NAME = "id";
+
+    /** send buffered documents when there are this many;  1 means no batching */
+    private int maxBatchDocs = 1;
+    /** send buffered documents when their (approximate) size reaches this many bytes */
+    private long maxBatchBytes = 10 * 1024 * 1024;
+    private List<SolrInputDocument> batch = new ArrayList<SolrInputDocument>();
+    private long batchBytes = 0;
+
+    /** how to retry updates that fail because Solr is down or busy;  null not to retry */
+    private SolrRetryPolicy retryPolicy = null;
+    /** stops sending while Solr stays down;  null to fail the documents instead */
+    private SolrCircuitBreaker circuitBreaker = null;
+    /** Solr commits each add and delete within this many milliseconds;  -1 to leave it to commit() */
+    private int commitWithinMillis = -1;
+
+    // Initialize logging category
+    static Logger logger = Logger.getLogger(SolrServerProxy.class.getName());
+
     public SolrServerProxy(SolrServer solrJSolrServer)
     {
         this.solrJSolrServer = solrJSolrServer;
     }
 
+    /**
+     * Set the limits for buffering documents passed to addDoc; the buffered
+     *  documents are sent to Solr in a single request when either limit is
+     *  reached, and on flush(), commit() and close().
+     * @param maxDocs  maximum number of documents in a batch;  1 or less turns off batching
+     * @param maxBytes  maximum approximate size of a batch, in bytes;  0 or less for no limit
+     */
+    public void setBatchLimits(int maxDocs, long maxBytes)
+    {
+        maxBatchDocs = maxDocs < 1 ? 1 : maxDocs;
+        maxBatchBytes = maxBytes;
+    }
+
+    /**
+     * @return the maximum number of documents to send to Solr in a single request
+     */
+    protected int getMaxBatchDocs()
+    {
+        return maxBatchDocs;
+    }
+
+    /**
+     * @return the maximum approximate size in bytes of a single request;  0 or less for no limit
+     */
+    protected long getMaxBatchBytes()
+    {
+        return maxBatchBytes;
+    }
+
+    /**
+     * @return the most documents that may have been passed to addDoc without
+     *  their failures (if any) having been reported yet
+     */
+    public int getMaxUnreportedDocs()
+    {
+        return maxBatchDocs;
+    }
+
+    /**
+     * @param retryPolicy  how to retry adds that fail because Solr is down or
+     *   busy;  null not to retry
+     * @param circuitBreaker  stops sending while Solr stays down, after the
+     *   retries;  null to fail the documents with a SolrUnavailableException
+     */
+    public void setRetryPolicy(SolrRetryPolicy retryPolicy, SolrCircuitBreaker circuitBreaker)
+    {
+        this.retryPolicy = retryPolicy;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public SolrCircuitBreaker getCircuitBreaker()
+    {
+        return circuitBreaker;
+    }
+
+    /**
+     * @param millis  have Solr commit each add and delete within this many
+     *   milliseconds of receiving it (commitWithin);  0 or less to commit
+     *   only on commit()
+     */
+    public void setCommitWithin(int millis)
+    {
+        commitWithinMillis = millis > 0 ? millis : -1;
+    }
+
+    /**
+     * @return the number of documents waiting to be sent to Solr
+     */
+    public synchronized int getBufferedDocCount()
+    {
+        return batch.size();
+    }
+
 
     /**
      * given a map of field names and values, create a Document and add it to
@@ -33,13 +134,26 @@ public class SolrServerProxy implements SolrProxy
         SolrInputDocument inputDoc = SolrUtils.createSolrInputDoc(fldNames2ValsMap);
         if (addDocToIndex)
         {
-            try
+            if (maxBatchDocs > 1)
             {
-				solrJSolrServer.add(inputDoc);
+                synchronized (this)
+                {
+                    batch.add(inputDoc);
+                    batchBytes += estimateSize(inputDoc);
+                    if (batch.size() >= maxBatchDocs || (maxBatchBytes > 0 && batchBytes >= maxBatchBytes))
+                        flush();
+                }
             }
-            catch (SolrServerException e)
+            else
             {
-                throw(new SolrRuntimeException("SolrServerException", e));
+                try
+                {
+                    sendWithRetries(Collections.singletonList(inputDoc));
+                }
+                catch (SolrServerException e)
+                {
+                    throw(new SolrRuntimeException("SolrServerException", e));
+                }
             }
         }
 
@@ -50,11 +164,269 @@ public class SolrServerProxy implements SolrProxy
     }
 
     /**
-     * close the solrCore
+     * given a collection of maps of field names and values, create a Document
+     *  for each and add them to the index in a single request (along with any
+     *  documents already buffered by addDoc)
+     * @throws SolrBatchException if some of the documents could not be added
+     */
+    public synchronized void addDocs(Collection<Map<String, Object>> fldNames2ValsMaps) throws IOException
+    {
+        for (Map<String, Object> fldNames2ValsMap : fldNames2ValsMaps)
+        {
+            SolrInputDocument inputDoc = SolrUtils.createSolrInputDoc(fldNames2ValsMap);
+            batch.add(inputDoc);
+            batchBytes += estimateSize(inputDoc);
+        }
+        flush();
+    }
+
+    /**
+     * send any buffered documents to Solr.  If the batch is rejected, each
+     *  document is retried on its own so a single bad document doesn't cost
+     *  the rest of the batch.
+     * @throws SolrBatchException if some of the documents could not be added
+     */
+    public synchronized void flush() throws IOException
+    {
+        if (batch.isEmpty())
+            return;
+
+        List<SolrInputDocument> docs = batch;
+        batch = new ArrayList<SolrInputDocument>();
+        batchBytes = 0;
+
+        SolrBatchException failure = sendDocs(docs);
+        if (failure != null)
+            throw failure;
+    }
+
+    /**
+     * send documents to Solr in a single request.  If the request is
+     *  rejected, each document is retried on its own.
+     * @return exception listing the documents that couldn't be added, or null if all were added
+     */
+    protected SolrBatchException sendDocs(List<SolrInputDocument> docs) throws IOException
+    {
+        SolrRuntimeException serverFailure = null;
+        try
+        {
+            sendWithRetries(docs);
+            return null;
+        }
+        catch (SolrUnavailableException e)
+        {
+            // the documents aren't the problem;  don't try each of them
+            serverFailure = e;
+        }
+        catch (SolrServerException e)
+        {
+            // fall through to retry documents one at a time
+        }
+        catch (SolrException e)
+        {
+            // fall through to retry documents one at a time
+        }
+
+        List<String> batchIds = new ArrayList<String>();
+        Map<String, RuntimeException> failures = new LinkedHashMap<String, RuntimeException>();
+        for (SolrInputDocument doc : docs)
+        {
+            String id = getDocId(doc);
+            batchIds.add(id);
+            if (serverFailure != null)
+            {
+                // the server isn't taking anything;  don't keep trying
+                failures.put(id, serverFailure);
+                continue;
+            }
+            try
+            {
+                sendWithRetries(Collections.singletonList(doc));
+            }
+            catch (SolrUnavailableException e)
+            {
+                serverFailure = e;
+                failures.put(id, serverFailure);
+            }
+            catch (SolrServerException e)
+            {
+                serverFailure = new SolrRuntimeException("SolrServerException", e);
+                failures.put(id, serverFailure);
+            }
+            catch (SolrException e)
+            {
+                failures.put(id, e);
+            }
+        }
+
+        if (failures.isEmpty())
+            return null;
+        return new SolrBatchException(batchIds, failures);
+    }
+
+    /**
+     * send documents to Solr in a single request, retrying as the retry
+     *  policy says if Solr is down or busy, and waiting while the circuit
+     *  breaker is open.
+     * @throws SolrUnavailableException if Solr still couldn't take the
+     *  documents after the retries, and there is no circuit breaker
+     */
+    private void sendWithRetries(final List<SolrInputDocument> docs)
+        throws SolrServerException, IOException
+    {
+        sendWithRetries(new SolrUpdate(docs.size() + " documents")
+        {
+            void send() throws SolrServerException, IOException
+            {
+                sendBatch(docs);
+            }
+        });
+    }
+
+    /**
+     * a request to change the index, which can be sent again if Solr is down
+     *  or busy
+     */
+    private abstract static class SolrUpdate
+    {
+        /** what the request is, for the log */
+        private final String description;
+
+        SolrUpdate(String description)
+        {
+            this.description = description;
+        }
+
+        abstract void send() throws SolrServerException, IOException;
+
+        public String toString()
+        {
+            return description;
+        }
+    }
+
+    /**
+     * send a request to Solr, retrying as the retry policy says if Solr is
+     *  down or busy, and waiting while the circuit breaker is open
+     * @throws SolrUnavailableException if Solr still couldn't take the
+     *  request after the retries, and there is no circuit breaker
+     */
+    private void sendWithRetries(SolrUpdate update)
+        throws SolrServerException, IOException
+    {
+        int retry = 0;
+        while (true)
+        {
+            boolean trial = circuitBreaker != null && circuitBreaker.awaitClosed();
+            Exception failure = null;
+            try
+            {
+                update.send();
+                if (circuitBreaker != null)
+                    circuitBreaker.recordSuccess();
+                return;
+            }
+            catch (SolrServerException e)
+            {
+                if (retryPolicy == null || !retryPolicy.isTransient(e))
+                {
+                    solrAnswered();
+                    throw e;
+                }
+                failure = e;
+            }
+            catch (IOException e)
+            {
+                if (retryPolicy == null || !retryPolicy.isTransient(e))
+                {
+                    solrAnswered();
+                    throw e;
+                }
+                failure = e;
+            }
+            catch (SolrException e)
+            {
+                if (retryPolicy == null || !retryPolicy.isTransient(e))
+                {
+                    solrAnswered();
+                    throw e;
+                }
+                failure = e;
+            }
+
+            if (!trial && retry < retryPolicy.getMaxRetries())
+            {
+                long delay = retryPolicy.getDelayMillis(retry);
+                retry++;
+                logger.warn("Unable to send " + update + " to Solr -- " + failure.getMessage() +
+                            ":  retry " + retry + " of " + retryPolicy.getMaxRetries() + " in " + delay + " ms");
+                retryPolicy.sleep(delay);
+                continue;
+            }
+            if (circuitBreaker == null)
+                throw new SolrUnavailableException("Solr unavailable after " + retry + " retries -- " + failure.getMessage(), failure);
+            // wait for Solr to come back, then try again
+            circuitBreaker.recordFailure(failure);
+            retry = 0;
+        }
+    }
+
+    /**
+     * Solr answered a request, if only to refuse it:  it is up, so close the
+     *  circuit (and end the trial, if this was it), so documents refused in a
+     *  batch can be tried on their own
+     */
+    private void solrAnswered()
+    {
+        if (circuitBreaker != null)
+            circuitBreaker.recordSuccess();
+    }
+
+    /**
+     * @return the value of the unique key field of the document, as a String
+     */
+    protected static String getDocId(SolrInputDocument doc)
+    {
+        return String.valueOf(doc.getFieldValue(ID_FIELD_NAME));
+    }
+
+    /**
+     * send a batch of documents to Solr in a single request;  subclasses may
+     *  override to change how batches are sent.
+     */
+    protected void sendBatch(List<SolrInputDocument> docs)
+        throws SolrServerException, IOException
+    {
+        solrJSolrServer.add(docs, commitWithinMillis);
+    }
+
+    /**
+     * approximate number of bytes the document will take in an update request
+     */
+    protected static long estimateSize(SolrInputDocument doc)
+    {
+        long size = 0;
+        for (SolrInputField field : doc)
+        {
+            for (Object value : field.getValues())
+                size += field.getName().length() + String.valueOf(value).length();
+        }
+        return size;
+    }
+
+    /**
+     * close the solrCore, after sending any buffered documents
      */
     public void close()
     {
-        // do nothing
+        try
+        {
+            flush();
+        }
+        catch (IOException e)
+        {
+            throw(new SolrRuntimeException("IOException", e));
+        }
     }
 
     public SolrServer getSolrServer()
@@ -65,35 +437,149 @@ public class SolrServerProxy implements SolrProxy
     /**
      * commit changes to the index
      */
-    public void commit(boolean optimize) throws IOException
+    public void commit(final boolean optimize) throws IOException
     {
+        SolrBatchException batchFailure = flushBeforeUpdate();
         try
         {
-            if (optimize)
-                solrJSolrServer.optimize();
-            else
-                solrJSolrServer.commit();
+            sendWithRetries(new SolrUpdate(optimize ? "an optimize" : "a commit")
+            {
+                void send() throws SolrServerException, IOException
+                {
+                    if (optimize)
+                        solrJSolrServer.optimize();
+                    else
+                        solrJSolrServer.commit();
+                }
+            });
+        }
+        catch (SolrServerException e)
+        {
+            throw(new SolrRuntimeException("SolrServerException", e));
+        }
+        if (batchFailure != null)
+            throw batchFailure;
+    }
+
+    /**
+     * make the changes to the index visible to searches, without writing
+     *  them to disk (a soft commit)
+     */
+    public void softCommit() throws IOException
+    {
+        SolrBatchException batchFailure = flushBeforeUpdate();
+        try
+        {
+            sendWithRetries(new SolrUpdate("a soft commit")
+            {
+                void send() throws SolrServerException, IOException
+                {
+                    solrJSolrServer.commit(true, true, true);
+                }
+            });
+        }
+        catch (SolrServerException e)
+        {
+            throw(new SolrRuntimeException("SolrServerException", e));
+        }
+        if (batchFailure != null)
+            throw batchFailure;
+    }
+
+    /**
+     * commit changes to the index, and merge it down to maxSegments segments
+     */
+    public void optimize(final int maxSegments) throws IOException
+    {
+        SolrBatchException batchFailure = flushBeforeUpdate();
+        try
+        {
+            sendWithRetries(new SolrUpdate("an optimize")
+            {
+                void send() throws SolrServerException, IOException
+                {
+                    solrJSolrServer.optimize(true, true, Math.max(1, maxSegments));
+                }
+            });
         }
         catch (SolrServerException e)
         {
             throw(new SolrRuntimeException("SolrServerException", e));
         }
+        if (batchFailure != null)
+            throw batchFailure;
     }
 
     /**
      * delete doc from the index
      * @param id the unique identifier of the document to be deleted
      */
-    public void delete(String id, boolean fromCommitted, boolean fromPending) throws IOException
+    public void delete(final String id, boolean fromCommitted, boolean fromPending) throws IOException
+    {
+        SolrBatchException batchFailure = flushBeforeUpdate();
+        try
+        {
+            sendWithRetries(new SolrUpdate("a delete")
+            {
+                void send() throws SolrServerException, IOException
+                {
+                    solrJSolrServer.deleteById(id, commitWithinMillis);
+                }
+            });
+        }
+        catch (SolrServerException e)
+        {
+            throw(new SolrRuntimeException("SolrServerException", e));
+        }
+        if (batchFailure != null)
+            throw batchFailure;
+    }
+
+    /**
+     * delete docs from the index in a single request
+     * @param ids the unique identifiers of the documents to be deleted
+     */
+    public void delete(Collection<String> ids) throws IOException
     {
+        if (ids.isEmpty())
+            return;
+        SolrBatchException batchFailure = flushBeforeUpdate();
+        final List<String> idList = new ArrayList<String>(ids);
         try
         {
-            solrJSolrServer.deleteById(id);
+            sendWithRetries(new SolrUpdate(idList.size() + " deletes")
+            {
+                void send() throws SolrServerException, IOException
+                {
+                    solrJSolrServer.deleteById(idList, commitWithinMillis);
+                }
+            });
         }
         catch (SolrServerException e)
         {
             throw(new SolrRuntimeException("SolrServerException", e));
         }
+        if (batchFailure != null)
+            throw batchFailure;
+    }
+
+    /**
+     * send buffered documents ahead of a commit or delete, so updates reach
+     *  Solr in the order they were made.  Documents in the batch that fail
+     *  shouldn't stop the commit or delete, so the failure is returned to be
+     *  thrown afterwards.
+     */
+    private SolrBatchException flushBeforeUpdate() throws IOException
+    {
+        try
+        {
+            flush();
+        }
+        catch (SolrBatchException e)
+        {
+            return e;
+        }
+        return null;
     }
 
     /**
@@ -104,7 +590,13 @@ public class SolrServerProxy implements SolrProxy
     {
         try
         {
-            solrJSolrServer.deleteByQuery("*:*");
+            sendWithRetries(new SolrUpdate("a delete of all documents")
+            {
+                void send() throws SolrServerException, IOException
+                {
+                    solrJSolrServer.deleteByQuery("*:*");
+                }
+            });
         }
         catch (SolrServerException e)
         {
@@ -0,0 +1,17 @@
+package org.solrmarc.solr;
+
+/**
+ * Thrown for a document Solr couldn't be reached to add, or that Solr was too
+ *  busy to take (e.g. 503 Service Unavailable), even after retrying as the
+ *  SolrRetryPolicy says.  Unlike a document Solr refuses, the document itself
+ *  may be fine:  sending it again once Solr is back should add it.
+ */
+public class SolrUnavailableException extends SolrRuntimeException
+{
+    private static final long serialVersionUID = -3094811553260375214L;
+
+    public SolrUnavailableException(String message, Exception containedException)
+    {
+        super(message, containedException);
+    }
+}
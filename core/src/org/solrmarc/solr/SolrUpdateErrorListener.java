@@ -0,0 +1,16 @@
+package org.solrmarc.solr;
+
+/**
+ * Notified when a SolrProxy that sends documents in the background fails to
+ *  add a document to the index.
+ */
+public interface SolrUpdateErrorListener
+{
+    /**
+     * called on the thread that tried to send the document
+     * @param id the unique identifier of the document that couldn't be added
+     * @param e the exception adding the document on its own produced (the
+     *  same exception SolrServerProxy.addDoc would throw for it)
+     */
+    public abstract void updateFailed(String id, RuntimeException e);
+}
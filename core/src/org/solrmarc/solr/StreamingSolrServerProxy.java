@@ -0,0 +1,364 @@
+package org.solrmarc.solr;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.common.SolrInputDocument;
+import org.solrmarc.tools.SolrUtils;
+
+/**
+ * A SolrServerProxy that streams documents to Solr from several sender
+ *  threads sharing the (thread-safe) SolrServer and its connection pool.
+ *  addDoc() only queues the document;  when the queue is full it waits for
+ *  the senders to catch up.
+ *
+ * Unlike SolrJ's ConcurrentUpdateSolrServer, failures are not swallowed:
+ *  a rejected request is retried one document at a time, and each document
+ *  that still fails is passed to the SolrUpdateErrorListener, if there is
+ *  one, and is reported by id in a SolrBatchException thrown from the next
+ *  addDoc(), flush(), commit(), delete() or close() on the calling thread.
+ *  So MarcImporter deals with each failed record as it does for the other
+ *  SolrProxy implementations.
+ */
+public class StreamingSolrServerProxy extends SolrServerProxy
+{
+    /** marker telling a sender thread to finish */
+    private static final SolrInputDocument END_OF_DOCS = new SolrInputDocument();
+
+    private final BlockingQueue<SolrInputDocument> queue;
+    private final List<Thread> senders = new ArrayList<Thread>();
+    private SolrUpdateErrorListener errorListener = null;
+
+    /** documents queued or being sent;  guarded by pendingLock */
+    private int pendingDocs = 0;
+    private final Object pendingLock = new Object();
+
+    /** failed documents not yet reported to the calling thread, in order of failure */
+    private final List<String> failedIds = new ArrayList<String>();
+    private final Map<String, RuntimeException> failures = new LinkedHashMap<String, RuntimeException>();
+
+    /** set once Solr can't be reached, so the senders stop trying;  MarcImporter
+     *  halts indexing when it sees this failure */
+    private volatile SolrRuntimeException serverFailure = null;
+    private boolean closed = false;
+
+    // Initialize logging category
+    static Logger logger = Logger.getLogger(StreamingSolrServerProxy.class.getName());
+
+    /**
+     * @param solrJSolrServer  a thread-safe SolrServer, e.g. HttpSolrServer
+     * @param queueSize  maximum number of documents waiting to be sent
+     * @param threadCount  number of threads sending documents to Solr
+     */
+    public StreamingSolrServerProxy(SolrServer solrJSolrServer, int queueSize, int threadCount)
+    {
+        super(solrJSolrServer);
+        if (queueSize < 1)
+            queueSize = 1;
+        if (threadCount < 1)
+            threadCount = 1;
+        queue = new ArrayBlockingQueue<SolrInputDocument>(queueSize);
+        for (int i = 0; i < threadCount; i++)
+        {
+            Thread sender = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    runSender();
+                }
+            }, "solrmarc-solr-sender-" + (i + 1));
+            sender.setDaemon(true);
+            senders.add(sender);
+            sender.start();
+        }
+    }
+
+    /**
+     * @param listener  notified (on a sender thread) of each document that couldn't be added
+     */
+    public void setErrorListener(SolrUpdateErrorListener listener)
+    {
+        errorListener = listener;
+    }
+
+    /**
+     * given a map of field names and values, create a Document and queue it
+     *  to be added to the index
+     * @throws SolrBatchException if documents queued earlier couldn't be added
+     */
+    @Override
+    public String addDoc(Map<String, Object> fldNames2ValsMap, boolean verbose, boolean addDocToIndex) throws IOException
+    {
+        SolrInputDocument inputDoc = SolrUtils.createSolrInputDoc(fldNames2ValsMap);
+        if (addDocToIndex)
+        {
+            enqueue(inputDoc);
+            throwFailures();
+        }
+
+        if (verbose || !addDocToIndex)
+            return inputDoc.toString().replaceAll("> ", "> \n");
+        else
+            return(null);
+    }
+
+    /**
+     * queue the documents to be added to the index, then wait for them to be sent
+     */
+    @Override
+    public void addDocs(Collection<Map<String, Object>> fldNames2ValsMaps) throws IOException
+    {
+        for (Map<String, Object> fldNames2ValsMap : fldNames2ValsMaps)
+            enqueue(SolrUtils.createSolrInputDoc(fldNames2ValsMap));
+        flush();
+    }
+
+    /**
+     * wait until all queued documents have been sent
+     * @throws SolrBatchException if any of the documents couldn't be added
+     */
+    @Override
+    public void flush() throws IOException
+    {
+        synchronized (pendingLock)
+        {
+            while (pendingDocs > 0)
+            {
+                try
+                {
+                    pendingLock.wait();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new SolrRuntimeException("Interrupted waiting for documents to be sent to Solr", e);
+                }
+            }
+        }
+        throwFailures();
+    }
+
+    /**
+     * @return the number of documents queued or being sent
+     */
+    @Override
+    public int getBufferedDocCount()
+    {
+        synchronized (pendingLock)
+        {
+            return pendingDocs;
+        }
+    }
+
+    /**
+     * @return the most documents that may be queued or being sent, whose
+     *  failures (if any) haven't been reported yet
+     */
+    @Override
+    public int getMaxUnreportedDocs()
+    {
+        return queue.size() + queue.remainingCapacity() + senders.size() * Math.max(1, getMaxBatchDocs());
+    }
+
+    /**
+     * send the queued documents, then stop the sender threads
+     */
+    @Override
+    public void close()
+    {
+        if (closed)
+            return;
+        try
+        {
+            flush();
+        }
+        catch (IOException e)
+        {
+            throw(new SolrRuntimeException("IOException", e));
+        }
+        finally
+        {
+            closed = true;
+            for (int i = 0; i < senders.size(); i++)
+                queue.offer(END_OF_DOCS);
+        }
+    }
+
+
+    private void enqueue(SolrInputDocument doc)
+    {
+        if (closed)
+            throw new SolrRuntimeException("StreamingSolrServerProxy is closed");
+        synchronized (pendingLock)
+        {
+            pendingDocs++;
+        }
+        try
+        {
+            queue.put(doc);
+        }
+        catch (InterruptedException e)
+        {
+            docsDone(1);
+            Thread.currentThread().interrupt();
+            throw new SolrRuntimeException("Interrupted queueing document for Solr", e);
+        }
+    }
+
+    private void docsDone(int numDocs)
+    {
+        synchronized (pendingLock)
+        {
+            pendingDocs -= numDocs;
+            if (pendingDocs <= 0)
+                pendingLock.notifyAll();
+        }
+    }
+
+    /**
+     * report the failures collected by the sender threads to the calling thread
+     */
+    private void throwFailures()
+    {
+        SolrBatchException batchFailure = null;
+        synchronized (failures)
+        {
+            if (failures.isEmpty())
+                return;
+            batchFailure = new SolrBatchException(new ArrayList<String>(failedIds), new LinkedHashMap<String, RuntimeException>(failures));
+            failedIds.clear();
+            failures.clear();
+        }
+        throw batchFailure;
+    }
+
+    /**
+     * sender thread:  take documents from the queue, up to the batch size
+     *  (solrmarc.solr.batch_size and batch_max_bytes, as for SolrServerProxy)
+     *  at a time, and send them to Solr
+     */
+    private void runSender()
+    {
+        while (true)
+        {
+            int maxDocs = Math.max(1, getMaxBatchDocs());
+            long maxBytes = getMaxBatchBytes();
+            List<SolrInputDocument> docs = new ArrayList<SolrInputDocument>();
+            long batchBytes = 0;
+            try
+            {
+                SolrInputDocument doc = queue.take();
+                docs.add(doc);
+                batchBytes += estimateSize(doc);
+            }
+            catch (InterruptedException e)
+            {
+                return;
+            }
+            while (docs.size() < maxDocs && (maxBytes <= 0 || batchBytes < maxBytes))
+            {
+                SolrInputDocument doc = queue.poll();
+                if (doc == null)
+                    break;
+                docs.add(doc);
+                batchBytes += estimateSize(doc);
+            }
+
+            int numEndMarkers = 0;
+            for (Iterator<SolrInputDocument> iter = docs.iterator(); iter.hasNext(); )
+            {
+                if (iter.next() == END_OF_DOCS)
+                {
+                    iter.remove();
+                    numEndMarkers++;
+                }
+            }
+            // pass any extra markers on to the other senders
+            for (int i = 1; i < numEndMarkers; i++)
+                queue.offer(END_OF_DOCS);
+            boolean done = numEndMarkers > 0;
+
+            if (!docs.isEmpty())
+            {
+                try
+                {
+                    sendAndReport(docs);
+                }
+                finally
+                {
+                    docsDone(docs.size());
+                }
+            }
+            if (done)
+                return;
+        }
+    }
+
+    private void sendAndReport(List<SolrInputDocument> docs)
+    {
+        SolrBatchException batchFailure = null;
+        if (serverFailure != null)
+        {
+            // Solr can't be reached;  fail the rest without trying
+            Map<String, RuntimeException> docFailures = new LinkedHashMap<String, RuntimeException>();
+            List<String> ids = new ArrayList<String>();
+            for (SolrInputDocument doc : docs)
+            {
+                ids.add(getDocId(doc));
+                docFailures.put(getDocId(doc), serverFailure);
+            }
+            batchFailure = new SolrBatchException(ids, docFailures);
+        }
+        else
+        {
+            try
+            {
+                batchFailure = sendDocs(docs);
+            }
+            catch (IOException e)
+            {
+                serverFailure = new SolrRuntimeException("IOException", e);
+                sendAndReport(docs);
+                return;
+            }
+            catch (RuntimeException e)
+            {
+                serverFailure = new SolrRuntimeException(e.getMessage(), e);
+                sendAndReport(docs);
+                return;
+            }
+        }
+
+        if (batchFailure == null)
+            return;
+
+        for (Map.Entry<String, RuntimeException> failure : batchFailure.getFailures().entrySet())
+        {
+            RuntimeException e = failure.getValue();
+            // Solr may be back for the next batch, if it was only unavailable
+            if (e instanceof SolrRuntimeException && !(e instanceof SolrUnavailableException) && serverFailure == null)
+                serverFailure = (SolrRuntimeException) e;
+            logger.error("Unable to add document " + failure.getKey() + " to Solr -- " + e.getMessage());
+            if (errorListener != null)
+            {
+                try
+                {
+                    errorListener.updateFailed(failure.getKey(), e);
+                }
+                catch (RuntimeException listenerException)
+                {
+                    logger.error("SolrUpdateErrorListener failed for document " + failure.getKey(), listenerException);
+                }
+            }
+            synchronized (failures)
+            {
+                failedIds.add(failure.getKey());
+                failures.put(failure.getKey(), e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,70 @@
+package org.solrmarc.tools;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An InputStream that counts the bytes read through it, so progress through
+ *  a marc file can be reported while it is read.  The count may be read from
+ *  another thread than the one reading the stream.
+ */
+public class CountingInputStream extends FilterInputStream
+{
+    private volatile long count = 0;
+    private long markCount = 0;
+
+    public CountingInputStream(InputStream in)
+    {
+        super(in);
+    }
+
+    /**
+     * @return the number of bytes read (or skipped) so far
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+    public int read()
+            throws IOException
+    {
+        int b = in.read();
+        if (b >= 0)
+            count++;
+        return b;
+    }
+
+    public int read(byte b[], int off, int len)
+            throws IOException
+    {
+        int numRead = in.read(b, off, len);
+        if (numRead > 0)
+            count += numRead;
+        return numRead;
+    }
+
+    public long skip(long n)
+            throws IOException
+    {
+        long numSkipped = in.skip(n);
+        if (numSkipped > 0)
+            count += numSkipped;
+        return numSkipped;
+    }
+
+    public synchronized void mark(int readlimit)
+    {
+        in.mark(readlimit);
+        markCount = count;
+    }
+
+    public synchronized void reset()
+            throws IOException
+    {
+        in.reset();
+        count = markCount;
+    }
+
+}
@@ -0,0 +1,626 @@
+package org.solrmarc.tools;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.marc4j.marc.*;
+
+/**
+ * One part of a marc field specification such as "245ab:246ab'--':008[7-10]:LNK245a",
+ *  parsed once:  the tag, whether it is a linked 880 spec (LNK), the subfield codes
+ *  (as a SubfieldSet), a byte range and a separator.
+ *
+ * parse() returns the parts of a spec in the syntax of MarcUtils.getFieldList(),
+ *  and caches them by the spec string, so getFieldList() and the other
+ *  MarcUtils methods that take a spec string don't re-split it on each call.
+ */
+public class FieldSpec
+{
+    /** getSubfieldDataAsSet(record, tag, subfields, beginIx, endIx) */
+    private static final int BYTES = 1;
+    /** getSubfieldDataAsSet(record, tag, subfields, separator) */
+    private static final int SUBFIELDS = 2;
+    /** getAllSubfields(record, tag + subfields, separator) */
+    private static final int PATTERN = 3;
+    /** getLinkedFieldValue(record, tag, subfields, separator) */
+    private static final int LINKED = 4;
+    /** getAllAlphaExcept(record, tag + subfields) */
+    private static final int ALPHA_EXCEPT = 5;
+    /** a part of the spec that is skipped, with a message */
+    private static final int INVALID = 6;
+
+    /** specs are cached until there are this many of each kind */
+    private static final int MAX_CACHED_SPECS = 2000;
+
+    private static final ConcurrentMap<String, List<FieldSpec>> fieldListSpecs = new ConcurrentHashMap<String, List<FieldSpec>>();
+    private static final ConcurrentMap<String, List<FieldSpec>> allSubfieldsSpecs = new ConcurrentHashMap<String, List<FieldSpec>>();
+    private static final ConcurrentMap<String, List<FieldSpec>> alphaExceptSpecs = new ConcurrentHashMap<String, List<FieldSpec>>();
+    private static final ConcurrentMap<String, List<FieldSpec>> linkedSpecs = new ConcurrentHashMap<String, List<FieldSpec>>();
+    private static final ConcurrentMap<String, FieldSpec> linkedFieldSpecs = new ConcurrentHashMap<String, FieldSpec>();
+
+    private final int type;
+    private final String tag;
+    private final boolean controlField;
+    private final boolean linked;
+    /** the subfield codes (or pattern) as written in the spec */
+    private final String subfieldStr;
+    private final SubfieldSet subfields;
+    private final String separator;
+    private final int beginIx;
+    private final int endIx;
+    private final String invalidMessage;
+
+    private FieldSpec(int type, String tag, boolean linked, String subfieldStr, SubfieldSet subfields,
+                        String separator, int beginIx, int endIx, String invalidMessage)
+    {
+        this.type = type;
+        this.tag = tag;
+        this.controlField = tag != null && MarcUtils.isControlField(tag);
+        this.linked = linked;
+        this.subfieldStr = subfieldStr;
+        this.subfields = subfields;
+        this.separator = separator;
+        this.beginIx = beginIx;
+        this.endIx = endIx;
+        this.invalidMessage = invalidMessage;
+    }
+
+    private static FieldSpec invalid(String message)
+    {
+        return new FieldSpec(INVALID, null, false, null, null, null, 0, 0, message);
+    }
+
+    /**
+     * parse a field spec in the syntax of MarcUtils.getFieldList():  colon
+     *  separated parts, each a tag (or LNK and a tag) followed by subfield codes,
+     *  a bracketed pattern of subfield codes or byte range, and an optional
+     *  separator in single quotes.
+     * @param fieldSpec - e.g. 100abcd:700abcd'--':008[7-10]
+     * @return the parsed parts of the spec
+     */
+    public static List<FieldSpec> parse(String fieldSpec)
+    {
+        List<FieldSpec> specs = fieldListSpecs.get(fieldSpec);
+        if (specs == null)
+        {
+            specs = new ArrayList<FieldSpec>();
+            for (String part : fieldSpec.split(":"))
+                specs.add(parseFieldListPart(part));
+            specs = cache(fieldListSpecs, fieldSpec, specs);
+        }
+        return specs;
+    }
+
+    private static FieldSpec parseFieldListPart(String part)
+    {
+        // Check to ensure tag length is at least 3 characters
+        if (part.length() < 3)
+            return invalid("Invalid tag specified: " + part);
+
+        String tag = part.substring(0, 3);
+        boolean linked = false;
+        if (tag.equals("LNK"))
+        {
+            tag = part.substring(3, 6);
+            linked = true;
+        }
+        String subfield = part.substring(3);
+        boolean havePattern = false;
+        // brackets indicate parsing for individual characters or as pattern
+        int bracket = part.indexOf('[');
+        if (bracket != -1)
+        {
+            String sub[] = part.substring(bracket + 1).split("[\\]\\[\\-, ]+");
+            try
+            {
+                // if bracket expression is digits, expression is treated as character positions
+                int substart = Integer.parseInt(sub[0]);
+                int subend = (sub.length > 1) ? Integer.parseInt(sub[1]) + 1 : substart + 1;
+                String subfieldWObracket = subfield.substring(0, bracket-3);
+                return new FieldSpec(BYTES, tag, linked, subfieldWObracket, SubfieldSet.fromCodes(subfieldWObracket), null, substart, subend, null);
+            }
+            catch (NumberFormatException e)
+            {
+                // assume brackets expression is a pattern such as [a-z]
+                havePattern = true;
+            }
+        }
+
+        String separator = null;
+        if (subfield.indexOf('\'') != -1)
+        {
+            separator = subfield.substring(subfield.indexOf('\'') + 1, subfield.length() - 1);
+            subfield = subfield.substring(0, subfield.indexOf('\''));
+        }
+
+        if (linked)
+            return linkedSpec(tag, subfield, separator);
+        else if (havePattern)
+            return new FieldSpec(PATTERN, tag, false, subfield, SubfieldSet.fromPattern(subfield.length() == 0 ? "." : subfield), separator, 0, 0, null);
+        else
+            return new FieldSpec(SUBFIELDS, tag, false, subfield, SubfieldSet.fromCodes(subfield), separator, 0, 0, null);
+    }
+
+    private static FieldSpec linkedSpec(String tag, String subfield, String separator)
+    {
+        SubfieldSet subfields = subfield.indexOf('[') != -1 ? SubfieldSet.fromPattern(subfield) : SubfieldSet.fromCodes(subfield);
+        return new FieldSpec(LINKED, tag, true, subfield, subfields, separator, 0, 0, null);
+    }
+
+    /**
+     * parse a field spec in the syntax of MarcUtils.getAllSubfields():  each
+     *  part is a tag followed by a regular expression for the subfield codes
+     * @param separator - the separator between subfield values, or null for a space
+     */
+    static List<FieldSpec> parseAllSubfieldsSpec(String fieldSpec, String separator)
+    {
+        String key = separator == null ? fieldSpec : fieldSpec + "'" + separator + "'";
+        List<FieldSpec> specs = allSubfieldsSpecs.get(key);
+        if (specs == null)
+        {
+            specs = new ArrayList<FieldSpec>();
+            for (String part : fieldSpec.split(":"))
+            {
+                if (part.length() < 3)
+                    specs.add(invalid("Invalid tag specified: " + part));
+                else
+                {
+                    String subfldTags = part.substring(3);
+                    specs.add(new FieldSpec(PATTERN, part.substring(0, 3), false, subfldTags,
+                                            SubfieldSet.fromPattern(subfldTags.length() == 0 ? "." : subfldTags), separator, 0, 0, null));
+                }
+            }
+            specs = cache(allSubfieldsSpecs, key, specs);
+        }
+        return specs;
+    }
+
+    /**
+     * parse a field spec in the syntax of MarcUtils.getAllAlphaExcept():  each
+     *  part is a tag followed by the subfield codes to leave out
+     */
+    static List<FieldSpec> parseAlphaExceptSpec(String fieldSpec)
+    {
+        List<FieldSpec> specs = alphaExceptSpecs.get(fieldSpec);
+        if (specs == null)
+        {
+            specs = new ArrayList<FieldSpec>();
+            for (String part : fieldSpec.split(":"))
+            {
+                String fldTag = part.substring(0, 3);
+                if (fldTag.length() < 3 || Integer.parseInt(fldTag) < 10)
+                    specs.add(invalid("Invalid marc field specified for getAllAlphaExcept: " + fldTag));
+                else
+                {
+                    String tabooSubfldTags = part.substring(3);
+                    specs.add(new FieldSpec(ALPHA_EXCEPT, fldTag, false, tabooSubfldTags,
+                                            SubfieldSet.lettersExcept(tabooSubfldTags), null, 0, 0, null));
+                }
+            }
+            specs = cache(alphaExceptSpecs, fieldSpec, specs);
+        }
+        return specs;
+    }
+
+    /**
+     * parse a field spec in the syntax of MarcUtils.getLinkedField():  each
+     *  part is a tag followed by subfield codes, or a bracketed pattern of
+     *  subfield codes, and an optional separator in single quotes
+     */
+    static List<FieldSpec> parseLinkedSpec(String fieldSpec)
+    {
+        List<FieldSpec> specs = linkedSpecs.get(fieldSpec);
+        if (specs == null)
+        {
+            specs = new ArrayList<FieldSpec>();
+            for (String part : fieldSpec.split(":"))
+            {
+                // Check to ensure tag length is at least 3 characters
+                if (part.length() < 3)
+                {
+                    specs.add(invalid("Invalid tag specified: " + part));
+                    continue;
+                }
+                String desiredSubFlds = part.substring(3);
+                String separator = null;
+                if (desiredSubFlds.indexOf('\'') != -1)
+                {
+                    separator = desiredSubFlds.substring(desiredSubFlds.indexOf('\'') + 1, desiredSubFlds.length() - 1);
+                    desiredSubFlds = desiredSubFlds.substring(0, desiredSubFlds.indexOf('\''));
+                }
+                specs.add(linkedSpec(part.substring(0, 3), desiredSubFlds, separator));
+            }
+            specs = cache(linkedSpecs, fieldSpec, specs);
+        }
+        return specs;
+    }
+
+    /**
+     * get the spec for MarcUtils.getLinkedFieldValue(record, tag, subflds, separator)
+     */
+    static FieldSpec getLinkedFieldSpec(String tag, String subflds, String separator)
+    {
+        String key = tag + '\0' + subflds + '\0' + separator;
+        FieldSpec spec = linkedFieldSpecs.get(key);
+        if (spec == null)
+        {
+            spec = linkedSpec(tag, subflds, separator);
+            if (linkedFieldSpecs.size() < MAX_CACHED_SPECS)
+                linkedFieldSpecs.put(key, spec);
+        }
+        return spec;
+    }
+
+    private static List<FieldSpec> cache(ConcurrentMap<String, List<FieldSpec>> cache, String fieldSpec, List<FieldSpec> specs)
+    {
+        specs = Collections.unmodifiableList(specs);
+        if (cache.size() < MAX_CACHED_SPECS)
+            cache.put(fieldSpec, specs);
+        return specs;
+    }
+
+    /**
+     * @return the values of all the parts of the spec in the record
+     */
+    public static Set<String> getValues(Record record, List<FieldSpec> specs)
+    {
+        Set<String> result = new LinkedHashSet<String>();
+        for (FieldSpec spec : specs)
+            spec.addValues(record, result);
+        return result;
+    }
+
+    /**
+     * add the values of this part of the spec in the record to the result set
+     */
+    public void addValues(Record record, Set<String> result)
+    {
+        switch (type)
+        {
+            case BYTES:
+                addByteRangeValues(record, result);
+                break;
+            case SUBFIELDS:
+                addSubfieldValues(record, result);
+                break;
+            case PATTERN:
+                addPatternValues(record, result);
+                break;
+            case LINKED:
+                addLinkedValues(record, result);
+                break;
+            case ALPHA_EXCEPT:
+                addAlphaExceptValues(record, result);
+                break;
+            default:
+                System.err.println(invalidMessage);
+        }
+    }
+
+    /** same as MarcUtils.getSubfieldDataAsSet(record, tag, subfields, beginIx, endIx) */
+    @SuppressWarnings("unchecked")
+    private void addByteRangeValues(Record record, Set<String> result)
+    {
+        // Process Leader
+        if (tag.equals("000"))
+        {
+            result.add(record.getLeader().marshal().substring(beginIx, endIx));
+            return;
+        }
+
+        List<VariableField> varFlds = RecordFieldIndex.getFields(record, tag);
+        for (VariableField vf : varFlds)
+        {
+            if (!controlField)
+            {
+                DataField dfield = (DataField) vf;
+                if (subfieldStr.length() > 1)
+                {
+                    // automatic concatenation of grouped subfields
+                    StringBuilder buffer = new StringBuilder("");
+                    List<Subfield> subFlds = dfield.getSubfields();
+                    for (Subfield sf : subFlds)
+                    {
+                        if (subfields.contains(sf.getCode()) && sf.getData().length() >= endIx)
+                        {
+                            if (buffer.length() > 0)
+                                buffer.append(" ");
+                            buffer.append(sf.getData().substring(beginIx, endIx));
+                        }
+                    }
+                    result.add(buffer.toString());
+                }
+                else
+                {
+                    // get all instances of the single subfield
+                    List<Subfield> subFlds = dfield.getSubfields(subfieldStr.charAt(0));
+                    for (Subfield sf : subFlds)
+                    {
+                        if (sf.getData().length() >= endIx)
+                            result.add(sf.getData().substring(beginIx, endIx));
+                    }
+                }
+            }
+            else
+            {
+                String cfldData = ((ControlField) vf).getData();
+                if (cfldData.length() >= endIx)
+                    result.add(cfldData.substring(beginIx, endIx));
+            }
+        }
+    }
+
+    /** same as MarcUtils.getSubfieldDataAsSet(record, tag, subfields, separator) */
+    @SuppressWarnings("unchecked")
+    private void addSubfieldValues(Record record, Set<String> result)
+    {
+        // Process Leader
+        if (tag.equals("000"))
+        {
+            result.add(record.getLeader().marshal());
+            return;
+        }
+
+        List<VariableField> varFlds = RecordFieldIndex.getFields(record, tag);
+        for (VariableField vf : varFlds)
+        {
+            if (!controlField)
+            {
+                DataField dfield = (DataField) vf;
+                if (subfieldStr.length() > 1 || separator != null)
+                {
+                    // concatenate subfields using specified separator or space
+                    StringBuilder buffer = new StringBuilder("");
+                    List<Subfield> subFlds = dfield.getSubfields();
+                    for (Subfield sf : subFlds)
+                    {
+                        if (subfields.contains(sf.getCode()))
+                        {
+                            if (buffer.length() > 0)
+                                buffer.append(separator != null ? separator : " ");
+                            buffer.append(sf.getData().trim());
+                        }
+                    }
+                    if (buffer.length() > 0)
+                        result.add(buffer.toString());
+                }
+                else
+                {
+                    // get all instances of the single subfield
+                    List<Subfield> subFlds = dfield.getSubfields(subfieldStr.charAt(0));
+                    for (Subfield sf : subFlds)
+                        result.add(sf.getData().trim());
+                }
+            }
+            else
+                result.add(((ControlField) vf).getData().trim());
+        }
+    }
+
+    /** same as MarcUtils.getAllSubfields(record, tag + subfields, separator) */
+    @SuppressWarnings("unchecked")
+    private void addPatternValues(Record record, Set<String> result)
+    {
+        List<VariableField> marcFieldList = RecordFieldIndex.getFields(record, tag);
+        if (!marcFieldList.isEmpty())
+            subfields.checkPattern();
+        for (VariableField vf : marcFieldList)
+        {
+            DataField marcField = (DataField) vf;
+            StringBuilder buffer = new StringBuilder("");
+            List<Subfield> subfieldList = marcField.getSubfields();
+            for (Subfield subfield : subfieldList)
+            {
+                if (subfields.contains(subfield.getCode()))
+                {
+                    if (buffer.length() > 0)
+                        buffer.append(separator != null ? separator : " ");
+                    buffer.append(subfield.getData().trim());
+                }
+            }
+            if (buffer.length() > 0)
+                result.add(Utils.cleanData(buffer.toString()));
+        }
+    }
+
+    /** same as MarcUtils.getLinkedFieldValue(record, tag, subfields, separator) */
+    @SuppressWarnings("unchecked")
+    private void addLinkedValues(Record record, Set<String> result)
+    {
+        for (DataField df : RecordFieldIndex.getLinkedFields(record, tag))
+        {
+            List<Subfield> subList = df.getSubfields();
+            StringBuilder buf = new StringBuilder("");
+            for (Subfield subF : subList)
+            {
+                if (subfields.contains(subF.getCode()))
+                {
+                    if (buf.length() > 0)
+                        buf.append(separator != null ? separator : " ");
+                    buf.append(subF.getData().trim());
+                }
+            }
+            if (buf.length() > 0)
+                result.add(buf.toString());
+        }
+    }
+
+    /** same as MarcUtils.getAllAlphaExcept(record, tag + subfields) */
+    @SuppressWarnings("unchecked")
+    private void addAlphaExceptValues(Record record, Set<String> result)
+    {
+        List<VariableField> varFlds = RecordFieldIndex.getFields(record, tag);
+        for (VariableField vf : varFlds)
+        {
+            StringBuilder buffer = new StringBuilder(500);
+            DataField df = (DataField) vf;
+            if (df != null)
+            {
+                List<Subfield> subfieldList = df.getSubfields();
+                for (Subfield sf : subfieldList)
+                {
+                    if (subfields.contains(sf.getCode()))
+                    {
+                        if (buffer.length() > 0)
+                            buffer.append(' ');
+                        buffer.append(sf.getData().trim());
+                    }
+                }
+                if (buffer.length() > 0)
+                    result.add(buffer.toString());
+            }
+        }
+    }
+
+    /**
+     * @return the marc tag, or the linked tag for an LNK spec;  null for a part of the spec that isn't valid
+     */
+    public String getTag()
+    {
+        return tag;
+    }
+
+    /**
+     * @return true if the values come from 880 fields linked to the tag
+     */
+    public boolean isLinked()
+    {
+        return linked;
+    }
+
+    /**
+     * @return the subfield codes, or regular expression for the subfield codes, as given in the spec
+     */
+    public String getSubfieldStr()
+    {
+        return subfieldStr;
+    }
+
+    /**
+     * @return the subfield codes to use
+     */
+    public SubfieldSet getSubfields()
+    {
+        return subfields;
+    }
+
+    /**
+     * @return the separator to put between subfield values, or null for the default
+     */
+    public String getSeparator()
+    {
+        return separator;
+    }
+
+    /**
+     * @return true if the spec selects a range of bytes (e.g. 008[7-10])
+     */
+    public boolean hasByteRange()
+    {
+        return type == BYTES;
+    }
+
+    public int getBeginIx()
+    {
+        return beginIx;
+    }
+
+    public int getEndIx()
+    {
+        return endIx;
+    }
+
+
+    /**
+     * A set of subfield codes, kept as a bit set over the codes, so checking a
+     *  subfield doesn't have to search a string or run a regular expression.
+     */
+    public static class SubfieldSet
+    {
+        private static final int NUM_CODES = 256;
+
+        private final BitSet codes = new BitSet(NUM_CODES);
+        /** for codes outside the bit set;  at most one of these is set */
+        private final String codeList;
+        private final Pattern pattern;
+        private final String excludedLetters;
+        /** reported when the set is used, as it was when the pattern was compiled for each record */
+        private final PatternSyntaxException patternError;
+
+        private SubfieldSet(String codeList, Pattern pattern, String excludedLetters, PatternSyntaxException patternError)
+        {
+            this.codeList = codeList;
+            this.pattern = pattern;
+            this.excludedLetters = excludedLetters;
+            this.patternError = patternError;
+            if (patternError == null)
+            {
+                for (char code = 0; code < NUM_CODES; code++)
+                    if (slowContains(code))
+                        codes.set(code);
+            }
+        }
+
+        /**
+         * @param codeList - the subfield codes, e.g. "abcd"
+         */
+        public static SubfieldSet fromCodes(String codeList)
+        {
+            return new SubfieldSet(codeList, null, null, null);
+        }
+
+        /**
+         * @param regex - a regular expression matching the subfield codes, e.g. "[a-z]"
+         */
+        public static SubfieldSet fromPattern(String regex)
+        {
+            try
+            {
+                return new SubfieldSet(null, Pattern.compile(regex), null, null);
+            }
+            catch (PatternSyntaxException e)
+            {
+                return new SubfieldSet(null, null, null, e);
+            }
+        }
+
+        /**
+         * @param excludedCodes - the codes to leave out of the alphabetic subfield codes
+         */
+        public static SubfieldSet lettersExcept(String excludedCodes)
+        {
+            return new SubfieldSet(null, null, excludedCodes, null);
+        }
+
+        /**
+         * @throws PatternSyntaxException if the set was made from a pattern that isn't valid
+         */
+        public void checkPattern()
+        {
+            if (patternError != null)
+                throw patternError;
+        }
+
+        public boolean contains(char code)
+        {
+            checkPattern();
+            if (code < NUM_CODES)
+                return codes.get(code);
+            return slowContains(code);
+        }
+
+        private boolean slowContains(char code)
+        {
+            if (codeList != null)
+                return codeList.indexOf(code) != -1;
+            else if (pattern != null)
+                return pattern.matcher(String.valueOf(code)).matches();
+            else
+                return Character.isLetter(code) && excludedLetters.indexOf(code) == -1;
+        }
+    }
+
+}
@@ -0,0 +1,125 @@
+package org.solrmarc.tools;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of call latencies, for percentiles over a long run without
+ *  keeping every sample.  Latencies are counted in microsecond buckets:  one
+ *  bucket per microsecond below 16us, then 16 buckets per power of two, so a
+ *  percentile is within about 6% of the latency actually seen.
+ *
+ * Latencies may be added from one thread while the percentiles are read from
+ *  another (such as a JMX client).
+ */
+public class LatencyHistogram
+{
+    /** buckets per power of two, and the values below which buckets are 1us wide */
+    private static final int SUB_BUCKETS = 16;
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int NUM_BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * add a call to the histogram
+     * @param nanos  time the call took
+     */
+    public void add(long nanos)
+    {
+        if (nanos < 0)
+            nanos = 0;
+        buckets.incrementAndGet(bucketFor(nanos / 1000));
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos))
+            max = maxNanos.get();
+    }
+
+    /**
+     * @return the number of calls added
+     */
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    /**
+     * @return the mean latency in milliseconds;  0 if no calls were added
+     */
+    public double getMeanMillis()
+    {
+        long n = count.get();
+        return n > 0 ? totalNanos.get() / 1000000.0 / n : 0;
+    }
+
+    /**
+     * @return the longest latency in milliseconds;  0 if no calls were added
+     */
+    public double getMaxMillis()
+    {
+        return maxNanos.get() / 1000000.0;
+    }
+
+    /**
+     * @param percentile  the percentile wanted, between 0 and 100
+     * @return the latency in milliseconds that percentile percent of the calls
+     *   took no longer than (the top of its bucket);  0 if no calls were added
+     */
+    public double getPercentileMillis(double percentile)
+    {
+        long n = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++)
+            n += buckets.get(i);
+        if (n == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(n * Math.min(100, Math.max(0, percentile)) / 100.0));
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++)
+        {
+            seen += buckets.get(i);
+            if (seen >= rank)
+                return Math.min(bucketTop(i), maxNanos.get() / 1000) / 1000.0;
+        }
+        return getMaxMillis();
+    }
+
+    /**
+     * forget the calls added so far
+     */
+    public void reset()
+    {
+        for (int i = 0; i < NUM_BUCKETS; i++)
+            buckets.set(i, 0);
+        count.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+    }
+
+    private static int bucketFor(long micros)
+    {
+        if (micros < SUB_BUCKETS)
+            return (int) micros;
+        int exp = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (exp - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + (exp - SUB_BUCKET_BITS) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return the largest latency, in microseconds, counted in the bucket
+     */
+    private static long bucketTop(int bucket)
+    {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int exp = (bucket - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+        int sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (exp - SUB_BUCKET_BITS)) - 1;
+    }
+
+}
@@ -0,0 +1,16 @@
+package org.solrmarc.tools;
+
+/**
+ * A marc Record that makes the objects for its fields only when their tag is
+ *  asked for.  RecordFieldIndex looks up the fields of such a record a tag at
+ *  a time, as they are asked for, rather than indexing them all at once.
+ */
+public interface LazyFieldsRecord
+{
+    /**
+     * @return the number of times fields were added to or removed from the
+     *  record, so an index of its fields can tell it is out of date without
+     *  making all the fields to count them
+     */
+    public abstract int getNumChanges();
+}
@@ -0,0 +1,77 @@
+package org.solrmarc.tools;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An InputStream that ends after a given number of bytes of the stream it
+ *  wraps, so a reader of a section of a marc file stops at the end of the
+ *  section.
+ */
+public class LimitedInputStream extends FilterInputStream
+{
+    private long remaining;
+    private long markRemaining = 0;
+
+    /**
+     * @param in  the stream to read
+     * @param limit  the number of bytes to read from it before ending
+     */
+    public LimitedInputStream(InputStream in, long limit)
+    {
+        super(in);
+        remaining = limit;
+    }
+
+    public int read()
+            throws IOException
+    {
+        if (remaining <= 0)
+            return -1;
+        int b = in.read();
+        if (b >= 0)
+            remaining--;
+        return b;
+    }
+
+    public int read(byte b[], int off, int len)
+            throws IOException
+    {
+        if (remaining <= 0)
+            return -1;
+        int numRead = in.read(b, off, (int) Math.min(len, remaining));
+        if (numRead > 0)
+            remaining -= numRead;
+        return numRead;
+    }
+
+    public long skip(long n)
+            throws IOException
+    {
+        long numSkipped = in.skip(Math.min(n, remaining));
+        if (numSkipped > 0)
+            remaining -= numSkipped;
+        return numSkipped;
+    }
+
+    public int available()
+            throws IOException
+    {
+        return (int) Math.min(in.available(), remaining);
+    }
+
+    public synchronized void mark(int readlimit)
+    {
+        in.mark(readlimit);
+        markRemaining = remaining;
+    }
+
+    public synchronized void reset()
+            throws IOException
+    {
+        in.reset();
+        remaining = markRemaining;
+    }
+
+}
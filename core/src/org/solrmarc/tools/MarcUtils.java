@@ -7,8 +7,6 @@ import org.marc4j.marc.*;
 import java.io.ByteArrayOutputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class MarcUtils {
 
@@ -47,7 +45,7 @@ public class MarcUtils {
                 continue;
             }
 
-            result.addAll(record.getVariableFields(tag));
+            result.addAll(RecordFieldIndex.getFields(record, tag));
         }
         return result;
     }
@@ -118,45 +116,9 @@ public class MarcUtils {
 	 * @return a set of strings, where each string is the concatenated values of
 	 *         all the alphabetic subfields.
 	 */
-	@SuppressWarnings("unchecked")
 	public static Set<String> getAllAlphaExcept(final Record record, String fieldSpec)
 	{
-	    Set<String> resultSet = new LinkedHashSet<String>();
-	    String[] fldTags = fieldSpec.split(":");
-	    for (int i = 0; i < fldTags.length; i++)
-	    {
-	        String fldTag = fldTags[i].substring(0, 3);
-	        if (fldTag.length() < 3 || Integer.parseInt(fldTag) < 10)
-	        {
-	            System.err.println("Invalid marc field specified for getAllAlphaExcept: " + fldTag);
-	            continue;
-	        }
-
-	        String tabooSubfldTags = fldTags[i].substring(3);
-	        List<VariableField> varFlds = record.getVariableFields(fldTag);
-	        for (VariableField vf : varFlds)
-	        {
-	            StringBuilder buffer = new StringBuilder(500);
-	            DataField df = (DataField) vf;
-	            if (df != null)
-	            {
-	                List<Subfield> subfields = df.getSubfields();
-	                for (Subfield sf : subfields)
-	                {
-	                    if (Character.isLetter(sf.getCode())
-	                            && tabooSubfldTags.indexOf(sf.getCode()) == -1)
-	                        if (buffer.length() > 0)
-	                            buffer.append(' ' + sf.getData().trim());
-	                        else
-	                            buffer.append(sf.getData().trim());
-	                }
-	                if (buffer.length() > 0)
-	                    resultSet.add(buffer.toString());
-	            }
-	        }
-	    }
-
-	    return resultSet;
+	    return FieldSpec.getValues(record, FieldSpec.parseAlphaExceptSpec(fieldSpec));
 	}
 
 
@@ -258,34 +220,7 @@ public class MarcUtils {
 	    if (set.isEmpty())
 	        return set;
 
-	    Set<String> result = new LinkedHashSet<String>();
-
-	    String[] tags = fieldSpec.split(":");
-	    for (int i = 0; i < tags.length; i++)
-	    {
-	        // Check to ensure tag length is at least 3 characters
-	        if (tags[i].length() < 3)
-	        {
-	            System.err.println("Invalid tag specified: " + tags[i]);
-	            continue;
-	        }
-
-	        // Get Field Tag
-	        String tag = tags[i].substring(0, 3);
-
-	        // Process Subfields
-	        String desiredSubFlds = tags[i].substring(3);
-
-	        String separator = null;
-	        if (desiredSubFlds.indexOf('\'') != -1)
-	        {
-	            separator = desiredSubFlds.substring(desiredSubFlds.indexOf('\'') + 1, desiredSubFlds.length() - 1);
-	            desiredSubFlds = desiredSubFlds.substring(0, desiredSubFlds.indexOf('\''));
-	        }
-
-	        result.addAll(getLinkedFieldValue(record, tag, desiredSubFlds, separator));
-	    }
-	    return result;
+	    return FieldSpec.getValues(record, FieldSpec.parseLinkedSpec(fieldSpec));
 	}
 
 
@@ -309,51 +244,8 @@ public class MarcUtils {
 	 */
 	public static Set<String> getLinkedFieldValue(final Record record, String tag, String subflds, String subFldSep)
 	{
-	    // assume brackets expression is a pattern such as [a-z]
 	    Set<String> result = new LinkedHashSet<String>();
-	    boolean havePattern = false;
-	    Pattern subfieldPattern = null;
-	    if (subflds.indexOf('[') != -1)
-	    {
-	        havePattern = true;
-	        subfieldPattern = Pattern.compile(subflds);
-	    }
-	    List<VariableField> fields = record.getVariableFields("880");
-	    for (VariableField vf : fields)
-	    {
-	        DataField df = (DataField) vf;
-	        Subfield link = df.getSubfield('6');
-	        if (link != null && link.getData().startsWith(tag))
-	        {
-	            List<Subfield> subList = df.getSubfields();
-	            StringBuilder buf = new StringBuilder("");
-	            for (Subfield subF : subList)
-	            {
-	                boolean addIt = false;
-	                if (havePattern)
-	                {
-	                    // matcher needs a string, hence concat with empty string
-	                    Matcher matcher = subfieldPattern.matcher("" + subF.getCode());
-	                    if (matcher.matches())
-	                        addIt = true;
-	                }
-	                else
-	                	// a list a subfields
-	                    if (subflds.indexOf(subF.getCode()) != -1)
-	                        addIt = true;
-
-	                if (addIt)
-	                {
-	                    if (buf.length() > 0)
-	                        buf.append(subFldSep != null ? subFldSep : " ");
-	                    buf.append(subF.getData().trim());
-	                }
-	            }
-	            if (buf.length() > 0)
-//	                result.add(Utils.cleanData(buf.toString()));
-	            	result.add(buf.toString());
-	        }
-	    }
+	    FieldSpec.getLinkedFieldSpec(tag, subflds, subFldSep).addValues(record, result);
 	    return(result);
 	}
 
@@ -434,7 +326,7 @@ public class MarcUtils {
 
 		Set<VariableField> resultSet = new LinkedHashSet<VariableField>();
 
-		List<VariableField> list880s = record.getVariableFields("880");
+		List<VariableField> list880s = RecordFieldIndex.getFields(record, "880");
 		if (list880s == null || list880s.size() == 0)
 			return resultSet;
 
@@ -454,10 +346,9 @@ public class MarcUtils {
 
 	public static boolean isControlField(String fieldTag)
 	{
-	    if (fieldTag.matches("00[0-9]"))
-	       return (true);
-	    else
-	       return (false);
+	    // same as fieldTag.matches("00[0-9]"), without compiling the regex
+	    return fieldTag.length() == 3 && fieldTag.startsWith("00")
+	            && fieldTag.charAt(2) >= '0' && fieldTag.charAt(2) <= '9';
 	}
 
 
@@ -540,48 +431,7 @@ public class MarcUtils {
 	 */
 	public static Set<String> getAllSubfields(final Record record, String fieldSpec, String separator)
 	{
-	    Set<String> result = new LinkedHashSet<String>();
-
-	    String[] fldTags = fieldSpec.split(":");
-	    for (int i = 0; i < fldTags.length; i++)
-	    {
-	        // Check to ensure tag length is at least 3 characters
-	        if (fldTags[i].length() < 3)
-	        {
-	            System.err.println("Invalid tag specified: " + fldTags[i]);
-	            continue;
-	        }
-
-	        String fldTag = fldTags[i].substring(0, 3);
-
-	        String subfldTags = fldTags[i].substring(3);
-
-	        List<VariableField> marcFieldList = record.getVariableFields(fldTag);
-	        if (!marcFieldList.isEmpty())
-	        {
-	            Pattern subfieldPattern = Pattern.compile(subfldTags.length() == 0 ? "." : subfldTags);
-	            for (VariableField vf : marcFieldList)
-	            {
-	                DataField marcField = (DataField) vf;
-	                StringBuilder buffer = new StringBuilder("");
-	                List<Subfield> subfields = marcField.getSubfields();
-	                for (Subfield subfield : subfields)
-	                {
-	                    Matcher matcher = subfieldPattern.matcher("" + subfield.getCode());
-	                    if (matcher.matches())
-	                    {
-	                        if (buffer.length() > 0)
-	                            buffer.append(separator != null ? separator : " ");
-	                        buffer.append(subfield.getData().trim());
-	                    }
-	                }
-	                if (buffer.length() > 0)
-	                    result.add(Utils.cleanData(buffer.toString()));
-	            }
-	        }
-	    }
-
-	    return result;
+	    return FieldSpec.getValues(record, FieldSpec.parseAllSubfieldsSpec(fieldSpec, separator));
 	}
 
 
@@ -643,7 +493,7 @@ public class MarcUtils {
 
 	    // Loop through Data and Control Fields
 	    // int iTag = new Integer(fldTag).intValue();
-	    List<VariableField> varFlds = record.getVariableFields(fldTag);
+	    List<VariableField> varFlds = RecordFieldIndex.getFields(record, fldTag);
 	    for (VariableField vf : varFlds)
 	    {
 	        if (!isControlField(fldTag) && subfldsStr != null)
@@ -708,7 +558,7 @@ public class MarcUtils {
 	    }
 
 	    // Loop through Data and Control Fields
-	    List<VariableField> varFlds = record.getVariableFields(fldTag);
+	    List<VariableField> varFlds = RecordFieldIndex.getFields(record, fldTag);
 	    for (VariableField vf : varFlds)
 	    {
 	        if (!isControlField(fldTag) && subfield != null)
@@ -892,7 +742,7 @@ public class MarcUtils {
 	            continue;
 	        }
 
-	        List<VariableField> varFlds = record.getVariableFields(fldTag);
+	        List<VariableField> varFlds = RecordFieldIndex.getFields(record, fldTag);
 	        for (VariableField vf : varFlds)
 	        {
 	            StringBuilder buffer = new StringBuilder(500);
@@ -1014,7 +864,7 @@ public class MarcUtils {
 		if (tag != null && tag.length() >= 3)
 		{
 		    String fieldTag = tag.substring(0,3);
-		    List<VariableField> vfList = record.getVariableFields(fieldTag);
+		    List<VariableField> vfList = RecordFieldIndex.getFields(record, fieldTag);
 		    for (VariableField vf : vfList)
 		    {
 		        if (vf instanceof ControlField)
@@ -1279,69 +1129,7 @@ public class MarcUtils {
 	 */
 	public static Set<String> getFieldList(Record record, String tagStr)
 	{
-	    String[] tags = tagStr.split(":");
-	    Set<String> result = new LinkedHashSet<String>();
-	    for (int i = 0; i < tags.length; i++)
-	    {
-	        // Check to ensure tag length is at least 3 characters
-	        if (tags[i].length() < 3)
-	        {
-	            System.err.println("Invalid tag specified: " + tags[i]);
-	            continue;
-	        }
-
-	        // Get Field Tag
-	        String tag = tags[i].substring(0, 3);
-	        boolean linkedField = false;
-	        if (tag.equals("LNK"))
-	        {
-	            tag = tags[i].substring(3, 6);
-	            linkedField = true;
-	        }
-	        // Process Subfields
-	        String subfield = tags[i].substring(3);
-	        boolean havePattern = false;
-	        int subend = 0;
-	        // brackets indicate parsing for individual characters or as pattern
-	        int bracket = tags[i].indexOf('[');
-	        if (bracket != -1)
-	        {
-	            String sub[] = tags[i].substring(bracket + 1).split("[\\]\\[\\-, ]+");
-	            try
-	            {
-	                // if bracket expression is digits, expression is treated as character positions
-	                int substart = Integer.parseInt(sub[0]);
-	                subend = (sub.length > 1) ? Integer.parseInt(sub[1]) + 1 : substart + 1;
-	                String subfieldWObracket = subfield.substring(0, bracket-3);
-	                result.addAll(getSubfieldDataAsSet(record, tag, subfieldWObracket, substart, subend));
-	            }
-	            catch (NumberFormatException e)
-	            {
-	                // assume brackets expression is a pattern such as [a-z]
-	                havePattern = true;
-	            }
-	        }
-	        if (subend == 0) // don't want specific characters.
-	        {
-	            String separator = null;
-	            if (subfield.indexOf('\'') != -1)
-	            {
-	                separator = subfield.substring(subfield.indexOf('\'') + 1, subfield.length() - 1);
-	                subfield = subfield.substring(0, subfield.indexOf('\''));
-	            }
-
-	            if (havePattern)
-	                if (linkedField)
-	                    result.addAll(getLinkedFieldValue(record, tag, subfield, separator));
-	                else
-	                    result.addAll(getAllSubfields(record, tag + subfield, separator));
-	            else if (linkedField)
-	                result.addAll(getLinkedFieldValue(record, tag, subfield, separator));
-	            else
-	                result.addAll(getSubfieldDataAsSet(record, tag, subfield, separator));
-	        }
-	    }
-	    return result;
+	    return FieldSpec.getValues(record, FieldSpec.parse(tagStr));
 	}
 
 
@@ -1527,7 +1315,7 @@ public class MarcUtils {
     {
         Set<String> resultSet = new LinkedHashSet<String>();
 
-        List<VariableField> list856 = record.getVariableFields("856");
+        List<VariableField> list856 = RecordFieldIndex.getFields(record, "856");
         for (VariableField vf : list856)
         {
             DataField df = (DataField) vf;
@@ -1565,7 +1353,7 @@ public class MarcUtils {
 	{
 	    Set<String> resultSet = new LinkedHashSet<String>();
 
-	    List<VariableField> list856 = record.getVariableFields("856");
+	    List<VariableField> list856 = RecordFieldIndex.getFields(record, "856");
 	    for (VariableField vf : list856)
 	    {
 	        DataField df = (DataField) vf;
@@ -1669,24 +1457,7 @@ public class MarcUtils {
      */
     public static String getRecordAsMarcXmlStr(Record record)
     {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        // TODO: see if this works better
-        // MarcWriter writer = new MarcXmlWriter(out, false);
-        MarcWriter writer = new MarcXmlWriter(out, "UTF-8");
-        writer.write(record);
-        writer.close();
-
-        String tmp = null;
-        try
-        {
-            tmp = out.toString("UTF-8");
-        }
-        catch (UnsupportedEncodingException e)
-        {
-            // e.printStackTrace();
-            logger.error(e.getCause());
-        }
-        return tmp;
+        return MarcXmlSerializer.toXml(record);
     }
 
 }
@@ -0,0 +1,269 @@
+package org.solrmarc.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.marc4j.MarcException;
+import org.marc4j.MarcWriter;
+import org.marc4j.MarcXmlWriter;
+import org.marc4j.marc.*;
+
+/**
+ * Writes a marc record as a MARCXML string:  the same XML that marc4j's
+ *  MarcXmlWriter(out, "UTF-8") writes for a single record, without setting
+ *  up a JAXP transformer, an output stream and a decoder for each record.
+ *
+ * The characters are escaped as the JDK's XML serializer escapes them, using
+ *  lookup tables for the characters below 0xA0.  Each thread reuses its own
+ *  buffer.  A record with data the serializer would reject or write oddly
+ *  (an unpaired high surrogate, or a NUL or surrogate in an attribute) is
+ *  written with MarcXmlWriter instead.
+ */
+public class MarcXmlSerializer
+{
+    static Logger logger = Logger.getLogger(MarcXmlSerializer.class.getName());
+
+    private static final String XML_START = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                                            + "<collection xmlns=\"http://www.loc.gov/MARC21/slim\">";
+    private static final String XML_END = "</collection>\n";
+
+    /** characters below this are looked up in the escape tables */
+    private static final int NUM_TABLE_CHARS = 0xA0;
+    /** in the escape tables, the character can't be written by this class */
+    private static final String UNSUPPORTED = new String("unsupported");
+    /** escapes for characters in element text;  null to write the character as is */
+    private static final String TEXT_ESCAPES[] = new String[NUM_TABLE_CHARS];
+    /** escapes for characters in attribute values;  null to write the character as is */
+    private static final String ATTR_ESCAPES[] = new String[NUM_TABLE_CHARS];
+    static
+    {
+        for (int c = 0; c < 0x20; c++)
+        {
+            TEXT_ESCAPES[c] = "&#" + c + ";";
+            ATTR_ESCAPES[c] = "&#" + c + ";";
+        }
+        TEXT_ESCAPES['\t'] = null;
+        TEXT_ESCAPES['\n'] = null;
+        ATTR_ESCAPES[0] = UNSUPPORTED;
+        for (int c = 0x7F; c < NUM_TABLE_CHARS; c++)
+            TEXT_ESCAPES[c] = "&#" + c + ";";
+
+        TEXT_ESCAPES['&'] = ATTR_ESCAPES['&'] = "&amp;";
+        TEXT_ESCAPES['<'] = ATTR_ESCAPES['<'] = "&lt;";
+        TEXT_ESCAPES['>'] = ATTR_ESCAPES['>'] = "&gt;";
+        ATTR_ESCAPES['"'] = "&quot;";
+    }
+
+    /** buffers larger than this aren't kept for the next record */
+    private static final int MAX_KEPT_BUFFER_SIZE = 1024 * 1024;
+
+    private static final ThreadLocal<StringBuilder> buffers = new ThreadLocal<StringBuilder>()
+    {
+        @Override
+        protected StringBuilder initialValue()
+        {
+            return new StringBuilder(8192);
+        }
+    };
+
+    private static final MarcFactory factory = MarcFactory.newInstance();
+
+    private MarcXmlSerializer()
+    {
+    }
+
+    /**
+     * @return the record as a MARCXML collection document
+     * @throws MarcException if the record doesn't validate
+     */
+    public static String toXml(Record record)
+    {
+        if (!factory.validateRecord(record))
+            throw new MarcException("Marc record didn't validate");
+
+        StringBuilder buf = buffers.get();
+        buf.setLength(0);
+        String result = null;
+        if (appendRecord(record, buf))
+            result = buf.toString();
+        else
+            result = toXmlWithMarcXmlWriter(record);
+
+        if (buf.capacity() > MAX_KEPT_BUFFER_SIZE)
+            buffers.remove();
+        return result;
+    }
+
+    /**
+     * append the record as a MARCXML collection document
+     * @return false if the record has data this class can't write
+     */
+    private static boolean appendRecord(Record record, StringBuilder buf)
+    {
+        buf.append(XML_START).append("<record>");
+        buf.append("<leader>");
+        if (!appendText(buf, record.getLeader().toString()))
+            return false;
+        buf.append("</leader>");
+
+        for (ControlField cf : record.getControlFields())
+        {
+            buf.append("<controlfield tag=\"");
+            if (!appendAttribute(buf, cf.getTag()))
+                return false;
+            buf.append('"');
+            String data = cf.getData();
+            if (data.length() == 0)
+                buf.append("/>");
+            else
+            {
+                buf.append('>');
+                if (!appendText(buf, data))
+                    return false;
+                buf.append("</controlfield>");
+            }
+        }
+
+        for (DataField df : record.getDataFields())
+        {
+            buf.append("<datafield tag=\"");
+            if (!appendAttribute(buf, df.getTag()))
+                return false;
+            buf.append("\" ind1=\"");
+            if (!appendAttribute(buf, df.getIndicator1()))
+                return false;
+            buf.append("\" ind2=\"");
+            if (!appendAttribute(buf, df.getIndicator2()))
+                return false;
+            buf.append('"');
+
+            List<Subfield> subfields = df.getSubfields();
+            if (subfields.isEmpty())
+            {
+                buf.append("/>");
+                continue;
+            }
+            buf.append('>');
+            for (Subfield sf : subfields)
+            {
+                buf.append("<subfield code=\"");
+                if (!appendAttribute(buf, sf.getCode()))
+                    return false;
+                buf.append('"');
+                String data = sf.getData();
+                if (data.length() == 0)
+                    buf.append("/>");
+                else
+                {
+                    buf.append('>');
+                    if (!appendText(buf, data))
+                        return false;
+                    buf.append("</subfield>");
+                }
+            }
+            buf.append("</datafield>");
+        }
+
+        buf.append("</record>").append(XML_END);
+        return true;
+    }
+
+    /**
+     * append escaped element text
+     * @return false if the text has an unpaired high surrogate
+     */
+    private static boolean appendText(StringBuilder buf, String text)
+    {
+        int length = text.length();
+        int runStart = 0;
+        for (int i = 0; i < length; i++)
+        {
+            char c = text.charAt(i);
+            String escape;
+            if (c < NUM_TABLE_CHARS)
+            {
+                escape = TEXT_ESCAPES[c];
+                if (escape == null)
+                    continue;
+            }
+            else if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE)
+                continue;
+            else
+                escape = null;
+
+            buf.append(text, runStart, i);
+            if (escape != null)
+                buf.append(escape);
+            else if (Character.isLowSurrogate(c))
+                buf.append("&#").append((int) c).append(';');
+            else if (i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1)))
+            {
+                // characters outside the BMP are written as character references
+                buf.append("&#").append(Character.toCodePoint(c, text.charAt(i + 1))).append(';');
+                i++;
+            }
+            else
+                return false;
+            runStart = i + 1;
+        }
+        buf.append(text, runStart, length);
+        return true;
+    }
+
+    /**
+     * append an escaped attribute value
+     * @return false if the value has a NUL or a surrogate
+     */
+    private static boolean appendAttribute(StringBuilder buf, String value)
+    {
+        for (int i = 0; i < value.length(); i++)
+            if (!appendAttribute(buf, value.charAt(i)))
+                return false;
+        return true;
+    }
+
+    private static boolean appendAttribute(StringBuilder buf, char c)
+    {
+        if (c < NUM_TABLE_CHARS)
+        {
+            String escape = ATTR_ESCAPES[c];
+            if (escape == UNSUPPORTED)
+                return false;
+            if (escape != null)
+                buf.append(escape);
+            else
+                buf.append(c);
+        }
+        else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE)
+            return false;
+        else
+            buf.append(c);
+        return true;
+    }
+
+    /**
+     * write the record with marc4j's MarcXmlWriter, as toXml() does for a
+     *  record it can't write itself (public for the benchmarks)
+     */
+    public static String toXmlWithMarcXmlWriter(Record record)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MarcWriter writer = new MarcXmlWriter(out, "UTF-8");
+        writer.write(record);
+        writer.close();
+
+        String tmp = null;
+        try
+        {
+            tmp = out.toString("UTF-8");
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            logger.error(e.getCause());
+        }
+        return tmp;
+    }
+
+}
@@ -7,7 +7,7 @@ public class PropertyMapLookup
 {
     /** map of translation maps.  keys are names of translation maps; 
      *  values are the translation maps (hence, it's a map of maps) */
-    private static Map<String, Map<String, String>> transMapMap = null;
+    private static Map<String, TranslationMap> transMapMap = null;
 
     
     protected static Map<String, String> findMap(String mapName)
@@ -89,18 +89,22 @@ public class PropertyMapLookup
                 if (value.equals("null"))
                     value = null;
 
-                Map<String, String> valueMap;
+                TranslationMap valueMap;
                 if (transMapMap.containsKey(mapName))
                     valueMap = transMapMap.get(mapName);
                 else
                 {
-                    valueMap = new LinkedHashMap<String, String>();
+                    valueMap = new TranslationMap();
                     transMapMap.put(mapName, valueMap);
                 }
 
                 valueMap.put(mapKey, value);
             }
         }
+
+        // compile the map now, so a bad pattern is reported when the map is loaded
+        if (transMapMap.containsKey(mapName))
+            transMapMap.get(mapName).compile();
     }
     
     static String locMapName = null;
@@ -157,7 +161,7 @@ public class PropertyMapLookup
      */
     public static void main(String[] args)
     {
-        transMapMap = new HashMap<String, Map<String, String>>();
+        transMapMap = new HashMap<String, TranslationMap>();
         String mapName;
         String mapSpec = "location_map.properties";
         try
@@ -0,0 +1,237 @@
+package org.solrmarc.tools;
+
+import java.util.*;
+
+import org.marc4j.marc.*;
+
+/**
+ * An index of the fields of one marc record by tag, and of its 880 fields by
+ *  the tag in their linkage subfield ($6), so the fields for a tag can be
+ *  found without scanning all the fields of the record each time.
+ *
+ * SolrIndexer builds the index for each record before applying the index
+ *  specifications, and makes it the current index for the thread.  The static
+ *  getFields() and getLinkedFields() methods use the current index when it is
+ *  for the record they are given, and otherwise scan the record as before.
+ *  If fields are added to or removed from the record, the index is no longer
+ *  used.
+ *
+ * The fields of a record are indexed in a single pass when the index is
+ *  built, except for a LazyFieldsRecord:  its fields for a tag are looked up
+ *  the first time the tag is asked for, so it still only makes the fields of
+ *  the tags the index specifications look at.
+ */
+public class RecordFieldIndex
+{
+    private static final ThreadLocal<RecordFieldIndex> currentIndex = new ThreadLocal<RecordFieldIndex>();
+
+    private final Record record;
+    /** the number of fields of the record when indexed, to tell if fields are added or removed later */
+    private final int numControlFields;
+    private final int numDataFields;
+    /** the record if its fields are made as they are asked for;  null if they are all indexed */
+    private final LazyFieldsRecord lazyRecord;
+    /** for a LazyFieldsRecord, whose fields can't be counted without making them all, its number of changes when indexed */
+    private final int numChanges;
+    /** the fields of the record, by tag, in record order;  for a LazyFieldsRecord,
+     *  only the tags looked up so far */
+    private final Map<String, List<VariableField>> fieldsByTag = new HashMap<String, List<VariableField>>();
+    /** the 880 fields of the record, by the first 3 characters of their first $6;
+     *  for a LazyFieldsRecord, null until asked for */
+    private Map<String, List<DataField>> linkedFieldsByTag = null;
+
+    @SuppressWarnings("unchecked")
+    public RecordFieldIndex(Record record)
+    {
+        this.record = record;
+        if (record instanceof LazyFieldsRecord)
+        {
+            lazyRecord = (LazyFieldsRecord) record;
+            numControlFields = -1;
+            numDataFields = -1;
+            numChanges = lazyRecord.getNumChanges();
+            return;
+        }
+
+        lazyRecord = null;
+        numChanges = 0;
+        linkedFieldsByTag = new HashMap<String, List<DataField>>();
+        List<ControlField> controlFields = record.getControlFields();
+        List<DataField> dataFields = record.getDataFields();
+        numControlFields = controlFields.size();
+        numDataFields = dataFields.size();
+
+        // Record.getVariableFields(tag) only looks for control field tags
+        //  among the control fields, and other tags among the data fields
+        for (ControlField cf : controlFields)
+        {
+            if (MarcUtils.isControlField(cf.getTag()))
+                addField(cf);
+        }
+        for (DataField df : dataFields)
+        {
+            if (!MarcUtils.isControlField(df.getTag()))
+            {
+                addField(df);
+                if (df.getTag().equals("880"))
+                    addLinkedField(df);
+            }
+        }
+    }
+
+    private void addField(VariableField vf)
+    {
+        List<VariableField> fields = fieldsByTag.get(vf.getTag());
+        if (fields == null)
+        {
+            fields = new ArrayList<VariableField>();
+            fieldsByTag.put(vf.getTag(), fields);
+        }
+        fields.add(vf);
+    }
+
+    /**
+     * add an 880 field to the index by the tag in its linkage subfield
+     */
+    private void addLinkedField(DataField df)
+    {
+        Subfield link = df.getSubfield('6');
+        if (link != null && link.getData().length() >= 3)
+        {
+            String linkedTag = link.getData().substring(0, 3);
+            List<DataField> linkedFields = linkedFieldsByTag.get(linkedTag);
+            if (linkedFields == null)
+            {
+                linkedFields = new ArrayList<DataField>();
+                linkedFieldsByTag.put(linkedTag, linkedFields);
+            }
+            linkedFields.add(df);
+        }
+    }
+
+    /**
+     * build the index for a record, and make it the current index for this thread
+     * @return the index
+     */
+    public static RecordFieldIndex index(Record record)
+    {
+        RecordFieldIndex index = new RecordFieldIndex(record);
+        currentIndex.set(index);
+        return index;
+    }
+
+    /**
+     * stop using the current index for this thread
+     */
+    public static void clear()
+    {
+        currentIndex.remove();
+    }
+
+    /**
+     * @return the current index for this thread, if it is for the record and
+     *  still matches the record's fields;  null otherwise
+     */
+    public static RecordFieldIndex getIndex(Record record)
+    {
+        RecordFieldIndex index = currentIndex.get();
+        if (index != null && index.isIndexOf(record))
+            return index;
+        return null;
+    }
+
+    /**
+     * get the fields of a record with a tag, as Record.getVariableFields(tag) does
+     * @return the fields, in record order.  The list must not be changed.
+     */
+    @SuppressWarnings("unchecked")
+    public static List<VariableField> getFields(Record record, String tag)
+    {
+        RecordFieldIndex index = getIndex(record);
+        if (index != null)
+            return index.getFields(tag);
+        return record.getVariableFields(tag);
+    }
+
+    /**
+     * get the 880 fields of a record whose linkage subfield ($6) starts with the tag
+     * @return the 880 fields, in record order.  The list must not be changed.
+     */
+    public static List<DataField> getLinkedFields(Record record, String tag)
+    {
+        RecordFieldIndex index = getIndex(record);
+        if (index != null)
+            return index.getLinkedFields(tag);
+        return findLinkedFields(getFields(record, "880"), tag);
+    }
+
+    /**
+     * @return the indexed fields with the tag
+     */
+    public List<VariableField> getFields(String tag)
+    {
+        List<VariableField> fields = fieldsByTag.get(tag);
+        if (fields == null)
+        {
+            if (lazyRecord == null)
+                return Collections.emptyList();
+            fields = new ArrayList<VariableField>(record.getVariableFields(tag));
+            fieldsByTag.put(tag, fields);
+        }
+        return Collections.unmodifiableList(fields);
+    }
+
+    /**
+     * @return the indexed 880 fields whose linkage subfield ($6) starts with the tag
+     */
+    public List<DataField> getLinkedFields(String tag)
+    {
+        if (tag.length() != 3)
+            return findLinkedFields(getFields("880"), tag);
+
+        if (linkedFieldsByTag == null)
+            indexLinkedFields();
+        List<DataField> fields = linkedFieldsByTag.get(tag);
+        if (fields == null)
+            return Collections.emptyList();
+        return Collections.unmodifiableList(fields);
+    }
+
+    /**
+     * index the 880 fields of a LazyFieldsRecord by the tag in their linkage subfield
+     */
+    private void indexLinkedFields()
+    {
+        linkedFieldsByTag = new HashMap<String, List<DataField>>();
+        for (VariableField vf : getFields("880"))
+            addLinkedField((DataField) vf);
+    }
+
+    private static List<DataField> findLinkedFields(List<VariableField> fields880, String tag)
+    {
+        List<DataField> result = new ArrayList<DataField>();
+        for (VariableField vf : fields880)
+        {
+            DataField df = (DataField) vf;
+            Subfield link = df.getSubfield('6');
+            if (link != null && link.getData().startsWith(tag))
+                result.add(df);
+        }
+        return result;
+    }
+
+    /**
+     * @return true if this is the index of the record, and no fields have been
+     *  added to or removed from the record since it was built
+     */
+    private boolean isIndexOf(Record record)
+    {
+        if (this.record != record)
+            return false;
+        if (lazyRecord != null)
+            return lazyRecord.getNumChanges() == numChanges;
+        return record.getControlFields().size() == numControlFields
+                && record.getDataFields().size() == numDataFields;
+    }
+
+}
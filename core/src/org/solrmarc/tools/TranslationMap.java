@@ -0,0 +1,240 @@
+package org.solrmarc.tools;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A translation map, as loaded from a _map.properties file or from map
+ *  entries in an _index.properties file.  It is still a Map of raw values to
+ *  translated values, but it also keeps a compiled form of the map, so
+ *  remapping a value doesn't have to look for "pattern_0" or the default
+ *  keys, or split and compile the "regex=>replacement" patterns, each time.
+ *
+ * Utils.remap() uses the compiled form when it is given a TranslationMap.
+ *  The compiled form is rebuilt when the map is changed with put(), putAll(),
+ *  remove() or clear();  changes made through the key, value or entry views
+ *  are not seen.
+ */
+public class TranslationMap extends LinkedHashMap<String, String>
+{
+    private static final long serialVersionUID = 1L;
+
+    /** compiled form of the map;  null until the map is compiled, and after it changes */
+    private transient volatile Compiled compiled = null;
+
+    public TranslationMap()
+    {
+        super();
+    }
+
+    public TranslationMap(Map<String, String> map)
+    {
+        super(map);
+    }
+
+    /**
+     * Build the compiled form of the map now, rather than on the first remap.
+     * @throws java.util.regex.PatternSyntaxException if a pattern_n entry isn't a valid regular expression
+     */
+    public void compile()
+    {
+        getCompiled();
+    }
+
+    /**
+     * @return true if the map is a pattern map (has a pattern_0 entry)
+     */
+    public boolean isPatternMap()
+    {
+        return getCompiled().patterns != null;
+    }
+
+    /**
+     * Remap a field value;  see Utils.remap(String, Map, boolean)
+     */
+    public String remap(String fieldVal, boolean allowDefault)
+    {
+        Compiled map = getCompiled();
+        String result = null;
+
+        if (map.patterns != null)
+        {
+            for (MapPattern pattern : map.patterns)
+            {
+                Matcher matcher = pattern.regex.matcher(fieldVal);
+                if (matcher.find())
+                {
+                    String newVal = pattern.replacement;
+                    if (pattern.replaceAll)
+                    {
+                        newVal = matcher.replaceAll(pattern.replacement);
+                        fieldVal = newVal;
+                    }
+                    result = newVal;
+                }
+            }
+        }
+
+        String mapped = get(fieldVal);
+        if (mapped != null || containsKey(fieldVal))
+            result = mapped;
+        else if (map.displayRawIfMissing)
+            result = fieldVal;
+        else if (allowDefault && map.hasDefault)
+            result = map.defaultValue;
+
+        if (result == null || result.length() == 0)
+            return null;
+        return result;
+    }
+
+    /**
+     * Remap a set of field values;  see Utils.remap(Set, Map, boolean)
+     */
+    public Set<String> remap(Set<String> set, boolean allowDefault)
+    {
+        Compiled map = getCompiled();
+        Set<String> result = new LinkedHashSet<String>();
+
+        for (String val : set)
+        {
+            if (map.patterns != null)
+            {
+                String tmpResult = null;
+                for (MapPattern pattern : map.patterns)
+                {
+                    Matcher matcher = pattern.regex.matcher(val);
+                    if (matcher.find())
+                    {
+                        String newVal = pattern.replacement;
+                        if (pattern.replaceAll)
+                        {
+                            newVal = matcher.replaceAll(pattern.replacement);
+                            val = newVal;
+                        }
+                        else
+                            result.add(newVal);
+                        tmpResult = newVal;
+                    }
+                }
+                if (tmpResult != null) result.add(tmpResult);
+            }
+            else
+            {
+                String mappedVal = remap(val, allowDefault);
+                if (mappedVal != null)
+                    result.add(mappedVal);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String put(String key, String value)
+    {
+        compiled = null;
+        return super.put(key, value);
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends String> map)
+    {
+        compiled = null;
+        super.putAll(map);
+    }
+
+    @Override
+    public String remove(Object key)
+    {
+        compiled = null;
+        return super.remove(key);
+    }
+
+    @Override
+    public void clear()
+    {
+        compiled = null;
+        super.clear();
+    }
+
+
+    private Compiled getCompiled()
+    {
+        Compiled result = compiled;
+        if (result == null)
+        {
+            result = new Compiled(this);
+            compiled = result;
+        }
+        return result;
+    }
+
+    /**
+     * the compiled form of a map:  the patterns of a pattern map, and how to
+     *  handle values that aren't in the map
+     */
+    private static class Compiled
+    {
+        /** the pattern_n entries, in order;  null if this isn't a pattern map */
+        final List<MapPattern> patterns;
+        final boolean displayRawIfMissing;
+        /** true if there is a __DEFAULT entry, or else an entry for the empty string */
+        final boolean hasDefault;
+        final String defaultValue;
+
+        Compiled(Map<String, String> map)
+        {
+            if (map.containsKey("pattern_0"))
+            {
+                patterns = new ArrayList<MapPattern>();
+                for (int i = 0; i < map.size(); i++)
+                {
+                    String patternStr = map.get("pattern_" + i);
+                    if (patternStr != null)
+                        patterns.add(new MapPattern(patternStr));
+                }
+            }
+            else
+                patterns = null;
+
+            displayRawIfMissing = map.containsKey("displayRawIfMissing");
+            if (map.containsKey("__DEFAULT"))
+            {
+                hasDefault = true;
+                defaultValue = map.get("__DEFAULT");
+            }
+            else if (map.containsKey(""))
+            {
+                hasDefault = true;
+                defaultValue = map.get("");
+            }
+            else
+            {
+                hasDefault = false;
+                defaultValue = null;
+            }
+        }
+    }
+
+    /**
+     * a compiled "regex=>replacement" pattern map entry
+     */
+    private static class MapPattern
+    {
+        final Pattern regex;
+        final String replacement;
+        /** if the replacement refers to groups, matching values are replaced
+         *  rather than mapped to the replacement */
+        final boolean replaceAll;
+
+        MapPattern(String patternStr)
+        {
+            String parts[] = patternStr.split("=>");
+            regex = Pattern.compile(parts[0]);
+            replacement = parts.length > 1 ? parts[1] : "";
+            replaceAll = replacement.contains("$");
+        }
+    }
+
+}
@@ -326,6 +326,9 @@ public final class Utils {
      */
     public static String remap(String fieldVal, Map<String, String> map, boolean allowDefault)
     {
+        if (map instanceof TranslationMap)
+            return ((TranslationMap) map).remap(fieldVal, allowDefault);
+
         String result = null;
 
         if (map.keySet().contains("pattern_0"))
@@ -385,6 +388,9 @@ public final class Utils {
     public static Set<String> remap(Set<String> set, Map<String, String> map, boolean allowDefault)
     {
         if (map == null)  return(set);
+        if (map instanceof TranslationMap)
+            return ((TranslationMap) map).remap(set, allowDefault);
+
         Iterator<String> iter = set.iterator();
         Set<String> result = new LinkedHashSet<String>();
 
@@ -3,7 +3,9 @@ package org.solrmarc;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
+import org.solrmarc.index.*;
 import org.solrmarc.marc.*;
+import org.solrmarc.solr.*;
 import org.solrmarc.tools.*;
 
 @RunWith(Suite.class)
@@ -11,17 +13,42 @@ import org.solrmarc.tools.*;
         CallNumberUnitTests.class,
         CombineMultBibsMhldsReaderTest.class,
         CommandLineUtilTests.class,
+        CommitPolicyTests.class,
         DateUtilsTests.class,
+        DeadLetterFileTests.class,
+        DocumentDigestStoreTests.class,
+        DocumentExportTests.class,
+        FieldSpecTests.class,
         GetFormatMixinTest.class,
         HathiJsonReaderTest.class,
+        ImporterMonitorTests.class,
+        IndexingCheckpointTests.class,
+        IndexingPipelineTests.class,
+        IndexingProfileTests.class,
+        IndexingProgressTests.class,
+        IndexPlanTests.class,
 //        IndexSmokeTest.class, // duplicated in RemoteServerTest
+        LazyRecordTests.class,
         MergeSummaryHoldingsTests.class,
+        MappedMarcReaderTests.class,
         MarcCombiningReaderTests.class,
+        MarcFileSplitterTests.class,
+        MarcImporterBatchingTests.class,
+        MarcImporterDeleteTests.class,
+        MarcXmlSerializerTests.class,
+        ParallelFileIndexerTests.class,
+        ParallelIndexBuilderTests.class,
+        RecordFieldIndexTests.class,
         RecordReaderTest.class,
         RemoteServerTest.class,
+        ShardedSolrProxyTests.class,
+        SolrRetryTests.class,
+        SolrServerProxyTests.class,
         SolrUpdateTest.class,
         SolrUtilTests.class,
+        StreamingSolrServerProxyTests.class,
         StringNaturalCompareTest.class,
+        TranslationMapTests.class,
         UtilUnitTests.class
         })
 
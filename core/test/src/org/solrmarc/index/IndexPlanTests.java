@@ -0,0 +1,131 @@
+package org.solrmarc.index;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Test;
+import org.marc4j.MarcPermissiveStreamReader;
+import org.marc4j.marc.Record;
+import org.solrmarc.AbstractCoreTest;
+
+/**
+ * tests for compiling the index specifications into the indexing plan
+ *  SolrIndexer applies to each record
+ */
+public class IndexPlanTests extends AbstractCoreTest
+{
+
+	/**
+	 * each spec is compiled to the spec class for its type
+	 */
+@Test
+	public void testSpecTypes()
+	{
+		SolrIndexer indexer = SolrIndexer.indexerFromProperties(getIndexProps(), new String[0]);
+		Map<String, IndexSpec> specs = new HashMap<String, IndexSpec>();
+		for (IndexSpec spec : indexer.getIndexPlan())
+			specs.put(spec.getFieldName(), spec);
+
+		assertEquals(7, specs.size());
+		assertTrue(specs.get("collection") instanceof IndexSpec.ConstantSpec);
+		assertTrue(specs.get("format") instanceof IndexSpec.ConstantSpec);
+		assertTrue(specs.get("title_display") instanceof IndexSpec.FirstSpec);
+		assertTrue(specs.get("title_245a") instanceof IndexSpec.AllSpec);
+		assertTrue(specs.get("title_join") instanceof IndexSpec.JoinSpec);
+		assertTrue(specs.get("pub_date") instanceof IndexSpec.StdSpec);
+		assertTrue(specs.get("title_sort") instanceof IndexSpec.CustomSpec);
+
+		String plan = indexer.describeIndexPlan();
+		assertTrue(plan, plan.contains("title_join = JoinSpec 245ab (separator: \" -- \")"));
+		assertTrue(plan, plan.contains("format = ConstantSpec [Book, Journal]"));
+	}
+
+	/**
+	 * the compiled plan maps records as the specs say
+	 */
+@Test
+	public void testMapping()
+			throws IOException
+	{
+		SolrIndexer indexer = SolrIndexer.indexerFromProperties(getIndexProps(), new String[0]);
+		MarcPermissiveStreamReader reader = new MarcPermissiveStreamReader(new FileInputStream(new File(testDataParentPath, "formatRecs.mrc")), true, true, "MARC8");
+		int numRecs = 0;
+		while (reader.hasNext() && numRecs < 10)
+		{
+			Record record = reader.next();
+			numRecs++;
+			Map<String, Object> map = indexer.createFldNames2ValsMap(record);
+
+			assertEquals("sirsi", map.get("collection"));
+			assertEquals(new LinkedHashSet<String>(Arrays.asList("Book", "Journal")), map.get("format"));
+			// each record has its own Set of constant values
+			assertNotSame(map.get("format"), indexer.createFldNames2ValsMap(record).get("format"));
+
+			String title245a = indexer.getFirstFieldVal(record, null, "245a");
+			if (title245a != null)
+			{
+				assertEquals(title245a, map.get("title_display"));
+				assertTrue(map.get("title_join").toString().startsWith(title245a));
+			}
+			assertEquals(SolrIndexer.getSortableTitle(record), map.get("title_sort"));
+		}
+		assertEquals(10, numRecs);
+	}
+
+	/**
+	 * custom methods are found when the specs are compiled, in the indexer or
+	 *  in a mixin, and are called with their arguments dequoted
+	 */
+@Test
+	public void testCustomMethods()
+			throws IOException
+	{
+		Properties indexProps = new Properties();
+		indexProps.setProperty("title_all", "custom, getAllSubfields(245[ab], \"|\")");
+		indexProps.setProperty("echo_parms", "custom(org.solrmarc.testUtils.EchoParmsMixin), echoParms(\"a b\", c)");
+		indexProps.setProperty("echo_id", "custom(org.solrmarc.testUtils.EchoParmsMixin), echoId");
+		SolrIndexer indexer = SolrIndexer.indexerFromProperties(indexProps, new String[0]);
+
+		MarcPermissiveStreamReader reader = new MarcPermissiveStreamReader(new FileInputStream(new File(testDataParentPath, "formatRecs.mrc")), true, true, "MARC8");
+		Record record = reader.next();
+		while (SolrIndexer.getAllSubfields(record, "245[ab]", "|").isEmpty())
+			record = reader.next();
+		Map<String, Object> map = indexer.createFldNames2ValsMap(record);
+
+		assertEquals(new LinkedHashSet<String>(Arrays.asList("a b", "c")), map.get("echo_parms"));
+		assertEquals(record.getControlNumber(), map.get("echo_id"));
+		Set<String> expectedTitles = SolrIndexer.getAllSubfields(record, "245[ab]", "|");
+		assertEquals(expectedTitles.size() == 1 ? expectedTitles.iterator().next() : expectedTitles, map.get("title_all"));
+
+		String plan = indexer.describeIndexPlan();
+		assertTrue(plan, plan.contains("echo_parms = CustomSpec EchoParmsMixin.echoParms[a b, c]"));
+	}
+
+	/**
+	 * a custom method that doesn't exist is reported when the specs are loaded
+	 */
+@Test(expected = IllegalArgumentException.class)
+	public void testMissingCustomMethod()
+	{
+		Properties indexProps = new Properties();
+		indexProps.setProperty("echo_parms", "custom(org.solrmarc.testUtils.EchoParmsMixin), echoParms(a)");
+		SolrIndexer.indexerFromProperties(indexProps, new String[0]);
+	}
+
+
+	private Properties getIndexProps()
+	{
+		Properties indexProps = new Properties();
+		indexProps.setProperty("collection", "\"sirsi\"");
+		indexProps.setProperty("format", "\"Book|Journal|\"");
+		indexProps.setProperty("title_display", "245a, first");
+		indexProps.setProperty("title_245a", "245a");
+		indexProps.setProperty("title_join", "245ab, join( -- )");
+		indexProps.setProperty("pub_date", "date");
+		indexProps.setProperty("title_sort", "custom, getSortableTitle");
+		return indexProps;
+	}
+
+}
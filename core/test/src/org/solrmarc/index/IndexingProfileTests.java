@@ -0,0 +1,113 @@
+package org.solrmarc.index;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Test;
+import org.marc4j.MarcPermissiveStreamReader;
+import org.marc4j.marc.Record;
+import org.solrmarc.AbstractCoreTest;
+
+/**
+ * tests for profiling the time SolrIndexer takes for each Solr field and
+ *  custom method
+ */
+public class IndexingProfileTests extends AbstractCoreTest
+{
+
+	/**
+	 * a profiled indexer maps records the same way, and counts each field,
+	 *  custom method and record
+	 */
+@Test
+	public void testProfiledMapping()
+			throws IOException
+	{
+		SolrIndexer plainIndexer = SolrIndexer.indexerFromProperties(getIndexProps(), new String[0]);
+		SolrIndexer profiledIndexer = SolrIndexer.indexerFromProperties(getIndexProps(), new String[0]);
+		assertNull(plainIndexer.getProfile());
+		IndexingProfile profile = new IndexingProfile();
+		profiledIndexer.setProfile(profile);
+		assertSame(profile, profiledIndexer.getProfile());
+
+		MarcPermissiveStreamReader reader = new MarcPermissiveStreamReader(new FileInputStream(new File(testDataParentPath, "formatRecs.mrc")), true, true, "MARC8");
+		int numRecs = 0;
+		while (reader.hasNext() && numRecs < 10)
+		{
+			Record record = reader.next();
+			numRecs++;
+			assertEquals(plainIndexer.createFldNames2ValsMap(record), profiledIndexer.createFldNames2ValsMap(record));
+		}
+		assertEquals(10, numRecs);
+		assertEquals(10, profile.getNumRecords());
+
+		Map<String, IndexingProfile.Entry> fields = new HashMap<String, IndexingProfile.Entry>();
+		for (IndexingProfile.Entry entry : profile.getFieldEntries())
+			fields.put(entry.getName(), entry);
+		assertTrue(fields.keySet().containsAll(Arrays.asList("collection", "format", "title_sort", IndexingProfile.PER_RECORD_INIT)));
+		assertEquals(10, fields.get("collection").getCalls());
+		assertEquals(10, fields.get("collection").getValues());
+		assertEquals(20, fields.get("format").getValues());
+
+		List<IndexingProfile.Entry> methods = profile.getMethodEntries();
+		assertEquals(1, methods.size());
+		assertEquals("SolrIndexer.getSortableTitle", methods.get(0).getName());
+		assertEquals(10, methods.get(0).getCalls());
+
+		String report = profile.report(3);
+		assertTrue(report, report.startsWith("Indexing profile for 10 records"));
+		assertTrue(report, report.contains("SolrIndexer.getSortableTitle"));
+	}
+
+	/**
+	 * profiles add together, and the report shows the entries that took the
+	 *  most time first
+	 */
+@Test
+	public void testAddAllAndReport()
+	{
+		IndexingProfile profile1 = new IndexingProfile();
+		profile1.addField("slow", 3000000, 2);
+		profile1.addField("fast", 1000, 1);
+		profile1.addMethod("Mixin.slowMethod", 2000000, 2);
+		profile1.addRecord();
+		IndexingProfile profile2 = new IndexingProfile();
+		profile2.addField("fast", 1000, 0);
+		profile2.addField("medium", 1000000, 1);
+		profile2.addRecord();
+
+		IndexingProfile total = new IndexingProfile();
+		total.addAll(profile1);
+		total.addAll(profile2);
+		assertEquals(2, total.getNumRecords());
+
+		List<IndexingProfile.Entry> fields = total.getFieldEntries();
+		assertEquals(3, fields.size());
+		assertEquals("slow", fields.get(0).getName());
+		assertEquals("medium", fields.get(1).getName());
+		assertEquals("fast", fields.get(2).getName());
+		assertEquals(2, fields.get(2).getCalls());
+		assertEquals(2000, fields.get(2).getNanos());
+		assertEquals(1, fields.get(2).getValues());
+
+		String report = total.report(2);
+		assertTrue(report, report.contains("slow"));
+		assertTrue(report, report.contains("medium"));
+		assertFalse(report, report.contains("fast"));
+		assertTrue(report, report.contains("Mixin.slowMethod"));
+	}
+
+
+	private Properties getIndexProps()
+	{
+		Properties indexProps = new Properties();
+		indexProps.setProperty("collection", "\"sirsi\"");
+		indexProps.setProperty("format", "\"Book|Journal|\"");
+		indexProps.setProperty("title_display", "245a, first");
+		indexProps.setProperty("title_sort", "custom, getSortableTitle");
+		return indexProps;
+	}
+
+}
@@ -0,0 +1,148 @@
+package org.solrmarc.marc;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Test;
+import org.solrmarc.AbstractCoreTest;
+import org.solrmarc.solr.SolrServerProxy;
+import org.solrmarc.testUtils.RecordingSolrProxy;
+import org.solrmarc.testUtils.RecordingSolrServer;
+
+/**
+ * tests for MarcImporter committing while indexing, as its CommitPolicy says,
+ *  and for how it commits at the end
+ */
+public class CommitPolicyTests extends AbstractCoreTest
+{
+	private static final String TEST_FILE = "formatRecs.mrc";
+
+@After
+	public void clearProperties()
+	{
+		System.clearProperty("solrmarc.commit.docs");
+		System.clearProperty("solrmarc.commit.secs");
+		System.clearProperty("solrmarc.commit.soft");
+		System.clearProperty("solrmarc.commit.within_ms");
+		System.clearProperty("solr.optimize_max_segments");
+		System.clearProperty("solr.optimize_at_end");
+		System.clearProperty("solr.commit_at_end");
+	}
+
+	/**
+	 * a commit is due after every so many documents, and only one importer
+	 *  sharing the policy takes it
+	 */
+@Test
+	public void testCommitDueAfterDocs()
+	{
+		CommitPolicy commitPolicy = new CommitPolicy(3, 0, true, 0, 0);
+		assertTrue(commitPolicy.isCommittingWhileIndexing());
+		assertEquals(1, commitPolicy.getOptimizeMaxSegments());
+		assertFalse(commitPolicy.takeCommitIfDue());
+		commitPolicy.docSent();
+		commitPolicy.docSent();
+		assertFalse(commitPolicy.takeCommitIfDue());
+		commitPolicy.docSent();
+		assertTrue(commitPolicy.takeCommitIfDue());
+		assertFalse(commitPolicy.takeCommitIfDue());
+
+		// a commit for a checkpoint starts the count again
+		commitPolicy.docSent();
+		commitPolicy.docSent();
+		commitPolicy.committed();
+		commitPolicy.docSent();
+		assertFalse(commitPolicy.takeCommitIfDue());
+	}
+
+	/**
+	 * a commit is due when it has been long enough since the last one, but
+	 *  only if documents have been sent since
+	 */
+@Test
+	public void testCommitDueAfterTime()
+			throws InterruptedException
+	{
+		CommitPolicy commitPolicy = new CommitPolicy(0, 1, false, 0, 1);
+		Thread.sleep(5);
+		assertFalse(commitPolicy.takeCommitIfDue());
+		commitPolicy.docSent();
+		assertTrue(commitPolicy.takeCommitIfDue());
+		assertFalse(new CommitPolicy(0, 0, false, 500, 1).isCommittingWhileIndexing());
+	}
+
+	/**
+	 * with solrmarc.commit.docs and solrmarc.commit.soft, the documents are
+	 *  soft committed as they are indexed, and hard committed at the end
+	 */
+@Test
+	public void testSoftCommitsWhileIndexing()
+			throws IOException
+	{
+		System.setProperty("solrmarc.commit.docs", "4");
+		System.setProperty("solrmarc.commit.soft", "true");
+		System.setProperty("solr.commit_at_end", "true");
+		RecordingSolrProxy solrProxy = new RecordingSolrProxy();
+		newImporter(new MarcImporter(solrProxy)).handleAll();
+
+		int numAdded = solrProxy.getAddedIds().size();
+		assertTrue(numAdded > 10);
+		assertEquals(numAdded / 4, solrProxy.numSoftCommits);
+		assertEquals(1, solrProxy.numCommits);
+		assertEquals(0, solrProxy.optimizeMaxSegments.size());
+	}
+
+	/**
+	 * hard commits while indexing, and an optimize down to
+	 *  solr.optimize_max_segments at the end
+	 */
+@Test
+	public void testHardCommitsAndOptimize()
+			throws IOException
+	{
+		System.setProperty("solrmarc.commit.docs", "5");
+		System.setProperty("solr.optimize_at_end", "true");
+		System.setProperty("solr.optimize_max_segments", "4");
+		RecordingSolrProxy solrProxy = new RecordingSolrProxy();
+		newImporter(new MarcImporter(solrProxy)).handleAll();
+
+		int numAdded = solrProxy.getAddedIds().size();
+		assertEquals(0, solrProxy.numSoftCommits);
+		// the commits while indexing, then the optimize
+		assertEquals(numAdded / 5 + 1, solrProxy.numCommits);
+		assertEquals(Arrays.asList(4), solrProxy.optimizeMaxSegments);
+	}
+
+	/**
+	 * with solrmarc.commit.within_ms, each update request asks Solr to commit
+	 *  its documents within that time;  the optimize is sent as one
+	 */
+@Test
+	public void testCommitWithin()
+			throws IOException
+	{
+		System.setProperty("solrmarc.commit.within_ms", "60000");
+		System.setProperty("solr.optimize_at_end", "true");
+		System.setProperty("solr.optimize_max_segments", "2");
+		RecordingSolrServer solrServer = new RecordingSolrServer();
+		newImporter(new MarcImporter(new SolrServerProxy(solrServer))).handleAll();
+
+		assertTrue(solrServer.numAddRequests > 10);
+		for (Integer commitWithin : solrServer.addCommitWithins)
+			assertEquals(60000, commitWithin.intValue());
+		assertEquals(0, solrServer.numSoftCommits);
+		assertEquals(Arrays.asList(2), solrServer.optimizeMaxSegments);
+	}
+
+
+	private MarcImporter newImporter(MarcImporter importer)
+			throws FileNotFoundException
+	{
+		importer.init(new String[]{getRequiredSystemProperty("test.config.file"), testDataParentPath + File.separator + TEST_FILE});
+		return importer;
+	}
+
+}
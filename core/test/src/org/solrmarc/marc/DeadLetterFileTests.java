@@ -0,0 +1,163 @@
+package org.solrmarc.marc;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.marc4j.MarcStreamReader;
+import org.solrmarc.AbstractCoreTest;
+import org.solrmarc.solr.SolrServerProxy;
+import org.solrmarc.testUtils.RecordingSolrServer;
+
+/**
+ * tests for writing the records Solr couldn't index to the dead letter file,
+ *  and replaying them with DeadLetterReplayer
+ */
+public class DeadLetterFileTests extends AbstractCoreTest
+{
+	private static final String TEST_FILE = "formatRecs.mrc";
+
+	private File deadLetterFile;
+
+@Before
+	public void setDeadLetterFile()
+			throws IOException
+	{
+		deadLetterFile = File.createTempFile("solrmarc", ".mrc");
+		deadLetterFile.delete();
+		System.setProperty("solrmarc.dead_letter.file", deadLetterFile.getPath());
+		// fail the documents as soon as Solr is unavailable
+		System.setProperty("solrmarc.solr.retries", "0");
+		System.setProperty("solrmarc.solr.circuit.open_secs", "0");
+		System.setProperty("solrmarc.solr.batch_size", "5");
+	}
+
+@After
+	public void clearProperties()
+	{
+		deadLetterFile.delete();
+		DeadLetterFile.errorsFile(deadLetterFile).delete();
+		DeadLetterReplayer.replayFile(deadLetterFile).delete();
+		DeadLetterFile.errorsFile(DeadLetterReplayer.replayFile(deadLetterFile)).delete();
+		System.clearProperty("solrmarc.dead_letter.file");
+		System.clearProperty("solrmarc.solr.retries");
+		System.clearProperty("solrmarc.solr.circuit.open_secs");
+		System.clearProperty("solrmarc.solr.batch_size");
+		System.clearProperty("marc.path");
+		System.clearProperty("marc.source");
+	}
+
+	/**
+	 * the records of a batch Solr was unavailable for, and of a document it
+	 *  refused, are written with their errors, and indexing carries on;  the
+	 *  replay indexes them, and removes the replayed files
+	 */
+@Test
+	public void testWriteAndReplay()
+			throws IOException
+	{
+		RecordingSolrServer allAdded = new RecordingSolrServer();
+		MarcImporter importer = new MarcImporter(new SolrServerProxy(allAdded));
+		importer.init(new String[]{getRequiredSystemProperty("test.config.file"), testDataParentPath + File.separator + TEST_FILE});
+		importer.importRecords();
+		List<String> allIds = allAdded.addedIds;
+		assertTrue(allIds.size() > 10);
+		deadLetterFile.delete();
+
+		RecordingSolrServer solrServer = new RecordingSolrServer();
+		String refusedId = allIds.get(7);
+		solrServer.rejectIds.add(refusedId);
+		solrServer.unavailableRequests = 1;
+		importer = new MarcImporter(new SolrServerProxy(solrServer));
+		importer.init(new String[]{getRequiredSystemProperty("test.config.file"), testDataParentPath + File.separator + TEST_FILE});
+		assertEquals(0, importer.handleAll());
+
+		// the first batch, and the refused document
+		List<String> expectedIds = new ArrayList<String>(allIds.subList(0, 5));
+		expectedIds.add(refusedId);
+		assertEquals(expectedIds, readIds(deadLetterFile));
+		assertEquals(6, importer.getMonitor().getDeadLetters());
+		List<String> errorLines = readLines(DeadLetterFile.errorsFile(deadLetterFile));
+		assertEquals(6, errorLines.size());
+		assertTrue(errorLines.get(0), errorLines.get(0).startsWith(allIds.get(0) + "\tSolr unavailable"));
+		assertTrue(errorLines.get(5), errorLines.get(5).startsWith(refusedId + "\t"));
+		List<String> indexedIds = new ArrayList<String>(allIds);
+		indexedIds.removeAll(expectedIds);
+		assertEquals(indexedIds, solrServer.addedIds);
+
+		// the refused document is refused again
+		System.clearProperty("marc.path");
+		RecordingSolrServer replayServer = new RecordingSolrServer();
+		replayServer.rejectIds.add(refusedId);
+		DeadLetterReplayer replayer = new DeadLetterReplayer(new SolrServerProxy(replayServer));
+		System.setProperty("marc.source", "FILE");
+		replayer.init(new String[]{getRequiredSystemProperty("test.config.file")});
+		assertEquals(0, replayer.handleAll());
+
+		expectedIds.remove(refusedId);
+		assertEquals(expectedIds, replayServer.addedIds);
+		assertEquals(Arrays.asList(refusedId), readIds(deadLetterFile));
+		assertFalse(DeadLetterReplayer.replayFile(deadLetterFile).exists());
+		assertFalse(DeadLetterFile.errorsFile(DeadLetterReplayer.replayFile(deadLetterFile)).exists());
+	}
+
+	/**
+	 * a replay with nothing to replay fails to start
+	 */
+@Test
+	public void testNothingToReplay()
+	{
+		System.setProperty("marc.source", "FILE");
+		try
+		{
+			new DeadLetterReplayer(new SolrServerProxy(new RecordingSolrServer())).init(new String[]{getRequiredSystemProperty("test.config.file")});
+			fail("replayed a missing dead letter file");
+		}
+		catch (FileNotFoundException e)
+		{
+			assertTrue(e.getMessage().contains(deadLetterFile.getPath()));
+		}
+	}
+
+
+	private static List<String> readIds(File marcFile)
+			throws IOException
+	{
+		List<String> ids = new ArrayList<String>();
+		InputStream in = new FileInputStream(marcFile);
+		try
+		{
+			MarcStreamReader reader = new MarcStreamReader(in);
+			while (reader.hasNext())
+				ids.add(reader.next().getControlNumber());
+		}
+		finally
+		{
+			in.close();
+		}
+		return ids;
+	}
+
+	private static List<String> readLines(File file)
+			throws IOException
+	{
+		List<String> lines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try
+		{
+			String line;
+			while ((line = reader.readLine()) != null)
+				lines.add(line);
+		}
+		finally
+		{
+			reader.close();
+		}
+		return lines;
+	}
+
+}
@@ -0,0 +1,214 @@
+package org.solrmarc.marc;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.solrmarc.AbstractCoreTest;
+import org.solrmarc.solr.SolrRuntimeException;
+import org.solrmarc.testUtils.RecordingSolrProxy;
+
+/**
+ * tests for the digests of the documents committed, and for MarcImporter
+ *  skipping the documents that are unchanged since the last run
+ */
+public class DocumentDigestStoreTests extends AbstractCoreTest
+{
+	private static final String TEST_FILE = "formatRecs.mrc";
+
+	private File digestFile;
+
+@Before
+	public void createDigestFile()
+			throws IOException
+	{
+		digestFile = File.createTempFile("solrmarc", ".digests");
+		digestFile.delete();
+		System.setProperty("solrmarc.digests.file", digestFile.getAbsolutePath());
+		// the digests are saved after the commit at the end
+		System.setProperty("solr.commit_at_end", "true");
+	}
+
+@After
+	public void clearProperties()
+	{
+		digestFile.delete();
+		System.clearProperty("solrmarc.digests.file");
+		System.clearProperty("solrmarc.digests.force");
+		System.clearProperty("solr.commit_at_end");
+		System.clearProperty("solrmarc.commit.docs");
+		System.clearProperty("solrmarc.indexing.threads");
+		System.clearProperty("marc.path");
+	}
+
+	/**
+	 * digests are pending until committed, saved and read back, and removed
+	 *  for deleted ids;  the same document always has the same digest
+	 */
+@Test
+	public void testStore()
+			throws IOException
+	{
+		DocumentDigestStore store = new DocumentDigestStore(digestFile);
+		assertFalse(store.load());
+
+		long digest1 = DocumentDigestStore.digest(newDoc("1", "title one", "subject a", "subject b"));
+		assertEquals(digest1, DocumentDigestStore.digest(newDoc("1", "title one", "subject a", "subject b")));
+		assertTrue(digest1 != DocumentDigestStore.digest(newDoc("1", "title one", "subject b", "subject a")));
+		assertTrue(digest1 != DocumentDigestStore.digest(newDoc("1", "title one", "subject a")));
+
+		store.sent("1", digest1);
+		assertFalse(store.isUnchanged("1", digest1));
+		store.commit();
+		assertTrue(store.isUnchanged("1", digest1));
+		assertFalse(store.isUnchanged("2", digest1));
+
+		// thousands of documents, so the table grows
+		for (int i = 2; i < 5000; i++)
+			store.sent(String.valueOf(i), DocumentDigestStore.digest(newDoc(String.valueOf(i), "title " + i)));
+		store.failed("3");
+		store.commit();
+		store.deleted("2");
+		store.commit();
+		assertEquals(4997, store.size());
+		store.save();
+
+		DocumentDigestStore readBack = new DocumentDigestStore(digestFile);
+		assertTrue(readBack.load());
+		assertEquals(4997, readBack.size());
+		assertTrue(readBack.isUnchanged("1", digest1));
+		assertFalse(readBack.isUnchanged("2", DocumentDigestStore.digest(newDoc("2", "title 2"))));
+		assertFalse(readBack.isUnchanged("3", DocumentDigestStore.digest(newDoc("3", "title 3"))));
+		for (int i = 4; i < 5000; i++)
+			assertTrue(readBack.isUnchanged(String.valueOf(i), DocumentDigestStore.digest(newDoc(String.valueOf(i), "title " + i))));
+		assertFalse(readBack.isUnchanged("4", DocumentDigestStore.digest(newDoc("4", "new title"))));
+	}
+
+	/**
+	 * the second run of the same file sends nothing;  with -force it sends
+	 *  every document again
+	 */
+@Test
+	public void testUnchangedSkipped()
+			throws IOException
+	{
+		RecordingSolrProxy firstRun = index(TEST_FILE);
+		assertTrue(firstRun.addedDocs.size() > 10);
+		assertTrue(digestFile.exists());
+
+		RecordingSolrProxy secondRun = new RecordingSolrProxy();
+		MarcImporter importer = newImporter(secondRun, TEST_FILE);
+		importer.handleAll();
+		assertEquals(0, secondRun.addedDocs.size());
+		assertEquals(firstRun.addedDocs.size(), importer.getMonitor().getUnchangedRecords());
+		assertEquals(1, secondRun.numCommits);
+
+		RecordingSolrProxy forcedRun = new RecordingSolrProxy();
+		importer = new MarcImporter(forcedRun);
+		importer.init(new String[]{getRequiredSystemProperty("test.config.file"),
+		                           testDataParentPath + File.separator + TEST_FILE, "-force"});
+		importer.handleAll();
+		assertEquals(firstRun.addedDocs, forcedRun.addedDocs);
+		assertEquals(0, importer.getMonitor().getUnchangedRecords());
+	}
+
+	/**
+	 * with mapping threads, the unchanged documents are skipped in the same way
+	 */
+@Test
+	public void testUnchangedSkippedPipeline()
+			throws IOException
+	{
+		System.setProperty("solrmarc.indexing.threads", "3");
+		assertTrue(index(TEST_FILE).addedDocs.size() > 10);
+		assertEquals(0, index(TEST_FILE).addedDocs.size());
+	}
+
+	/**
+	 * the digests of documents whose commit failed aren't saved, so the next
+	 *  run sends the documents again
+	 */
+@Test
+	public void testNotSavedWithoutCommit()
+			throws IOException
+	{
+		RecordingSolrProxy failedCommit = new RecordingSolrProxy()
+		{
+			public void commit(boolean optimize)
+					throws IOException
+			{
+				throw new IOException("Solr went away");
+			}
+		};
+		newImporter(failedCommit, TEST_FILE).handleAll();
+		assertTrue(failedCommit.addedDocs.size() > 10);
+		assertFalse(digestFile.exists());
+
+		assertEquals(failedCommit.addedDocs, index(TEST_FILE).addedDocs);
+		assertEquals(0, index(TEST_FILE).addedDocs.size());
+	}
+
+	/**
+	 * the digests are saved after each commit while indexing, so a run that
+	 *  fails part way doesn't send the documents committed before it failed
+	 *  again
+	 */
+@Test
+	public void testSavedAfterCommitWhileIndexing()
+			throws IOException
+	{
+		List<String> allIds = index(TEST_FILE).getAddedIds();
+		assertTrue(allIds.size() > 10);
+		digestFile.delete();
+
+		System.setProperty("solrmarc.commit.docs", "5");
+		RecordingSolrProxy failedRun = new RecordingSolrProxy()
+		{
+			public String addDoc(Map<String, Object> fields2ValuesMap, boolean verbose, boolean addDocToIndex)
+					throws IOException
+			{
+				if (addedDocs.size() == 7)
+					throw new SolrRuntimeException("Solr went away");
+				return super.addDoc(fields2ValuesMap, verbose, addDocToIndex);
+			}
+		};
+		newImporter(failedRun, TEST_FILE).handleAll();
+		assertEquals(1, failedRun.numCommits);
+		assertTrue(digestFile.exists());
+
+		System.clearProperty("solrmarc.commit.docs");
+		assertEquals(allIds.subList(5, allIds.size()), index(TEST_FILE).getAddedIds());
+	}
+
+
+	private RecordingSolrProxy index(String marcFileName)
+			throws IOException
+	{
+		RecordingSolrProxy solrProxy = new RecordingSolrProxy();
+		newImporter(solrProxy, marcFileName).handleAll();
+		return solrProxy;
+	}
+
+	private MarcImporter newImporter(RecordingSolrProxy solrProxy, String marcFileName)
+			throws FileNotFoundException
+	{
+		MarcImporter importer = new MarcImporter(solrProxy);
+		importer.init(new String[]{getRequiredSystemProperty("test.config.file"), testDataParentPath + File.separator + marcFileName});
+		return importer;
+	}
+
+	private static Map<String, Object> newDoc(String id, String title, String... subjects)
+	{
+		Map<String, Object> doc = new HashMap<String, Object>();
+		doc.put("id", id);
+		doc.put("title", title);
+		if (subjects.length > 0)
+			doc.put("subject", new ArrayList<String>(Arrays.asList(subjects)));
+		return doc;
+	}
+
+}
@@ -0,0 +1,328 @@
+package org.solrmarc.marc;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.solrmarc.AbstractCoreTest;
+import org.solrmarc.solr.DocumentExportProxy;
+import org.solrmarc.solr.ExportedDocumentReader;
+import org.solrmarc.solr.SolrRuntimeException;
+import org.solrmarc.testUtils.RecordingSolrProxy;
+
+/**
+ * tests for exporting documents to files instead of sending them to Solr,
+ *  and loading the exported files into Solr
+ */
+public class DocumentExportTests extends AbstractCoreTest
+{
+	private static final String TEST_FILE = "formatRecs.mrc";
+
+	private File exportDir;
+
+@Before
+	public void createExportDir()
+			throws IOException
+	{
+		exportDir = File.createTempFile("solrmarc", ".export");
+		exportDir.delete();
+		exportDir.mkdir();
+	}
+
+@After
+	public void clearProperties()
+	{
+		File files[] = exportDir.listFiles();
+		for (File file : files != null ? files : new File[0])
+			file.delete();
+		exportDir.delete();
+		System.clearProperty("solrmarc.export.dir");
+		System.clearProperty("solrmarc.export.format");
+		System.clearProperty("solrmarc.export.shards");
+		System.clearProperty("solrmarc.indexing.threads");
+		System.clearProperty("marc.source");
+		System.clearProperty("marc.path");
+	}
+
+	/**
+	 * the documents exported as JSON Lines are those sent to Solr, and the
+	 *  loader sends them all to Solr
+	 */
+@Test
+	public void testExportAndLoadJson()
+			throws IOException
+	{
+		assertExportsAndLoads("json", ".jsonl.gz");
+	}
+
+	/**
+	 * the same for javabin, with records mapped on several threads
+	 */
+@Test
+	public void testExportAndLoadJavabin()
+			throws IOException
+	{
+		System.setProperty("solrmarc.indexing.threads", "3");
+		assertExportsAndLoads("javabin", ".javabin.gz");
+	}
+
+	/**
+	 * files roll over once they are big enough, are only renamed from .part
+	 *  when complete, and a later export doesn't overwrite them;  a
+	 *  document's versions, and its deletes, are in one shard, in order
+	 */
+@Test
+	public void testExportFiles()
+			throws IOException
+	{
+		DocumentExportProxy exporter = new DocumentExportProxy(exportDir, "docs", DocumentExportProxy.Format.JSON, 2, 1);
+		for (int i = 0; i < 10; i++)
+			exporter.addDoc(newDoc("id" + i, "first"), false, true);
+		exporter.addDoc(newDoc("id3", "second"), false, true);
+		exporter.delete("id4", true, true);
+		exporter.delete(Arrays.asList("id5", "id6"));
+		exporter.commit(false);
+		exporter.close();
+
+		// every document, and every delete, is big enough to fill a file
+		List<File> documentFiles = ExportedDocumentReader.listDocumentFiles(exportDir);
+		assertEquals(14, documentFiles.size());
+		for (File file : exportDir.listFiles())
+			assertFalse(file.getName(), file.getName().endsWith(DocumentExportProxy.PART_SUFFIX));
+
+		List<String> id3Titles = new ArrayList<String>();
+		Set<String> ids = new HashSet<String>();
+		Map<String, Integer> shardOfId = new HashMap<String, Integer>();
+		List<String> deletedIds = new ArrayList<String>();
+		for (File file : documentFiles)
+		{
+			ExportedDocumentReader reader = new ExportedDocumentReader(file);
+			Map<String, Object> doc = reader.next();
+			assertNull(reader.next());
+			reader.close();
+			String shard = file.getName().split("-")[1];
+			String deletedId = DocumentExportProxy.getDeletedId(doc);
+			if (deletedId != null)
+			{
+				deletedIds.add(deletedId);
+				assertEquals(deletedId, shardOfId.get(deletedId), Integer.valueOf(shard));
+				continue;
+			}
+			ids.add(doc.get("id").toString());
+			shardOfId.put(doc.get("id").toString(), Integer.valueOf(shard));
+			if (doc.get("id").equals("id3"))
+				id3Titles.add(doc.get("title").toString());
+		}
+		assertEquals(10, ids.size());
+		assertEquals(Arrays.asList("[first]", "[second]"), id3Titles);
+		Collections.sort(deletedIds);
+		assertEquals(Arrays.asList("id4", "id5", "id6"), deletedIds);
+
+		exporter = new DocumentExportProxy(exportDir, "docs", DocumentExportProxy.Format.JSON, 2, 1);
+		exporter.addDoc(newDoc("id0", "again"), false, true);
+		exporter.delete("id7", true, true);
+		exporter.close();
+		assertEquals(16, ExportedDocumentReader.listDocumentFiles(exportDir).size());
+	}
+
+	/**
+	 * a document the writer thread can't encode is reported as a write
+	 *  failure, rather than stopping the thread and leaving the importer
+	 *  waiting for it
+	 */
+@Test(timeout = 60000)
+	public void testUnwritableDocumentFails()
+			throws IOException
+	{
+		for (DocumentExportProxy.Format format : DocumentExportProxy.Format.values())
+		{
+			DocumentExportProxy exporter = new DocumentExportProxy(exportDir, "bad" + format, format, 1, 1000000);
+			Map<String, Object> badDoc = newDoc("bad", "first");
+			badDoc.put("title", new AbstractList<Object>()
+			{
+				public Object get(int index)
+				{
+					throw new IllegalStateException("unwritable value");
+				}
+
+				public int size()
+				{
+					return 1;
+				}
+			});
+			exporter.addDoc(badDoc, false, true);
+			try
+			{
+				// more documents than the writer's queue holds
+				for (int i = 0; i < 2000; i++)
+					exporter.addDoc(newDoc("id" + i, "first"), false, true);
+				exporter.flush();
+				fail("expected SolrRuntimeException for " + format);
+			}
+			catch (SolrRuntimeException e)
+			{
+				assertTrue(e.getMessage(), e.getMessage().contains("unwritable value"));
+			}
+			try
+			{
+				exporter.close();
+				fail("expected SolrRuntimeException closing " + format);
+			}
+			catch (SolrRuntimeException e)
+			{
+				// the failure is reported again
+			}
+		}
+	}
+
+	/**
+	 * an id deleted in one export and added again in a later one (or the
+	 *  other way round) is loaded as it was exported, however the files are
+	 *  rolled over
+	 */
+@Test
+	public void testLoadInExportOrder()
+			throws IOException
+	{
+		for (long maxFileBytes : new long[] {1, 1000000})
+		{
+			clearProperties();
+			createExportDir();
+			DocumentExportProxy exporter = new DocumentExportProxy(exportDir, "docs", DocumentExportProxy.Format.JAVABIN, 2, maxFileBytes);
+			exporter.addDoc(newDoc("id1", "first"), false, true);
+			exporter.addDoc(newDoc("id2", "first"), false, true);
+			exporter.delete("id1", true, true);
+			exporter.close();
+
+			exporter = new DocumentExportProxy(exportDir, "docs", DocumentExportProxy.Format.JAVABIN, 2, maxFileBytes);
+			exporter.addDoc(newDoc("id1", "again"), false, true);
+			exporter.delete(Arrays.asList("id2"));
+			exporter.close();
+
+			System.setProperty("marc.source", "NONE");
+			RecordingSolrProxy loaded = new RecordingSolrProxy();
+			ExportedDocumentLoader loader = new ExportedDocumentLoader(loaded);
+			loader.init(new String[]{getRequiredSystemProperty("test.config.file"), exportDir.getAbsolutePath()});
+			assertEquals(0, loader.handleAll());
+
+			assertEquals(2, loaded.deletedIds.size());
+			assertInOrder(loaded.updates, "add id1", "delete id1", "add id1");
+			assertInOrder(loaded.updates, "add id2", "delete id2");
+			assertEquals(Arrays.asList("id1"), finalIds(loaded.updates));
+		}
+	}
+
+
+	private void assertExportsAndLoads(String format, String suffix)
+			throws IOException
+	{
+		RecordingSolrProxy sentToSolr = new RecordingSolrProxy();
+		MarcImporter importer = new MarcImporter(sentToSolr);
+		importer.init(new String[]{getRequiredSystemProperty("test.config.file"), testDataParentPath + File.separator + TEST_FILE});
+		importer.handleAll();
+		System.clearProperty("marc.path");
+		Map<String, Map<String, List<String>>> expected = normalize(sentToSolr.addedDocs);
+		assertTrue(expected.size() > 10);
+
+		System.setProperty("solrmarc.export.dir", exportDir.getAbsolutePath());
+		System.setProperty("solrmarc.export.format", format);
+		System.setProperty("solrmarc.export.shards", "3");
+		importer = new MarcImporter();
+		importer.init(new String[]{getRequiredSystemProperty("test.config.file"), testDataParentPath + File.separator + TEST_FILE});
+		importer.handleAll();
+
+		List<File> documentFiles = ExportedDocumentReader.listDocumentFiles(exportDir);
+		assertEquals(3, documentFiles.size());
+		List<Map<String, Object>> exported = new ArrayList<Map<String, Object>>();
+		for (File file : documentFiles)
+		{
+			assertTrue(file.getName(), file.getName().endsWith(suffix));
+			ExportedDocumentReader reader = new ExportedDocumentReader(file);
+			Map<String, Object> doc;
+			while ((doc = reader.next()) != null)
+				exported.add(doc);
+			reader.close();
+		}
+		assertEquals(sentToSolr.addedDocs.size(), exported.size());
+		assertEquals(expected, normalize(exported));
+
+		// the loader sends them to Solr, even with solrmarc.export.dir set
+		System.setProperty("marc.source", "NONE");
+		RecordingSolrProxy loaded = new RecordingSolrProxy();
+		ExportedDocumentLoader loader = new ExportedDocumentLoader(loaded);
+		loader.init(new String[]{getRequiredSystemProperty("test.config.file"), exportDir.getAbsolutePath()});
+		assertEquals(0, loader.handleAll());
+		assertEquals(expected, normalize(loaded.addedDocs));
+		assertTrue(loaded.closed);
+	}
+
+	/**
+	 * assert the updates include those given, in that order
+	 */
+	private static void assertInOrder(List<String> updates, String... expected)
+	{
+		List<String> found = new ArrayList<String>();
+		for (String update : updates)
+		{
+			if (Arrays.asList(expected).contains(update))
+				found.add(update);
+		}
+		assertEquals(Arrays.asList(expected), found);
+	}
+
+	/**
+	 * @return the ids left in the index after the updates, in order of id
+	 */
+	private static List<String> finalIds(List<String> updates)
+	{
+		Set<String> ids = new TreeSet<String>();
+		for (String update : updates)
+		{
+			String id = update.substring(update.indexOf(' ') + 1);
+			if (update.startsWith("add "))
+				ids.add(id);
+			else
+				ids.remove(id);
+		}
+		return new ArrayList<String>(ids);
+	}
+
+	/**
+	 * @return the documents by id, with each field's values as Strings, in order
+	 */
+	private static Map<String, Map<String, List<String>>> normalize(List<Map<String, Object>> docs)
+	{
+		Map<String, Map<String, List<String>>> normalized = new TreeMap<String, Map<String, List<String>>>();
+		for (Map<String, Object> doc : docs)
+		{
+			Map<String, List<String>> fields = new TreeMap<String, List<String>>();
+			for (Map.Entry<String, Object> field : doc.entrySet())
+			{
+				List<String> values = new ArrayList<String>();
+				if (field.getValue() instanceof Collection)
+				{
+					for (Object value : (Collection<?>) field.getValue())
+						values.add(String.valueOf(value));
+				}
+				else
+					values.add(String.valueOf(field.getValue()));
+				fields.put(field.getKey(), values);
+			}
+			normalized.put(String.valueOf(doc.get("id")), fields);
+		}
+		return normalized;
+	}
+
+	private static Map<String, Object> newDoc(String id, String title)
+	{
+		Map<String, Object> doc = new HashMap<String, Object>();
+		doc.put("id", id);
+		doc.put("title", Collections.singletonList(title));
+		return doc;
+	}
+
+}
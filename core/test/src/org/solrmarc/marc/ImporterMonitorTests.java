@@ -0,0 +1,185 @@
+package org.solrmarc.marc;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+import javax.management.*;
+
+import org.junit.Test;
+import org.solrmarc.AbstractCoreTest;
+import org.solrmarc.testUtils.RecordingSolrProxy;
+import org.solrmarc.tools.LatencyHistogram;
+
+/**
+ * tests for the JMX monitor of a MarcImporter run:  its counts, and pausing
+ *  and stopping the run through it
+ */
+public class ImporterMonitorTests extends AbstractCoreTest
+{
+	private static final String TEST_FILE = "formatRecs.mrc";
+
+	/**
+	 * the monitor is registered while the run goes on, with live counts, and
+	 *  unregistered at the end
+	 */
+@Test
+	public void testRegisteredWhileIndexing()
+			throws Exception
+	{
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		final List<Object> seenWhileIndexing = new ArrayList<Object>();
+		final MarcImporter importer[] = new MarcImporter[1];
+		RecordingSolrProxy solrProxy = new RecordingSolrProxy()
+		{
+			public String addDoc(Map<String, Object> fields2ValuesMap, boolean verbose, boolean addDocToIndex)
+					throws IOException
+			{
+				if (addedDocs.size() == 2)
+				{
+					try
+					{
+						ObjectName name = importer[0].getMonitor().getObjectName();
+						seenWhileIndexing.add(server.getAttribute(name, "RecordsIndexed"));
+						seenWhileIndexing.add(server.getAttribute(name, "CurrentRecordId"));
+					}
+					catch (Exception e)
+					{
+						seenWhileIndexing.add(e);
+					}
+				}
+				return super.addDoc(fields2ValuesMap, verbose, addDocToIndex);
+			}
+		};
+		importer[0] = newImporter(solrProxy);
+		assertNull(importer[0].getMonitor().getObjectName());
+
+		assertEquals(0, importer[0].handleAll());
+
+		assertEquals(Arrays.asList(new Object[]{2, solrProxy.getAddedIds().get(2)}), seenWhileIndexing);
+		ImporterMonitor monitor = importer[0].getMonitor();
+		assertNull(monitor.getObjectName());
+		assertTrue(server.queryNames(new ObjectName("org.solrmarc:type=ImporterMonitor,*"), null).isEmpty());
+		assertEquals(solrProxy.addedDocs.size(), monitor.getRecordsIndexed());
+		assertTrue(monitor.getRecordsRead() >= monitor.getRecordsIndexed());
+		assertEquals(0, monitor.getReadErrors());
+		assertEquals(0, monitor.getFatalErrors());
+		// each document added, and the flush at the end
+		assertEquals(solrProxy.addedDocs.size() + 1, monitor.getSolrCalls());
+		assertTrue(monitor.getSolrLatency99thMillis() <= monitor.getSolrLatencyMaxMillis());
+	}
+
+	/**
+	 * stopping the run through the monitor stops reading records, and
+	 *  handleAll() returns 1 as when the process is interrupted
+	 */
+@Test
+	public void testStop()
+			throws Exception
+	{
+		final MarcImporter importer[] = new MarcImporter[1];
+		RecordingSolrProxy solrProxy = new RecordingSolrProxy()
+		{
+			public String addDoc(Map<String, Object> fields2ValuesMap, boolean verbose, boolean addDocToIndex)
+					throws IOException
+			{
+				if (addedDocs.size() == 2)
+					importer[0].getMonitor().stop();
+				return super.addDoc(fields2ValuesMap, verbose, addDocToIndex);
+			}
+		};
+		importer[0] = newImporter(solrProxy);
+
+		assertEquals(1, importer[0].handleAll());
+		assertEquals(3, solrProxy.addedDocs.size());
+		assertTrue(importer[0].getMonitor().isStopping());
+	}
+
+	/**
+	 * a paused run sends no more documents until it is resumed
+	 */
+@Test
+	public void testPauseAndResume()
+			throws Exception
+	{
+		final MarcImporter importer[] = new MarcImporter[1];
+		final RecordingSolrProxy solrProxy = new RecordingSolrProxy()
+		{
+			public synchronized String addDoc(Map<String, Object> fields2ValuesMap, boolean verbose, boolean addDocToIndex)
+					throws IOException
+			{
+				if (addedDocs.size() == 1)
+					importer[0].getMonitor().pause();
+				return super.addDoc(fields2ValuesMap, verbose, addDocToIndex);
+			}
+		};
+		importer[0] = newImporter(solrProxy);
+		ImporterMonitor monitor = importer[0].getMonitor();
+
+		Thread indexing = new Thread()
+		{
+			public void run()
+			{
+				importer[0].importRecords();
+			}
+		};
+		indexing.start();
+		for (int i = 0; i < 100 && !monitor.isPaused(); i++)
+			Thread.sleep(100);
+		assertTrue(monitor.isPaused());
+
+		Thread.sleep(300);
+		synchronized (solrProxy)
+		{
+			assertEquals(2, solrProxy.addedDocs.size());
+		}
+		assertTrue(indexing.isAlive());
+
+		monitor.resume();
+		indexing.join(30000);
+		assertFalse(indexing.isAlive());
+		assertFalse(monitor.isPaused());
+		assertEquals(monitor.getRecordsIndexed(), solrProxy.addedDocs.size());
+		assertTrue(solrProxy.addedDocs.size() > 2);
+	}
+
+	/**
+	 * the percentiles are within a bucket (about 6%) of the latencies added
+	 */
+@Test
+	public void testLatencyHistogram()
+	{
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getPercentileMillis(50), 0);
+
+		for (int ms = 1; ms <= 1000; ms++)
+			histogram.add(ms * 1000000L);
+		assertEquals(1000, histogram.getCount());
+		assertEquals(500.5, histogram.getMeanMillis(), 0.001);
+		assertEquals(1000.0, histogram.getMaxMillis(), 0);
+		assertEquals(500, histogram.getPercentileMillis(50), 500 * 0.07);
+		assertEquals(900, histogram.getPercentileMillis(90), 900 * 0.07);
+		assertEquals(990, histogram.getPercentileMillis(99), 990 * 0.07);
+		assertTrue(histogram.getPercentileMillis(99) <= histogram.getMaxMillis());
+		assertEquals(1000.0, histogram.getPercentileMillis(100), 0);
+
+		histogram.add(5000);
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		histogram.add(5000);
+		assertEquals(0.005, histogram.getPercentileMillis(50), 0);
+	}
+
+
+	private MarcImporter newImporter(RecordingSolrProxy solrProxy)
+			throws FileNotFoundException
+	{
+		MarcImporter importer = new MarcImporter(solrProxy);
+		String testConfigFname = getRequiredSystemProperty("test.config.file");
+		importer.init(new String[]{testConfigFname, testDataParentPath + File.separator + TEST_FILE});
+		return importer;
+	}
+
+}
@@ -0,0 +1,229 @@
+package org.solrmarc.marc;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.solrmarc.AbstractCoreTest;
+import org.solrmarc.solr.SolrRuntimeException;
+import org.solrmarc.testUtils.RecordingSolrProxy;
+
+/**
+ * tests for MarcImporter checkpoints, and resuming an indexing run from one:
+ *  the resumed run should send the documents the failed run didn't commit
+ */
+public class IndexingCheckpointTests extends AbstractCoreTest
+{
+	private static final String TEST_FILE = "formatRecs.mrc";
+	/** bib b2 is followed by another b2 and two mhlds for it, which are combined */
+	private static final String COMBINE_FILE = "combineBibMhld_b1b2b2m2m2b3.mrc";
+
+	private File checkpointFile;
+
+@Before
+	public void createCheckpointFile()
+			throws IOException
+	{
+		checkpointFile = File.createTempFile("solrmarc", ".checkpoint");
+		checkpointFile.delete();
+		System.setProperty("solrmarc.checkpoint.file", checkpointFile.getAbsolutePath());
+		// the last checkpoint is written after the commit at the end
+		System.setProperty("solr.commit_at_end", "true");
+	}
+
+@After
+	public void clearProperties()
+	{
+		checkpointFile.delete();
+		System.clearProperty("solrmarc.checkpoint.file");
+		System.clearProperty("solr.commit_at_end");
+		System.clearProperty("solrmarc.checkpoint.interval");
+		System.clearProperty("solrmarc.checkpoint.resume");
+		System.clearProperty("solrmarc.indexing.threads");
+		System.clearProperty("marc.combine_records");
+		System.clearProperty("stanford.combining.reader");
+		System.clearProperty("marc.path");
+		System.clearProperty("marc.source");
+	}
+
+	/**
+	 * a run that fails part way leaves a checkpoint at its last commit;
+	 *  resuming from it sends the rest of the documents
+	 */
+@Test
+	public void testResumeAfterFailure()
+			throws IOException
+	{
+		List<String> allIds = indexAll(TEST_FILE);
+		assertTrue("expected more records in " + TEST_FILE, allIds.size() > 10);
+
+		System.setProperty("solrmarc.checkpoint.interval", "3");
+		RecordingSolrProxy failedRun = indexUntilFailure(TEST_FILE, 8);
+		assertEquals(2, failedRun.numCommits);
+
+		IndexingCheckpoint checkpoint = new IndexingCheckpoint(checkpointFile);
+		assertTrue(checkpoint.load());
+		assertEquals(6, checkpoint.getPosition().getRecords());
+		assertTrue(checkpoint.getPosition().getOffset() > 0);
+		assertTrue(IndexingCheckpoint.isRecordStart(new File(testDataParentPath, TEST_FILE), checkpoint.getPosition().getOffset()));
+		assertEquals(allIds.get(5), checkpoint.getLastCommittedId());
+		assertFalse(checkpoint.isComplete());
+
+		RecordingSolrProxy resumedRun = resume(TEST_FILE);
+		assertEquals(allIds.subList(6, allIds.size()), resumedRun.getAddedIds());
+
+		// the resumed run got to the end, so there is nothing left to resume
+		assertTrue(checkpoint.load());
+		assertTrue(checkpoint.isComplete());
+		assertEquals(allIds.size(), checkpoint.getPosition().getRecords());
+		assertEquals(0, resume(TEST_FILE).addedDocs.size());
+	}
+
+	/**
+	 * with mapping threads, the checkpoint is for the records sent in order
+	 */
+@Test
+	public void testResumePipeline()
+			throws IOException
+	{
+		List<String> allIds = indexAll(TEST_FILE);
+
+		System.setProperty("solrmarc.indexing.threads", "3");
+		System.setProperty("solrmarc.checkpoint.interval", "4");
+		indexUntilFailure(TEST_FILE, 10);
+
+		IndexingCheckpoint checkpoint = new IndexingCheckpoint(checkpointFile);
+		assertTrue(checkpoint.load());
+		assertEquals(8, checkpoint.getPosition().getRecords());
+
+		assertEquals(allIds.subList(8, allIds.size()), resume(TEST_FILE).getAddedIds());
+	}
+
+	/**
+	 * the Stanford combining reader reads the record after the one it
+	 *  returns;  the checkpoint should be before that record, so the resumed
+	 *  run combines the records for the next bib as the full run does
+	 */
+@Test
+	public void testResumeStanfordCombiningReader()
+			throws IOException
+	{
+		System.setProperty("marc.combine_records", "999");
+		System.setProperty("stanford.combining.reader", "true");
+		assertResumesCombinedRecords();
+	}
+
+	/**
+	 * the same for the marc4j combining reader
+	 */
+@Test
+	public void testResumeMarcCombiningReader()
+			throws IOException
+	{
+		System.setProperty("marc.combine_records", "999|852|863|866|867|868");
+		assertResumesCombinedRecords();
+	}
+
+	/**
+	 * a checkpoint whose offset isn't at the start of a record is resumed by
+	 *  skipping records, and one for another marc file is ignored
+	 */
+@Test
+	public void testUnusableCheckpoints()
+			throws IOException
+	{
+		List<String> allIds = indexAll(TEST_FILE);
+		File marcFile = new File(testDataParentPath, TEST_FILE);
+
+		IndexingCheckpoint checkpoint = new IndexingCheckpoint(checkpointFile);
+		checkpoint.save(marcFile, new MarcInputPosition(37, 4), allIds.get(3), false);
+		assertFalse(IndexingCheckpoint.isRecordStart(marcFile, 37));
+		assertEquals(allIds.subList(4, allIds.size()), resume(TEST_FILE).getAddedIds());
+
+		checkpoint.save(new File(testDataParentPath, COMBINE_FILE), new MarcInputPosition(0, 4), null, false);
+		assertEquals(allIds, resume(TEST_FILE).getAddedIds());
+	}
+
+
+	private void assertResumesCombinedRecords()
+			throws IOException
+	{
+		RecordingSolrProxy fullRun = new RecordingSolrProxy();
+		newImporter(fullRun, COMBINE_FILE).handleAll();
+		List<String> allIds = fullRun.getAddedIds();
+		assertEquals(3, allIds.size());
+
+		System.setProperty("solrmarc.checkpoint.interval", "1");
+		indexUntilFailure(COMBINE_FILE, 2);
+		IndexingCheckpoint checkpoint = new IndexingCheckpoint(checkpointFile);
+		assertTrue(checkpoint.load());
+		assertEquals(1, checkpoint.getPosition().getRecords());
+		assertEquals(allIds.get(0), checkpoint.getLastCommittedId());
+
+		RecordingSolrProxy resumedRun = resume(COMBINE_FILE);
+		assertEquals(allIds.subList(1, 3), resumedRun.getAddedIds());
+		assertEquals(fullRun.addedDocs.get(1), resumedRun.addedDocs.get(0));
+	}
+
+	/**
+	 * @return the ids of the documents sent when indexing the whole file,
+	 *   without checkpoints
+	 */
+	private List<String> indexAll(String marcFileName)
+			throws IOException
+	{
+		RecordingSolrProxy solrProxy = new RecordingSolrProxy();
+		newImporter(solrProxy, marcFileName).handleAll();
+		assertFalse(checkpointFile.exists());
+		return solrProxy.getAddedIds();
+	}
+
+	/**
+	 * index the file with a Solr that fails on the failAt'th document
+	 */
+	private RecordingSolrProxy indexUntilFailure(String marcFileName, final int failAt)
+			throws IOException
+	{
+		RecordingSolrProxy solrProxy = new RecordingSolrProxy()
+		{
+			public String addDoc(Map<String, Object> fields2ValuesMap, boolean verbose, boolean addDocToIndex)
+					throws IOException
+			{
+				if (addedDocs.size() == failAt - 1)
+					throw new SolrRuntimeException("Solr went away");
+				return super.addDoc(fields2ValuesMap, verbose, addDocToIndex);
+			}
+		};
+		newImporter(solrProxy, marcFileName).handleAll();
+		assertEquals(failAt - 1, solrProxy.addedDocs.size());
+		return solrProxy;
+	}
+
+	/**
+	 * index the file again with -resume
+	 */
+	private RecordingSolrProxy resume(String marcFileName)
+			throws IOException
+	{
+		RecordingSolrProxy solrProxy = new RecordingSolrProxy();
+		MarcImporter importer = new MarcImporter(solrProxy);
+		importer.init(new String[]{getRequiredSystemProperty("test.config.file"),
+		                           testDataParentPath + File.separator + marcFileName, "-resume"});
+		importer.handleAll();
+		System.clearProperty("solrmarc.checkpoint.resume");
+		return solrProxy;
+	}
+
+	private MarcImporter newImporter(RecordingSolrProxy solrProxy, String marcFileName)
+			throws FileNotFoundException
+	{
+		MarcImporter importer = new MarcImporter(solrProxy);
+		importer.init(new String[]{getRequiredSystemProperty("test.config.file"), testDataParentPath + File.separator + marcFileName});
+		return importer;
+	}
+
+}
@@ -0,0 +1,193 @@
+package org.solrmarc.marc;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Test;
+import org.marc4j.ErrorHandler;
+import org.marc4j.marc.Record;
+import org.solrmarc.AbstractCoreTest;
+import org.solrmarc.index.SolrIndexer;
+import org.solrmarc.testUtils.RecordingSolrProxy;
+import org.solrmarc.tools.SolrMarcIndexerException;
+
+/**
+ * tests for the multi-threaded MarcImporter indexing pipeline:  it should
+ *  send the same documents as indexing on a single thread
+ */
+public class IndexingPipelineTests extends AbstractCoreTest
+{
+	private static final String TEST_FILE = "formatRecs.mrc";
+
+@After
+	public void clearProperties()
+	{
+		System.clearProperty("solrmarc.indexing.threads");
+		System.clearProperty("solrmarc.indexing.queue_size");
+		System.clearProperty("solrmarc.indexing.preserve_order");
+		System.clearProperty("marc.path");
+		System.clearProperty("marc.source");
+		System.clearProperty("solrmarc.indexing.class");
+		FlaggingIndexer.levels.clear();
+	}
+
+	/**
+	 * with preserve_order, documents should be sent in the order read
+	 */
+@Test
+	public void testPipelinePreservesOrder()
+			throws FileNotFoundException
+	{
+		List<String> serialIds = importIds(null, null, null);
+		assertTrue("expected documents from " + TEST_FILE, serialIds.size() > 1);
+
+		List<String> pipelineIds = importIds("4", "2", "true");
+		assertEquals(serialIds, pipelineIds);
+	}
+
+	/**
+	 * without preserve_order, the same documents should be sent
+	 */
+@Test
+	public void testPipelineUnordered()
+			throws FileNotFoundException
+	{
+		List<String> serialIds = importIds(null, null, null);
+		List<String> pipelineIds = importIds("3", "1", "false");
+
+		assertEquals(serialIds.size(), pipelineIds.size());
+		assertEquals(new HashSet<String>(serialIds), new HashSet<String>(pipelineIds));
+	}
+
+
+	/**
+	 * a record the indexer flags IGNORE is skipped, and one flagged DELETE is
+	 *  deleted from the index;  the other records are sent
+	 */
+@Test
+	public void testPipelineIgnoresAndDeletes()
+			throws FileNotFoundException
+	{
+		List<String> serialIds = importIds(null, null, null);
+		String ignoredId = serialIds.get(1);
+		String deletedId = serialIds.get(2);
+		FlaggingIndexer.levels.put(ignoredId, SolrMarcIndexerException.IGNORE);
+		FlaggingIndexer.levels.put(deletedId, SolrMarcIndexerException.DELETE);
+		System.setProperty("solrmarc.indexing.class", FlaggingIndexer.class.getName());
+
+		setPipeline("3", "2", "true");
+		RecordingSolrProxy solrProxy = new RecordingSolrProxy();
+		MarcImporter importer = newImporter(solrProxy);
+		assertEquals(serialIds.size() - 2, importer.importRecords());
+
+		List<String> expectedIds = new ArrayList<String>(serialIds);
+		expectedIds.remove(ignoredId);
+		expectedIds.remove(deletedId);
+		assertEquals(expectedIds, solrProxy.getAddedIds());
+		assertEquals(Arrays.asList(deletedId), solrProxy.deletedIds);
+		assertEquals(1, importer.getMonitor().getIgnoredRecords());
+		assertEquals(1, importer.getMonitor().getDeletedByIndexer());
+	}
+
+	/**
+	 * a record the indexer flags EXIT stops the pipeline:  the exception is
+	 *  thrown to the caller and none of the later records are sent
+	 */
+@Test
+	public void testPipelineExits()
+			throws FileNotFoundException
+	{
+		List<String> serialIds = importIds(null, null, null);
+		String exitId = serialIds.get(2);
+		FlaggingIndexer.levels.put(exitId, SolrMarcIndexerException.EXIT);
+		System.setProperty("solrmarc.indexing.class", FlaggingIndexer.class.getName());
+
+		setPipeline("3", "2", "true");
+		RecordingSolrProxy solrProxy = new RecordingSolrProxy();
+		MarcImporter importer = newImporter(solrProxy);
+		try
+		{
+			importer.importRecords();
+			fail("expected SolrMarcIndexerException");
+		}
+		catch (SolrMarcIndexerException e)
+		{
+			assertEquals(SolrMarcIndexerException.EXIT, e.getLevel());
+		}
+
+		assertEquals(serialIds.subList(0, 2), solrProxy.getAddedIds());
+		assertEquals(1, importer.getMonitor().getFatalErrors());
+	}
+
+
+	/**
+	 * import the test file with the given pipeline settings
+	 * @return the ids of the documents sent to Solr, in the order sent
+	 */
+	private List<String> importIds(String threads, String queueSize, String preserveOrder)
+			throws FileNotFoundException
+	{
+		setPipeline(threads, queueSize, preserveOrder);
+
+		RecordingSolrProxy solrProxy = new RecordingSolrProxy();
+		int numIndexed = newImporter(solrProxy).importRecords();
+
+		assertEquals(numIndexed, solrProxy.addedDocs.size());
+		return solrProxy.getAddedIds();
+	}
+
+	private void setPipeline(String threads, String queueSize, String preserveOrder)
+	{
+		setOrClear("solrmarc.indexing.threads", threads);
+		setOrClear("solrmarc.indexing.queue_size", queueSize);
+		setOrClear("solrmarc.indexing.preserve_order", preserveOrder);
+	}
+
+	/**
+	 * @return an importer of the test file, sending to solrProxy
+	 */
+	private MarcImporter newImporter(RecordingSolrProxy solrProxy)
+			throws FileNotFoundException
+	{
+		MarcImporter importer = new MarcImporter(solrProxy);
+		String testConfigFname = getRequiredSystemProperty("test.config.file");
+		importer.init(new String[]{testConfigFname, testDataParentPath + File.separator + TEST_FILE});
+		return importer;
+	}
+
+	private void setOrClear(String propName, String value)
+	{
+		if (value == null)
+			System.clearProperty(propName);
+		else
+			System.setProperty(propName, value);
+	}
+
+	/**
+	 * indexer that throws a SolrMarcIndexerException for the records with ids
+	 *  in levels, at the level given there
+	 */
+	public static class FlaggingIndexer extends SolrIndexer
+	{
+		/** SolrMarcIndexerException level to throw, by record id */
+		static final Map<String, Integer> levels = Collections.synchronizedMap(new HashMap<String, Integer>());
+
+		public FlaggingIndexer(String indexingPropsFile, String propertyDirs[])
+		{
+			super(indexingPropsFile, propertyDirs);
+		}
+
+		@Override
+		public Map<String, Object> createFldNames2ValsMap(Record record, ErrorHandler errors)
+		{
+			Integer level = levels.get(record.getControlNumber());
+			if (level != null)
+				throw new SolrMarcIndexerException(level, "flagged record " + record.getControlNumber());
+			return super.createFldNames2ValsMap(record, errors);
+		}
+	}
+
+}
@@ -0,0 +1,85 @@
+package org.solrmarc.marc;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+
+import org.junit.Test;
+import org.solrmarc.tools.CountingInputStream;
+
+/**
+ * tests for the MarcImporter progress reports, and the byte counts they use
+ */
+public class IndexingProgressTests
+{
+	private static final int MB = 1024 * 1024;
+
+	/**
+	 * the report has the counts, the bytes read of the file, the Solr calls
+	 *  and an estimate of the time left
+	 */
+@Test
+	public void testReport()
+			throws IOException
+	{
+		CountingInputStream input = new CountingInputStream(new ByteArrayInputStream(new byte[2 * MB]));
+		IndexingProgress progress = new IndexingProgress(60000, input, 2 * MB);
+		assertFalse(progress.isReportDue());
+
+		byte buf[] = new byte[MB];
+		assertEquals(MB, input.read(buf, 0, MB));
+		progress.addSolrCall(2000000);
+		progress.addSolrCall(6000000);
+
+		String report = progress.report(10, 9, null);
+		assertTrue(report, report.startsWith("Progress: 10 records read, 9 indexed in "));
+		assertTrue(report, report.contains("records/sec"));
+		assertTrue(report, report.contains("MB/sec"));
+		assertTrue(report, report.contains("read 1.0 of 2.0 MB (50.0%), ETA "));
+		assertTrue(report, report.contains("Solr: 2 calls, 4.00 ms avg, 6.0 ms max"));
+		assertFalse(report, report.contains("queues"));
+
+		// the Solr calls are for the interval since the last report
+		report = progress.report(10, 9, null);
+		assertFalse(report, report.contains("Solr:"));
+	}
+
+	/**
+	 * without a byte count there are no MB or ETA figures;  with an interval
+	 *  of 0, reports are never due
+	 */
+@Test
+	public void testUnknownInput()
+	{
+		IndexingProgress progress = new IndexingProgress(0, null, -1);
+		assertFalse(progress.isReportDue());
+		assertEquals(0, progress.getBytesRead());
+		String report = progress.report(5, 5, null);
+		assertFalse(report, report.contains("MB"));
+		assertFalse(report, report.contains("ETA"));
+	}
+
+	/**
+	 * CountingInputStream counts bytes read and skipped, and goes back to the
+	 *  count at the mark on reset
+	 */
+@Test
+	public void testCountingInputStream()
+			throws IOException
+	{
+		CountingInputStream input = new CountingInputStream(new ByteArrayInputStream(new byte[100]));
+		assertEquals(0, input.read());
+		assertEquals(1, input.getCount());
+		assertEquals(10, input.read(new byte[10], 0, 10));
+		assertEquals(11, input.getCount());
+		input.mark(50);
+		assertEquals(20, input.skip(20));
+		assertEquals(31, input.getCount());
+		input.reset();
+		assertEquals(11, input.getCount());
+		assertEquals(89, input.read(new byte[200], 0, 200));
+		assertEquals(-1, input.read());
+		assertEquals(100, input.getCount());
+	}
+
+}
@@ -0,0 +1,191 @@
+package org.solrmarc.marc;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Test;
+import org.marc4j.MarcPermissiveStreamReader;
+import org.marc4j.MarcReader;
+import org.marc4j.marc.*;
+import org.solrmarc.AbstractCoreTest;
+import org.solrmarc.index.SolrIndexer;
+
+/**
+ * tests for records that make their fields only when they are asked for
+ */
+public class LazyRecordTests extends AbstractCoreTest
+{
+	private static final String MARC_FILE = "formatRecs.mrc";
+
+	/**
+	 * fields are made for the tags asked for, and all of them when all the
+	 *  fields are asked for
+	 */
+@Test
+	public void testFieldsMadeWhenAsked()
+			throws IOException
+	{
+		LazyRecord record = (LazyRecord) readMapped(MARC_FILE).get(0);
+		assertEquals(0, record.getNumFieldsMade());
+
+		assertNotNull(record.getControlNumber());
+		assertEquals(1, record.getNumFieldsMade());
+		int num245s = record.getVariableFields("245").size();
+		assertEquals(1, num245s);
+		assertEquals(2, record.getNumFieldsMade());
+		record.getVariableFields("245");
+		assertEquals(2, record.getNumFieldsMade());
+
+		int numFields = record.getVariableFields().size();
+		assertTrue(numFields > 2);
+		assertEquals(numFields, record.getNumFieldsMade());
+	}
+
+	/**
+	 * whatever order the tags are asked for in, the fields are those of the
+	 *  record read by the stream reader, in the same order
+	 */
+@Test
+	public void testSameFieldsAsStreamReader()
+			throws IOException
+	{
+		List<Record> expectedRecords = readStream(MARC_FILE);
+		List<Record> lazyRecords = readMapped(MARC_FILE);
+		assertEquals(expectedRecords.size(), lazyRecords.size());
+
+		String tagsToAsk[] = {"650", "245", "008", "999", "100", "001", "650"};
+		int numLazy = 0;
+		for (int i = 0; i < expectedRecords.size(); i++)
+		{
+			Record expected = expectedRecords.get(i);
+			Record lazy = lazyRecords.get(i);
+			if (lazy instanceof LazyRecord)
+				numLazy++;
+			for (String tag : tagsToAsk)
+			{
+				assertEquals(expected.getVariableFields(tag).toString(), lazy.getVariableFields(tag).toString());
+				assertEquals(String.valueOf(expected.getVariableField(tag)), String.valueOf(lazy.getVariableField(tag)));
+			}
+			assertEquals(expected.getVariableFields(new String[] {"600", "650", "651"}).toString(),
+			             lazy.getVariableFields(new String[] {"600", "650", "651"}).toString());
+			assertEquals(expected.find("245", "[A-Za-z]").toString(), lazy.find("245", "[A-Za-z]").toString());
+			assertEquals(expected.getControlNumber(), lazy.getControlNumber());
+
+			assertEquals(expected.getVariableFields().toString(), lazy.getVariableFields().toString());
+			assertEquals(expected.getControlFields().toString(), lazy.getControlFields().toString());
+			assertEquals(expected.getDataFields().toString(), lazy.getDataFields().toString());
+			assertEquals(expected.toString(), lazy.toString());
+		}
+		// the others have MARC-8 diacritics, and are read by the stream reader
+		assertTrue(numLazy > expectedRecords.size() / 2);
+	}
+
+	/**
+	 * indexing a record makes only the fields of the tags the index specs
+	 *  look at, and maps it as it maps the record read by the stream reader
+	 */
+@Test
+	public void testIndexingMakesOnlyFieldsUsed()
+			throws IOException
+	{
+		Properties indexProps = new Properties();
+		indexProps.setProperty("id", "001, first");
+		indexProps.setProperty("title_display", "245a, first");
+		indexProps.setProperty("topic_facet", "650a");
+		SolrIndexer indexer = SolrIndexer.indexerFromProperties(indexProps, new String[0]);
+		List<String> tagsUsed = Arrays.asList("001", "245", "650");
+
+		List<Record> expectedRecords = readStream(MARC_FILE);
+		List<Record> lazyRecords = readMapped(MARC_FILE);
+		int numLazy = 0;
+		for (int i = 0; i < expectedRecords.size(); i++)
+		{
+			if (!(lazyRecords.get(i) instanceof LazyRecord))
+				continue;
+			numLazy++;
+			LazyRecord lazy = (LazyRecord) lazyRecords.get(i);
+			Record expected = expectedRecords.get(i);
+			assertEquals(indexer.createFldNames2ValsMap(expected), indexer.createFldNames2ValsMap(lazy));
+
+			int numFieldsUsed = 0;
+			for (VariableField field : (List<VariableField>) expected.getVariableFields())
+			{
+				if (tagsUsed.contains(field.getTag()))
+					numFieldsUsed++;
+			}
+			assertEquals(expected.getControlNumber(), numFieldsUsed, lazy.getNumFieldsMade());
+			assertTrue(lazy.getNumFieldsMade() < expected.getVariableFields().size());
+		}
+		assertTrue(numLazy > 0);
+	}
+
+	/**
+	 * fields added to or removed from a record after some of its fields are
+	 *  made end up as they do in a RecordImpl
+	 */
+@Test
+	public void testChangeFields()
+			throws IOException
+	{
+		Record expected = readStream(MARC_FILE).get(0);
+		Record lazy = readMapped(MARC_FILE).get(0);
+		VariableField expected245 = expected.getVariableField("245");
+		VariableField lazy245 = lazy.getVariableField("245");
+
+		MarcFactory factory = MarcFactory.newInstance();
+		expected.addVariableField(factory.newDataField("999", ' ', ' ', "a", "added"));
+		lazy.addVariableField(factory.newDataField("999", ' ', ' ', "a", "added"));
+		expected.removeVariableField(expected245);
+		lazy.removeVariableField(lazy245);
+
+		assertEquals(expected.toString(), lazy.toString());
+		assertTrue(lazy.getVariableFields("245").isEmpty());
+	}
+
+	/**
+	 * a record serialized with only some of its fields made has all of them
+	 *  when read back
+	 */
+@Test
+	public void testSerialized()
+			throws IOException, ClassNotFoundException
+	{
+		Record lazy = readMapped(MARC_FILE).get(0);
+		String controlNumber = lazy.getControlNumber();
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(lazy);
+		out.close();
+		Record readBack = (Record) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+
+		assertEquals(controlNumber, readBack.getControlNumber());
+		assertEquals(readStream(MARC_FILE).get(0).toString(), readBack.toString());
+	}
+
+
+	private List<Record> readMapped(String marcFileName)
+			throws IOException
+	{
+		File marcFile = new File(testDataParentPath, marcFileName);
+		return readAll(new MappedMarcReader(new FileInputStream(marcFile), marcFile.length(), null, true, "MARC8"));
+	}
+
+	private List<Record> readStream(String marcFileName)
+			throws IOException
+	{
+		File marcFile = new File(testDataParentPath, marcFileName);
+		return readAll(new MarcPermissiveStreamReader(new FileInputStream(marcFile), false, true, "MARC8"));
+	}
+
+	private static List<Record> readAll(MarcReader reader)
+	{
+		List<Record> records = new ArrayList<Record>();
+		while (reader.hasNext())
+			records.add(reader.next());
+		return records;
+	}
+
+}
@@ -0,0 +1,152 @@
+package org.solrmarc.marc;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Test;
+import org.marc4j.ErrorHandler;
+import org.marc4j.MarcPermissiveStreamReader;
+import org.marc4j.MarcReader;
+import org.marc4j.marc.Record;
+import org.solrmarc.AbstractCoreTest;
+import org.solrmarc.testUtils.RecordingSolrProxy;
+
+/**
+ * tests for reading binary marc records from a file mapped into memory
+ */
+public class MappedMarcReaderTests extends AbstractCoreTest
+{
+@After
+	public void clearProperties()
+	{
+		System.clearProperty("marc.path");
+		System.clearProperty("marc.reader");
+	}
+
+	/**
+	 * the records, and the errors found in them, are the same as the stream
+	 *  reader's, whether made from the mapped file or copied for the stream
+	 *  reader because they have MARC-8 diacritics or errors to repair
+	 */
+@Test
+	public void testSameRecordsAsStreamReader()
+			throws IOException
+	{
+		String fileNames[] = {"formatRecs.mrc", "nonlatinscripts.mrc", "summaryHld_1-1000.mrc", "WPUbadrecords.mrc", "u55_split.mrc"};
+		int recordsMapped = 0;
+		int recordsCopied = 0;
+		for (String fileName : fileNames)
+		{
+			File marcFile = new File(testDataParentPath, fileName);
+			ErrorHandler streamErrors = new ErrorHandler();
+			MarcReader streamReader = new MarcPermissiveStreamReader(new FileInputStream(marcFile), streamErrors, true, "MARC8");
+			ErrorHandler mappedErrors = new ErrorHandler();
+			MappedMarcReader mappedReader = new MappedMarcReader(new FileInputStream(marcFile), marcFile.length(), mappedErrors, true, "MARC8");
+
+			List<String> expected = readAll(streamReader, streamErrors);
+			assertEquals(fileName, expected, readAll(mappedReader, mappedErrors));
+			assertEquals(fileName, expected.size(), mappedReader.getRecordsMapped() + mappedReader.getRecordsCopied());
+			recordsMapped += mappedReader.getRecordsMapped();
+			recordsCopied += mappedReader.getRecordsCopied();
+		}
+		assertTrue(recordsMapped > 0);
+		assertTrue(recordsCopied > 0);
+	}
+
+	/**
+	 * after a record with a length that doesn't end at a record terminator,
+	 *  the stream reader reads the rest of the file
+	 */
+@Test
+	public void testRestOfFileReadAfterBadLength()
+			throws IOException
+	{
+		File marcFile = new File(testDataParentPath, "bad_too_long_plus_2.mrc");
+		ErrorHandler streamErrors = new ErrorHandler();
+		MarcReader streamReader = new MarcPermissiveStreamReader(new FileInputStream(marcFile), streamErrors, true, "MARC8");
+		ErrorHandler mappedErrors = new ErrorHandler();
+		MappedMarcReader mappedReader = new MappedMarcReader(new FileInputStream(marcFile), marcFile.length(), mappedErrors, true, "MARC8");
+
+		List<String> expected = readAll(streamReader, streamErrors);
+		assertEquals(3, expected.size());
+		assertEquals(expected, readAll(mappedReader, mappedErrors));
+		assertEquals(0, mappedReader.getRecordsMapped());
+	}
+
+	/**
+	 * the reader starts at the file's position, and reads only the length given
+	 */
+@Test
+	public void testReadsSection()
+			throws IOException
+	{
+		File marcFile = new File(testDataParentPath, "formatRecs.mrc");
+		List<MarcFileSection> sections = MarcFileSplitter.split(marcFile, 20000);
+		MarcFileSection section = sections.get(1);
+
+		FileInputStream in = new FileInputStream(marcFile);
+		in.getChannel().position(section.getStart());
+		MarcReader mappedReader = new MappedMarcReader(in, section.getLength(), null, true, "MARC8");
+
+		List<String> ids = new ArrayList<String>();
+		while (mappedReader.hasNext())
+			ids.add(mappedReader.next().getControlNumber());
+
+		List<String> allIds = new ArrayList<String>();
+		MarcReader streamReader = new MarcPermissiveStreamReader(new FileInputStream(marcFile), false, true, "MARC8");
+		while (streamReader.hasNext())
+			allIds.add(streamReader.next().getControlNumber());
+		int firstRecord = allIds.indexOf(ids.get(0));
+		assertTrue(firstRecord > 0);
+		assertEquals(allIds.subList(firstRecord, firstRecord + ids.size()), ids);
+		assertTrue(firstRecord + ids.size() < allIds.size());
+	}
+
+	/**
+	 * marc.reader = mapped gives the same Solr documents as the stream reader
+	 */
+@Test
+	public void testIndexedWithMappedReader()
+			throws IOException
+	{
+		RecordingSolrProxy streamSolrProxy = new RecordingSolrProxy();
+		newImporter(streamSolrProxy, "formatRecs.mrc").handleAll();
+		System.clearProperty("marc.path");
+
+		System.setProperty("marc.reader", "mapped");
+		RecordingSolrProxy mappedSolrProxy = new RecordingSolrProxy();
+		MarcImporter importer = newImporter(mappedSolrProxy, "formatRecs.mrc");
+		assertTrue(importer.mappedReader);
+		importer.handleAll();
+
+		assertTrue(streamSolrProxy.addedDocs.size() > 0);
+		assertEquals(streamSolrProxy.addedDocs, mappedSolrProxy.addedDocs);
+	}
+
+
+	/**
+	 * @return each record as a String, with the errors found reading it
+	 */
+	private static List<String> readAll(MarcReader reader, ErrorHandler errors)
+	{
+		List<String> records = new ArrayList<String>();
+		while (reader.hasNext())
+		{
+			Record record = reader.next();
+			records.add(record.toString() + "\n" + errors.getErrors());
+		}
+		return records;
+	}
+
+	private MarcImporter newImporter(RecordingSolrProxy solrProxy, String marcFileName)
+			throws FileNotFoundException
+	{
+		MarcImporter importer = new MarcImporter(solrProxy);
+		importer.init(new String[] {getRequiredSystemProperty("test.config.file"), testDataParentPath + File.separator + marcFileName});
+		return importer;
+	}
+
+}
@@ -0,0 +1,196 @@
+package org.solrmarc.marc;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Test;
+import org.marc4j.util.RawRecordReader;
+import org.solrmarc.AbstractCoreTest;
+import org.solrmarc.testUtils.RecordingSolrProxy;
+import org.solrmarc.tools.LimitedInputStream;
+
+/**
+ * tests for splitting a binary marc file into sections indexed in parallel
+ */
+public class MarcFileSplitterTests extends AbstractCoreTest
+{
+	private static final String BIG_FILE = "formatRecs.mrc";
+
+@After
+	public void clearProperties()
+	{
+		System.clearProperty("marc.path");
+		System.clearProperty("marc.source");
+		System.clearProperty("solrmarc.indexing.parallel_files");
+	}
+
+	/**
+	 * the sections follow each other from the start of the file to the end,
+	 *  each starting at a record, and together have all the records
+	 */
+@Test
+	public void testSectionsCoverFile()
+			throws IOException
+	{
+		File marcFile = new File(testDataParentPath, BIG_FILE);
+		List<MarcFileSection> sections = MarcFileSplitter.split(marcFile, 20000);
+		assertTrue(sections.size() > 1);
+
+		assertSectionsCoverFile(marcFile, sections);
+		List<String> sectionIds = new ArrayList<String>();
+		for (MarcFileSection section : sections)
+		{
+			assertTrue(section.toString(), IndexingCheckpoint.isRecordStart(marcFile, section.getStart()));
+			assertTrue(section.toString(), section.getLength() >= 20000 || section.getEnd() < 0);
+			sectionIds.addAll(readIds(section));
+		}
+		assertEquals(readIds(new MarcFileSection(marcFile)), sectionIds);
+	}
+
+	/**
+	 * records with the same id, such as a bib and its mhlds, are never in
+	 *  different sections
+	 */
+@Test
+	public void testSameIdsInOneSection()
+			throws IOException
+	{
+		File marcFile = new File(testDataParentPath, "combineBibMhld_b1b2b2m2m2b3.mrc");
+		List<MarcFileSection> sections = MarcFileSplitter.split(marcFile, 1);
+		assertSectionsCoverFile(marcFile, sections);
+		assertEquals(3, sections.size());
+
+		for (MarcFileSection section : sections)
+		{
+			Set<String> ids = new HashSet<String>(readIds(section));
+			assertEquals(section.toString(), 1, ids.size());
+		}
+		assertEquals(4, readIds(sections.get(1)).size());
+	}
+
+	/**
+	 * a file no bigger than a section is not split;  after a bad record, the
+	 *  rest of the file is the last section
+	 */
+@Test
+	public void testUnsplitFiles()
+			throws IOException
+	{
+		File marcFile = new File(testDataParentPath, "combineBibMhld_b1b2b3.mrc");
+		List<MarcFileSection> sections = MarcFileSplitter.split(marcFile, marcFile.length());
+		assertEquals(1, sections.size());
+		assertTrue(sections.get(0).isWholeFile());
+
+		marcFile = new File(testDataParentPath, "combineBibMhld_b1b2b3bad.mrc");
+		sections = MarcFileSplitter.split(marcFile, 1);
+		assertSectionsCoverFile(marcFile, sections);
+		assertEquals(3, sections.size());
+	}
+
+	/**
+	 * the sections indexed in parallel give the same documents as the whole
+	 *  file indexed in one
+	 */
+@Test
+	public void testSectionsIndexed()
+			throws IOException
+	{
+		String marcPath = testDataParentPath + File.separator + BIG_FILE;
+		RecordingSolrProxy solrProxy = new RecordingSolrProxy();
+		newImporter(solrProxy, marcPath).handleAll();
+		List<String> expectedIds = sorted(solrProxy.getAddedIds());
+		System.clearProperty("marc.path");
+
+		solrProxy = new RecordingSolrProxy();
+		MarcImporter importer = newImporter(solrProxy, marcPath);
+		List<MarcFileSection> sections = MarcFileSplitter.split(new File(marcPath), 20000);
+		new ParallelFileIndexer(importer, sections, 3).run();
+
+		assertEquals(expectedIds, sorted(solrProxy.getAddedIds()));
+		assertEquals(expectedIds.size(), importer.getRecsIndexedCount());
+		assertEquals(sections.size(), importer.getFileImporters().size());
+	}
+
+	/**
+	 * a marc.path of one binary marc file is read a section at a time when
+	 *  solrmarc.indexing.split_mb is set with several files in parallel
+	 */
+@Test
+	public void testReadsEachSection()
+			throws IOException
+	{
+		String marcPath = testDataParentPath + File.separator + BIG_FILE;
+		MarcImporter importer = newImporter(new RecordingSolrProxy(), marcPath);
+		assertFalse(importer.readsEachFile(marcPath));
+
+		System.setProperty("solrmarc.indexing.parallel_files", "2");
+		System.setProperty("solrmarc.indexing.split_mb", "64");
+		try
+		{
+			System.clearProperty("marc.path");
+			importer = newImporter(new RecordingSolrProxy(), marcPath);
+			assertTrue(importer.readsEachFile(marcPath));
+			assertFalse(importer.readsEachFile(testDataParentPath + File.separator + "combineBibMhld_b1.xml"));
+		}
+		finally
+		{
+			System.clearProperty("solrmarc.indexing.split_mb");
+		}
+	}
+
+
+	private static void assertSectionsCoverFile(File marcFile, List<MarcFileSection> sections)
+	{
+		long offset = 0;
+		for (MarcFileSection section : sections)
+		{
+			assertEquals(marcFile, section.getFile());
+			assertEquals(offset, section.getStart());
+			assertTrue(section.getLength() > 0);
+			offset = section.getStart() + section.getLength();
+		}
+		assertEquals(marcFile.length(), offset);
+		assertEquals(-1, sections.get(sections.size() - 1).getEnd());
+	}
+
+	/**
+	 * @return the 001 of each record in the section, without combining records with the same id
+	 */
+	private static List<String> readIds(MarcFileSection section)
+			throws IOException
+	{
+		FileInputStream in = new FileInputStream(section.getFile());
+		try
+		{
+			in.getChannel().position(section.getStart());
+			RawRecordReader reader = new RawRecordReader(new LimitedInputStream(in, section.getLength()), false);
+			List<String> ids = new ArrayList<String>();
+			while (reader.hasNext())
+				ids.add(reader.next().getRecordId());
+			return ids;
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	private MarcImporter newImporter(RecordingSolrProxy solrProxy, String marcPath)
+			throws FileNotFoundException
+	{
+		MarcImporter importer = new MarcImporter(solrProxy);
+		importer.init(new String[] {getRequiredSystemProperty("test.config.file"), marcPath});
+		return importer;
+	}
+
+	private static List<String> sorted(List<String> ids)
+	{
+		List<String> sortedIds = new ArrayList<String>(ids);
+		Collections.sort(sortedIds);
+		return sortedIds;
+	}
+
+}
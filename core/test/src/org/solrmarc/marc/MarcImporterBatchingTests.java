@@ -0,0 +1,85 @@
+package org.solrmarc.marc;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Test;
+import org.solrmarc.AbstractCoreTest;
+import org.solrmarc.solr.SolrServerProxy;
+import org.solrmarc.testUtils.RecordingSolrServer;
+
+/**
+ * tests for MarcImporter sending documents to Solr in batches:  documents
+ *  rejected by Solr should be skipped one by one, as they are unbatched
+ */
+public class MarcImporterBatchingTests extends AbstractCoreTest
+{
+	private static final String TEST_FILE = "formatRecs.mrc";
+
+@After
+	public void clearProperties()
+	{
+		System.clearProperty("solrmarc.solr.batch_size");
+		System.clearProperty("marc.path");
+		System.clearProperty("marc.source");
+	}
+
+	/**
+	 * batched import sends the same documents as unbatched import
+	 */
+@Test
+	public void testBatchedImport()
+			throws FileNotFoundException
+	{
+		RecordingSolrServer unbatched = new RecordingSolrServer();
+		int numUnbatched = importFile(unbatched, null);
+
+		RecordingSolrServer batched = new RecordingSolrServer();
+		int numBatched = importFile(batched, "7");
+
+		assertEquals(numUnbatched, numBatched);
+		assertEquals(unbatched.addedIds, batched.addedIds);
+		assertTrue(batched.numAddRequests < unbatched.numAddRequests);
+	}
+
+	/**
+	 * a document Solr rejects doesn't keep the rest of its batch out of the index
+	 */
+@Test
+	public void testRejectedDocInBatch()
+			throws FileNotFoundException
+	{
+		RecordingSolrServer unbatched = new RecordingSolrServer();
+		importFile(unbatched, null);
+		List<String> allIds = unbatched.addedIds;
+		String badId = allIds.get(allIds.size() / 2);
+
+		RecordingSolrServer batched = new RecordingSolrServer();
+		batched.rejectIds.add(badId);
+		int numIndexed = importFile(batched, "5");
+
+		List<String> expectedIds = new ArrayList<String>(allIds);
+		expectedIds.remove(badId);
+		assertEquals(expectedIds, batched.addedIds);
+		assertEquals(expectedIds.size(), numIndexed);
+	}
+
+
+	private int importFile(RecordingSolrServer solrServer, String batchSize)
+			throws FileNotFoundException
+	{
+		if (batchSize == null)
+			System.clearProperty("solrmarc.solr.batch_size");
+		else
+			System.setProperty("solrmarc.solr.batch_size", batchSize);
+
+		MarcImporter importer = new MarcImporter(new SolrServerProxy(solrServer));
+		String testConfigFname = getRequiredSystemProperty("test.config.file");
+		importer.init(new String[]{testConfigFname, testDataParentPath + File.separator + TEST_FILE});
+		return importer.importRecords();
+	}
+
+}
@@ -0,0 +1,61 @@
+package org.solrmarc.marc;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Test;
+import org.solrmarc.AbstractCoreTest;
+import org.solrmarc.testUtils.RecordingSolrProxy;
+
+/**
+ * tests for MarcImporter.deleteRecords() sending the ids in the delete list
+ *  to Solr in chunks
+ */
+public class MarcImporterDeleteTests extends AbstractCoreTest
+{
+	private File delFile = null;
+
+@After
+	public void cleanUp()
+	{
+		System.clearProperty("marc.delete_chunk_size");
+		if (delFile != null)
+			delFile.delete();
+	}
+
+	/**
+	 * ids are sent in chunks, without duplicates, comments or blank lines
+	 */
+@Test
+	public void testDeleteInChunks()
+			throws IOException
+	{
+		delFile = File.createTempFile("solrmarcDeleteTest", ".del");
+		PrintWriter out = new PrintWriter(new FileWriter(delFile));
+		out.println("# comment");
+		out.println("a1");
+		out.println("a2");
+		out.println("a1");
+		out.println("");
+		out.println("a3");
+		out.println("a4");
+		out.println("a2");
+		out.println("a5");
+		out.close();
+
+		System.setProperty("marc.delete_chunk_size", "2");
+		RecordingSolrProxy solrProxy = new RecordingSolrProxy();
+		MarcImporter importer = new MarcImporter(solrProxy);
+		importer.init(new String[]{getRequiredSystemProperty("test.config.file")});
+		importer.setDeleteRecordListFilename(delFile.getAbsolutePath());
+		int numDeleted = importer.deleteRecords();
+
+		assertEquals(5, numDeleted);
+		assertEquals(Arrays.asList("a1", "a2", "a3", "a4", "a5"), solrProxy.deletedIds);
+		assertEquals(Arrays.asList(2, 2, 1), solrProxy.deleteRequestSizes);
+	}
+
+}
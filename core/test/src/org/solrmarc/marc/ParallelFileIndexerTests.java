@@ -0,0 +1,240 @@
+package org.solrmarc.marc;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.solrmarc.AbstractCoreTest;
+import org.solrmarc.solr.SolrProxy;
+import org.solrmarc.solr.SolrRuntimeException;
+import org.solrmarc.solr.SolrServerProxy;
+import org.solrmarc.testUtils.RecordingSolrProxy;
+import org.solrmarc.testUtils.RecordingSolrServer;
+
+/**
+ * tests for indexing several marc files in one MarcImporter run
+ */
+public class ParallelFileIndexerTests extends AbstractCoreTest
+{
+	private static final String FILE_1 = "formatRecs.mrc";
+	private static final String FILE_2 = "combineBibMhld_b1b2b3.mrc";
+
+@After
+	public void clearProperties()
+	{
+		System.clearProperty("marc.path");
+		System.clearProperty("marc.source");
+		System.clearProperty("solr.commit_at_end");
+		System.clearProperty("solrmarc.indexing.parallel_files");
+		System.clearProperty("solrmarc.solr.batch_size");
+	}
+
+	/**
+	 * the files are indexed at the same time, with a single commit at the end
+	 */
+@Test
+	public void testIndexesEachFile()
+			throws IOException
+	{
+		List<String> expectedIds = new ArrayList<String>();
+		expectedIds.addAll(indexOneFile(FILE_1));
+		expectedIds.addAll(indexOneFile(FILE_2));
+
+		System.setProperty("solrmarc.indexing.parallel_files", "2");
+		System.setProperty("solr.commit_at_end", "true");
+		RecordingSolrProxy solrProxy = new RecordingSolrProxy();
+		MarcImporter importer = newImporter(solrProxy, FILE_1, FILE_2);
+		assertEquals(0, importer.handleAll());
+
+		assertEquals(sorted(expectedIds), sorted(solrProxy.getAddedIds()));
+		assertEquals(1, solrProxy.numCommits);
+		assertTrue(solrProxy.closed);
+		assertEquals(expectedIds.size(), importer.getRecsIndexedCount());
+		assertEquals(expectedIds.size(), importer.getMonitor().getRecordsIndexed());
+		assertEquals(2, importer.getFileImporters().size());
+	}
+
+	/**
+	 * a file that can't be opened is skipped;  the others are indexed
+	 */
+@Test
+	public void testMissingFileSkipped()
+			throws IOException
+	{
+		List<String> expectedIds = indexOneFile(FILE_1);
+
+		System.setProperty("solr.commit_at_end", "true");
+		RecordingSolrProxy solrProxy = new RecordingSolrProxy();
+		MarcImporter importer = newImporter(solrProxy, "noSuchFile.mrc", FILE_1);
+		assertEquals(0, importer.handleAll());
+
+		assertEquals(expectedIds, solrProxy.getAddedIds());
+		assertEquals(1, solrProxy.numCommits);
+	}
+
+	/**
+	 * an error that halts indexing of one file stops the others, and nothing
+	 *  is committed
+	 */
+@Test
+	public void testFailureStopsAllFiles()
+			throws IOException
+	{
+		int numIds = indexOneFile(FILE_1).size() + indexOneFile(FILE_2).size();
+
+		System.setProperty("solrmarc.indexing.parallel_files", "2");
+		System.setProperty("solr.commit_at_end", "true");
+		RecordingSolrProxy solrProxy = new RecordingSolrProxy()
+		{
+			public synchronized String addDoc(Map<String, Object> fields2ValuesMap, boolean verbose, boolean addDocToIndex)
+					throws IOException
+			{
+				if (addedDocs.size() == 2)
+					throw new SolrRuntimeException("Solr went away");
+				return super.addDoc(fields2ValuesMap, verbose, addDocToIndex);
+			}
+		};
+		newImporter(solrProxy, FILE_1, FILE_2).handleAll();
+
+		assertTrue(solrProxy.addedDocs.size() < numIds);
+		assertEquals(0, solrProxy.numCommits);
+	}
+
+	/**
+	 * a document Solr refuses in a batch sent by another file's importer is
+	 *  taken off the indexed count of the file it came from
+	 */
+@Test
+	public void testBatchFailureCountedForSendingFile()
+			throws IOException
+	{
+		final List<String> file1Ids = indexOneFile(FILE_1);
+		int numFile2Ids = indexOneFile(FILE_2).size();
+
+		System.setProperty("solrmarc.indexing.parallel_files", "2");
+		System.setProperty("solrmarc.solr.batch_size", "1000");
+		RecordingSolrServer solrServer = new RecordingSolrServer();
+		solrServer.rejectIds.add(file1Ids.get(0));
+		// the first document of FILE_1 is buffered, then FILE_2 is indexed and
+		//  sends it in its batch before FILE_1 goes on
+		final CountDownLatch file1Buffered = new CountDownLatch(1);
+		final CountDownLatch batchSent = new CountDownLatch(1);
+		SolrServerProxy solrProxy = new SolrServerProxy(solrServer)
+		{
+			public String addDoc(Map<String, Object> fldNames2ValsMap, boolean verbose, boolean addDocToIndex)
+					throws IOException
+			{
+				String id = String.valueOf(fldNames2ValsMap.get("id"));
+				try
+				{
+					if (!file1Ids.contains(id))
+						file1Buffered.await(10, TimeUnit.SECONDS);
+					else if (!id.equals(file1Ids.get(0)))
+						batchSent.await(10, TimeUnit.SECONDS);
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+				String docStr = super.addDoc(fldNames2ValsMap, verbose, addDocToIndex);
+				if (id.equals(file1Ids.get(0)))
+					file1Buffered.countDown();
+				return docStr;
+			}
+
+			public synchronized void flush()
+					throws IOException
+			{
+				boolean sending = getBufferedDocCount() > 0;
+				try
+				{
+					super.flush();
+				}
+				finally
+				{
+					if (sending)
+						batchSent.countDown();
+				}
+			}
+		};
+		MarcImporter importer = newImporter(solrProxy, FILE_1, FILE_2);
+		importer.handleAll();
+
+		assertEquals(file1Ids.size() + numFile2Ids - 1, solrServer.addedIds.size());
+		assertEquals(file1Ids.size() + numFile2Ids - 1, importer.getRecsIndexedCount());
+		List<MarcImporter> fileImporters = importer.getFileImporters();
+		assertEquals(2, fileImporters.size());
+		for (MarcImporter fileImporter : fileImporters)
+		{
+			if (fileImporter.getRecsReadCount() == file1Ids.size())
+				assertEquals(file1Ids.size() - 1, fileImporter.getRecsIndexedCount());
+			else
+				assertEquals(numFile2Ids, fileImporter.getRecsIndexedCount());
+		}
+	}
+
+	/**
+	 * marc.path can have wildcards in the file name, and several paths
+	 *  separated by |
+	 */
+@Test
+	public void testListMarcFiles()
+	{
+		String pattern = testDataParentPath + File.separator + "combineBibMhld_b1b2b3*.mrc";
+		assertTrue(MarcHandler.namesSeveralFiles(pattern));
+		List<File> files = MarcHandler.listMarcFiles(pattern);
+		List<String> names = new ArrayList<String>();
+		for (File file : files)
+		{
+			assertTrue(file.exists());
+			names.add(file.getName());
+		}
+		assertEquals(Arrays.asList("combineBibMhld_b1b2b3.mrc", "combineBibMhld_b1b2b3b3.mrc", "combineBibMhld_b1b2b3b3m3m3.mrc",
+		                           "combineBibMhld_b1b2b3bad.mrc", "combineBibMhld_b1b2b3m3.mrc"), names);
+
+		String twoFiles = FILE_1 + "|" + FILE_2;
+		assertTrue(MarcHandler.namesSeveralFiles(twoFiles));
+		assertEquals(Arrays.asList(new File(FILE_1), new File(FILE_2)), MarcHandler.listMarcFiles(twoFiles));
+		assertFalse(MarcHandler.namesSeveralFiles(testDataParentPath + File.separator + FILE_1));
+
+		assertTrue(MarcHandler.listMarcFiles(testDataParentPath + File.separator + "noSuch*.mrc").isEmpty());
+	}
+
+
+	/**
+	 * @return the ids of the documents sent when indexing the file on its own
+	 */
+	private List<String> indexOneFile(String marcFileName)
+			throws IOException
+	{
+		RecordingSolrProxy solrProxy = new RecordingSolrProxy();
+		newImporter(solrProxy, marcFileName).handleAll();
+		System.clearProperty("marc.path");
+		return solrProxy.getAddedIds();
+	}
+
+	private MarcImporter newImporter(SolrProxy solrProxy, String... marcFileNames)
+			throws FileNotFoundException
+	{
+		List<String> args = new ArrayList<String>();
+		args.add(getRequiredSystemProperty("test.config.file"));
+		for (String marcFileName : marcFileNames)
+			args.add(testDataParentPath + File.separator + marcFileName);
+		MarcImporter importer = new MarcImporter(solrProxy);
+		importer.init(args.toArray(new String[0]));
+		return importer;
+	}
+
+	private static List<String> sorted(List<String> ids)
+	{
+		List<String> sortedIds = new ArrayList<String>(ids);
+		Collections.sort(sortedIds);
+		return sortedIds;
+	}
+
+}
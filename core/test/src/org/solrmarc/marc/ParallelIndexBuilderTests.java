@@ -0,0 +1,189 @@
+package org.solrmarc.marc;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.solrmarc.AbstractCoreTest;
+import org.solrmarc.solr.ShardedSolrProxy;
+import org.solrmarc.solr.SolrProxy;
+import org.solrmarc.testUtils.RecordingSolrProxy;
+
+/**
+ * tests for building an index in slices and merging them;  the embedded
+ *  cores are replaced by RecordingSolrProxys, as the Solr core jars aren't
+ *  on the test classpath
+ */
+public class ParallelIndexBuilderTests extends AbstractCoreTest
+{
+	private static final String TEST_FILE = "formatRecs.mrc";
+
+	private File solrHome;
+	private File sliceParentDir;
+
+@Before
+	public void createSolrHome()
+			throws IOException
+	{
+		solrHome = File.createTempFile("solrmarc", ".solr");
+		solrHome.delete();
+		new File(solrHome, "conf").mkdirs();
+		sliceParentDir = new File(solrHome, "data-slices");
+		System.setProperty("solr.path", solrHome.getAbsolutePath());
+		System.setProperty("solrmarc.build.slices", "3");
+	}
+
+@After
+	public void clearProperties()
+	{
+		removeRecursively(solrHome);
+		// written by the resumed builds
+		IndexingCheckpoint.defaultCheckpointFile(testDataParentPath + File.separator + TEST_FILE).delete();
+		System.clearProperty("solr.path");
+		// set when the embedded core's directories are checked
+		System.clearProperty("solr.solr.home");
+		System.clearProperty("solr.data.dir");
+		System.clearProperty("solrmarc.build.slices");
+		System.clearProperty("solrmarc.checkpoint.resume");
+		System.clearProperty("solrmarc.indexing.threads");
+		System.clearProperty("marc.path");
+	}
+
+	/**
+	 * each document is indexed into the slice its id hashes to, the slices
+	 *  are committed and closed before they are merged, and removed after
+	 */
+@Test
+	public void testBuild()
+			throws IOException
+	{
+		RecordingSolrProxy sentToSolr = new RecordingSolrProxy();
+		MarcImporter importer = new MarcImporter(sentToSolr);
+		importer.init(new String[]{getRequiredSystemProperty("test.config.file"), testDataParentPath + File.separator + TEST_FILE});
+		importer.handleAll();
+		System.clearProperty("marc.path");
+		Set<String> expectedIds = new TreeSet<String>(sentToSolr.getAddedIds());
+		assertTrue(expectedIds.size() > 10);
+
+		System.setProperty("solrmarc.indexing.threads", "2");
+		TestBuilder builder = newBuilder();
+		assertEquals(0, builder.handleAll());
+
+		assertEquals(3, builder.sliceCores.size());
+		Set<String> builtIds = new TreeSet<String>();
+		for (int i = 0; i < 3; i++)
+		{
+			RecordingSolrProxy slice = builder.sliceCores.get(i);
+			assertTrue(slice.addedDocs.size() > 0);
+			for (String id : slice.getAddedIds())
+				assertEquals(id, i, ShardedSolrProxy.shardOf(id, 3));
+			builtIds.addAll(slice.getAddedIds());
+		}
+		assertEquals(expectedIds, builtIds);
+
+		List<File> expectedDirs = new ArrayList<File>();
+		for (int i = 0; i < 3; i++)
+			expectedDirs.add(new File(new File(sliceParentDir, "slice-0" + i), "index"));
+		assertEquals(expectedDirs, builder.mergedDirs);
+		assertFalse(sliceParentDir.exists());
+	}
+
+	/**
+	 * the slices are kept when the merge fails;  a build resumes in them with
+	 *  the same number of slices, and a new build starts without them
+	 */
+@Test
+	public void testSlicesKept()
+			throws IOException
+	{
+		TestBuilder builder = newBuilder();
+		builder.failMerge = true;
+		assertEquals(1, builder.handleAll());
+		assertEquals(3, sliceParentDir.list().length);
+		File leftOver = new File(new File(sliceParentDir, "slice-01"), "left_over");
+		leftOver.createNewFile();
+
+		System.setProperty("solrmarc.checkpoint.resume", "true");
+		System.setProperty("solrmarc.build.slices", "2");
+		try
+		{
+			newBuilder();
+			fail("resumed a build of 3 slices with 2");
+		}
+		catch (IllegalArgumentException e)
+		{
+			assertTrue(e.getMessage().contains("has 3"));
+		}
+		System.clearProperty("marc.path");
+
+		System.setProperty("solrmarc.build.slices", "3");
+		builder = newBuilder();
+		assertTrue(leftOver.exists());
+		builder.failMerge = true;
+		assertEquals(1, builder.handleAll());
+
+		System.clearProperty("solrmarc.checkpoint.resume");
+		builder = newBuilder();
+		assertFalse(leftOver.exists());
+		assertEquals(0, builder.handleAll());
+		assertFalse(sliceParentDir.exists());
+	}
+
+
+	private TestBuilder newBuilder()
+			throws FileNotFoundException
+	{
+		TestBuilder builder = new TestBuilder();
+		builder.init(new String[]{getRequiredSystemProperty("test.config.file"), testDataParentPath + File.separator + TEST_FILE});
+		return builder;
+	}
+
+	private static void removeRecursively(File file)
+	{
+		File files[] = file.listFiles();
+		for (File child : files != null ? files : new File[0])
+			removeRecursively(child);
+		file.delete();
+	}
+
+	/**
+	 * a builder whose slices are RecordingSolrProxys, and which only records
+	 *  the indexes it is to merge
+	 */
+	private static class TestBuilder extends ParallelIndexBuilder
+	{
+		List<RecordingSolrProxy> sliceCores = new ArrayList<RecordingSolrProxy>();
+		List<File> mergedDirs = null;
+		boolean failMerge = false;
+
+		@Override
+		protected SolrProxy loadSliceCore(File dataDir)
+		{
+			new File(dataDir, "index").mkdirs();
+			RecordingSolrProxy sliceCore = new RecordingSolrProxy();
+			sliceCores.add(sliceCore);
+			return sliceCore;
+		}
+
+		@Override
+		protected void mergeIndexes(List<File> indexDirs)
+				throws IOException
+		{
+			for (RecordingSolrProxy sliceCore : sliceCores)
+			{
+				assertTrue(sliceCore.numCommits > 0);
+				assertTrue(sliceCore.closed);
+			}
+			for (File indexDir : indexDirs)
+				assertTrue(indexDir.isDirectory());
+			mergedDirs = indexDirs;
+			if (failMerge)
+				throw new IOException("unable to merge");
+		}
+	}
+
+}
@@ -0,0 +1,204 @@
+package org.solrmarc.solr;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.After;
+import org.junit.Test;
+import org.solrmarc.AbstractCoreTest;
+import org.solrmarc.marc.MarcImporter;
+import org.solrmarc.testUtils.RecordingSolrProxy;
+import org.solrmarc.testUtils.RecordingSolrServer;
+
+/**
+ * unit tests for ShardedSolrProxy:  documents and deletes go to the shard
+ *  their id hashes to, and the shards are committed in parallel
+ */
+public class ShardedSolrProxyTests extends AbstractCoreTest
+{
+	private List<RecordingSolrServer> solrServers = new ArrayList<RecordingSolrServer>();
+	private ShardedSolrProxy solrProxy = null;
+
+@After
+	public void tearDown()
+	{
+		System.clearProperty("solr.shard_urls");
+		System.clearProperty("solrmarc.solr.batch_size");
+		if (solrProxy != null)
+			solrProxy.close();
+	}
+
+	/**
+	 * each shard is sent the documents and deletes for its ids
+	 */
+@Test
+	public void testRouting()
+			throws IOException
+	{
+		solrProxy = newShardedProxy(3);
+		for (int i = 1; i <= 60; i++)
+			solrProxy.addDoc(makeDoc("id" + i), false, true);
+		solrProxy.delete("id61", true, true);
+		solrProxy.delete(Arrays.asList("id62", "id63", "id64", "id65"));
+		solrProxy.flush();
+
+		Set<String> addedIds = new HashSet<String>();
+		for (int i = 0; i < 3; i++)
+		{
+			RecordingSolrServer solrServer = solrServers.get(i);
+			assertTrue(solrServer.addedIds.size() > 0);
+			for (String id : solrServer.addedIds)
+				assertEquals(id, i, ShardedSolrProxy.shardOf(id, 3));
+			for (String id : solrServer.deletedIds)
+				assertEquals(id, i, ShardedSolrProxy.shardOf(id, 3));
+			addedIds.addAll(solrServer.addedIds);
+		}
+		assertEquals(60, addedIds.size());
+		int numDeleted = 0;
+		for (RecordingSolrServer solrServer : solrServers)
+			numDeleted += solrServer.deletedIds.size();
+		assertEquals(5, numDeleted);
+
+		// the same id goes to the same shard in every run
+		assertEquals(("id1".hashCode() & 0x7fffffff) % 3, ShardedSolrProxy.shardOf("id1", 3));
+	}
+
+	/**
+	 * the documents the shards refuse are reported together
+	 */
+@Test
+	public void testFailuresCombined()
+			throws IOException
+	{
+		List<SolrProxy> shards = new ArrayList<SolrProxy>();
+		for (int i = 0; i < 3; i++)
+		{
+			final String refusedId = i == 1 ? null : "refused" + i;
+			shards.add(new RecordingSolrProxy()
+			{
+				public void flush()
+						throws IOException
+				{
+					if (refusedId == null)
+						return;
+					Map<String, RuntimeException> failures = new LinkedHashMap<String, RuntimeException>();
+					failures.put(refusedId, new SolrRuntimeException("refused"));
+					throw new SolrBatchException(Arrays.asList("sent", refusedId), failures);
+				}
+			});
+		}
+		try
+		{
+			new ShardedSolrProxy(shards).flush();
+			fail("refused documents not reported");
+		}
+		catch (SolrBatchException e)
+		{
+			assertEquals(Arrays.asList("refused0", "refused2"), new ArrayList<String>(e.getFailures().keySet()));
+			assertEquals(4, e.getBatchIds().size());
+		}
+	}
+
+	/**
+	 * every shard commits at the same time;  a shard that can't commit
+	 *  doesn't stop the others
+	 */
+@Test
+	public void testParallelCommit()
+			throws IOException
+	{
+		final CyclicBarrier allCommitting = new CyclicBarrier(3);
+		List<SolrProxy> shards = new ArrayList<SolrProxy>();
+		final List<RecordingSolrProxy> recordingShards = new ArrayList<RecordingSolrProxy>();
+		for (int i = 0; i < 3; i++)
+		{
+			final boolean fails = i == 1;
+			RecordingSolrProxy shard = new RecordingSolrProxy()
+			{
+				public synchronized void commit(boolean optimize)
+						throws IOException
+				{
+					try
+					{
+						// only returns if the other shards are committing too
+						allCommitting.await(10, TimeUnit.SECONDS);
+					}
+					catch (Exception e)
+					{
+						throw new IOException("shards not committed in parallel");
+					}
+					if (fails)
+						throw new IOException("shard went away");
+					super.commit(optimize);
+				}
+			};
+			recordingShards.add(shard);
+			shards.add(shard);
+		}
+		ShardedSolrProxy committing = new ShardedSolrProxy(shards, Arrays.asList("a", "b", "c"));
+		try
+		{
+			committing.commit(true);
+			fail("shard failure not reported");
+		}
+		catch (IOException e)
+		{
+			assertEquals("shard went away", e.getMessage());
+		}
+		assertEquals(1, recordingShards.get(0).numCommits);
+		assertEquals(0, recordingShards.get(1).numCommits);
+		assertEquals(1, recordingShards.get(2).numCommits);
+		assertEquals(3, committing.getLastCommitMillis().length);
+		assertEquals("b", committing.getShardName(1));
+	}
+
+	/**
+	 * solr.shard_urls gives MarcImporter a shard with its own sender and
+	 *  batches for each URL
+	 */
+@Test
+	public void testShardsFromConfig()
+			throws IOException
+	{
+		System.setProperty("solr.shard_urls", "http://localhost:8983/solr/one, http://localhost:8984/solr/two");
+		System.setProperty("solrmarc.solr.batch_size", "50");
+		MarcImporter importer = new MarcImporter();
+		importer.init(new String[]{getRequiredSystemProperty("test.config.file")});
+		assertTrue(importer.getSolrServerProxy() instanceof ShardedSolrProxy);
+		solrProxy = (ShardedSolrProxy) importer.getSolrServerProxy();
+		assertEquals(2, solrProxy.getNumShards());
+		assertEquals("http://localhost:8984/solr/two", solrProxy.getShardName(1));
+		for (int i = 0; i < 2; i++)
+		{
+			assertTrue(solrProxy.getShard(i) instanceof StreamingSolrServerProxy);
+			assertEquals(50, ((StreamingSolrServerProxy) solrProxy.getShard(i)).getMaxBatchDocs());
+		}
+	}
+
+
+	private ShardedSolrProxy newShardedProxy(int numShards)
+	{
+		List<SolrProxy> shards = new ArrayList<SolrProxy>();
+		for (int i = 0; i < numShards; i++)
+		{
+			RecordingSolrServer solrServer = new RecordingSolrServer();
+			solrServers.add(solrServer);
+			StreamingSolrServerProxy shard = new StreamingSolrServerProxy(solrServer, 10, 1);
+			shard.setBatchLimits(5, 0);
+			shards.add(shard);
+		}
+		return new ShardedSolrProxy(shards);
+	}
+
+	private Map<String, Object> makeDoc(String id)
+	{
+		Map<String, Object> doc = new HashMap<String, Object>();
+		doc.put("id", id);
+		doc.put("title_display", "title for " + id);
+		return doc;
+	}
+
+}
@@ -0,0 +1,265 @@
+package org.solrmarc.solr;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.*;
+
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrException;
+import org.junit.Before;
+import org.junit.Test;
+import org.solrmarc.testUtils.RecordingSolrServer;
+
+/**
+ * unit tests for retrying adds, deletes and commits SolrServerProxy sends
+ *  while Solr is down or busy, and for the circuit breaker stopping them while Solr stays down
+ */
+public class SolrRetryTests
+{
+	private RecordingSolrServer solrServer;
+	private SolrServerProxy solrProxy;
+
+@Before
+	public void setup()
+	{
+		solrServer = new RecordingSolrServer();
+		solrProxy = new SolrServerProxy(solrServer);
+		solrProxy.setBatchLimits(3, 0);
+	}
+
+	/**
+	 * a batch Solr was too busy for is sent again, as a batch
+	 */
+@Test
+	public void testRetried()
+			throws IOException
+	{
+		solrProxy.setRetryPolicy(new SolrRetryPolicy(3, 1, 4), null);
+		solrServer.unavailableRequests = 2;
+		for (int i = 1; i <= 3; i++)
+			solrProxy.addDoc(makeDoc("id" + i), false, true);
+		assertEquals(3, solrServer.numRequests);
+		assertEquals(Arrays.asList(3), solrServer.addRequestSizes);
+		assertEquals(Arrays.asList("id1", "id2", "id3"), solrServer.addedIds);
+	}
+
+	/**
+	 * a commit made partway through a run, which Solr was too busy for, is
+	 *  sent again rather than halting the run
+	 */
+@Test
+	public void testCommitRetried()
+			throws IOException
+	{
+		solrProxy.setRetryPolicy(new SolrRetryPolicy(3, 1, 4), null);
+		for (int i = 1; i <= 3; i++)
+			solrProxy.addDoc(makeDoc("id" + i), false, true);
+		solrServer.unavailableRequests = 1;
+		solrProxy.commit(false);
+		solrServer.unavailableRequests = 1;
+		solrProxy.softCommit();
+		assertEquals(1, solrServer.numCommits);
+		assertEquals(1, solrServer.numSoftCommits);
+
+		solrProxy.addDoc(makeDoc("id4"), false, true);
+		solrServer.unavailableRequests = 1;
+		solrProxy.optimize(2);
+		assertEquals(Arrays.asList(2), solrServer.optimizeMaxSegments);
+		assertEquals(Arrays.asList("id1", "id2", "id3", "id4"), solrServer.addedIds);
+	}
+
+	/**
+	 * deletes Solr was too busy for are sent again
+	 */
+@Test
+	public void testDeleteRetried()
+			throws IOException
+	{
+		solrProxy.setRetryPolicy(new SolrRetryPolicy(3, 1, 4), null);
+		solrServer.unavailableRequests = 2;
+		solrProxy.delete("id1", true, true);
+		solrServer.unavailableRequests = 1;
+		solrProxy.delete(Arrays.asList("id2", "id3"));
+		assertEquals(Arrays.asList("id1", "id2", "id3"), solrServer.deletedIds);
+		assertEquals(Arrays.asList(1, 2), solrServer.deleteRequestSizes);
+	}
+
+	/**
+	 * a commit waits while the circuit breaker is open, rather than failing
+	 */
+@Test
+	public void testCommitWaitsForCircuitBreaker()
+			throws IOException
+	{
+		SolrCircuitBreaker circuitBreaker = new SolrCircuitBreaker(10, 0);
+		solrProxy.setRetryPolicy(new SolrRetryPolicy(0, 1, 1), circuitBreaker);
+		solrServer.unavailableRequests = 3;
+		solrProxy.commit(false);
+		assertEquals(1, solrServer.numCommits);
+		assertEquals(4, solrServer.numRequests);
+		assertEquals(1, circuitBreaker.getTimesOpened());
+		assertFalse(circuitBreaker.isOpen());
+	}
+
+	/**
+	 * when the retries are used up, each document in the batch fails with a
+	 *  SolrUnavailableException, without being tried on its own
+	 */
+@Test
+	public void testRetriesUsedUp()
+			throws IOException
+	{
+		solrProxy.setRetryPolicy(new SolrRetryPolicy(2, 1, 4), null);
+		solrServer.down = true;
+		solrProxy.addDoc(makeDoc("id1"), false, true);
+		solrProxy.addDoc(makeDoc("id2"), false, true);
+		try
+		{
+			solrProxy.flush();
+			fail("expected SolrBatchException");
+		}
+		catch (SolrBatchException e)
+		{
+			assertEquals(2, e.getFailures().size());
+			assertTrue(e.getFailures().get("id1") instanceof SolrUnavailableException);
+			assertTrue(e.getFailures().get("id2") instanceof SolrUnavailableException);
+		}
+		assertEquals(3, solrServer.numRequests);
+	}
+
+	/**
+	 * a document Solr refuses is not retried
+	 */
+@Test
+	public void testRefusedNotRetried()
+			throws IOException
+	{
+		solrProxy.setRetryPolicy(new SolrRetryPolicy(3, 1, 4), null);
+		solrServer.rejectIds.add("id2");
+		for (int i = 1; i <= 2; i++)
+			solrProxy.addDoc(makeDoc("id" + i), false, true);
+		try
+		{
+			solrProxy.flush();
+			fail("expected SolrBatchException");
+		}
+		catch (SolrBatchException e)
+		{
+			assertEquals(1, e.getFailures().size());
+			assertFalse(e.getFailures().get("id2") instanceof SolrUnavailableException);
+		}
+		// the batch, then each document
+		assertEquals(3, solrServer.numRequests);
+		assertEquals(Arrays.asList("id1"), solrServer.addedIds);
+	}
+
+	/**
+	 * the waits between retries double, up to the maximum, less up to half
+	 */
+@Test
+	public void testRetryDelays()
+	{
+		SolrRetryPolicy retryPolicy = new SolrRetryPolicy(5, 100, 1000);
+		for (int i = 0; i < 20; i++)
+		{
+			long delay = retryPolicy.getDelayMillis(0);
+			assertTrue(String.valueOf(delay), delay >= 50 && delay <= 100);
+			delay = retryPolicy.getDelayMillis(2);
+			assertTrue(String.valueOf(delay), delay >= 200 && delay <= 400);
+			delay = retryPolicy.getDelayMillis(10);
+			assertTrue(String.valueOf(delay), delay >= 500 && delay <= 1000);
+		}
+		assertTrue(retryPolicy.isTransient(new SolrServerException("Server refused connection")));
+		assertTrue(retryPolicy.isTransient(new IOException("Connection reset")));
+		assertTrue(retryPolicy.isTransient(new SolrException(SolrException.ErrorCode.SERVICE_UNAVAILABLE, "Service Unavailable")));
+		assertFalse(retryPolicy.isTransient(new SolrException(SolrException.ErrorCode.BAD_REQUEST, "missing required fields: title")));
+	}
+
+	/**
+	 * while Solr stays down, sending waits for it to come back, and the
+	 *  documents aren't failed
+	 */
+@Test
+	public void testCircuitBreaker()
+			throws IOException
+	{
+		SolrCircuitBreaker circuitBreaker = new SolrCircuitBreaker(10, 0);
+		solrProxy.setRetryPolicy(new SolrRetryPolicy(1, 1, 1), circuitBreaker);
+		// the first request and its retry, then two trials
+		solrServer.unavailableRequests = 4;
+		for (int i = 1; i <= 3; i++)
+			solrProxy.addDoc(makeDoc("id" + i), false, true);
+		assertEquals(5, solrServer.numRequests);
+		assertEquals(Arrays.asList("id1", "id2", "id3"), solrServer.addedIds);
+		assertEquals(1, circuitBreaker.getTimesOpened());
+		assertFalse(circuitBreaker.isOpen());
+	}
+
+	/**
+	 * when Solr is back, but refuses a document in the batch sent to see if it
+	 *  is, the circuit closes, and the other documents are sent on their own
+	 */
+@Test
+	public void testCircuitBreakerTrialRefused()
+			throws IOException
+	{
+		SolrCircuitBreaker circuitBreaker = new SolrCircuitBreaker(10, 5000);
+		solrProxy.setRetryPolicy(new SolrRetryPolicy(0, 1, 1), circuitBreaker);
+		solrServer.unavailableRequests = 1;
+		solrServer.rejectIds.add("id2");
+		try
+		{
+			for (int i = 1; i <= 3; i++)
+				solrProxy.addDoc(makeDoc("id" + i), false, true);
+			solrProxy.flush();
+			fail("expected SolrBatchException");
+		}
+		catch (SolrBatchException e)
+		{
+			assertEquals(1, e.getFailures().size());
+			assertFalse(e.getFailures().get("id2") instanceof SolrUnavailableException);
+		}
+		// the first request, the trial, then each document
+		assertEquals(5, solrServer.numRequests);
+		assertEquals(Arrays.asList("id1", "id3"), solrServer.addedIds);
+		assertEquals(1, circuitBreaker.getTimesOpened());
+		assertFalse(circuitBreaker.isOpen());
+	}
+
+	/**
+	 * when Solr has been down too long, sending gives up, halting indexing
+	 */
+@Test
+	public void testCircuitBreakerGivesUp()
+			throws IOException
+	{
+		solrProxy.setRetryPolicy(new SolrRetryPolicy(0, 1, 1), new SolrCircuitBreaker(10, 50));
+		solrServer.down = true;
+		solrProxy.addDoc(makeDoc("id1"), false, true);
+		try
+		{
+			solrProxy.flush();
+			fail("expected SolrRuntimeException");
+		}
+		catch (SolrBatchException e)
+		{
+			fail("documents failed rather than giving up");
+		}
+		catch (SolrRuntimeException e)
+		{
+			assertTrue(e.getMessage(), e.getMessage().contains("giving up"));
+		}
+		assertTrue(solrServer.numRequests > 1);
+	}
+
+
+	private Map<String, Object> makeDoc(String id)
+	{
+		Map<String, Object> doc = new HashMap<String, Object>();
+		doc.put("id", id);
+		doc.put("title_display", "title for " + id);
+		return doc;
+	}
+
+}
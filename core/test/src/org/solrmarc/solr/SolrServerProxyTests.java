@@ -0,0 +1,161 @@
+package org.solrmarc.solr;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.solrmarc.testUtils.RecordingSolrServer;
+
+/**
+ * unit tests for batching documents in SolrServerProxy
+ */
+public class SolrServerProxyTests
+{
+	private RecordingSolrServer solrServer;
+	private SolrServerProxy solrProxy;
+
+@Before
+	public void setup()
+	{
+		solrServer = new RecordingSolrServer();
+		solrProxy = new SolrServerProxy(solrServer);
+	}
+
+	/**
+	 * without batch limits, each document is its own request
+	 */
+@Test
+	public void testUnbatched()
+			throws IOException
+	{
+		for (int i = 1; i <= 3; i++)
+			solrProxy.addDoc(makeDoc("id" + i), false, true);
+		assertEquals(3, solrServer.numAddRequests);
+		assertEquals(0, solrProxy.getBufferedDocCount());
+	}
+
+	/**
+	 * documents are sent when the batch is full, and the rest on commit
+	 */
+@Test
+	public void testBatchSize()
+			throws IOException
+	{
+		solrProxy.setBatchLimits(3, 0);
+		for (int i = 1; i <= 7; i++)
+			solrProxy.addDoc(makeDoc("id" + i), false, true);
+		assertEquals(Arrays.asList(3, 3), solrServer.addRequestSizes);
+		assertEquals(1, solrProxy.getBufferedDocCount());
+
+		solrProxy.commit(false);
+		assertEquals(Arrays.asList(3, 3, 1), solrServer.addRequestSizes);
+		assertEquals(1, solrServer.numCommits);
+		assertEquals(7, solrServer.addedIds.size());
+	}
+
+	/**
+	 * documents are sent when the batch reaches the byte limit, and the rest on close
+	 */
+@Test
+	public void testBatchBytes()
+			throws IOException
+	{
+		solrProxy.setBatchLimits(100, 50);
+		for (int i = 1; i <= 5; i++)
+			solrProxy.addDoc(makeDoc("id" + i), false, true);
+		assertTrue("expected byte limit to send a batch", solrServer.numAddRequests > 0);
+		solrProxy.close();
+		assertEquals(5, solrServer.addedIds.size());
+		assertEquals(0, solrProxy.getBufferedDocCount());
+	}
+
+	/**
+	 * buffered adds go to Solr before a delete, so they stay in order
+	 */
+@Test
+	public void testDeleteFlushesBatch()
+			throws IOException
+	{
+		solrProxy.setBatchLimits(10, 0);
+		solrProxy.addDoc(makeDoc("id1"), false, true);
+		solrProxy.delete("id1", true, true);
+		assertEquals(Arrays.asList("id1"), solrServer.addedIds);
+		assertEquals(Arrays.asList("id1"), solrServer.deletedIds);
+	}
+
+	/**
+	 * when a batch is rejected, the good documents are still added and the
+	 *  bad ones are reported by id
+	 */
+@Test
+	public void testBatchFailureReportsIds()
+			throws IOException
+	{
+		solrServer.rejectIds.add("id2");
+		solrProxy.setBatchLimits(3, 0);
+		solrProxy.addDoc(makeDoc("id1"), false, true);
+		solrProxy.addDoc(makeDoc("id2"), false, true);
+		try
+		{
+			solrProxy.addDoc(makeDoc("id3"), false, true);
+			fail("expected SolrBatchException");
+		}
+		catch (SolrBatchException e)
+		{
+			assertEquals(Arrays.asList("id1", "id2", "id3"), e.getBatchIds());
+			assertEquals(1, e.getFailures().size());
+			assertTrue(e.getFailures().containsKey("id2"));
+		}
+		assertEquals(Arrays.asList("id1", "id3"), solrServer.addedIds);
+	}
+
+	/**
+	 * when Solr can't be reached, every document in the batch is reported
+	 */
+@Test
+	public void testBatchFailureServerDown()
+			throws IOException
+	{
+		solrProxy.setBatchLimits(5, 0);
+		solrProxy.addDoc(makeDoc("id1"), false, true);
+		solrProxy.addDoc(makeDoc("id2"), false, true);
+		solrServer.down = true;
+		try
+		{
+			solrProxy.flush();
+			fail("expected SolrBatchException");
+		}
+		catch (SolrBatchException e)
+		{
+			assertEquals(2, e.getFailures().size());
+			assertTrue(e.getFailures().get("id1") instanceof SolrRuntimeException);
+		}
+	}
+
+	/**
+	 * addDocs sends all the documents in one request
+	 */
+@Test
+	public void testAddDocs()
+			throws IOException
+	{
+		List<Map<String, Object>> docs = new ArrayList<Map<String, Object>>();
+		for (int i = 1; i <= 4; i++)
+			docs.add(makeDoc("id" + i));
+		solrProxy.addDocs(docs);
+		assertEquals(Arrays.asList(4), solrServer.addRequestSizes);
+	}
+
+
+	private Map<String, Object> makeDoc(String id)
+	{
+		Map<String, Object> doc = new HashMap<String, Object>();
+		doc.put("id", id);
+		doc.put("title_display", "title for " + id);
+		return doc;
+	}
+
+}
@@ -0,0 +1,178 @@
+package org.solrmarc.solr;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.solrmarc.testUtils.RecordingSolrServer;
+import org.solrmarc.tools.SolrUtils;
+
+/**
+ * unit tests for StreamingSolrServerProxy:  documents are sent from the
+ *  sender threads, and failures are reported by id rather than swallowed
+ */
+public class StreamingSolrServerProxyTests
+{
+	private RecordingSolrServer solrServer;
+	private StreamingSolrServerProxy solrProxy;
+
+@Before
+	public void setup()
+	{
+		solrServer = new RecordingSolrServer();
+		solrProxy = new StreamingSolrServerProxy(solrServer, 5, 3);
+		solrProxy.setBatchLimits(4, 0);
+	}
+
+@After
+	public void tearDown()
+	{
+		solrServer.down = false;
+		solrServer.rejectIds.clear();
+		try
+		{
+			solrProxy.close();
+		}
+		catch (SolrBatchException e)
+		{
+			// already checked by the test
+		}
+	}
+
+	/**
+	 * all documents are sent by flush()
+	 */
+@Test
+	public void testAllDocsSent()
+			throws IOException
+	{
+		Set<String> expectedIds = new HashSet<String>();
+		for (int i = 1; i <= 50; i++)
+		{
+			solrProxy.addDoc(makeDoc("id" + i), false, true);
+			expectedIds.add("id" + i);
+		}
+		solrProxy.flush();
+		assertEquals(0, solrProxy.getBufferedDocCount());
+		assertEquals(50, solrServer.addedIds.size());
+		assertEquals(expectedIds, new HashSet<String>(solrServer.addedIds));
+	}
+
+	/**
+	 * a rejected document is reported by id, to the listener and on the calling thread,
+	 *  and the rest of the documents are added
+	 */
+@Test
+	public void testRejectedDocReported()
+			throws IOException
+	{
+		final List<String> listenerIds = Collections.synchronizedList(new ArrayList<String>());
+		solrProxy.setErrorListener(new SolrUpdateErrorListener()
+		{
+			public void updateFailed(String id, RuntimeException e)
+			{
+				listenerIds.add(id);
+			}
+		});
+		solrServer.rejectIds.add("id7");
+
+		for (int i = 1; i <= 20; i++)
+		{
+			try
+			{
+				solrProxy.addDoc(makeDoc("id" + i), false, true);
+			}
+			catch (SolrBatchException e)
+			{
+				assertEquals(Arrays.asList("id7"), new ArrayList<String>(e.getFailures().keySet()));
+				listenerIds.add("thrown");
+			}
+		}
+		try
+		{
+			solrProxy.flush();
+		}
+		catch (SolrBatchException e)
+		{
+			assertEquals(Arrays.asList("id7"), new ArrayList<String>(e.getFailures().keySet()));
+			listenerIds.add("thrown");
+		}
+
+		assertEquals(Arrays.asList("id7", "thrown"), listenerIds);
+		assertEquals(19, solrServer.addedIds.size());
+		assertFalse(solrServer.addedIds.contains("id7"));
+	}
+
+	/**
+	 * the senders cut their batches at the byte limit as well as at the
+	 *  document limit
+	 */
+@Test
+	public void testBatchBytes()
+			throws IOException
+	{
+		StreamingSolrServerProxy bytesProxy = new StreamingSolrServerProxy(solrServer, 50, 1);
+		long docBytes = SolrServerProxy.estimateSize(SolrUtils.createSolrInputDoc(makeDoc("id10")));
+		bytesProxy.setBatchLimits(100, 2 * docBytes);
+		// the sender waits for the server while the rest of the documents are queued
+		synchronized (solrServer)
+		{
+			for (int i = 10; i < 40; i++)
+				bytesProxy.addDoc(makeDoc("id" + i), false, true);
+		}
+		bytesProxy.close();
+
+		assertEquals(30, solrServer.addedIds.size());
+		for (int size : solrServer.addRequestSizes)
+			assertTrue("batch of " + size + " documents is over the byte limit", size <= 2);
+		assertTrue(solrServer.addRequestSizes.contains(2));
+	}
+
+	/**
+	 * when Solr can't be reached, the failures are reported as halting errors
+	 */
+@Test
+	public void testServerDown()
+			throws IOException
+	{
+		solrServer.down = true;
+		Map<String, RuntimeException> failures = new HashMap<String, RuntimeException>();
+		for (int i = 1; i <= 3; i++)
+		{
+			try
+			{
+				solrProxy.addDoc(makeDoc("id" + i), false, true);
+			}
+			catch (SolrBatchException e)
+			{
+				failures.putAll(e.getFailures());
+			}
+		}
+		try
+		{
+			solrProxy.flush();
+		}
+		catch (SolrBatchException e)
+		{
+			failures.putAll(e.getFailures());
+		}
+
+		assertEquals(3, failures.size());
+		for (RuntimeException failure : failures.values())
+			assertTrue(failure instanceof SolrRuntimeException);
+	}
+
+
+	private Map<String, Object> makeDoc(String id)
+	{
+		Map<String, Object> doc = new HashMap<String, Object>();
+		doc.put("id", id);
+		doc.put("title_display", "title for " + id);
+		return doc;
+	}
+
+}
@@ -0,0 +1,26 @@
+package org.solrmarc.testUtils;
+
+import java.util.*;
+
+import org.marc4j.marc.Record;
+import org.solrmarc.index.SolrIndexerMixin;
+
+/**
+ * indexer mixin for tests:  its custom methods return the parameters they
+ *  are called with
+ */
+public class EchoParmsMixin extends SolrIndexerMixin
+{
+    public Set<String> echoParms(final Record record, String parm1, String parm2)
+    {
+        Set<String> result = new LinkedHashSet<String>();
+        result.add(parm1);
+        result.add(parm2);
+        return result;
+    }
+
+    public String echoId(final Record record)
+    {
+        return record.getControlNumber();
+    }
+}
@@ -0,0 +1,115 @@
+package org.solrmarc.testUtils;
+
+import java.io.IOException;
+import java.util.*;
+
+import org.solrmarc.solr.SolrProxy;
+
+/**
+ * SolrProxy that doesn't talk to Solr at all, but remembers the documents
+ *  added and ids deleted so tests can check what an importer sent.  The
+ *  updates are synchronized, as several importer threads may share it.
+ */
+public class RecordingSolrProxy implements SolrProxy
+{
+    /** the field maps passed to addDoc, in the order received */
+    public List<Map<String, Object>> addedDocs = new ArrayList<Map<String, Object>>();
+    /** the ids passed to delete, in the order received */
+    public List<String> deletedIds = new ArrayList<String>();
+    /** the number of ids in each call to delete(Collection) */
+    public List<Integer> deleteRequestSizes = new ArrayList<Integer>();
+    /** each document added ("add <id>") and id deleted ("delete <id>"), in the order received */
+    public List<String> updates = new ArrayList<String>();
+    public int numCommits = 0;
+    public int numSoftCommits = 0;
+    /** maxSegments of each call to optimize, in order */
+    public List<Integer> optimizeMaxSegments = new ArrayList<Integer>();
+    public boolean closed = false;
+
+    public boolean isSolrException(Exception e)
+    {
+        return false;
+    }
+
+    public synchronized String addDoc(Map<String, Object> fields2ValuesMap, boolean verbose, boolean addDocToIndex)
+            throws IOException
+    {
+        if (addDocToIndex)
+        {
+            addedDocs.add(fields2ValuesMap);
+            updates.add("add " + fields2ValuesMap.get("id"));
+        }
+        return fields2ValuesMap.toString();
+    }
+
+    public synchronized void addDocs(Collection<Map<String, Object>> fldNames2ValsMaps)
+            throws IOException
+    {
+        addedDocs.addAll(fldNames2ValsMaps);
+        for (Map<String, Object> fldNames2ValsMap : fldNames2ValsMaps)
+            updates.add("add " + fldNames2ValsMap.get("id"));
+    }
+
+    public void flush()
+            throws IOException
+    {
+        // nothing buffered
+    }
+
+    public synchronized void delete(String id, boolean fromCommitted, boolean fromPending)
+            throws IOException
+    {
+        deletedIds.add(id);
+        updates.add("delete " + id);
+    }
+
+    public synchronized void delete(Collection<String> ids)
+            throws IOException
+    {
+        deleteRequestSizes.add(ids.size());
+        deletedIds.addAll(ids);
+        for (String id : ids)
+            updates.add("delete " + id);
+    }
+
+    public synchronized void deleteAllDocs()
+            throws IOException
+    {
+        addedDocs.clear();
+    }
+
+    public synchronized void commit(boolean optimize)
+            throws IOException
+    {
+        numCommits++;
+    }
+
+    public synchronized void softCommit()
+            throws IOException
+    {
+        numSoftCommits++;
+    }
+
+    public synchronized void optimize(int maxSegments)
+            throws IOException
+    {
+        numCommits++;
+        optimizeMaxSegments.add(maxSegments);
+    }
+
+    public void close()
+    {
+        closed = true;
+    }
+
+    /**
+     * @return the values of the id field of the added documents, in the order added
+     */
+    public List<String> getAddedIds()
+    {
+        List<String> ids = new ArrayList<String>();
+        for (Map<String, Object> doc : addedDocs)
+            ids.add(String.valueOf(doc.get("id")));
+        return ids;
+    }
+}
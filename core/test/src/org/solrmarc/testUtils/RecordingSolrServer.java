@@ -0,0 +1,109 @@
+package org.solrmarc.testUtils;
+
+import java.io.IOException;
+import java.util.*;
+
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.AbstractUpdateRequest;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
+
+/**
+ * SolrJ SolrServer that doesn't talk to Solr at all, but remembers the
+ *  update requests it receives, so tests can check what a SolrProxy sent.
+ *  Documents with ids in rejectIds are refused the way Solr refuses a bad
+ *  document;  when down is true every request fails the way it does when
+ *  Solr can't be reached, and the next unavailableRequests requests fail the
+ *  way they do while Solr is starting up.
+ */
+public class RecordingSolrServer extends SolrServer
+{
+    private static final long serialVersionUID = 1L;
+
+    /** number of update requests containing documents */
+    public int numAddRequests = 0;
+    /** ids of the documents added, in the order added */
+    public List<String> addedIds = new ArrayList<String>();
+    /** sizes of the update requests containing documents, in the order received */
+    public List<Integer> addRequestSizes = new ArrayList<Integer>();
+    /** ids deleted, in the order deleted */
+    public List<String> deletedIds = new ArrayList<String>();
+    /** sizes of the update requests containing deletes, in the order received */
+    public List<Integer> deleteRequestSizes = new ArrayList<Integer>();
+    /** commitWithin of the update requests containing documents, in the order received */
+    public List<Integer> addCommitWithins = new ArrayList<Integer>();
+    /** number of hard commits (not counting optimizes) */
+    public int numCommits = 0;
+    public int numSoftCommits = 0;
+    /** maxSegments of each optimize, in order */
+    public List<Integer> optimizeMaxSegments = new ArrayList<Integer>();
+
+    /** documents with these ids are rejected */
+    public Set<String> rejectIds = new HashSet<String>();
+    /** if true, every request fails */
+    public boolean down = false;
+    /** the number of requests still to fail with 503 Service Unavailable */
+    public int unavailableRequests = 0;
+    /** the number of requests received, including those that failed */
+    public int numRequests = 0;
+
+    @Override
+    public synchronized NamedList<Object> request(SolrRequest request)
+            throws SolrServerException, IOException
+    {
+        numRequests++;
+        if (down)
+            throw new SolrServerException("Server refused connection");
+        if (unavailableRequests > 0)
+        {
+            unavailableRequests--;
+            throw new SolrException(SolrException.ErrorCode.SERVICE_UNAVAILABLE, "Service Unavailable");
+        }
+
+        if (request instanceof UpdateRequest)
+        {
+            UpdateRequest updateRequest = (UpdateRequest) request;
+            List<SolrInputDocument> docs = updateRequest.getDocuments();
+            if (docs != null && docs.size() > 0)
+            {
+                for (SolrInputDocument doc : docs)
+                {
+                    String id = String.valueOf(doc.getFieldValue("id"));
+                    if (rejectIds.contains(id))
+                        throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, "[doc=" + id + "] missing required fields: title");
+                }
+                numAddRequests++;
+                addRequestSizes.add(docs.size());
+                addCommitWithins.add(updateRequest.getCommitWithin());
+                for (SolrInputDocument doc : docs)
+                    addedIds.add(String.valueOf(doc.getFieldValue("id")));
+            }
+            List<String> deletes = updateRequest.getDeleteById();
+            if (deletes != null && deletes.size() > 0)
+            {
+                deleteRequestSizes.add(deletes.size());
+                deletedIds.addAll(deletes);
+            }
+            if (updateRequest.getAction() == AbstractUpdateRequest.ACTION.COMMIT)
+            {
+                if (updateRequest.getParams().getBool("softCommit", false))
+                    numSoftCommits++;
+                else
+                    numCommits++;
+            }
+            else if (updateRequest.getAction() == AbstractUpdateRequest.ACTION.OPTIMIZE)
+                optimizeMaxSegments.add(updateRequest.getParams().getInt("maxSegments", 1));
+        }
+        return new NamedList<Object>();
+    }
+
+    @Override
+    public void shutdown()
+    {
+        // nothing to shut down
+    }
+}
@@ -0,0 +1,143 @@
+package org.solrmarc.tools;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+import org.marc4j.marc.*;
+
+/**
+ * unit tests for org.solrmarc.tools.FieldSpec, and the MarcUtils methods
+ *  that take a field spec string
+ */
+public class FieldSpecTests
+{
+	private static MarcFactory factory = MarcFactory.newInstance();
+
+	/**
+	 * the parts of a spec are parsed once, and cached by the spec string
+	 */
+@Test
+	public void testParse()
+	{
+		List<FieldSpec> specs = FieldSpec.parse("245ab:008[7-10]:LNK245a:100[a-c]'--'");
+		assertSame(specs, FieldSpec.parse("245ab:008[7-10]:LNK245a:100[a-c]'--'"));
+		assertEquals(4, specs.size());
+
+		FieldSpec spec = specs.get(0);
+		assertEquals("245", spec.getTag());
+		assertFalse(spec.isLinked());
+		assertFalse(spec.hasByteRange());
+		assertTrue(spec.getSubfields().contains('a'));
+		assertTrue(spec.getSubfields().contains('b'));
+		assertFalse(spec.getSubfields().contains('c'));
+
+		spec = specs.get(1);
+		assertEquals("008", spec.getTag());
+		assertTrue(spec.hasByteRange());
+		assertEquals(7, spec.getBeginIx());
+		assertEquals(11, spec.getEndIx());
+
+		spec = specs.get(2);
+		assertEquals("245", spec.getTag());
+		assertTrue(spec.isLinked());
+
+		spec = specs.get(3);
+		assertEquals("100", spec.getTag());
+		assertEquals("--", spec.getSeparator());
+		assertTrue(spec.getSubfields().contains('b'));
+		assertFalse(spec.getSubfields().contains('d'));
+	}
+
+	/**
+	 * getFieldList gets the subfields, byte ranges and linked fields the spec asks for
+	 */
+@Test
+	public void testGetFieldList()
+	{
+		Record record = makeRecord();
+		assertEquals(set("The title :"), MarcUtils.getFieldList(record, "245a"));
+		assertEquals(set("The title : the subtitle /"), MarcUtils.getFieldList(record, "245ab"));
+		assertEquals(set("The title :--the subtitle /"), MarcUtils.getFieldList(record, "245ab'--'"));
+		assertEquals(set("The title : the subtitle /", "Author, A."), MarcUtils.getFieldList(record, "245ab:100a"));
+		assertEquals(set("1999"), MarcUtils.getFieldList(record, "008[7-10]"));
+		assertEquals(set("a"), MarcUtils.getFieldList(record, "000[6]"));
+		assertEquals(set("The title : the subtitle / by A. Author"), MarcUtils.getFieldList(record, "245[a-c]"));
+		assertEquals(set("Vernacular title"), MarcUtils.getFieldList(record, "LNK245a"));
+		assertEquals(set("Vernacular title/ subtitle"), MarcUtils.getFieldList(record, "LNK245ab'/ '"));
+		assertEquals(set(), MarcUtils.getFieldList(record, "650a"));
+		assertEquals(set(), MarcUtils.getFieldList(record, "24"));
+	}
+
+	/**
+	 * the other MarcUtils methods that take a spec string
+	 */
+@Test
+	public void testOtherSpecMethods()
+	{
+		Record record = makeRecord();
+		assertEquals(set("The title : the subtitle"), MarcUtils.getAllSubfields(record, "245[ab]", null));
+		// the same spec with another separator is cached separately
+		assertEquals(set("The title :|the subtitle"), MarcUtils.getAllSubfields(record, "245[ab]", "|"));
+		assertEquals(set("The title : by A. Author"), MarcUtils.getAllAlphaExcept(record, "245b"));
+		assertEquals(set("Vernacular title subtitle"), MarcUtils.getLinkedField(record, "245ab"));
+		assertEquals(set("Vernacular title"), MarcUtils.getLinkedField(record, "245[a]"));
+		assertEquals(set("Vernacular title;subtitle"), MarcUtils.getLinkedFieldValue(record, "245", "ab", ";"));
+		assertEquals(set(), MarcUtils.getLinkedFieldValue(record, "100", "a", null));
+	}
+
+	/**
+	 * subfield sets from code lists, patterns and letters to leave out
+	 */
+@Test
+	public void testSubfieldSets()
+	{
+		FieldSpec.SubfieldSet codes = FieldSpec.SubfieldSet.fromCodes("a6\u0142");
+		assertTrue(codes.contains('a'));
+		assertTrue(codes.contains('6'));
+		assertTrue(codes.contains('\u0142'));
+		assertFalse(codes.contains('b'));
+
+		FieldSpec.SubfieldSet pattern = FieldSpec.SubfieldSet.fromPattern("[a-cx]");
+		assertTrue(pattern.contains('b'));
+		assertTrue(pattern.contains('x'));
+		assertFalse(pattern.contains('d'));
+		assertFalse(pattern.contains('\u0142'));
+
+		FieldSpec.SubfieldSet letters = FieldSpec.SubfieldSet.lettersExcept("b");
+		assertTrue(letters.contains('a'));
+		assertTrue(letters.contains('\u0142'));
+		assertFalse(letters.contains('b'));
+		assertFalse(letters.contains('6'));
+	}
+
+
+	private Record makeRecord()
+	{
+		Record record = factory.newRecord("00000cam a2200000 a 4500");
+		record.addVariableField(factory.newControlField("001", "a123"));
+		record.addVariableField(factory.newControlField("008", "990101s1999    xx            000 0 eng d"));
+		DataField df = factory.newDataField("100", '1', ' ');
+		df.addSubfield(factory.newSubfield('a', "Author, A."));
+		record.addVariableField(df);
+		df = factory.newDataField("245", '1', '0');
+		df.addSubfield(factory.newSubfield('6', "880-01"));
+		df.addSubfield(factory.newSubfield('a', "The title :"));
+		df.addSubfield(factory.newSubfield('b', "the subtitle /"));
+		df.addSubfield(factory.newSubfield('c', "by A. Author"));
+		record.addVariableField(df);
+		df = factory.newDataField("880", '1', '0');
+		df.addSubfield(factory.newSubfield('6', "245-01"));
+		df.addSubfield(factory.newSubfield('a', "Vernacular title"));
+		df.addSubfield(factory.newSubfield('b', "subtitle"));
+		record.addVariableField(df);
+		return record;
+	}
+
+	private Set<String> set(String... values)
+	{
+		return new LinkedHashSet<String>(Arrays.asList(values));
+	}
+
+}
@@ -0,0 +1,81 @@
+package org.solrmarc.tools;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+
+import org.junit.Test;
+import org.marc4j.MarcException;
+import org.marc4j.MarcPermissiveStreamReader;
+import org.marc4j.marc.*;
+import org.solrmarc.AbstractCoreTest;
+
+/**
+ * unit tests for org.solrmarc.tools.MarcXmlSerializer:  it must write the
+ *  same XML as marc4j's MarcXmlWriter
+ */
+public class MarcXmlSerializerTests extends AbstractCoreTest
+{
+	private static MarcFactory factory = MarcFactory.newInstance();
+
+	/**
+	 * the test records are written the same way
+	 */
+@Test
+	public void testSameXmlForRecords()
+			throws IOException
+	{
+		MarcPermissiveStreamReader reader = new MarcPermissiveStreamReader(new FileInputStream(new File(testDataParentPath, "formatRecs.mrc")), true, true, "MARC8");
+		int numRecs = 0;
+		while (reader.hasNext())
+		{
+			Record record = reader.next();
+			numRecs++;
+			assertEquals(MarcXmlSerializer.toXmlWithMarcXmlWriter(record), MarcUtils.getRecordAsMarcXmlStr(record));
+		}
+		assertTrue(numRecs > 0);
+	}
+
+	/**
+	 * characters are escaped the same way in element text and attributes,
+	 *  and empty elements are written the same way
+	 */
+@Test
+	public void testEscaping()
+	{
+		StringBuilder allChars = new StringBuilder();
+		for (char c = 1; c < 0x100; c++)
+			allChars.append(c);
+		allChars.append("\u2028\ufffe\ud83d\ude00 \udc00");
+
+		Record record = factory.newRecord("00000cam a2200000 a 4500");
+		record.addVariableField(factory.newControlField("001", "a<&>\"'1"));
+		record.addVariableField(factory.newControlField("005", ""));
+		DataField df = factory.newDataField("245", '"', '&');
+		df.addSubfield(factory.newSubfield('a', allChars.toString()));
+		df.addSubfield(factory.newSubfield('<', "code"));
+		df.addSubfield(factory.newSubfield('\u0085', "code"));
+		df.addSubfield(factory.newSubfield('\t', ""));
+		record.addVariableField(df);
+		record.addVariableField(factory.newDataField("246", ' ', ' '));
+
+		String xml = MarcXmlSerializer.toXml(record);
+		assertEquals(MarcXmlSerializer.toXmlWithMarcXmlWriter(record), xml);
+		assertTrue(xml, xml.contains("<controlfield tag=\"001\">a&lt;&amp;&gt;\"'1</controlfield><controlfield tag=\"005\"/>"));
+		assertTrue(xml, xml.contains("<subfield code=\"&#9;\"/>"));
+		assertTrue(xml, xml.contains("&#128512; &#56320;"));
+	}
+
+	/**
+	 * a record with an unpaired high surrogate makes MarcXmlWriter throw an
+	 *  exception;  so does MarcXmlSerializer
+	 */
+@Test(expected = MarcException.class)
+	public void testUnpairedSurrogate()
+	{
+		Record record = factory.newRecord("00000cam a2200000 a 4500");
+		record.addVariableField(factory.newControlField("001", "a\ud83d|"));
+		MarcXmlSerializer.toXml(record);
+	}
+
+}
@@ -0,0 +1,164 @@
+package org.solrmarc.tools;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Test;
+import org.marc4j.MarcPermissiveStreamReader;
+import org.marc4j.marc.*;
+import org.marc4j.marc.impl.RecordImpl;
+import org.solrmarc.AbstractCoreTest;
+
+/**
+ * unit tests for org.solrmarc.tools.RecordFieldIndex:  the indexed fields
+ *  must be the same as the fields found by scanning the record
+ */
+public class RecordFieldIndexTests extends AbstractCoreTest
+{
+	private static MarcFactory factory = MarcFactory.newInstance();
+
+@After
+	public void clearIndex()
+	{
+		RecordFieldIndex.clear();
+	}
+
+	/**
+	 * the indexed fields for each tag are the fields Record.getVariableFields(tag) finds
+	 */
+@Test
+	@SuppressWarnings("unchecked")
+	public void testIndexedFields()
+			throws IOException
+	{
+		MarcPermissiveStreamReader reader = new MarcPermissiveStreamReader(new FileInputStream(new File(testDataParentPath, "formatRecs.mrc")), true, true, "MARC8");
+		int numRecs = 0;
+		while (reader.hasNext())
+		{
+			Record record = reader.next();
+			numRecs++;
+			RecordFieldIndex index = RecordFieldIndex.index(record);
+			assertSame(index, RecordFieldIndex.getIndex(record));
+
+			Set<String> tags = new TreeSet<String>();
+			for (VariableField vf : (List<VariableField>) record.getVariableFields())
+				tags.add(vf.getTag());
+			tags.add("999");
+			tags.add("880");
+			for (String tag : tags)
+			{
+				assertEquals(record.getVariableFields(tag), RecordFieldIndex.getFields(record, tag));
+				assertEquals(findLinkedFields(record, tag), RecordFieldIndex.getLinkedFields(record, tag));
+			}
+		}
+		assertTrue(numRecs > 0);
+	}
+
+	/**
+	 * the index is only used for the record it was built for, while the
+	 *  record has the same fields
+	 */
+@Test
+	public void testIndexNotUsed()
+	{
+		Record record = makeRecord();
+		Record otherRecord = makeRecord();
+		RecordFieldIndex.index(record);
+		assertNotNull(RecordFieldIndex.getIndex(record));
+		assertNull(RecordFieldIndex.getIndex(otherRecord));
+		assertEquals(1, RecordFieldIndex.getFields(otherRecord, "245").size());
+
+		DataField df = factory.newDataField("245", '0', '0');
+		df.addSubfield(factory.newSubfield('a', "Another title"));
+		record.addVariableField(df);
+		assertNull(RecordFieldIndex.getIndex(record));
+		assertEquals(2, RecordFieldIndex.getFields(record, "245").size());
+
+		RecordFieldIndex.index(record);
+		assertEquals(2, RecordFieldIndex.getFields(record, "245").size());
+		RecordFieldIndex.clear();
+		assertNull(RecordFieldIndex.getIndex(record));
+	}
+
+	/**
+	 * 880 fields are found by the tag in their linkage subfield
+	 */
+@Test
+	public void testLinkedFields()
+	{
+		Record record = makeRecord();
+		RecordFieldIndex index = RecordFieldIndex.index(record);
+		assertEquals(1, index.getLinkedFields("245").size());
+		assertEquals("Vernacular title", index.getLinkedFields("245").get(0).getSubfield('a').getData());
+		assertEquals(1, index.getLinkedFields("245-01").size());
+		assertEquals(0, index.getLinkedFields("100").size());
+		assertEquals(set("Vernacular title"), MarcUtils.getLinkedField(record, "245a"));
+	}
+
+	/**
+	 * the fields of a record that isn't a LazyFieldsRecord are all indexed in
+	 *  one pass when the index is built, not looked up in the record by tag
+	 */
+@Test
+	public void testIndexedInOnePass()
+	{
+		final int numTagLookups[] = {0};
+		Record record = new RecordImpl()
+		{
+			private static final long serialVersionUID = 1L;
+
+			public List<VariableField> getVariableFields(String tag)
+			{
+				numTagLookups[0]++;
+				return super.getVariableFields(tag);
+			}
+		};
+		for (VariableField vf : makeRecord().getVariableFields())
+			record.addVariableField(vf);
+
+		RecordFieldIndex index = RecordFieldIndex.index(record);
+		assertEquals(1, index.getFields("001").size());
+		assertEquals(1, index.getFields("245").size());
+		assertEquals(0, index.getFields("100").size());
+		assertEquals(1, index.getLinkedFields("245").size());
+		assertEquals(0, numTagLookups[0]);
+	}
+
+
+	@SuppressWarnings("unchecked")
+	private List<DataField> findLinkedFields(Record record, String tag)
+	{
+		List<DataField> result = new ArrayList<DataField>();
+		for (VariableField vf : (List<VariableField>) record.getVariableFields("880"))
+		{
+			Subfield link = ((DataField) vf).getSubfield('6');
+			if (link != null && link.getData().startsWith(tag))
+				result.add((DataField) vf);
+		}
+		return result;
+	}
+
+	private Record makeRecord()
+	{
+		Record record = factory.newRecord("00000cam a2200000 a 4500");
+		record.addVariableField(factory.newControlField("001", "a123"));
+		DataField df = factory.newDataField("245", '1', '0');
+		df.addSubfield(factory.newSubfield('6', "880-01"));
+		df.addSubfield(factory.newSubfield('a', "The title"));
+		record.addVariableField(df);
+		df = factory.newDataField("880", '1', '0');
+		df.addSubfield(factory.newSubfield('6', "245-01"));
+		df.addSubfield(factory.newSubfield('a', "Vernacular title"));
+		record.addVariableField(df);
+		return record;
+	}
+
+	private Set<String> set(String... values)
+	{
+		return new LinkedHashSet<String>(Arrays.asList(values));
+	}
+
+}
@@ -0,0 +1,102 @@
+package org.solrmarc.tools;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+/**
+ * unit tests for org.solrmarc.tools.TranslationMap:  remapping with the
+ *  compiled map must give the same results as Utils.remap with a plain Map
+ */
+public class TranslationMapTests
+{
+	private static final String VALUES[] = {"a", "b", "c", "", "1234-5678", "1234-567X", "x 1234-5678 y", "http://example.com"};
+
+	/**
+	 * exact match maps, with and without defaults
+	 */
+@Test
+	public void testExactMatchMaps()
+	{
+		Map<String, String> map = new LinkedHashMap<String, String>();
+		map.put("a", "Alpha");
+		map.put("b", null);
+		assertSameRemapping(map);
+
+		map.put("__DEFAULT", "Other");
+		assertSameRemapping(map);
+
+		map.remove("__DEFAULT");
+		map.put("", "Empty key default");
+		assertSameRemapping(map);
+
+		map.put("displayRawIfMissing", "true");
+		assertSameRemapping(map);
+	}
+
+	/**
+	 * pattern maps, with replacements that do and don't refer to groups
+	 */
+@Test
+	public void testPatternMaps()
+	{
+		Map<String, String> map = new LinkedHashMap<String, String>();
+		map.put("pattern_0", "^(\\d{4}-\\d{3}[X\\d])$=>$1");
+		assertSameRemapping(map);
+
+		map.put("pattern_1", "\\d{4}=>has number");
+		map.put("pattern_2", "^http=>url");
+		assertSameRemapping(map);
+	}
+
+	/**
+	 * changing the map recompiles it
+	 */
+@Test
+	public void testChangedMap()
+	{
+		TranslationMap map = new TranslationMap();
+		map.put("a", "Alpha");
+		assertNull(map.remap("c", true));
+		assertFalse(map.isPatternMap());
+
+		map.put("__DEFAULT", "Other");
+		assertEquals("Other", map.remap("c", true));
+		assertNull(map.remap("c", false));
+
+		map.put("pattern_0", "^c$=>Charlie");
+		assertTrue(map.isPatternMap());
+		assertEquals("Charlie", map.remap("c", false));
+
+		map.clear();
+		assertNull(map.remap("a", true));
+	}
+
+	/**
+	 * a bad pattern is reported when the map is compiled
+	 */
+@Test(expected = IllegalArgumentException.class)
+	public void testBadPattern()
+	{
+		TranslationMap map = new TranslationMap();
+		map.put("pattern_0", "([a-z]=>$1");
+		map.compile();
+	}
+
+
+	private void assertSameRemapping(Map<String, String> plainMap)
+	{
+		TranslationMap translationMap = new TranslationMap(plainMap);
+		for (boolean allowDefault : new boolean[]{true, false})
+		{
+			for (String value : VALUES)
+				assertEquals("remapping " + value + " with " + plainMap, Utils.remap(value, plainMap, allowDefault), Utils.remap(value, translationMap, allowDefault));
+
+			Set<String> values = new LinkedHashSet<String>(Arrays.asList(VALUES));
+			assertEquals("remapping " + values + " with " + plainMap, Utils.remap(values, plainMap, allowDefault), Utils.remap(values, translationMap, allowDefault));
+		}
+	}
+
+}
@@ -0,0 +1,38 @@
+#! /bin/bash
+# index_sirsi_one_jvm.sh
+# Import all marc files from sirsi full dump into a Solr index  (SearchWorks flavor)
+#  in a single java process:  the files are indexed 4 at a time, sharing the
+#  loaded configuration and the Solr connection, and committed once at the end.
+#  The log has the records indexed from each file.
+
+# take an argument for the name of the log subdirectory
+LOG_SUBDIR=$1
+
+HOMEDIR=/home/blacklight
+SOLRMARC_BASEDIR=$HOMEDIR/solrmarc-sw
+
+RAW_DATA_DIR=/data/sirsi/latest
+
+JAVA_HOME=/usr/lib/jvm/java
+
+# create fresh dist files
+ant -buildfile $SOLRMARC_BASEDIR/build.xml dist_site
+
+# set up the classpath
+DIST_DIR=$SOLRMARC_BASEDIR/dist
+SITE_JAR=$DIST_DIR/StanfordSearchWorksSolrMarc.jar
+CP=$SITE_JAR:$DIST_DIR:$DIST_DIR/lib
+
+# create log directory
+LOG_PARENT_DIR=$RAW_DATA_DIR/logs
+LOG_DIR=$LOG_PARENT_DIR/$LOG_SUBDIR
+mkdir -p $LOG_DIR
+
+# index the files, with a commit at the end;  the wildcard is expanded by solrmarc
+nohup java -Xmx4g -Xms1g -Dsolrmarc.indexing.parallel_files=4 -Dsolr.commit_at_end=true -cp $CP -jar $SITE_JAR "$RAW_DATA_DIR/uni_*.marc" &>$LOG_DIR/log.txt
+
+echo "!! ADD DOR Collections and Course Reserves before putting index into production!!!"
+
+echo "!!! RUN SEARCHWORKS TESTS before putting index into production !!!"
+
+exit 0
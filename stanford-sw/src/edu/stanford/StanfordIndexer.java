@@ -137,7 +137,7 @@ public class StanfordIndexer extends org.solrmarc.index.SolrIndexer
 		f655suba = MarcUtils.getFieldList(record, "655a");
 		f956subu = MarcUtils.getFieldList(record, "956u");
 
-		List<VariableField> list999df = record.getVariableFields("999");
+		List<VariableField> list999df = RecordFieldIndex.getFields(record, "999");
 		has999s = !list999df.isEmpty();
 
 		setId(record);
@@ -854,7 +854,7 @@ public class StanfordIndexer extends org.solrmarc.index.SolrIndexer
 
     	Pattern RESTRICTED_PATTERN = Pattern.compile("available to stanford-affiliated users at:", Pattern.CASE_INSENSITIVE);
 
-        List<VariableField> list856 = record.getVariableFields("856");
+        List<VariableField> list856 = RecordFieldIndex.getFields(record, "856");
         for (VariableField vf : list856)
         {
             DataField df = (DataField) vf;
@@ -1021,7 +1021,7 @@ public class StanfordIndexer extends org.solrmarc.index.SolrIndexer
 	 */
 	public String getPubDate(final Record record)
 	{
-		return PublicationUtils.getPubDate(cf008date1, date260c, record.getVariableFields("264"), id, logger);
+		return PublicationUtils.getPubDate(cf008date1, date260c, RecordFieldIndex.getFields(record, "264"), id, logger);
 	}
 
 	/**
@@ -1047,7 +1047,7 @@ public class StanfordIndexer extends org.solrmarc.index.SolrIndexer
 	 * @return String containing publication date, or null if none
 	 */
 	public String getPubDateSort(final Record record) {
-		return PublicationUtils.getPubDateSort(cf008, date260c, record.getVariableFields("264"));
+		return PublicationUtils.getPubDateSort(cf008, date260c, RecordFieldIndex.getFields(record, "264"));
 	}
 
 	/**
@@ -1063,7 +1063,7 @@ public class StanfordIndexer extends org.solrmarc.index.SolrIndexer
 	 */
 	public Set<String> getPubDateGroups(final Record record)
 	{
-		return PublicationUtils.getPubDateGroups(cf008date1, date260c, record.getVariableFields("264"));
+		return PublicationUtils.getPubDateGroups(cf008date1, date260c, RecordFieldIndex.getFields(record, "264"));
 	}
 
 // Pub Date Methods  --------------  End  --------------------- Pub Date Methods
@@ -1393,7 +1393,7 @@ public class StanfordIndexer extends org.solrmarc.index.SolrIndexer
 	{
 		govDocCats.clear();
 
-		boolean has086 = !record.getVariableFields("086").isEmpty();
+		boolean has086 = !RecordFieldIndex.getFields(record, "086").isEmpty();
 
 		for (Item item : itemSet) {
 			if (item.hasGovDocLoc() || has086